@@ -16,20 +16,48 @@ package ilarkesto.base;
 
 import ilarkesto.core.logging.Log;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A simple cache, where keys are mapped to value objects. When no value-object is assigned to a key, then a
  * create method is called on the user provided factory.
+ * <p>
+ * The cache is thread safe. Concurrent calls of <code>get()</code> for the same missing key call the factory only
+ * once, the other callers wait for its result. By default the cache is unbounded and entries never expire. Bounds
+ * (<code>setMaxSize()</code>, <code>setMaxWeight()</code>) evict the least recently used entries, expiry
+ * (<code>setExpireAfterWrite()</code>, <code>setExpireAfterAccess()</code>) drops outdated entries.
  */
 public class Cache<K, V> {
 
 	private static final Log LOG = Log.get(Cache.class);
 
-	private Map<K, V> cache = new HashMap<K, V>();
+	private final ConcurrentHashMap<K, Node<V>> cache = new ConcurrentHashMap<K, Node<V>>();
+	private final AtomicLong accessClock = new AtomicLong();
+	private final AtomicLong weight = new AtomicLong();
+	private final ReentrantLock evictionLock = new ReentrantLock();
+	private volatile long lastSweepTime = System.currentTimeMillis();
 
 	private Factory<K, V> factory;
+	private volatile int maxSize = -1;
+	private volatile long maxWeight = -1;
+	private volatile Weigher<K, V> weigher;
+	private volatile long expireAfterWrite;
+	private volatile long expireAfterAccess;
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong loadFailureCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private final AtomicLong expirationCount = new AtomicLong();
 
 	public Cache(Factory<K, V> factory) {
 		this.factory = factory;
@@ -42,25 +70,335 @@ public class Cache<K, V> {
 	}
 
 	public void clear() {
-		cache = new HashMap<K, V>();
+		for (Map.Entry<K, Node<V>> entry : cache.entrySet()) {
+			if (cache.remove(entry.getKey(), entry.getValue())) onRemoved(entry.getValue(), null);
+		}
 	}
 
 	public V get(K key) {
-		V value = cache.get(key);
-		if (value == null) {
+		long now = System.currentTimeMillis();
+		Node<V> node = cache.get(key);
+		if (node != null && isExpired(node, now)) {
+			if (cache.remove(key, node)) onRemoved(node, expirationCount);
+			node = null;
+		}
+		if (node == null) {
+			Node<V> created = new Node<V>(now);
+			node = cache.putIfAbsent(key, created);
+			if (node == null) return load(key, created);
+		}
+		if (node.isLoadingInCurrentThread())
+			throw new IllegalStateException("Factory requested the key it is creating: " + key);
+		hitCount.incrementAndGet();
+		node.touch(accessClock.incrementAndGet(), now);
+		return node.await();
+	}
+
+	private V load(K key, Node<V> node) {
+		missCount.incrementAndGet();
+		V value;
+		try {
 			value = factory.create(key);
-			// LOG.debug("Returning new:", key, "->", value);
-			cache.put(key, value);
-			// } else {
-			// LOG.debug("Returning cached:", key, "->", value);
+		} catch (RuntimeException ex) {
+			loadFailureCount.incrementAndGet();
+			cache.remove(key, node);
+			node.fail(ex);
+			throw ex;
+		} catch (Error ex) {
+			loadFailureCount.incrementAndGet();
+			cache.remove(key, node);
+			node.fail(ex);
+			throw ex;
+		}
+		if (value == null) {
+			cache.remove(key, node);
+			node.complete(null, 0, 0);
+			return null;
 		}
+		complete(key, node, value);
 		return value;
 	}
 
+	private void complete(K key, Node<V> node, V value) {
+		Weigher<K, V> weigher = this.weigher;
+		long w = weigher == null ? 1 : weigher.weigh(key, value);
+		node.complete(value, w, accessClock.incrementAndGet());
+		if (node.countWeight()) weight.addAndGet(w);
+		// removed while loading
+		if (cache.get(key) != node) onRemoved(node, null);
+		evictIfNecessary(node.created);
+	}
+
+	/**
+	 * Returns the cached value or <code>null</code>, without calling the factory.
+	 */
+	public V getIfPresent(K key) {
+		Node<V> node = cache.get(key);
+		if (node == null || !node.isLoaded() || isExpired(node, System.currentTimeMillis())) return null;
+		hitCount.incrementAndGet();
+		node.touch(accessClock.incrementAndGet(), System.currentTimeMillis());
+		return node.value;
+	}
+
+	public void put(K key, V value) {
+		if (value == null) {
+			remove(key);
+			return;
+		}
+		Node<V> node = new Node<V>(System.currentTimeMillis());
+		Node<V> old = cache.put(key, node);
+		if (old != null) onRemoved(old, null);
+		complete(key, node, value);
+	}
+
+	public void remove(K key) {
+		Node<V> node = cache.remove(key);
+		if (node != null) onRemoved(node, null);
+	}
+
+	public int size() {
+		return cache.size();
+	}
+
+	private boolean isExpired(Node<V> node, long now) {
+		if (!node.isLoaded()) return false;
+		if (expireAfterWrite > 0 && now - node.created > expireAfterWrite) return true;
+		if (expireAfterAccess > 0 && now - node.lastAccessTime > expireAfterAccess) return true;
+		return false;
+	}
+
+	private void onRemoved(Node<V> node, AtomicLong counter) {
+		if (node.releaseWeight()) weight.addAndGet(-node.weight);
+		if (counter != null && node.isLoaded()) counter.incrementAndGet();
+	}
+
+	private void evictIfNecessary(long now) {
+		boolean overSize = maxSize >= 0 && cache.size() > maxSize;
+		boolean overWeight = maxWeight >= 0 && weight.get() > maxWeight;
+		long expiry = Math.max(expireAfterWrite, expireAfterAccess);
+		boolean sweepExpired = expiry > 0 && now - lastSweepTime > expiry;
+		if (!overSize && !overWeight && !sweepExpired) return;
+		if (!evictionLock.tryLock()) return;
+		try {
+			sweep(now);
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * Drops expired entries and evicts least recently used entries until the cache is at 90% of its bounds, so the
+	 * sweep runs only once per tenth of the capacity.
+	 */
+	private void sweep(long now) {
+		lastSweepTime = now;
+		List<Candidate<K, V>> candidates = new ArrayList<Candidate<K, V>>(cache.size());
+		long totalWeight = 0;
+		for (Map.Entry<K, Node<V>> entry : cache.entrySet()) {
+			Node<V> node = entry.getValue();
+			if (!node.isLoaded()) continue;
+			if (isExpired(node, now)) {
+				if (cache.remove(entry.getKey(), node)) onRemoved(node, expirationCount);
+				continue;
+			}
+			candidates.add(new Candidate<K, V>(entry.getKey(), node));
+			totalWeight += node.weight;
+		}
+
+		int sizeTarget = maxSize < 0 ? Integer.MAX_VALUE : maxSize - maxSize / 10;
+		long weightTarget = maxWeight < 0 ? Long.MAX_VALUE : maxWeight - maxWeight / 10;
+		if (cache.size() <= sizeTarget && totalWeight <= weightTarget) return;
+
+		Collections.sort(candidates, LRU_COMPARATOR);
+		int evicted = 0;
+		for (Candidate<K, V> candidate : candidates) {
+			if (cache.size() <= sizeTarget && weight.get() <= weightTarget) break;
+			if (cache.remove(candidate.key, candidate.node)) {
+				onRemoved(candidate.node, evictionCount);
+				evicted++;
+			}
+		}
+		LOG.debug("Evicted", evicted, "entries");
+	}
+
+	/**
+	 * Maximum number of entries. Negative for unbounded.
+	 */
+	public Cache<K, V> setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		return this;
+	}
+
+	/**
+	 * Maximum sum of the entry weights, determined by the given weigher. Negative for unbounded.
+	 */
+	public Cache<K, V> setMaxWeight(long maxWeight, Weigher<K, V> weigher) {
+		this.weigher = weigher;
+		this.maxWeight = maxWeight;
+		return this;
+	}
+
+	public Cache<K, V> setExpireAfterWrite(long millis) {
+		this.expireAfterWrite = millis;
+		return this;
+	}
+
+	public Cache<K, V> setExpireAfterAccess(long millis) {
+		this.expireAfterAccess = millis;
+		return this;
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	public long getLoadFailureCount() {
+		return loadFailureCount.get();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	public long getExpirationCount() {
+		return expirationCount.get();
+	}
+
+	public double getHitRate() {
+		long hits = hitCount.get();
+		long requests = hits + missCount.get();
+		return requests == 0 ? 1 : (double) hits / requests;
+	}
+
+	public long getWeight() {
+		return weight.get();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + ": " + size() + " entries, hit rate " + Math.round(getHitRate() * 100)
+				+ "%, " + evictionCount + " evictions, " + expirationCount + " expirations";
+	}
+
 	public static interface Factory<K, V> {
 
 		V create(K key);
 
 	}
 
+	public static interface Weigher<K, V> {
+
+		long weigh(K key, V value);
+
+	}
+
+	private static final Comparator<Candidate<?, ?>> LRU_COMPARATOR = new Comparator<Candidate<?, ?>>() {
+
+		@Override
+		public int compare(Candidate<?, ?> a, Candidate<?, ?> b) {
+			return a.tick < b.tick ? -1 : (a.tick == b.tick ? 0 : 1);
+		}
+	};
+
+	/**
+	 * Eviction candidate with a snapshot of the access tick, which keeps sorting stable while other threads touch
+	 * the entries.
+	 */
+	private static class Candidate<K, V> {
+
+		private final K key;
+		private final Node<V> node;
+		private final long tick;
+
+		public Candidate(K key, Node<V> node) {
+			this.key = key;
+			this.node = node;
+			this.tick = node.lastAccessTick;
+		}
+
+	}
+
+	/**
+	 * Cache entry. Created empty by the loading thread, other threads requesting the same key wait until it is
+	 * completed. Its weight is added to the cache weight at most once and subtracted only after it was added, so
+	 * concurrent completion and removal keep the sum exact.
+	 */
+	private static class Node<V> {
+
+		private static final int WEIGHT_PENDING = 0;
+		private static final int WEIGHT_COUNTED = 1;
+		private static final int WEIGHT_RELEASED = 2;
+
+		private final CountDownLatch loaded = new CountDownLatch(1);
+		private final AtomicInteger weightState = new AtomicInteger(WEIGHT_PENDING);
+		private volatile Thread loader = Thread.currentThread();
+		private final long created;
+		private volatile V value;
+		private volatile Throwable failure;
+		private volatile long weight;
+		private volatile long lastAccessTick;
+		private volatile long lastAccessTime;
+
+		public Node(long created) {
+			this.created = created;
+			this.lastAccessTime = created;
+		}
+
+		void complete(V value, long weight, long tick) {
+			this.value = value;
+			this.weight = weight;
+			this.lastAccessTick = tick;
+			loader = null;
+			loaded.countDown();
+		}
+
+		void fail(Throwable failure) {
+			this.failure = failure;
+			loader = null;
+			loaded.countDown();
+		}
+
+		boolean isLoadingInCurrentThread() {
+			return loader == Thread.currentThread();
+		}
+
+		boolean countWeight() {
+			return weightState.compareAndSet(WEIGHT_PENDING, WEIGHT_COUNTED);
+		}
+
+		boolean releaseWeight() {
+			return weightState.getAndSet(WEIGHT_RELEASED) == WEIGHT_COUNTED;
+		}
+
+		boolean isLoaded() {
+			return loaded.getCount() == 0 && failure == null;
+		}
+
+		void touch(long tick, long time) {
+			lastAccessTick = tick;
+			lastAccessTime = time;
+		}
+
+		V await() {
+			boolean interrupted = false;
+			while (true) {
+				try {
+					loaded.await();
+					break;
+				} catch (InterruptedException ex) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) Thread.currentThread().interrupt();
+			if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+			if (failure instanceof Error) throw (Error) failure;
+			return value;
+		}
+
+	}
+
 }
@@ -14,18 +14,25 @@
  */
 package ilarkesto.core.base;
 
-
 public class Uuid {
 
 	private static final char[] CHARS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz"
 			.toCharArray();
 
+	/**
+	 * Source of randomness for all IDs. Defaults to <code>Math.random()</code>, which works everywhere (also in
+	 * GWT). Use <code>ilarkesto.id.ThreadLocalRandomSource.install()</code> on the server to avoid contention on the
+	 * shared <code>Random</code> instance.
+	 */
+	public static RandomSource randomSource = new MathRandomSource();
+
 	public static String create(int len, int radix) {
 		if (radix > CHARS.length) { throw new IllegalArgumentException(); }
+		RandomSource random = randomSource;
 		char[] uuid = new char[len];
 		// Compact form
 		for (int i = 0; i < len; i++) {
-			uuid[i] = CHARS[(int) (Math.random() * radix)];
+			uuid[i] = CHARS[random.nextInt(radix)];
 		}
 		return new String(uuid);
 	}
@@ -34,22 +41,58 @@ public class Uuid {
 	 * Generate a RFC4122, version 4 ID. Example: "92329D39-6F5C-4520-ABFC-AAB64544E172"
 	 */
 	public static String create() {
+		RandomSource random = randomSource;
 		char[] uuid = new char[36];
-		int r;
 
 		// rfc4122 requires these characters
 		uuid[8] = uuid[13] = uuid[18] = uuid[23] = '-';
 		uuid[14] = '4';
 
-		// Fill in random data. At i==19 set the high bits of clock sequence as
+		// Fill in random data, 8 hex digits per random int. At i==19 set the high bits of clock sequence as
 		// per rfc4122, sec. 4.1.5
+		int bits = 0;
+		int remaining = 0;
 		for (int i = 0; i < 36; i++) {
 			if (uuid[i] == 0) {
-				r = (int) (Math.random() * 16);
-				uuid[i] = CHARS[(i == 19) ? (r & 0x3) | 0x8 : r & 0xf];
+				if (remaining == 0) {
+					bits = random.nextInt();
+					remaining = 8;
+				}
+				int r = bits & 0xf;
+				bits >>>= 4;
+				remaining--;
+				uuid[i] = CHARS[(i == 19) ? (r & 0x3) | 0x8 : r];
 			}
 		}
 		return new String(uuid);
 	}
 
+	public static interface RandomSource {
+
+		/**
+		 * 32 random bits.
+		 */
+		int nextInt();
+
+		/**
+		 * Random value between 0 (inclusive) and <code>bound</code> (exclusive).
+		 */
+		int nextInt(int bound);
+
+	}
+
+	public static class MathRandomSource implements RandomSource {
+
+		@Override
+		public int nextInt() {
+			return (int) (long) (Math.random() * 4294967296.0);
+		}
+
+		@Override
+		public int nextInt(int bound) {
+			return (int) (Math.random() * bound);
+		}
+
+	}
+
 }
@@ -24,6 +24,7 @@ public class Log {
 	private static final Log ANONYMOUS = new Log("----- ANONYMOUS ----->");
 	private static final Map<String, Log> LOGGERS = new HashMap<String, Log>();
 	private static boolean debugEnabled = true;
+	private static Level minLevel = Level.DEBUG;
 	private static LogRecordHandler logRecordHandler = new PrintStreamLogRecordHandler(System.err);
 
 	private String name;
@@ -34,10 +35,20 @@ public class Log {
 
 	public void log(Level level, Object... parameters) {
 		if (logRecordHandler == null) return;
-		if (level.isDebug() && !isDebugEnabled()) return;
+		if (!isEnabled(level)) return;
 		logRecordHandler.log(new LogRecord(System.currentTimeMillis(), name, level, parameters));
 	}
 
+	/**
+	 * Indicates if records of the given level are passed to the handler. Check before building expensive
+	 * parameters.
+	 */
+	public boolean isEnabled(Level level) {
+		if (level.ordinal() < minLevel.ordinal()) return false;
+		if (level.isDebug() && !isDebugEnabled()) return false;
+		return true;
+	}
+
 	/**
 	 * Logs an fatal error to the system admin. A fatal error indicates an error that prevents the system from
 	 * working at all.
@@ -67,6 +78,23 @@ public class Log {
 		log(Level.INFO, s);
 	}
 
+	// the fixed arity variants do not create the parameters array when the level is disabled
+
+	public void info(Object s) {
+		if (!isEnabled(Level.INFO)) return;
+		log(Level.INFO, s instanceof Object[] ? (Object[]) s : new Object[] { s });
+	}
+
+	public void info(Object s1, Object s2) {
+		if (!isEnabled(Level.INFO)) return;
+		log(Level.INFO, new Object[] { s1, s2 });
+	}
+
+	public void info(Object s1, Object s2, Object s3) {
+		if (!isEnabled(Level.INFO)) return;
+		log(Level.INFO, new Object[] { s1, s2, s3 });
+	}
+
 	/**
 	 * Indicates if debug is enabled. If it is not, {@link #debug(Object[])} does nothing.
 	 *
@@ -86,6 +114,21 @@ public class Log {
 		log(Level.DEBUG, s);
 	}
 
+	public void debug(Object s) {
+		if (!isEnabled(Level.DEBUG)) return;
+		log(Level.DEBUG, s instanceof Object[] ? (Object[]) s : new Object[] { s });
+	}
+
+	public void debug(Object s1, Object s2) {
+		if (!isEnabled(Level.DEBUG)) return;
+		log(Level.DEBUG, new Object[] { s1, s2 });
+	}
+
+	public void debug(Object s1, Object s2, Object s3) {
+		if (!isEnabled(Level.DEBUG)) return;
+		log(Level.DEBUG, new Object[] { s1, s2, s3 });
+	}
+
 	public static void flush() {
 		logRecordHandler.flush();
 	}
@@ -114,6 +157,17 @@ public class Log {
 		}
 	}
 
+	/**
+	 * Records below this level are discarded before a <code>LogRecord</code> is created.
+	 */
+	public static void setMinLevel(Level minLevel) {
+		Log.minLevel = minLevel;
+	}
+
+	public static Level getMinLevel() {
+		return minLevel;
+	}
+
 	@Deprecated
 	public static void TEST(Object... s) {
 		ANONYMOUS.warn(s);
@@ -23,7 +23,7 @@ import java.util.Set;
 
 public abstract class ACachingEntitiesBackend extends AEntitiesBackend {
 
-	protected EntitiesCache<AEntity> cache = new EntitiesCache<AEntity>();
+	protected EntitiesCache<AEntity> cache = createCache();
 
 	protected abstract void onUpdate(Collection<AEntity> entities, Collection<String> entityIds,
 			Map<String, Map<String, String>> modifiedPropertiesByEntityId, Runnable callback, String transactionText);
@@ -36,6 +36,25 @@ public abstract class ACachingEntitiesBackend extends AEntitiesBackend {
 		cache.removeAll(deletedIds);
 	}
 
+	protected EntitiesCache<AEntity> createCache() {
+		return new EntitiesCache<AEntity>();
+	}
+
+	public void addIndex(AEntityIndex<?> index) {
+		cache.addIndex(index);
+	}
+
+	protected String createQueryStatsInfo() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("\nQueries:\n");
+		sb.append("* index hits: ").append(cache.getIndexHits()).append("\n");
+		sb.append("* scans: ").append(cache.getIndexMisses()).append("\n");
+		for (Map.Entry<String, Integer> entry : cache.getScansByQuery().entrySet()) {
+			sb.append("  * ").append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+		}
+		return sb.toString();
+	}
+
 	@Override
 	public AEntity getById(String id) throws EntityDoesNotExistException {
 		return cache.getById(id);
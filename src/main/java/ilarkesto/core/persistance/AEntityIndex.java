@@ -0,0 +1,74 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.persistance;
+
+import ilarkesto.core.base.Utl;
+
+/**
+ * Declares a secondary index over a property of an entity type. Caches which know the index answer
+ * <code>query(value)</code> by hash lookup instead of testing every entity.
+ *
+ * <pre>
+ * public static final AEntityIndex&lt;Task&gt; PROJECT = new AEntityIndex&lt;Task&gt;(Task.class, &quot;projectId&quot;) {
+ *
+ * 	public Object getValue(Task task) {
+ * 		return task.getProjectId();
+ * 	}
+ * };
+ * </pre>
+ */
+public abstract class AEntityIndex<E extends Entity> {
+
+	private Class<E> type;
+	private String property;
+
+	public AEntityIndex(Class<E> type, String property) {
+		super();
+		this.type = type;
+		this.property = property;
+	}
+
+	public abstract Object getValue(E entity);
+
+	/**
+	 * Value of an entity, for whose type <code>isIndexing()</code> is true.
+	 */
+	@SuppressWarnings("unchecked")
+	Object getValueOfIndexed(Entity entity) {
+		return getValue((E) entity);
+	}
+
+	public IndexedEntityQuery<E> query(Object value) {
+		return new IndexedEntityQuery<E>(this, value);
+	}
+
+	public boolean isIndexing(Class entityType) {
+		return AEntityQuery.isInstanceOf(entityType, type);
+	}
+
+	public Class<E> getType() {
+		return type;
+	}
+
+	public String getProperty() {
+		return property;
+	}
+
+	@Override
+	public String toString() {
+		return Utl.getSimpleName(type) + "." + property;
+	}
+
+}
@@ -14,6 +14,8 @@
  */
 package ilarkesto.core.persistance;
 
+import ilarkesto.core.base.Utl;
+
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -25,8 +27,42 @@ import java.util.Set;
 
 public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 
-	private Map<Class, Map<String, E>> entitiesByTypeById = Persistence.transactionManager
-			.synchronizedMap(new HashMap<Class, Map<String, E>>());
+	private Map<Class, Map<String, E>> entitiesByTypeById = createMap();
+
+	// copied on write, so queries read it without locking
+	private volatile Map<AEntityIndex<?>, IndexData> indexes = new HashMap<AEntityIndex<?>, IndexData>();
+	private long indexHits;
+	private Map<String, Integer> scansByQuery = new HashMap<String, Integer>();
+
+	/**
+	 * Creates the maps for types and entities. Implementations which provide maps with weakly consistent iteration
+	 * should also override <code>snapshot()</code>.
+	 */
+	protected <K, V> Map<K, V> createMap() {
+		return Persistence.transactionManager.synchronizedMap(new HashMap<K, V>());
+	}
+
+	/**
+	 * Provides a collection which can be iterated while the cache is modified concurrently.
+	 */
+	protected <T> Collection<T> snapshot(Collection<T> collection) {
+		return new ArrayList<T>(collection);
+	}
+
+	/**
+	 * Registers an index which is maintained on every add/remove. Already cached entities are indexed immediately,
+	 * under the same lock as add/remove, so no entity is missed.
+	 */
+	public synchronized void addIndex(AEntityIndex<?> index) {
+		if (indexes.containsKey(index)) return;
+		IndexData data = new IndexData(index);
+		for (E entity : getAllAsList()) {
+			if (index.isIndexing(entity.getClass())) data.put(entity);
+		}
+		Map<AEntityIndex<?>, IndexData> newIndexes = new HashMap<AEntityIndex<?>, IndexData>(indexes);
+		newIndexes.put(index, data);
+		indexes = newIndexes;
+	}
 
 	@Override
 	public <C extends Collection<E>> C getAll(C resultCollection) {
@@ -60,16 +96,24 @@ public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 
 	@Override
 	public <C extends Collection<E>> C find(AEntityQuery<E> query, C resultCollection) {
-		HashMap<Class, Map<String, E>> localCopy = new HashMap<Class, Map<String, E>>(entitiesByTypeById);
-		for (Entry<Class, Map<String, E>> entry : localCopy.entrySet()) {
+		IndexData index = getIndexData(query);
+		if (index != null) {
+			for (E entity : index.get(((IndexedEntityQuery) query).getValue())) {
+				// indexed entities may have been modified in a running transaction
+				if (query.test(entity)) resultCollection.add(entity);
+			}
+			return resultCollection;
+		}
+
+		if (!query.getClass().equals(AllByTypeQuery.class)) countScan(query);
+		for (Entry<Class, Map<String, E>> entry : snapshot(entitiesByTypeById.entrySet())) {
 			if (!query.testType(entry.getKey())) continue;
 
 			Map<String, E> entitiesById = entry.getValue();
 			if (query.getClass().equals(AllByTypeQuery.class)) {
 				resultCollection.addAll(entitiesById.values());
 			} else {
-				Collection<E> entities = new ArrayList<E>(entitiesById.values());
-				for (E entity : entities) {
+				for (E entity : snapshot(entitiesById.values())) {
 					if (query.test(entity)) resultCollection.add(entity);
 				}
 			}
@@ -80,13 +124,20 @@ public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 
 	@Override
 	public E findFirst(AEntityQuery query) {
-		HashMap<Class, Map<String, E>> localCopy = new HashMap<Class, Map<String, E>>(entitiesByTypeById);
-		for (Entry<Class, Map<String, E>> entry : localCopy.entrySet()) {
+		IndexData index = getIndexData(query);
+		if (index != null) {
+			for (E entity : index.get(((IndexedEntityQuery) query).getValue())) {
+				if (query.test(entity)) return entity;
+			}
+			return null;
+		}
+
+		if (!query.getClass().equals(AllByTypeQuery.class)) countScan(query);
+		for (Entry<Class, Map<String, E>> entry : snapshot(entitiesByTypeById.entrySet())) {
 			if (!query.testType(entry.getKey())) continue;
 
 			Map<String, E> entitiesById = entry.getValue();
-			Collection<E> entities = new ArrayList<E>(entitiesById.values());
-			for (E entity : entities) {
+			for (E entity : snapshot(entitiesById.values())) {
 				if (query.test(entity)) return entity;
 			}
 		}
@@ -94,14 +145,18 @@ public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 		return null;
 	}
 
-	public void add(E entity) {
+	public synchronized void add(E entity) {
 		Class type = entity.getClass();
 		Map<String, E> entitiesById = entitiesByTypeById.get(type);
 		if (entitiesById == null) {
-			entitiesById = Persistence.transactionManager.synchronizedMap(new HashMap<String, E>());
+			entitiesById = createMap();
 			entitiesByTypeById.put(type, entitiesById);
 		}
 		entitiesById.put(entity.getId(), entity);
+
+		for (IndexData index : indexes.values()) {
+			if (index.index.isIndexing(type)) index.put(entity);
+		}
 	}
 
 	public void addAll(Collection<E> entities) {
@@ -111,8 +166,11 @@ public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 		}
 	}
 
-	public E remove(String entityId) {
+	public synchronized E remove(String entityId) {
 		if (entityId == null) return null;
+		for (IndexData index : indexes.values()) {
+			index.remove(entityId);
+		}
 		for (Map<String, E> entitiesById : entitiesByTypeById.values()) {
 			E removed = entitiesById.remove(entityId);
 			if (removed != null) return removed;
@@ -190,4 +248,121 @@ public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 		return countsByType;
 	}
 
+	private IndexData getIndexData(AEntityQuery query) {
+		if (!(query instanceof IndexedEntityQuery)) return null;
+		IndexData index = indexes.get(((IndexedEntityQuery) query).getIndex());
+		if (index == null) return null;
+		countIndexHit();
+		return index;
+	}
+
+	private void countScan(AEntityQuery query) {
+		countScan(getScanKey(query));
+	}
+
+	/**
+	 * Name under which scans of the query are counted: the query class, or the index for indexed queries. Not the
+	 * query parameters, so the number of counters stays bounded.
+	 */
+	protected String getScanKey(AEntityQuery query) {
+		if (query instanceof IndexedEntityQuery) return "index " + ((IndexedEntityQuery) query).getIndex();
+		return Utl.getSimpleName(query.getClass());
+	}
+
+	/**
+	 * Counts a query answered by an index. Override together with <code>getIndexHits()</code> for cheaper counting
+	 * under concurrency.
+	 */
+	protected void countIndexHit() {
+		synchronized (scansByQuery) {
+			indexHits++;
+		}
+	}
+
+	/**
+	 * Counts a scanning query. Override together with <code>getIndexMisses()</code> and
+	 * <code>getScansByQuery()</code> for cheaper counting under concurrency.
+	 */
+	protected void countScan(String key) {
+		synchronized (scansByQuery) {
+			Integer count = scansByQuery.get(key);
+			scansByQuery.put(key, count == null ? 1 : count + 1);
+		}
+	}
+
+	/**
+	 * Number of queries answered by an index.
+	 */
+	public long getIndexHits() {
+		synchronized (scansByQuery) {
+			return indexHits;
+		}
+	}
+
+	/**
+	 * Number of queries which had to test every entity of the queried types.
+	 */
+	public long getIndexMisses() {
+		synchronized (scansByQuery) {
+			long sum = 0;
+			for (Integer count : scansByQuery.values()) {
+				sum += count;
+			}
+			return sum;
+		}
+	}
+
+	/**
+	 * Counts of scanning queries by query class or index.
+	 */
+	public Map<String, Integer> getScansByQuery() {
+		synchronized (scansByQuery) {
+			return new HashMap<String, Integer>(scansByQuery);
+		}
+	}
+
+	private class IndexData {
+
+		private AEntityIndex<?> index;
+		private Map<Object, Map<String, E>> entitiesByValue = new HashMap<Object, Map<String, E>>();
+		private Map<String, Object> valuesById = new HashMap<String, Object>();
+
+		public IndexData(AEntityIndex<?> index) {
+			super();
+			this.index = index;
+		}
+
+		public synchronized void put(E entity) {
+			String id = entity.getId();
+			Object value = index.getValueOfIndexed(entity);
+			if (valuesById.containsKey(id)) removeFromValue(valuesById.get(id), id);
+			Map<String, E> entitiesById = entitiesByValue.get(value);
+			if (entitiesById == null) {
+				entitiesById = new HashMap<String, E>();
+				entitiesByValue.put(value, entitiesById);
+			}
+			entitiesById.put(id, entity);
+			valuesById.put(id, value);
+		}
+
+		public synchronized void remove(String id) {
+			if (!valuesById.containsKey(id)) return;
+			removeFromValue(valuesById.remove(id), id);
+		}
+
+		private void removeFromValue(Object value, String id) {
+			Map<String, E> entitiesById = entitiesByValue.get(value);
+			if (entitiesById == null) return;
+			entitiesById.remove(id);
+			if (entitiesById.isEmpty()) entitiesByValue.remove(value);
+		}
+
+		public synchronized List<E> get(Object value) {
+			Map<String, E> entitiesById = entitiesByValue.get(value);
+			if (entitiesById == null) return new ArrayList<E>(0);
+			return new ArrayList<E>(entitiesById.values());
+		}
+
+	}
+
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.persistance;
+
+import ilarkesto.core.base.Utl;
+
+/**
+ * Query for entities which have a given value in an indexed property.
+ */
+public final class IndexedEntityQuery<E extends Entity> extends AEntityQuery<E> {
+
+	private AEntityIndex<E> index;
+	private Object value;
+
+	public IndexedEntityQuery(AEntityIndex<E> index, Object value) {
+		super();
+		this.index = index;
+		this.value = value;
+	}
+
+	@Override
+	public boolean test(E entity) {
+		return Utl.equals(index.getValue(entity), value);
+	}
+
+	@Override
+	public Class<E> getType() {
+		return index.getType();
+	}
+
+	public AEntityIndex<E> getIndex() {
+		return index;
+	}
+
+	public Object getValue() {
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return index + "=" + value;
+	}
+
+}
@@ -14,19 +14,14 @@
  */
 package ilarkesto.di;
 
-import ilarkesto.base.Beans;
-import ilarkesto.base.Reflect;
 import ilarkesto.core.logging.Log;
-import ilarkesto.core.scope.In;
 
-import java.lang.annotation.Annotation;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Set;
 
 /**
@@ -77,61 +72,21 @@ public class Autowire {
 	 * @param objectStringMapper optional
 	 * @return the given <code>bean</code>
 	 */
-	public static <T> T autowire(T bean, final BeanProvider beanProvider, final ObjectStringMapper objectStringMapper) {
-
-		final Set<String> availableBeanNames = beanProvider.beanNames();
-		Class beanClass = bean.getClass();
-
-		List<Method> setters = Reflect.getSetters(beanClass);
-		for (Method setter : setters) {
-			String propertyName = Reflect.getPropertyNameFromSetter(setter);
-			if (setter != null) {
-				if (setter.getAnnotation(AutowireHostile.class) != null) continue;
-				if (availableBeanNames.contains(propertyName)) {
-					Object value = beanProvider.getBean(propertyName);
-					invokeSetter(bean, setter, value, objectStringMapper);
-				} else if ("beanProvider".equals(propertyName)) {
-					invokeSetter(bean, setter, beanProvider, objectStringMapper);
-				}
-			}
-		}
-
-		// TODO create beanless annotation processor in Reflect.java
-		Beans.processAnnotations(bean, new Beans.FieldAnnotationHandler() {
-
-			@Override
-			public void handle(Annotation annotation, Field field, Object object) {
-				if (!(annotation instanceof In)) return;
-				String name = field.getName();
-				if (!availableBeanNames.contains(name)) return;
-				field.setAccessible(true);
-				Object value = beanProvider.getBean(name);
-				Class paramType = field.getType();
-				try {
-					if (objectStringMapper != null && value instanceof String
-							&& objectStringMapper.isTypeSupported(paramType)) {
-						value = objectStringMapper.stringToObject((String) value, paramType);
-					} else {
-						value = convertType(paramType, value);
-					}
-					field.set(object, value);
-				} catch (Exception ex) {
-					String valueStr = value == null ? "<" + value + ">" : value.getClass().getSimpleName() + ": <"
-							+ value + ">";
-					throw new RuntimeException("Setting field " + object.getClass().getSimpleName() + "." + name
-							+ " to " + valueStr + " failed.", ex);
-				}
-			}
-		});
-
-		return bean;
+	public static <T> T autowire(T bean, BeanProvider beanProvider, ObjectStringMapper objectStringMapper) {
+		return AutowirePlan.get(bean.getClass()).apply(bean, beanProvider, objectStringMapper);
 	}
 
 	// --- helper ---
 
 	private static void invokeSetter(Object bean, Method method, Object value, ObjectStringMapper objectStringMapper) {
+		Class[] types = method.getParameterTypes();
+		invokeSetter(bean, method, types.length > 0 ? types[0] : null, value, objectStringMapper);
+	}
+
+	static void invokeSetter(Object bean, Method method, Class paramType, Object value,
+			ObjectStringMapper objectStringMapper) {
 		try {
-			method.invoke(bean, createWriteMethodArguments(method, value, objectStringMapper));
+			method.invoke(bean, createWriteMethodArguments(paramType, value, objectStringMapper));
 		} catch (Throwable ex) {
 			String valueType = value == null ? "<null>" : value.getClass().getName();
 			throw new RuntimeException("Invoking setter '" + method.getDeclaringClass().getSimpleName() + "."
@@ -140,21 +95,15 @@ public class Autowire {
 		}
 	}
 
-	private static Object[] createWriteMethodArguments(Method method, Object value,
+	private static Object[] createWriteMethodArguments(Class paramType, Object value,
 			ObjectStringMapper objectStringMapper) throws IllegalAccessException, ClassCastException {
 		try {
-			if (value != null) {
-				Class[] types = method.getParameterTypes();
-				if (types != null && types.length > 0) {
-					Class paramType = types[0];
-					if (!paramType.isAssignableFrom(value.getClass())) {
-						if (objectStringMapper != null && value instanceof String
-								&& objectStringMapper.isTypeSupported(paramType)) {
-							value = objectStringMapper.stringToObject((String) value, paramType);
-						} else {
-							value = convertType(paramType, value);
-						}
-					}
+			if (value != null && paramType != null && !paramType.isAssignableFrom(value.getClass())) {
+				if (objectStringMapper != null && value instanceof String
+						&& objectStringMapper.isTypeSupported(paramType)) {
+					value = objectStringMapper.stringToObject((String) value, paramType);
+				} else {
+					value = convertType(paramType, value);
 				}
 			}
 			Object[] answer = { value };
@@ -166,6 +115,26 @@ public class Autowire {
 		}
 	}
 
+	static void setField(Object bean, Field field, Object value, ObjectStringMapper objectStringMapper) {
+		Class paramType = field.getType();
+		try {
+			if (!paramType.isInstance(value)) {
+				if (objectStringMapper != null && value instanceof String
+						&& objectStringMapper.isTypeSupported(paramType)) {
+					value = objectStringMapper.stringToObject((String) value, paramType);
+				} else {
+					value = convertType(paramType, value);
+				}
+			}
+			field.set(bean, value);
+		} catch (Exception ex) {
+			String valueStr = value == null ? "<" + value + ">" : value.getClass().getSimpleName() + ": <" + value
+					+ ">";
+			throw new RuntimeException("Setting field " + bean.getClass().getSimpleName() + "." + field.getName()
+					+ " to " + valueStr + " failed.", ex);
+		}
+	}
+
 	private static Object convertType(Class newType, Object value) throws InstantiationException,
 			IllegalAccessException, IllegalArgumentException, InvocationTargetException {
 
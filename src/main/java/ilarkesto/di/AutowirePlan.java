@@ -0,0 +1,174 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.di;
+
+import ilarkesto.base.Reflect;
+import ilarkesto.core.scope.In;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The injection points of a class, resolved once: setters (without <code>@AutowireHostile</code>) and
+ * <code>@In</code> fields, in the order <code>Autowire.autowire()</code> applies them. Plans are cached per class,
+ * so autowireing an object only checks the available bean names and calls the setters.
+ *
+ * @author wko
+ */
+public final class AutowirePlan {
+
+	private static final ConcurrentMap<Class, AutowirePlan> plans = new ConcurrentHashMap<Class, AutowirePlan>();
+
+	public static AutowirePlan get(Class type) {
+		AutowirePlan plan = plans.get(type);
+		if (plan != null) return plan;
+		plan = new AutowirePlan(type);
+		AutowirePlan existing = plans.putIfAbsent(type, plan);
+		return existing != null ? existing : plan;
+	}
+
+	private final Class type;
+	private final SetterInjection[] setters;
+	private final FieldInjection[] fields;
+
+	private AutowirePlan(Class type) {
+		this.type = type;
+
+		List<SetterInjection> setterList = new ArrayList<SetterInjection>();
+		for (Method setter : Reflect.getSetters(type)) {
+			if (setter.getAnnotation(AutowireHostile.class) != null) continue;
+			setterList.add(new SetterInjection(Reflect.getPropertyNameFromSetter(setter), setter));
+		}
+		setters = setterList.toArray(new SetterInjection[setterList.size()]);
+
+		List<FieldInjection> fieldList = new ArrayList<FieldInjection>();
+		collectFields(type, fieldList);
+		fields = fieldList.toArray(new FieldInjection[fieldList.size()]);
+	}
+
+	// same traversal as Beans.processAnnotations()
+	private static void collectFields(Class<?> clazz, List<FieldInjection> ret) {
+		Field[] declaredFields = clazz.getDeclaredFields();
+		for (int i = declaredFields.length - 1; i >= 0; i--) {
+			Annotation[] annotations = declaredFields[i].getAnnotations();
+			for (Annotation annotation : annotations) {
+				if (!(annotation instanceof In)) continue;
+				Field field = declaredFields[i];
+				field.setAccessible(true);
+				ret.add(new FieldInjection(field));
+			}
+		}
+
+		Class<?> supa = clazz.getSuperclass();
+		for (Class<?> iface : clazz.getInterfaces()) {
+			collectFields(iface, ret);
+		}
+		if (supa != null && !supa.equals(Object.class)) collectFields(supa, ret);
+	}
+
+	public <T> T apply(T bean, BeanProvider beanProvider, ObjectStringMapper objectStringMapper) {
+		Set<String> availableBeanNames = beanProvider.beanNames();
+
+		for (SetterInjection setter : setters) {
+			if (availableBeanNames.contains(setter.name)) {
+				Object value = beanProvider.getBean(setter.name);
+				Autowire.invokeSetter(bean, setter.method, setter.paramType, value, objectStringMapper);
+			} else if ("beanProvider".equals(setter.name)) {
+				Autowire.invokeSetter(bean, setter.method, setter.paramType, beanProvider, objectStringMapper);
+			}
+		}
+
+		for (FieldInjection field : fields) {
+			if (!availableBeanNames.contains(field.name)) continue;
+			Object value = beanProvider.getBean(field.name);
+			Autowire.setField(bean, field.field, value, objectStringMapper);
+		}
+
+		return bean;
+	}
+
+	public Class getType() {
+		return type;
+	}
+
+	public List<Method> getSetters() {
+		List<Method> ret = new ArrayList<Method>(setters.length);
+		for (SetterInjection setter : setters) {
+			ret.add(setter.method);
+		}
+		return Collections.unmodifiableList(ret);
+	}
+
+	public List<Field> getFields() {
+		List<Field> ret = new ArrayList<Field>(fields.length);
+		for (FieldInjection field : fields) {
+			ret.add(field.field);
+		}
+		return Collections.unmodifiableList(ret);
+	}
+
+	@Override
+	public String toString() {
+		return type.getSimpleName() + " setters:" + Arrays.toString(setters) + " fields:" + Arrays.toString(fields);
+	}
+
+	private static class SetterInjection {
+
+		private final String name;
+		private final Method method;
+		private final Class paramType;
+
+		public SetterInjection(String name, Method method) {
+			this.name = name;
+			this.method = method;
+			this.paramType = method.getParameterTypes()[0];
+			try {
+				method.setAccessible(true);
+			} catch (RuntimeException ex) {
+				// not accessible, invoked with access checks
+			}
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	private static class FieldInjection {
+
+		private final String name;
+		private final Field field;
+
+		public FieldInjection(Field field) {
+			this.name = field.getName();
+			this.field = field;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+}
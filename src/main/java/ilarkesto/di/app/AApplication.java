@@ -31,6 +31,7 @@ import ilarkesto.core.persistance.SingletonTransactionManager;
 import ilarkesto.core.time.DateAndTime;
 import ilarkesto.core.time.TimePeriod;
 import ilarkesto.di.Context;
+import ilarkesto.id.ThreadLocalRandomSource;
 import ilarkesto.integration.xstream.XStreamSerializer;
 import ilarkesto.io.AFileStorage;
 import ilarkesto.io.ExclusiveFileLock;
@@ -47,6 +48,7 @@ import ilarkesto.persistence.Serializer;
 import ilarkesto.persistence.ThreadlocalTransactionManager;
 import ilarkesto.properties.FilePropertiesStore;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileFilter;
 import java.util.Map;
@@ -157,6 +159,7 @@ public abstract class AApplication {
 			}
 
 			DefaultSynchronizer.install();
+			ThreadLocalRandomSource.install();
 
 			try {
 				getApplicationConfig();
@@ -295,6 +298,14 @@ public abstract class AApplication {
 					if (!tasks.isEmpty()) {
 						log.warn("Aborting tasks on shutdown failed:", tasks);
 					}
+					if (Persistence.backend instanceof Closeable) {
+						// flush pending writes, like queued git commits
+						try {
+							((Closeable) Persistence.backend).close();
+						} catch (Exception ex) {
+							log.error("Closing entities backend failed:", ex);
+						}
+					}
 					if (entityStore != null) entityStore.lock();
 					shutdown = true;
 
@@ -14,12 +14,14 @@
  */
 package ilarkesto.id;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class CountingIdGenerator implements IdGenerator {
 
-    private int count;
+    private final AtomicInteger count = new AtomicInteger();
 
-    public synchronized String generateId() {
-        return prefix + (++count);
+    public String generateId() {
+        return prefix + count.incrementAndGet();
     }
 
     // --- dependencies ---
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.id;
+
+import ilarkesto.core.base.Uuid;
+import ilarkesto.core.base.Uuid.RandomSource;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Random source without shared state between threads. Each thread runs its own SplitMix64 sequence. The seeds of
+ * the threads are split from one securely seeded root sequence, so threads never produce the same values.
+ */
+public class ThreadLocalRandomSource implements RandomSource {
+
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	private static final AtomicLong seeder = new AtomicLong(new SecureRandom().nextLong());
+
+	private final ThreadLocal<long[]> state = new ThreadLocal<long[]>() {
+
+		@Override
+		protected long[] initialValue() {
+			return new long[] { mix(seeder.addAndGet(GOLDEN_GAMMA)) ^ System.nanoTime() };
+		}
+	};
+
+	public static void install() {
+		Uuid.randomSource = new ThreadLocalRandomSource();
+	}
+
+	public long nextLong() {
+		long[] s = state.get();
+		s[0] += GOLDEN_GAMMA;
+		return mix(s[0]);
+	}
+
+	@Override
+	public int nextInt() {
+		return (int) (nextLong() >>> 32);
+	}
+
+	@Override
+	public int nextInt(int bound) {
+		if (bound <= 0) throw new IllegalArgumentException("bound must be positive: " + bound);
+		// multiply-shift maps 31 random bits to [0, bound)
+		return (int) (((nextLong() >>> 33) * bound) >>> 31);
+	}
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.id;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates k-sortable IDs: IDs created later sort after earlier ones (also as strings), so new entities cluster in
+ * file listings and indexes. An ID consists of 11 characters for the creation time in milliseconds plus a counter
+ * within the millisecond, followed by random characters against collisions between processes. Lock free.
+ */
+public class TimeOrderedIdGenerator implements IdGenerator {
+
+	// ascending in ASCII order, so lexicographic order matches numeric order
+	private static final char[] CHARS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz"
+			.toCharArray();
+
+	private static final int TIME_LENGTH = 11;
+	private static final int COUNTER_BITS = 16;
+
+	private final AtomicLong lastTimestamp = new AtomicLong();
+	private final ThreadLocalRandomSource random = new ThreadLocalRandomSource();
+
+	private String prefix;
+	private int randomLength;
+
+	public TimeOrderedIdGenerator(String prefix, int randomLength) {
+		this.prefix = prefix == null ? "" : prefix;
+		this.randomLength = randomLength;
+	}
+
+	public TimeOrderedIdGenerator() {
+		this(null, 10);
+	}
+
+	@Override
+	public String generateId() {
+		long timestamp = nextTimestamp();
+		char[] id = new char[TIME_LENGTH + randomLength];
+		for (int i = TIME_LENGTH - 1; i >= 0; i--) {
+			id[i] = CHARS[(int) (timestamp % CHARS.length)];
+			timestamp /= CHARS.length;
+		}
+		for (int i = TIME_LENGTH; i < id.length; i++) {
+			id[i] = CHARS[random.nextInt(CHARS.length)];
+		}
+		return prefix + new String(id);
+	}
+
+	/**
+	 * Current time shifted by the counter bits, strictly increasing within this generator. When more than 65536 IDs
+	 * are generated within a millisecond, the timestamp runs ahead of the clock until it catches up.
+	 */
+	private long nextTimestamp() {
+		long now = System.currentTimeMillis() << COUNTER_BITS;
+		while (true) {
+			long last = lastTimestamp.get();
+			long next = now > last ? now : last + 1;
+			if (lastTimestamp.compareAndSet(last, next)) return next;
+		}
+	}
+
+	public static long getTime(String id, int prefixLength) {
+		long value = 0;
+		for (int i = prefixLength; i < prefixLength + TIME_LENGTH; i++) {
+			char c = id.charAt(i);
+			int digit = c <= '9' ? c - '0' : (c <= 'Z' ? c - 'A' + 10 : c - 'a' + 36);
+			value = value * CHARS.length + digit;
+		}
+		return value >>> COUNTER_BITS;
+	}
+
+}
@@ -32,7 +32,11 @@ import java.net.MalformedURLException;
 import java.net.ProtocolException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 public class CouchDb extends AJsonDb {
 
@@ -72,6 +76,48 @@ public class CouchDb extends AJsonDb {
 		doHttpRequest(id, "PUT", document.toFormatedString());
 	}
 
+	@Override
+	protected List<JsonObject> loadDocumentsBatch(List<String> ids) {
+		log.debug("Loading documents:", ids.size());
+		JsonObject request = new JsonObject();
+		request.put("keys", ids);
+		JsonObject response = JsonObject.parse(doHttpRequest("_all_docs?include_docs=true", "POST",
+			request.toString()));
+
+		Map<String, JsonObject> documentsById = new HashMap<String, JsonObject>();
+		for (JsonObject row : response.getArrayOfObjects("rows")) {
+			JsonObject document = row.getObject("doc");
+			if (document != null) documentsById.put(row.getString("key"), document);
+		}
+
+		List<JsonObject> documents = new ArrayList<JsonObject>(ids.size());
+		for (String id : ids) {
+			documents.add(documentsById.get(id));
+		}
+		return documents;
+	}
+
+	@Override
+	public void saveDocuments(Collection<JsonObject> documents) {
+		if (documents.isEmpty()) return;
+		log.info("Saving documents:", documents.size());
+		JsonObject request = new JsonObject();
+		request.put("docs", new ArrayList<JsonObject>(documents));
+		// response is an array, one entry per document
+		String response = doHttpRequest("_bulk_docs", "POST", request.toString());
+		List<JsonObject> results = JsonObject.parse("{\"results\":" + response + "}").getArrayOfObjects("results");
+		Iterator<JsonObject> iterator = documents.iterator();
+		for (JsonObject result : results) {
+			JsonObject document = iterator.next();
+			String error = result.getString("error");
+			if (error != null)
+				throw new JsonDbException("Saving document " + result.getString("id") + " failed: " + error + " "
+						+ result.getString("reason"), null);
+			document.put("_id", result.getString("id"));
+			document.put("_rev", result.getString("rev"));
+		}
+	}
+
 	@Override
 	public void deleteDocument(JsonObject document) {
 		String id = getId(document);
@@ -95,6 +141,7 @@ public class CouchDb extends AJsonDb {
 			throw new JsonDbException("Connecting failed:" + urlString, ex);
 		}
 		connection.setDoOutput(true);
+		if (content != null) connection.setRequestProperty("Content-Type", "application/json");
 		try {
 			connection.setRequestMethod(method);
 		} catch (ProtocolException ex) {
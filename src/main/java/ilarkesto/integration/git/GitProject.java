@@ -88,6 +88,22 @@ public class GitProject extends AScmProject {
 		exec(params.toArray(new String[params.size()]));
 	}
 
+	/**
+	 * Removes the files from the index, files which are not tracked are ignored.
+	 */
+	public void removeFromIndex(List<File> files) {
+		List<String> params = new ArrayList<String>(files.size() + 4);
+		params.add("rm");
+		params.add("--cached");
+		params.add("--ignore-unmatch");
+		params.add("--quiet");
+		params.add("--");
+		for (File file : files) {
+			params.add(file.getAbsolutePath());
+		}
+		exec(params);
+	}
+
 	public void addAll() {
 		exec("add", "--all");
 	}
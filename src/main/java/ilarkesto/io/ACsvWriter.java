@@ -17,7 +17,6 @@ package ilarkesto.io;
 import ilarkesto.core.base.Str;
 import ilarkesto.core.logging.Log;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -78,13 +77,14 @@ public abstract class ACsvWriter<R> {
 	public final void write(Writer out, char separator) {
 		CsvWriter csv = new CsvWriter(out);
 		csv.setSeparator(separator);
+		csv.setAutoFlush(false);
 		write(csv);
 	}
 
 	public final void write(File file, String charset, char separator) throws IOException {
 		log.info("Writing", file.getAbsolutePath());
 		IO.createDirectory(file.getParentFile());
-		write(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), charset)), separator);
+		write(new OutputStreamWriter(new FileOutputStream(file), charset), separator);
 	}
 
 	public final void write(File file) throws IOException {
@@ -15,17 +15,16 @@
 package ilarkesto.io;
 
 import ilarkesto.concurrent.ALoopTask;
+import ilarkesto.io.FileChangeFeed.FileChange;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.FileSystems;
-import java.nio.file.WatchKey;
-import java.nio.file.WatchService;
+import java.util.List;
 
 public abstract class AFileChangeWatchTask extends ALoopTask {
 
 	private File root;
-	private WatchService watcher;
+	private FileChangeFeed feed;
 	private long sleepUntilChangeNotivication = 1000;
 
 	boolean first = true;
@@ -37,21 +36,25 @@ public abstract class AFileChangeWatchTask extends ALoopTask {
 	}
 
 	public boolean isOffline() {
-		return watcher == null;
+		return feed == null;
 	}
 
 	protected void onFirstChange() {
 		onChange();
 	}
 
-	private void connect() {
+	/**
+	 * Called with the coalesced changes of a burst. Override to process only the changed files.
+	 */
+	protected void onChanges(List<FileChange> changes) {
+		onChange();
+	}
 
+	private void connect() {
 		try {
-			watcher = FileSystems.getDefault().newWatchService();
-			NIO.registerDirectoryTreeForAllChanges(watcher, root);
+			feed = new FileChangeFeed(root);
 		} catch (IOException ex) {
-			closeQuiet(watcher);
-			watcher = null;
+			feed = null;
 			log.info("Connecting failed. Offline:", root.getAbsolutePath(), ex);
 			return;
 		}
@@ -66,12 +69,6 @@ public abstract class AFileChangeWatchTask extends ALoopTask {
 		}
 	}
 
-	private void closeQuiet(WatchService watcher) {
-		try {
-			watcher.close();
-		} catch (IOException ex) {}
-	}
-
 	@Override
 	protected void iteration() throws InterruptedException {
 		if (isOffline()) connect();
@@ -80,43 +77,28 @@ public abstract class AFileChangeWatchTask extends ALoopTask {
 			return;
 		}
 
-		WatchKey key = watcher.take();
-		reset(key);
-		if (isOffline()) return;
+		if (!root.exists()) {
+			log.info("Root removed. Offline:", root);
+			feed.close();
+			feed = null;
+			return;
+		}
 
-		log.info("CHANGE");
+		List<FileChange> changes = feed.take(1000, sleepUntilChangeNotivication);
+		if (changes.isEmpty()) return;
 
-		if (sleepUntilChangeNotivication > 0) {
-			sleep(sleepUntilChangeNotivication);
-			key = watcher.poll();
-			if (key != null) {
-				reset(key);
-			}
-		}
+		log.info("CHANGE:", changes.size(), "files");
 
 		if (isAbortRequested()) return;
 
-		onChange();
+		onChanges(changes);
 	}
 
-	private void reset(WatchKey key) {
-		if (isOffline()) return;
-
-		key.pollEvents();
-		if (!key.reset()) {
-			log.info("Reset failed. Offline:", root);
-			closeQuiet(watcher);
-			watcher = null;
-			return;
-		}
-		try {
-			NIO.registerDirectoryTreeForAllChanges(watcher, root);
-		} catch (IOException ex) {
-			log.info("Reset failed. Offline:", root, ex);
-			closeQuiet(watcher);
-			watcher = null;
-			return;
-		}
+	@Override
+	protected void onError(Throwable ex) throws Throwable {
+		super.onError(ex);
+		if (feed != null) feed.close();
+		feed = null;
 	}
 
 }
@@ -7,8 +7,12 @@ import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.Iterator;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 public class Awt {
 
@@ -77,6 +81,42 @@ public class Awt {
 		return image;
 	}
 
+	/**
+	 * Loads an image, skipping pixels while decoding, so the shorter side is not smaller than
+	 * <code>minShortSide</code>. Large images are decoded with a fraction of the memory and CPU of
+	 * <code>loadImage()</code>.
+	 */
+	public static BufferedImage loadImageSubsampled(File file, int minShortSide) {
+		ImageInputStream in;
+		try {
+			in = ImageIO.createImageInputStream(file);
+		} catch (IOException ex) {
+			throw new RuntimeException("Reading image failed: " + file, ex);
+		}
+		if (in == null) throw new RuntimeException("Reading image failed: " + file);
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if (!readers.hasNext()) throw new RuntimeException("Unsupported image format.");
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(in, true, true);
+				int shortSide = Math.min(reader.getWidth(0), reader.getHeight(0));
+				int subsampling = Math.max(1, shortSide / Math.max(1, minShortSide));
+				ImageReadParam param = reader.getDefaultReadParam();
+				if (subsampling > 1) param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				return reader.read(0, param);
+			} finally {
+				reader.dispose();
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Reading image failed: " + file, ex);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException ex) {}
+		}
+	}
+
 	public static BufferedImage loadImage(byte[] data) {
 		BufferedImage image;
 		try {
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io;
+
+import ilarkesto.core.time.Date;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binds columns of <code>CsvRecord</code>s to fields of typed objects. Columns are mapped explicitly by index or by
+ * matching a header record against the field names. Supported field types: String, primitives and their wrappers,
+ * BigDecimal, enums and <code>ilarkesto.core.time.Date</code>. Empty fields leave the field untouched.
+ */
+public class CsvMapper<T> {
+
+	private Class<T> type;
+	private List<Binding> bindings = new ArrayList<Binding>();
+
+	public CsvMapper(Class<T> type) {
+		this.type = type;
+	}
+
+	public CsvMapper<T> map(int column, String fieldName) {
+		Field field = getField(fieldName);
+		if (field == null) throw new IllegalArgumentException("Field does not exist: " + type.getName() + "." + fieldName);
+		bindings.add(new Binding(column, field));
+		return this;
+	}
+
+	/**
+	 * Maps each header to the field with the same name (ignoring case). Headers without a matching field are ignored.
+	 */
+	public CsvMapper<T> mapHeaders(CsvRecord headers) {
+		for (int i = 0; i < headers.size(); i++) {
+			String header = headers.getString(i);
+			if (header == null) continue;
+			Field field = getField(header.trim());
+			if (field != null) bindings.add(new Binding(i, field));
+		}
+		return this;
+	}
+
+	public T map(CsvRecord record) {
+		T object;
+		try {
+			object = type.getConstructor().newInstance();
+		} catch (Exception ex) {
+			throw new RuntimeException("Instantiating " + type.getName() + " failed", ex);
+		}
+		for (Binding binding : bindings) {
+			if (record.isEmpty(binding.column)) continue;
+			try {
+				binding.field.set(object, convert(record, binding.column, binding.field.getType()));
+			} catch (Exception ex) {
+				throw new RuntimeException("Mapping column " + binding.column + " to " + binding.field.getName()
+						+ " failed: " + record.getString(binding.column), ex);
+			}
+		}
+		return object;
+	}
+
+	/**
+	 * Reads and maps all remaining records of the parser.
+	 */
+	public List<T> readAll(CsvParser parser) {
+		List<T> ret = new ArrayList<T>();
+		CsvRecord record;
+		while ((record = parser.nextRecordView()) != null) {
+			ret.add(map(record));
+		}
+		return ret;
+	}
+
+	protected Object convert(CsvRecord record, int column, Class<?> fieldType) {
+		if (fieldType == String.class) return record.getString(column);
+		if (fieldType == int.class || fieldType == Integer.class) return record.getInt(column);
+		if (fieldType == long.class || fieldType == Long.class) return record.getLong(column);
+		if (fieldType == double.class || fieldType == Double.class) return record.getDouble(column);
+		if (fieldType == float.class || fieldType == Float.class) return (float) record.getDouble(column);
+		if (fieldType == short.class || fieldType == Short.class) return (short) record.getInt(column);
+		if (fieldType == boolean.class || fieldType == Boolean.class) {
+			String value = record.getString(column).trim();
+			return "1".equals(value) || "true".equalsIgnoreCase(value) || "yes".equalsIgnoreCase(value);
+		}
+		if (fieldType == char.class || fieldType == Character.class) return record.get(column).charAt(0);
+		if (fieldType == BigDecimal.class) return new BigDecimal(record.getString(column).trim());
+		if (fieldType == Date.class) return new Date(record.getString(column).trim());
+		if (fieldType.isEnum()) return getEnumConstant(fieldType, record.getString(column).trim());
+		throw new IllegalStateException("Unsupported field type: " + fieldType.getName());
+	}
+
+	private Field getField(String name) {
+		Class<?> c = type;
+		while (c != null && c != Object.class) {
+			for (Field field : c.getDeclaredFields()) {
+				if (Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers())) continue;
+				if (!field.getName().equalsIgnoreCase(name)) continue;
+				field.setAccessible(true);
+				return field;
+			}
+			c = c.getSuperclass();
+		}
+		return null;
+	}
+
+	private static Object getEnumConstant(Class<?> enumType, String name) {
+		for (Object constant : enumType.getEnumConstants()) {
+			if (((Enum<?>) constant).name().equals(name)) return constant;
+		}
+		throw new IllegalArgumentException("No enum constant " + enumType.getName() + "." + name);
+	}
+
+	private static class Binding {
+
+		private final int column;
+		private final Field field;
+
+		public Binding(int column, Field field) {
+			this.column = column;
+			this.field = field;
+		}
+
+	}
+
+}
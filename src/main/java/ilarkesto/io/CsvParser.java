@@ -14,8 +14,6 @@
  */
 package ilarkesto.io;
 
-import java.io.BufferedReader;
-import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -24,237 +22,192 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
-import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Parses CSV records. The input is read in chunks into a char buffer and fields are collected in a reusable
+ * <code>CsvRecord</code>, so <code>nextRecordView()</code> does not allocate per field or record.
+ */
 public final class CsvParser {
 
-	private boolean isSeperator(int c) {
-		return c == separator;
-	}
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private char[] buffer = new char[BUFFER_SIZE];
+	private int pos;
+	private int limit;
+
+	private CsvRecord record = new CsvRecord();
 
 	private boolean isEOL(int c) {
 		return c == 13 || c == 10 || c == -1;
 	}
 
 	public List<String> nextRecord() {
-		List<String> result = new ArrayList<String>();
-		int c = readNextChar();
+		CsvRecord record = nextRecordView();
+		if (record == null) return null;
+		return record.toList();
+	}
+
+	/**
+	 * Parses the next record into the reusable record object, which is valid until the next call.
+	 * 
+	 * @return the record or <code>null</code> at the end of the input
+	 */
+	public CsvRecord nextRecordView() {
+		int c = read();
 		if (c == -1) return null;
-		resetLastChar();
+		unread(c);
+		record.clear();
 		while (true) {
 			boolean fieldQuoted = false;
 			if (quoted) {
-				c = readNextChar();
-				if (isSeperator(c)) {
-					result.add(null);
+				c = read();
+				if (c == separator) {
+					record.addNull();
 					continue;
 				}
 				if (c == '"') {
 					fieldQuoted = true;
 				} else {
-					resetLastChar();
+					unread(c);
 				}
 			}
-			String field = parseField(fieldQuoted);
-			result.add(field);
-			try {
-				parseSeperator();
-			} catch (EOLException ex) {
-				parseNl();
-				break;
-			} catch (EOFException ex) {
+			parseField(fieldQuoted);
+
+			c = read();
+			if (c == -1) break;
+			if (c == separator) continue;
+			if (isEOL(c)) {
+				skipNl();
 				break;
 			}
+			throw new ParseException("Field seperator expected, but is: '" + (char) c + "' (" + c + ")");
 		}
-		return result;
+		return record;
 	}
 
-	private String parseField(boolean quoted) {
-		StringBuilder sb = new StringBuilder();
-		int c;
+	private void parseField(boolean quoted) {
+		record.startField();
+		char separator = this.separator;
 		while (true) {
-			c = readNextChar();
+			int c = read();
 			if (quoted && c == '"') {
-				int cNext = readNextChar();
-				if (!isSeperator(cNext) && !isEOL(cNext)) {
-					sb.append((char) cNext);
+				int cNext = read();
+				if (cNext != separator && !isEOL(cNext)) {
+					record.append((char) cNext);
 					continue;
 				} else {
-					resetLastChar();
-					return sb.toString();
+					unread(cNext);
+					record.endField();
+					return;
 				}
 			}
 			if (isEOL(c)) {
 				if (quoted) {
 					if (c == -1) throw new ParseException("Unexpected OEL in field");
 				} else {
-					resetLastChar();
-					return sb.toString();
+					unread(c);
+					record.endField();
+					return;
 				}
 			}
-			if (!quoted && isSeperator(c)) {
-				resetLastChar();
-				return sb.toString();
+			if (!quoted && c == separator) {
+				unread(c);
+				record.endField();
+				return;
 			}
 			if (c == '\\') {
-				appendControlSequence(sb);
-			} else sb.append((char) c);
+				appendControlSequence();
+			} else record.append((char) c);
 		}
 	}
 
-	private void appendControlSequence(StringBuilder sb) {
-		int seq = readNextChar();
+	private void appendControlSequence() {
+		int seq = read();
 		if (seq == '\\')
-			sb.append("\\");
+			record.append('\\');
 		else if (seq == 'b')
-			sb.append("\b");
+			record.append('\b');
 		else if (seq == 't')
-			sb.append("\t");
+			record.append('\t');
 		else if (seq == 'n')
-			sb.append("\n");
+			record.append('\n');
 		else if (seq == 'f')
-			sb.append("\f");
+			record.append('\f');
 		else if (seq == 'r')
-			sb.append("\r");
+			record.append('\r');
 		else if (seq == '\"')
-			sb.append("\"");
+			record.append('\"');
 		else if (seq == '\'')
-			sb.append("\'");
+			record.append('\'');
 		else throw new ParseException("Unsupported control sequence '" + (char) seq + "' (" + seq + ")");
 	}
 
-	private void parseSeperator() throws EOFException, EOLException {
-		int c = readNextChar();
-		if (c == -1) throw new EOFException();
-		if (isEOL(c)) {
-			resetLastChar();
-			throw new EOLException();
-		}
-		if (isSeperator(c)) return;
-		throw new ParseException("Field seperator expected, but is: '" + (char) c + "' (" + c + ")");
-	}
-
-	private void parseNl() {
+	private void skipNl() {
 		while (true) {
-			int c = readNextChar();
+			int c = read();
 			if (c == -1) return;
 			if (!isEOL(c)) {
-				resetLastChar();
+				unread(c);
 				return;
 			}
 		}
 	}
 
-	// public String nextField() {
-	// return nextField(false);
-	// }
-	//
-	// public String nextField(boolean forceField) {
-	// StringBuilder sb = new StringBuilder();
-	// boolean enclosed = false; // enclosed in quotes
-	// int c = readNextChar();
-	// if (isSeparator(c) && forceField) {
-	// resetLastChar();
-	// return "";
-	// }
-	// if (c == 13 || c == 10 || c == -1) {
-	// if (forceField) {
-	// resetLastChar();
-	// return "";
-	// }
-	// c = readNextChar();
-	// if (c != 13 && c != 10) resetLastChar();
-	// return null;
-	// }
-	// if (isSeparator(c)) {
-	// return nextField(true);
-	// }
-	// if (c == '"') {
-	// enclosed = true;
-	// c = readNextChar();
-	// }
-	// while (true) {
-	// if (c == -1) break;
-	// if (c == 13 || c == 10) {
-	// resetLastChar();
-	// break;
-	// }
-	// if (isSeparator(c) && !enclosed) {
-	// resetLastChar();
-	// break;
-	// }
-	// if (c == '"' && enclosed) break;
-	// sb.append((char) c);
-	// c = readNextChar();
-	// }
-	// if (enclosed) {
-	// c = readNextChar();
-	// if (c == 13 || c == 10) {
-	// resetLastChar();
-	// } else if (!isSeparator(c))
-	// throw new ParseException("Invalid character after field end: #" + c + " '" + ((char) c) + "'", null);
-	// }
-	// return sb.toString();
-	// }
-
-	private void resetLastChar() {
-		if (in == null) return;
-		try {
-			in.reset();
-		} catch (IOException ex) {
-			throw new ParseException("Reset failed", ex);
-		}
+	public void skipChar() {
+		read();
 	}
 
-	// private char lastReadChar;
-
-	public void skipChar() {
-		readNextChar();
+	private int read() {
+		if (pos == limit && !fill()) return -1;
+		return buffer[pos++];
 	}
 
-	private int readNextChar() {
-		return readNextChar(true);
+	/**
+	 * Steps back the last character returned by <code>read()</code>.
+	 */
+	private void unread(int c) {
+		if (c != -1) pos--;
 	}
 
-	private int readNextChar(boolean mark) {
-		if (in == null) return -1;
+	private boolean fill() {
+		if (in == null) return false;
 		try {
-			if (mark) in.mark(1);
-			int c = in.read();
-			// lastReadChar = (char) c;
-			if (c == -1) {
+			int count = in.read(buffer, 0, buffer.length);
+			if (count < 0) {
 				in.close();
 				in = null;
+				return false;
 			}
-			return c;
+			pos = 0;
+			limit = count;
+			return count > 0 || fill();
 		} catch (IOException ex) {
 			throw new ParseException("Reading failed", ex);
 		}
 	}
 
 	public String skipLine() {
-		try {
-			return in.readLine();
-		} catch (IOException ex) {
-			throw new ParseException("Skipping Line failed", ex);
+		int c = read();
+		if (c == -1) return null;
+		StringBuilder sb = new StringBuilder();
+		while (c != -1 && c != 10 && c != 13) {
+			sb.append((char) c);
+			c = read();
 		}
+		if (c == 13) {
+			c = read();
+			if (c != 10) unread(c);
+		}
+		return sb.toString();
 	}
 
 	public void skipLines(int count) {
 		for (int i = 0; i < count; i++) {
-			try {
-				in.readLine();
-			} catch (IOException ex) {
-				throw new ParseException("Skipping Line failed", ex);
-			}
+			skipLine();
 		}
 	}
 
-	class EOLException extends Exception {
-
-	}
-
 	public class ParseException extends RuntimeException {
 
 		public ParseException(String message, Throwable cause) {
@@ -269,10 +222,10 @@ public final class CsvParser {
 	// --- dependencies ---
 
 	private boolean quoted;
-	private BufferedReader in;
+	private Reader in;
 
 	public CsvParser(Reader in, boolean quoted) {
-		this.in = new BufferedReader(in);
+		this.in = in;
 		this.quoted = quoted;
 	}
 
@@ -294,6 +247,7 @@ public final class CsvParser {
 	}
 
 	public void close() {
+		if (in == null) return;
 		try {
 			in.close();
 		} catch (IOException ex) {
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reusable record of a <code>CsvParser</code>. The fields are views on a shared character buffer, which is
+ * overwritten by the next record. Use <code>getString()</code> or <code>toList()</code> to keep values.
+ */
+public final class CsvRecord {
+
+	private char[] chars = new char[1024];
+	private int length;
+
+	private int[] starts = new int[32];
+	private int[] ends = new int[32];
+	private Field[] views = new Field[32];
+	private int size;
+
+	private int fieldStart;
+
+	void clear() {
+		length = 0;
+		size = 0;
+	}
+
+	void startField() {
+		fieldStart = length;
+	}
+
+	void append(char c) {
+		if (length == chars.length) {
+			char[] newChars = new char[chars.length * 2];
+			System.arraycopy(chars, 0, newChars, 0, length);
+			chars = newChars;
+		}
+		chars[length++] = c;
+	}
+
+	void endField() {
+		addField(fieldStart, length);
+	}
+
+	void addNull() {
+		addField(-1, -1);
+	}
+
+	private void addField(int start, int end) {
+		if (size == starts.length) {
+			int newLength = starts.length * 2;
+			int[] newStarts = new int[newLength];
+			int[] newEnds = new int[newLength];
+			Field[] newViews = new Field[newLength];
+			System.arraycopy(starts, 0, newStarts, 0, size);
+			System.arraycopy(ends, 0, newEnds, 0, size);
+			System.arraycopy(views, 0, newViews, 0, size);
+			starts = newStarts;
+			ends = newEnds;
+			views = newViews;
+		}
+		starts[size] = start;
+		ends[size] = end;
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isNull(int index) {
+		return index >= size || starts[index] < 0;
+	}
+
+	public boolean isEmpty(int index) {
+		return isNull(index) || starts[index] == ends[index];
+	}
+
+	/**
+	 * View on the field, valid until the next record is parsed. <code>null</code> for missing fields.
+	 */
+	public CharSequence get(int index) {
+		if (isNull(index)) return null;
+		Field view = views[index];
+		if (view == null) {
+			view = new Field(index);
+			views[index] = view;
+		}
+		return view;
+	}
+
+	public String getString(int index) {
+		if (isNull(index)) return null;
+		return new String(chars, starts[index], ends[index] - starts[index]);
+	}
+
+	/**
+	 * Parses an integer field without creating a string.
+	 */
+	public long getLong(int index) {
+		if (isEmpty(index)) throw new NumberFormatException("Field " + index + " is empty");
+		int start = starts[index];
+		int end = ends[index];
+		boolean negative = false;
+		if (chars[start] == '-' || chars[start] == '+') {
+			negative = chars[start] == '-';
+			start++;
+			if (start == end) throw new NumberFormatException(getString(index));
+		}
+		long value = 0;
+		for (int i = start; i < end; i++) {
+			int digit = chars[i] - '0';
+			if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10)
+				return Long.parseLong(getString(index).trim());
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	public int getInt(int index) {
+		long value = getLong(index);
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+			throw new NumberFormatException("Out of int range: " + value);
+		return (int) value;
+	}
+
+	public double getDouble(int index) {
+		if (isEmpty(index)) throw new NumberFormatException("Field " + index + " is empty");
+		return Double.parseDouble(getString(index));
+	}
+
+	public List<String> toList() {
+		List<String> ret = new ArrayList<String>(size);
+		for (int i = 0; i < size; i++) {
+			ret.add(getString(i));
+		}
+		return ret;
+	}
+
+	@Override
+	public String toString() {
+		return toList().toString();
+	}
+
+	private final class Field implements CharSequence {
+
+		private final int index;
+
+		public Field(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public int length() {
+			return ends[index] - starts[index];
+		}
+
+		@Override
+		public char charAt(int i) {
+			if (i < 0 || i >= length()) throw new IndexOutOfBoundsException(String.valueOf(i));
+			return chars[starts[index] + i];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return toString().substring(start, end);
+		}
+
+		@Override
+		public String toString() {
+			return getString(index);
+		}
+
+	}
+
+}
@@ -14,24 +14,34 @@
  */
 package ilarkesto.io;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Writer;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Writes CSV records. Output is collected in an internal char buffer and passed to the writer in blocks. With
+ * <code>autoFlush</code> (default) the buffer is flushed after each record, disable it for bulk exports and call
+ * <code>close()</code> or <code>flush()</code> at the end.
+ */
 public class CsvWriter {
 
-	private PrintWriter out;
+	private Writer out;
 
 	private List<String> headers;
 
+	private char[] buffer = new char[8 * 1024];
+	private int pos;
+	private boolean autoFlush = true;
+
 	public CsvWriter(PrintWriter out) {
-		this.out = out;
+		this((Writer) out);
 	}
 
 	public CsvWriter(Writer out) {
-		this(new PrintWriter(out));
+		this.out = out;
 	}
 
 	public void writeRecord(Map<String, Object> fields) {
@@ -61,24 +71,54 @@ public class CsvWriter {
 
 	public void writeField(Object value) {
 		if (!nl) {
-			out.print(separator);
+			write(separator);
 		}
 		nl = false;
 		if (value == null) {
 			// value = "";
 			return;
 		}
-		out.print('"');
-		out.print(escape(value.toString()));
-		out.print('"');
+		CharSequence s = value instanceof CharSequence ? (CharSequence) value : value.toString();
+		write('"');
+		int length = s.length();
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if (c == '"') write('"');
+			write(c);
+		}
+		write('"');
 	}
 
 	public void closeRecord() {
-		out.print("\r\n");
-		out.flush();
+		write('\r');
+		write('\n');
+		if (autoFlush) flush();
 		nl = true;
 	}
 
+	private void write(char c) {
+		if (pos == buffer.length) flushBuffer();
+		buffer[pos++] = c;
+	}
+
+	private void flushBuffer() {
+		try {
+			out.write(buffer, 0, pos);
+		} catch (IOException ex) {
+			throw new RuntimeException("Writing CSV failed", ex);
+		}
+		pos = 0;
+	}
+
+	public void flush() {
+		flushBuffer();
+		try {
+			out.flush();
+		} catch (IOException ex) {
+			throw new RuntimeException("Writing CSV failed", ex);
+		}
+	}
+
 	public static String escape(String value) {
 		if (value == null) return null;
 		value = value.replace("\"", "\"\"");
@@ -86,7 +126,12 @@ public class CsvWriter {
 	}
 
 	public void close() {
-		out.close();
+		flushBuffer();
+		try {
+			out.close();
+		} catch (IOException ex) {
+			throw new RuntimeException("Closing CSV writer failed", ex);
+		}
 	}
 
 	// --- dependencies ---
@@ -98,6 +143,14 @@ public class CsvWriter {
 		return this;
 	}
 
+	/**
+	 * Flush after each record. Enabled by default.
+	 */
+	public CsvWriter setAutoFlush(boolean autoFlush) {
+		this.autoFlush = autoFlush;
+		return this;
+	}
+
 	// --- ---
 
 }
@@ -14,50 +14,38 @@
  */
 package ilarkesto.io;
 
-import ilarkesto.core.logging.Log;
+import ilarkesto.io.FileChangeFeed.FileChange;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.FileSystems;
-import java.nio.file.WatchKey;
-import java.nio.file.WatchService;
+import java.util.List;
 
 public class DirChangeState {
 
-	private static final Log log = Log.get(DirChangeState.class);
-
-	private File root;
-	private WatchService watcher;
+	private FileChangeFeed feed;
 
 	public DirChangeState(File root) {
 		super();
-		this.root = root;
-
 		try {
-			watcher = FileSystems.getDefault().newWatchService();
-			NIO.registerDirectoryTreeForAllChanges(watcher, root);
+			feed = new FileChangeFeed(root);
 		} catch (IOException ex) {
 			throw new RuntimeException(ex);
 		}
 	}
 
 	public boolean isChanged() {
-		WatchKey key = watcher.poll();
-
-		if (key == null) return false;
-
-		reset(key);
+		return !feed.poll().isEmpty();
+	}
 
-		return true;
+	/**
+	 * Files changed since the last call.
+	 */
+	public List<FileChange> getChanges() {
+		return feed.poll();
 	}
 
-	private void reset(WatchKey key) {
-		key.pollEvents();
-		if (!key.reset()) log.warn("key.reset() returned false for watcher on", root.getAbsolutePath());
-		try {
-			NIO.registerDirectoryTreeForAllChanges(watcher, root);
-		} catch (IOException ex) {
-			throw new RuntimeException(ex);
-		}
+	public void close() {
+		feed.close();
 	}
+
 }
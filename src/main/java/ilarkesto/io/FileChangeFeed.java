@@ -0,0 +1,218 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io;
+
+import ilarkesto.core.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Incremental feed of file changes in a directory tree. Directories are registered once; new subdirectories are
+ * registered when they appear. Events are coalesced per file, so a burst of writes to the same file is reported as
+ * one change. An <code>OVERFLOW</code> change tells the consumer that events were lost and a full rescan is
+ * necessary.
+ */
+public class FileChangeFeed {
+
+	private static final Log log = Log.get(FileChangeFeed.class);
+
+	public static enum Kind {
+		CREATED, MODIFIED, DELETED, OVERFLOW
+	}
+
+	private File root;
+	private WatchService watcher;
+	private Map<WatchKey, Path> dirsByKey = new HashMap<WatchKey, Path>();
+
+	public FileChangeFeed(File root) throws IOException {
+		this.root = root;
+		watcher = FileSystems.getDefault().newWatchService();
+		registerTree(root.toPath());
+	}
+
+	/**
+	 * Returns the pending changes without blocking. Empty if nothing changed.
+	 */
+	public synchronized List<FileChange> poll() {
+		LinkedHashMap<File, FileChange> changes = new LinkedHashMap<File, FileChange>();
+		WatchKey key;
+		while ((key = watcher.poll()) != null) {
+			processKey(key, changes);
+		}
+		return new ArrayList<FileChange>(changes.values());
+	}
+
+	/**
+	 * Waits up to <code>timeoutMillis</code> for the first change, then keeps collecting until no further events
+	 * arrive for <code>quietMillis</code>.
+	 * 
+	 * @return the coalesced changes, empty on timeout
+	 */
+	public List<FileChange> take(long timeoutMillis, long quietMillis) throws InterruptedException {
+		LinkedHashMap<File, FileChange> changes = new LinkedHashMap<File, FileChange>();
+		WatchKey key = watcher.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+		while (key != null) {
+			synchronized (this) {
+				processKey(key, changes);
+			}
+			key = quietMillis > 0 ? watcher.poll(quietMillis, TimeUnit.MILLISECONDS) : watcher.poll();
+		}
+		return new ArrayList<FileChange>(changes.values());
+	}
+
+	private void processKey(WatchKey key, LinkedHashMap<File, FileChange> changes) {
+		Path dir = dirsByKey.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			WatchEvent.Kind<?> kind = event.kind();
+			if (kind == StandardWatchEventKinds.OVERFLOW || dir == null) {
+				log.info("Events lost:", root.getAbsolutePath());
+				changes.put(root, new FileChange(root, Kind.OVERFLOW));
+				continue;
+			}
+			Path path = dir.resolve((Path) event.context());
+			File file = path.toFile();
+			if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+				if (file.isDirectory()) {
+					try {
+						// files created before registration are reported by the walk
+						registerTree(path, changes);
+					} catch (IOException ex) {
+						log.warn("Registering new directory failed:", file, ex);
+					}
+				}
+				merge(changes, file, Kind.CREATED);
+			} else if (kind == StandardWatchEventKinds.ENTRY_MODIFY) {
+				merge(changes, file, Kind.MODIFIED);
+			} else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+				merge(changes, file, Kind.DELETED);
+			}
+		}
+		if (!key.reset()) {
+			dirsByKey.remove(key);
+		}
+	}
+
+	/**
+	 * Combines the previous change of a file with a new one: created+modified is created, created+deleted cancels
+	 * out, deleted+created is modified.
+	 */
+	private static void merge(LinkedHashMap<File, FileChange> changes, File file, Kind kind) {
+		FileChange previous = changes.get(file);
+		if (previous == null) {
+			changes.put(file, new FileChange(file, kind));
+			return;
+		}
+		Kind merged;
+		switch (previous.kind) {
+			case CREATED:
+				merged = kind == Kind.DELETED ? null : Kind.CREATED;
+				break;
+			case DELETED:
+				merged = kind == Kind.DELETED ? Kind.DELETED : Kind.MODIFIED;
+				break;
+			default:
+				merged = kind == Kind.DELETED ? Kind.DELETED : Kind.MODIFIED;
+		}
+		changes.remove(file);
+		if (merged != null) changes.put(file, new FileChange(file, merged));
+	}
+
+	private void registerTree(Path dir) throws IOException {
+		registerTree(dir, null);
+	}
+
+	private void registerTree(Path start, final LinkedHashMap<File, FileChange> changes) throws IOException {
+		Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				WatchKey key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+				dirsByKey.put(key, dir);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if (changes != null) merge(changes, file.toFile(), Kind.CREATED);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	public File getRoot() {
+		return root;
+	}
+
+	public void close() {
+		try {
+			watcher.close();
+		} catch (IOException ex) {
+			log.warn("Closing watch service failed:", root, ex);
+		} catch (ClosedWatchServiceException ex) {}
+	}
+
+	public static class FileChange {
+
+		private final File file;
+		private final Kind kind;
+
+		public FileChange(File file, Kind kind) {
+			this.file = file;
+			this.kind = kind;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		public Kind getKind() {
+			return kind;
+		}
+
+		public boolean isDeleted() {
+			return kind == Kind.DELETED;
+		}
+
+		public boolean isOverflow() {
+			return kind == Kind.OVERFLOW;
+		}
+
+		@Override
+		public String toString() {
+			return kind + " " + file.getPath();
+		}
+
+	}
+
+}
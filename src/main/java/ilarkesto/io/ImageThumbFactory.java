@@ -14,13 +14,30 @@
  */
 package ilarkesto.io;
 
+import ilarkesto.concurrent.DeamonThreadFactory;
 import ilarkesto.core.base.Filename;
 import ilarkesto.core.logging.Log;
 
 import java.awt.Image;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Creates and caches thumbnails. Thumbs are generated on a bounded pool of worker threads. Concurrent requests for
+ * the same thumb wait for one generation. When an image is seen for the first time, thumbs in the configured
+ * pre-generation sizes are created in the background, behind all requested thumbs.
+ */
 public class ImageThumbFactory {
 
 	private Log log = Log.get(ImageThumbFactory.class);
@@ -28,6 +45,12 @@ public class ImageThumbFactory {
 	private File thumbDir;
 	private ThumbCreator thumbCreator;
 
+	private int workerCount = Math.max(1, Runtime.getRuntime().availableProcessors());
+	private ThreadPoolExecutor executor;
+	private ConcurrentHashMap<File, ThumbTask> thumbsInProgress = new ConcurrentHashMap<File, ThumbTask>();
+	private AtomicLong taskSequence = new AtomicLong();
+	private int[] pregenerationSizes;
+
 	public ImageThumbFactory(File thumbDir, ThumbCreator thumbCreator) {
 		super();
 		this.thumbDir = thumbDir;
@@ -43,18 +66,182 @@ public class ImageThumbFactory {
 	}
 
 	public File getThumb(File imageFile, String folder, String id, int size) {
+		Future<File> future = getThumbAsync(imageFile, folder, id, size);
+		if (future == null) return null;
+		try {
+			return future.get();
+		} catch (InterruptedException ex) {
+			throw new RuntimeException("Creating thumb interrupted: " + imageFile, ex);
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			throw new RuntimeException("Creating thumb failed: " + imageFile, cause);
+		}
+	}
+
+	/**
+	 * Returns the thumb as future, which is already done when the thumb exists. <code>null</code> if the image does
+	 * not exist.
+	 */
+	public Future<File> getThumbAsync(File imageFile, String folder, String id, int size) {
 		if (!imageFile.exists()) return null;
-		if (new Filename(id).getSuffix() == null) {
-			String suffix = new Filename(imageFile.getName()).getSuffix();
-			if (suffix == null) suffix = "jpg";
-			id += "." + suffix;
+		id = getIdWithSuffix(imageFile, id);
+		Future<File> ret = getThumbAsync(imageFile, folder, id, size, false);
+		pregenerate(imageFile, folder, id, size);
+		return ret;
+	}
+
+	private Future<File> getThumbAsync(final File imageFile, String folder, String id, final int size,
+			boolean pregeneration) {
+		final File thumbFile = getThumbFile(folder, id, size);
+		if (isUpToDate(thumbFile, imageFile)) return done(thumbFile);
+
+		ThumbTask task = new ThumbTask(new Callable<File>() {
+
+			@Override
+			public File call() throws Exception {
+				try {
+					if (isUpToDate(thumbFile, imageFile)) return thumbFile;
+					log.info("Creating thumb:", imageFile, "->", thumbFile);
+					IO.createDirectory(thumbFile.getParentFile());
+					thumbCreator.createThumb(imageFile, thumbFile, size);
+					return thumbFile;
+				} finally {
+					thumbsInProgress.remove(thumbFile);
+				}
+			}
+		}, pregeneration);
+		ThumbTask running = thumbsInProgress.putIfAbsent(thumbFile, task);
+		if (running != null) {
+			if (!pregeneration) prioritize(running);
+			return running;
+		}
+
+		try {
+			getExecutor().execute(task);
+		} catch (RejectedExecutionException ex) {
+			// shut down concurrently
+			thumbsInProgress.remove(thumbFile, task);
+			task.cancel(false);
+		}
+		return task;
+	}
+
+	/**
+	 * Moves a waiting pre-generation in front of the other pre-generations, since the thumb is requested now.
+	 */
+	private void prioritize(ThumbTask task) {
+		if (!task.pregeneration) return;
+		ThreadPoolExecutor executor = getExecutor();
+		if (!executor.getQueue().remove(task)) return;
+		task.pregeneration = false;
+		task.sequence = taskSequence.incrementAndGet();
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException ex) {
+			// shut down concurrently
+			task.cancel(false);
+			thumbsInProgress.values().remove(task);
+		}
+	}
+
+	/**
+	 * Schedules the pre-generation sizes of an image, which has no thumbs yet.
+	 */
+	private void pregenerate(File imageFile, String folder, String id, int requestedSize) {
+		if (pregenerationSizes == null) return;
+		for (int size : pregenerationSizes) {
+			if (getThumbFile(folder, id, size).exists()) return;
+		}
+		for (int size : pregenerationSizes) {
+			if (size != requestedSize) getThumbAsync(imageFile, folder, id, size, true);
 		}
-		File thumbFile = new File(thumbDir.getPath() + "/" + folder + "/" + size + "/" + id);
-		if (thumbFile.exists() && thumbFile.lastModified() > imageFile.lastModified()) return thumbFile;
-		log.info("Creating thumb:", imageFile, "->", thumbFile);
-		IO.createDirectory(thumbFile.getParentFile());
-		thumbCreator.createThumb(imageFile, thumbFile, size);
-		return thumbFile;
+	}
+
+	private boolean isUpToDate(File thumbFile, File imageFile) {
+		return thumbFile.exists() && thumbFile.lastModified() >= imageFile.lastModified();
+	}
+
+	private String getIdWithSuffix(File imageFile, String id) {
+		if (new Filename(id).getSuffix() != null) return id;
+		String suffix = new Filename(imageFile.getName()).getSuffix();
+		if (suffix == null) suffix = "jpg";
+		return id + "." + suffix;
+	}
+
+	private File getThumbFile(String folder, String id, int size) {
+		return new File(thumbDir.getPath() + "/" + folder + "/" + size + "/" + id);
+	}
+
+	private synchronized ThreadPoolExecutor getExecutor() {
+		if (executor == null) {
+			executor = new ThreadPoolExecutor(workerCount, workerCount, 30, TimeUnit.SECONDS,
+					new PriorityBlockingQueue<Runnable>(), new DeamonThreadFactory());
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+
+	private static Future<File> done(File file) {
+		FutureTask<File> ret = new FutureTask<File>(new Runnable() {
+
+			@Override
+			public void run() {}
+		}, file);
+		ret.run();
+		return ret;
+	}
+
+	/**
+	 * Maximum number of thumbs generated in parallel.
+	 */
+	public ImageThumbFactory setWorkerCount(int workerCount) {
+		this.workerCount = workerCount;
+		return this;
+	}
+
+	/**
+	 * Sizes, which are generated in the background when the first thumb of an image is requested.
+	 */
+	public ImageThumbFactory setPregenerationSizes(int... sizes) {
+		this.pregenerationSizes = sizes;
+		return this;
+	}
+
+	/**
+	 * Interrupts running generations and cancels waiting ones, so nobody waits for a thumb which is never created.
+	 */
+	public synchronized void shutdown() {
+		if (executor == null) return;
+		for (Runnable task : executor.shutdownNow()) {
+			((ThumbTask) task).cancel(false);
+		}
+		executor = null;
+		for (Iterator<ThumbTask> iterator = thumbsInProgress.values().iterator(); iterator.hasNext();) {
+			if (iterator.next().isCancelled()) iterator.remove();
+		}
+	}
+
+	/**
+	 * Requested thumbs first, then pre-generations, each in the order of submission.
+	 */
+	private class ThumbTask extends FutureTask<File> implements Comparable<ThumbTask> {
+
+		// only changed while the task is not queued
+		private volatile boolean pregeneration;
+		private volatile long sequence = taskSequence.incrementAndGet();
+
+		public ThumbTask(Callable<File> callable, boolean pregeneration) {
+			super(callable);
+			this.pregeneration = pregeneration;
+		}
+
+		@Override
+		public int compareTo(ThumbTask other) {
+			if (pregeneration != other.pregeneration) return pregeneration ? 1 : -1;
+			return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+		}
+
 	}
 
 	public static interface ThumbCreator {
@@ -66,7 +253,8 @@ public class ImageThumbFactory {
 
 		@Override
 		public void createThumb(File imageFile, File thumbFile, int size) {
-			BufferedImage image = Awt.loadImage(imageFile);
+			// subsample to twice the thumb size, the smooth scaling does the rest
+			BufferedImage image = Awt.loadImageSubsampled(imageFile, size * 2);
 			Image thumbImage = Awt.quadratizeAndLimitSize(image, size);
 			Awt.writeImage(thumbImage, "JPG", thumbFile);
 			thumbFile.setLastModified(imageFile.lastModified());
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io;
+
+import ilarkesto.concurrent.DeamonThreadFactory;
+import ilarkesto.core.logging.Log;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Parses a big CSV file on multiple threads. The file is split into chunks at record boundaries and each chunk is
+ * parsed by its own <code>CsvParser</code>. The handler is called concurrently and records of different chunks are
+ * not delivered in file order.
+ * <p>
+ * The chunk boundaries are found by scanning the bytes for line breaks outside of quoted fields, so the encoding
+ * must be ASCII compatible (UTF-8, ISO-8859-x, windows-125x).
+ */
+public class ParallelCsvParser {
+
+	private static final Log log = Log.get(ParallelCsvParser.class);
+
+	private File file;
+	private String encoding;
+	private boolean quoted;
+	private char separator = ',';
+	private int threadCount = Runtime.getRuntime().availableProcessors();
+	private int skipLines;
+
+	public ParallelCsvParser(File file, String encoding, boolean quoted) {
+		this.file = file;
+		this.encoding = encoding;
+		this.quoted = quoted;
+	}
+
+	public void parse(final RecordHandler handler) {
+		long[] boundaries;
+		try {
+			boundaries = findChunkBoundaries();
+		} catch (IOException ex) {
+			throw new RuntimeException("Splitting CSV file failed: " + file.getAbsolutePath(), ex);
+		}
+		int chunks = boundaries.length - 1;
+		log.debug("Parsing", file.getAbsolutePath(), "in", chunks, "chunks");
+
+		ExecutorService executor = Executors.newFixedThreadPool(chunks, new DeamonThreadFactory());
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>(chunks);
+			for (int i = 0; i < chunks; i++) {
+				final long start = boundaries[i];
+				final long end = boundaries[i + 1];
+				futures.add(executor.submit(new Runnable() {
+
+					@Override
+					public void run() {
+						parseChunk(start, end, handler);
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (Exception ex) {
+					throw new RuntimeException("Parsing CSV file failed: " + file.getAbsolutePath(), ex);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void parseChunk(long start, long end, RecordHandler handler) {
+		CsvParser parser;
+		try {
+			parser = new CsvParser(new InputStreamReader(new RangeInputStream(file, start, end), encoding), quoted);
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+		parser.setSeparator(separator);
+		try {
+			CsvRecord record;
+			while ((record = parser.nextRecordView()) != null) {
+				handler.onRecord(record);
+			}
+		} finally {
+			parser.close();
+		}
+	}
+
+	/**
+	 * Offsets of the chunks, starting with the offset after the skipped lines and ending with the file length.
+	 */
+	long[] findChunkBoundaries() throws IOException {
+		long length = file.length();
+		List<Long> boundaries = new ArrayList<Long>();
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			BoundaryScanner scanner = new BoundaryScanner(raf);
+			long start = 0;
+			for (int i = 0; i < skipLines && start >= 0; i++) {
+				start = scanner.nextLineStart();
+			}
+			if (start < 0) start = length;
+			boundaries.add(start);
+
+			long chunkSize = Math.max((length - start) / Math.max(threadCount, 1), 1);
+			long last = start;
+			while (last + chunkSize < length) {
+				long target = last + chunkSize;
+				long next;
+				if (quoted) {
+					// quotes may span lines, so the whole file has to be scanned
+					do {
+						next = scanner.nextLineStart();
+					} while (next >= 0 && next < target);
+				} else {
+					scanner.seek(target - 1);
+					next = scanner.nextLineStart();
+				}
+				if (next < 0 || next >= length) break;
+				boundaries.add(next);
+				last = next;
+			}
+		} finally {
+			raf.close();
+		}
+		boundaries.add(length);
+
+		long[] ret = new long[boundaries.size()];
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = boundaries.get(i);
+		}
+		return ret;
+	}
+
+	public ParallelCsvParser setSeparator(char separator) {
+		this.separator = separator;
+		return this;
+	}
+
+	public ParallelCsvParser setThreadCount(int threadCount) {
+		this.threadCount = threadCount;
+		return this;
+	}
+
+	/**
+	 * Lines to skip at the beginning of the file, ie. headers.
+	 */
+	public ParallelCsvParser setSkipLines(int skipLines) {
+		this.skipLines = skipLines;
+		return this;
+	}
+
+	public static interface RecordHandler {
+
+		/**
+		 * Called concurrently by the parsing threads. The record is only valid during the call.
+		 */
+		void onRecord(CsvRecord record);
+
+	}
+
+	private class BoundaryScanner {
+
+		private RandomAccessFile raf;
+		private byte[] buffer = new byte[64 * 1024];
+		private long bufferOffset;
+		private int length;
+		private int pos;
+		private boolean inQuotes;
+
+		public BoundaryScanner(RandomAccessFile raf) {
+			this.raf = raf;
+		}
+
+		void seek(long offset) throws IOException {
+			raf.seek(offset);
+			bufferOffset = offset;
+			length = 0;
+			pos = 0;
+		}
+
+		/**
+		 * Offset of the first character after the next line break outside of quotes, or -1 at the end of the file.
+		 */
+		long nextLineStart() throws IOException {
+			boolean lineBreak = false;
+			while (true) {
+				int b = read();
+				if (b == -1) return -1;
+				if (lineBreak) {
+					if (b == '\n' || b == '\r') continue;
+					pos--;
+					return bufferOffset + pos;
+				}
+				if (b == '\\') {
+					read();
+					continue;
+				}
+				if (quoted && b == '"') {
+					inQuotes = !inQuotes;
+					continue;
+				}
+				if (!inQuotes && (b == '\n' || b == '\r')) lineBreak = true;
+			}
+		}
+
+		private int read() throws IOException {
+			if (pos == length) {
+				bufferOffset += length;
+				pos = 0;
+				length = Math.max(raf.read(buffer), 0);
+				if (length == 0) return -1;
+			}
+			return buffer[pos++] & 0xff;
+		}
+
+	}
+
+	private static class RangeInputStream extends FilterInputStream {
+
+		private long remaining;
+
+		public RangeInputStream(File file, long start, long end) throws IOException {
+			super(null);
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			raf.seek(start);
+			this.in = new BufferedInputStream(new FileInputStream(raf.getFD()), 64 * 1024);
+			this.raf = raf;
+			this.remaining = end - start;
+		}
+
+		private RandomAccessFile raf;
+
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0) return -1;
+			int b = in.read();
+			if (b >= 0) remaining--;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining <= 0) return -1;
+			int count = in.read(b, off, (int) Math.min(len, remaining));
+			if (count > 0) remaining -= count;
+			return count;
+		}
+
+		@Override
+		public void close() throws IOException {
+			super.close();
+			raf.close();
+		}
+
+	}
+
+}
@@ -14,52 +14,180 @@
  */
 package ilarkesto.io;
 
+import ilarkesto.base.Cache;
+import ilarkesto.concurrent.ATask;
+import ilarkesto.concurrent.TaskManager;
 import ilarkesto.core.base.OperationObserver;
 import ilarkesto.core.base.Str;
+import ilarkesto.core.logging.Log;
 
 import java.io.File;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Caches texts in files, with an in-memory LRU layer above the files. Loads of different keys run in parallel,
+ * concurrent loads of the same key call the loader only once.
+ * <p>
+ * With <code>setStaleWhileRevalidate()</code> cached texts older than the given age are returned immediately, while a
+ * background task loads the fresh text.
+ */
 public class TextFileCache {
 
+	private static final Log log = Log.get(TextFileCache.class);
+
 	private AFileStorage storage;
 	private Loader loader;
 
+	private Cache<String, Entry> memory = new Cache<String, Entry>(null).setMaxSize(100);
+	private ConcurrentHashMap<String, FutureTask<String>> loadsInProgress = new ConcurrentHashMap<String, FutureTask<String>>();
+	private ConcurrentHashMap<String, Boolean> revalidating = new ConcurrentHashMap<String, Boolean>();
+
+	private TaskManager taskManager;
+	private long maxAge = -1;
+
 	public TextFileCache(AFileStorage storage, Loader loader) {
 		super();
 		this.storage = storage;
 		this.loader = loader;
 	}
 
-	public synchronized String load(String key, OperationObserver operationObserver) {
-		String text = loadFromCache(key, operationObserver);
-
-		if (text != null) return text;
+	public String load(final String key, final OperationObserver operationObserver) {
+		Entry entry = getCached(key, operationObserver);
+		if (entry != null) {
+			if (isStale(entry)) revalidate(key);
+			return entry.text;
+		}
+		return loadFromLoader(key, operationObserver);
+	}
 
-		text = loader.load(key, operationObserver);
+	public String loadFromCache(String key, OperationObserver operationObserver) {
+		Entry entry = getCached(key, operationObserver);
+		return entry == null ? null : entry.text;
+	}
 
-		File file = getFile(key);
-		operationObserver.onOperationInfoChanged(OperationObserver.SAVING, file);
-		IO.writeFile(file, text, IO.UTF_8);
-		return text;
+	public void delete(String key) {
+		memory.remove(key);
+		IO.delete(getFile(key));
 	}
 
-	public synchronized String loadFromCache(String key, OperationObserver operationObserver) {
-		File file = getFile(key);
+	private Entry getCached(String key, OperationObserver operationObserver) {
+		Entry entry = memory.getIfPresent(key);
+		if (entry != null) return entry;
 
+		File file = getFile(key);
 		if (!file.exists()) return null;
 
 		operationObserver.onOperationInfoChanged(OperationObserver.LOADING_CACHE);
-		return IO.readFile(file, IO.UTF_8);
+		long lastModified = file.lastModified();
+		String text;
+		try {
+			text = IO.readFile(file, IO.UTF_8);
+		} catch (RuntimeException ex) {
+			// deleted in the meantime
+			if (!file.exists()) return null;
+			throw ex;
+		}
+		entry = new Entry(text, lastModified);
+		memory.put(key, entry);
+		return entry;
 	}
 
-	public synchronized void delete(String key) {
-		IO.delete(getFile(key));
+	/**
+	 * Calls the loader and stores the text. Callers for the same key wait for the running load.
+	 */
+	private String loadFromLoader(final String key, final OperationObserver operationObserver) {
+		FutureTask<String> load = new FutureTask<String>(new Callable<String>() {
+
+			@Override
+			public String call() throws Exception {
+				String text = loader.load(key, operationObserver);
+
+				File file = getFile(key);
+				operationObserver.onOperationInfoChanged(OperationObserver.SAVING, file);
+				IO.writeFile(file, text, IO.UTF_8);
+				memory.put(key, new Entry(text, System.currentTimeMillis()));
+				return text;
+			}
+		});
+		FutureTask<String> running = loadsInProgress.putIfAbsent(key, load);
+		if (running == null) {
+			try {
+				load.run();
+			} finally {
+				loadsInProgress.remove(key, load);
+			}
+			running = load;
+		}
+		try {
+			return running.get();
+		} catch (InterruptedException ex) {
+			throw new RuntimeException("Loading interrupted: " + key, ex);
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			throw new RuntimeException("Loading failed: " + key, cause);
+		}
+	}
+
+	private boolean isStale(Entry entry) {
+		return maxAge >= 0 && taskManager != null && System.currentTimeMillis() - entry.time > maxAge;
+	}
+
+	private void revalidate(final String key) {
+		if (revalidating.putIfAbsent(key, Boolean.TRUE) != null) return;
+		log.debug("Revalidating in background:", key);
+		taskManager.start(new ATask() {
+
+			@Override
+			protected void perform() throws InterruptedException {
+				try {
+					loadFromLoader(key, OperationObserver.DUMMY);
+				} catch (Exception ex) {
+					log.warn("Revalidating failed:", key, ex);
+				} finally {
+					revalidating.remove(key);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Enables stale-while-revalidate: Texts cached longer than <code>maxAge</code> milliseconds are returned as they
+	 * are, while a task on the given task manager loads the fresh text.
+	 */
+	public TextFileCache setStaleWhileRevalidate(TaskManager taskManager, long maxAge) {
+		this.taskManager = taskManager;
+		this.maxAge = maxAge;
+		return this;
+	}
+
+	/**
+	 * Number of texts kept in memory.
+	 */
+	public TextFileCache setMaxMemoryEntries(int maxMemoryEntries) {
+		memory.setMaxSize(maxMemoryEntries);
+		return this;
 	}
 
 	private File getFile(String key) {
 		return storage.getFile(Str.toFileCompatibleString(key) + ".cache.txt");
 	}
 
+	private static class Entry {
+
+		private final String text;
+		private final long time;
+
+		public Entry(String text, long time) {
+			this.text = text;
+			this.time = time;
+		}
+
+	}
+
 	public static interface Loader {
 
 		String load(String key, OperationObserver operationObserver);
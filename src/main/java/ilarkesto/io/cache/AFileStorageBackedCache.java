@@ -14,6 +14,8 @@
  */
 package ilarkesto.io.cache;
 
+import ilarkesto.concurrent.ATask;
+import ilarkesto.concurrent.TaskManager;
 import ilarkesto.core.base.OperationObserver;
 import ilarkesto.core.base.RuntimeTracker;
 import ilarkesto.core.logging.Log;
@@ -23,7 +25,14 @@ import ilarkesto.io.IO;
 import ilarkesto.json.JsonObject;
 
 import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Value loaded from a remote source and cached in a file storage. Thread safe: concurrent <code>update()</code>
+ * calls load the remote value only once, the other callers wait for the running update.
+ * <code>getValueRevalidating()</code> returns the cached value immediately and refreshes it in the background.
+ */
 public abstract class AFileStorageBackedCache<T> {
 
 	protected final Log log = Log.get(getClass());
@@ -32,8 +41,11 @@ public abstract class AFileStorageBackedCache<T> {
 	private AFileStorage payloadStorage;
 	private JsonObject jStatus;
 
-	private T value;
-	private boolean valueLoaded;
+	private volatile T value;
+	private volatile boolean valueLoaded;
+
+	private final ReentrantLock updateLock = new ReentrantLock();
+	private final AtomicBoolean revalidating = new AtomicBoolean();
 
 	protected abstract T loadValueFromRemote(OperationObserver observer);
 
@@ -53,10 +65,37 @@ public abstract class AFileStorageBackedCache<T> {
 
 	public final T getValue() {
 		if (valueLoaded) return value;
-		loadValueFromCache();
+		synchronized (this) {
+			if (!valueLoaded) loadValueFromCache();
+		}
 		return value;
 	}
 
+	/**
+	 * Stale-while-revalidate: Returns the cached value immediately. If it was updated longer than
+	 * <code>maxAge</code> milliseconds ago (or never), an update is started as task on the given task manager.
+	 */
+	public final T getValueRevalidating(TaskManager taskManager, long maxAge) {
+		T ret = getValue();
+		if (getTimeLastUpdated() != null && !isLastUpdatedLongerAgoThen(maxAge)) return ret;
+		if (updateLock.isLocked() || !revalidating.compareAndSet(false, true)) return ret;
+		log.debug("Revalidating in background");
+		taskManager.start(new ATask() {
+
+			@Override
+			protected void perform() throws InterruptedException {
+				try {
+					update(null);
+				} catch (Exception ex) {
+					log.warn("Revalidating failed", ex);
+				} finally {
+					revalidating.set(false);
+				}
+			}
+		});
+		return ret;
+	}
+
 	private void loadValueFromCache() {
 		log.debug("loadValueFromCache()");
 		try {
@@ -77,13 +116,27 @@ public abstract class AFileStorageBackedCache<T> {
 	}
 
 	public final void update(OperationObserver observer) {
-		RuntimeTracker rt = new RuntimeTracker();
-		log.debug("update()");
-		if (observer != null) observer.onOperationInfoChanged(OperationObserver.UPDATING);
-		loadStatus();
-		value = loadValueFromRemote(observer);
-		saveValueToCache();
-		log.info("Updated in", rt.getRuntimeFormated());
+		if (!updateLock.tryLock()) {
+			// an update is running, wait for its result
+			updateLock.lock();
+			updateLock.unlock();
+			return;
+		}
+		try {
+			RuntimeTracker rt = new RuntimeTracker();
+			log.debug("update()");
+			if (observer != null) observer.onOperationInfoChanged(OperationObserver.UPDATING);
+			loadStatus();
+			T newValue = loadValueFromRemote(observer);
+			synchronized (this) {
+				value = newValue;
+				valueLoaded = true;
+				saveValueToCache();
+			}
+			log.info("Updated in", rt.getRuntimeFormated());
+		} finally {
+			updateLock.unlock();
+		}
 	}
 
 	public final void updateIfLastUpdatedLongerAgoThen(OperationObserver observer, long millis) {
@@ -101,7 +154,7 @@ public abstract class AFileStorageBackedCache<T> {
 		return Tm.getCurrentTimeMillis() - lastUpdated.longValue() > millis;
 	}
 
-	public Long getTimeLastUpdated() {
+	public synchronized Long getTimeLastUpdated() {
 		loadStatus();
 		return jStatus.getLong("lastUpdated");
 	}
@@ -110,7 +163,7 @@ public abstract class AFileStorageBackedCache<T> {
 		IO.writeFile(getStatusFile(), jStatus.toFormatedString(), IO.UTF_8);
 	}
 
-	private void loadStatus() {
+	private synchronized void loadStatus() {
 		if (jStatus != null) return; // already loaded
 		File statusFile = getStatusFile();
 		if (!statusFile.exists()) {
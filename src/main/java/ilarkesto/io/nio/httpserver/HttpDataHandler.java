@@ -19,19 +19,39 @@ import ilarkesto.io.nio.tcpserver.DataHandler;
 import ilarkesto.io.nio.tcpserver.ServerDataEvent;
 import ilarkesto.io.nio.tcpserver.TcpConnection;
 
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental HTTP/1.1 parser for one connection. Works on bytes as they arrive, reads bodies by Content-Length or
+ * chunked transfer encoding and handles multiple (pipelined) requests per connection.
+ */
 public class HttpDataHandler implements DataHandler {
 
 	private static Log log = Log.get(HttpDataHandler.class);
 
-	private static final String CRLF = "\r\n";
+	private static final int MAX_LINE_LENGTH = 8192;
+
+	private static final int START_LINE = 0;
+	private static final int HEADERS = 1;
+	private static final int BODY = 2;
+	private static final int CHUNK_SIZE = 3;
+	private static final int CHUNK_END = 4;
+	private static final int TRAILERS = 5;
+	private static final int CLOSED = 6;
 
 	private HttpServer server;
 
-	private ServerDataEvent event;
+	private byte[] chunk = new byte[8192];
+	private byte[] line = new byte[256];
+	private int lineLength;
+	private ByteArrayOutputStream body = new ByteArrayOutputStream();
 
 	private HttpRequest request;
-	private boolean startLineDone;
-	private boolean headerDone;
+	private int state = START_LINE;
+	private boolean chunked;
+	private long remainingBodyBytes;
 
 	public HttpDataHandler(HttpServer server) {
 		super();
@@ -40,86 +60,212 @@ public class HttpDataHandler implements DataHandler {
 
 	@Override
 	public void onDataReceived(ServerDataEvent event) {
-		this.event = event;
-
-		if (request == null) {
-			request = new HttpRequest(event.getConnection());
-			request.setResponseHeaderServer(server.getName());
-		}
-
+		ByteBuffer buffer = event.getBuffer();
 		try {
-			processEvent(event);
+			while (buffer.hasRemaining() && state != CLOSED) {
+				int len = Math.min(buffer.remaining(), chunk.length);
+				buffer.get(chunk, 0, len);
+				parse(event.getConnection(), chunk, len);
+			}
 		} catch (Throwable ex) {
-			log.error("Processing request failed:", request.getUri() == null ? event.getConnection() : request, ex);
-			request.sendEmptyResponse(HttpStatusCode.INTERNAL_SERVER_ERROR, null);
+			log.error("Processing request failed:", request == null || request.getUri() == null ? event.getConnection()
+					: request, ex);
+			if (request != null && !request.isConnectionClosed()) fail(HttpStatusCode.INTERNAL_SERVER_ERROR, null);
+			state = CLOSED;
 		}
 	}
 
-	private void processEvent(ServerDataEvent event) {
-		byte[] data = event.getData();
+	private void parse(TcpConnection connection, byte[] data, int len) {
+		int i = 0;
+		while (i < len && state != CLOSED) {
+			if (state == BODY) {
+				int count = (int) Math.min(remainingBodyBytes, len - i);
+				body.write(data, i, count);
+				i += count;
+				remainingBodyBytes -= count;
+				if (remainingBodyBytes == 0) {
+					if (chunked) {
+						state = CHUNK_END;
+					} else {
+						onRequestComplete();
+					}
+				}
+				continue;
+			}
+
+			if (state == START_LINE && request == null) {
+				request = new HttpRequest(connection);
+				request.setResponseHeaderServer(server.getName());
+			}
+
+			int idx = i;
+			while (idx < len && data[idx] != '\n') {
+				idx++;
+			}
+			appendToLine(data, i, idx - i);
+			if (idx == len) return;
+			i = idx + 1;
+			if (state == CLOSED) return;
+			onLineReceived(takeLine());
+		}
+	}
 
-		if (headerDone) {
-			onBodyData(data);
+	private void appendToLine(byte[] data, int offset, int count) {
+		if (lineLength + count > MAX_LINE_LENGTH) {
+			fail(HttpStatusCode.BAD_REQUEST, "Line too long");
 			return;
 		}
+		if (lineLength + count > line.length) {
+			byte[] newLine = new byte[Math.min(MAX_LINE_LENGTH, Math.max(line.length * 2, lineLength + count))];
+			System.arraycopy(line, 0, newLine, 0, lineLength);
+			line = newLine;
+		}
+		System.arraycopy(data, offset, line, lineLength, count);
+		lineLength += count;
+	}
 
-		String s = new String(data);
+	private String takeLine() {
+		int len = lineLength;
+		if (len > 0 && line[len - 1] == '\r') len--;
+		lineLength = 0;
+		try {
+			return new String(line, 0, len, "ISO-8859-1");
+		} catch (UnsupportedEncodingException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
 
-		int from = 0;
-		int idx = s.indexOf(CRLF);
-		while (idx >= 0) {
-			String line = s.substring(from, idx);
-			onLineReceived(line);
-			if (headerDone) {
-				int len = data.length - idx;
-				byte[] remainingData = new byte[len];
-				System.arraycopy(data, idx, remainingData, 0, len);
-				onBodyData(remainingData);
+	private void onLineReceived(String line) {
+		switch (state) {
+			case START_LINE:
+				// empty lines between pipelined requests are allowed
+				if (line.length() == 0) return;
+				parseStartLine(line);
+				return;
+			case HEADERS:
+				if (line.length() == 0) {
+					onHeaderDone();
+					return;
+				}
+				parseHeaderLine(line);
+				return;
+			case CHUNK_SIZE:
+				parseChunkSize(line);
+				return;
+			case CHUNK_END:
+				if (line.length() > 0) {
+					fail(HttpStatusCode.BAD_REQUEST, "Invalid chunk");
+					return;
+				}
+				state = CHUNK_SIZE;
+				return;
+			case TRAILERS:
+				if (line.length() == 0) {
+					onRequestComplete();
+					return;
+				}
+				parseHeaderLine(line);
 				return;
-			}
-			from = idx + 2;
-			idx = s.indexOf(CRLF, from);
 		}
 	}
 
-	private void onBodyData(byte[] data) {}
-
-	private void onLineReceived(String line) {
-		if (!startLineDone) {
-			parseStartLine(line);
+	private void onHeaderDone() {
+		String transferEncoding = request.getHeaderTransferEncoding();
+		if (transferEncoding != null) {
+			if (!"chunked".equalsIgnoreCase(transferEncoding.trim())) {
+				fail(HttpStatusCode.NOT_IMPLEMENTED, "Transfer-Encoding: " + transferEncoding);
+				return;
+			}
+			chunked = true;
+			state = CHUNK_SIZE;
 			return;
 		}
 
-		if (line.length() == 0) {
-			headerDone = true;
-			onHeaderDone();
+		Long contentLength;
+		try {
+			contentLength = request.getHeaderContentLength();
+		} catch (NumberFormatException ex) {
+			fail(HttpStatusCode.BAD_REQUEST, "Invalid Content-Length");
 			return;
 		}
+		if (contentLength == null || contentLength.longValue() == 0) {
+			onRequestComplete();
+			return;
+		}
+		if (contentLength.longValue() < 0) {
+			fail(HttpStatusCode.BAD_REQUEST, "Invalid Content-Length");
+			return;
+		}
+		if (!checkBodySize(contentLength.longValue())) return;
+		remainingBodyBytes = contentLength.longValue();
+		state = BODY;
+	}
 
-		parseHeaderLine(line);
+	private void parseChunkSize(String line) {
+		int idx = line.indexOf(';');
+		String size = (idx < 0 ? line : line.substring(0, idx)).trim();
+		long chunkSize;
+		try {
+			chunkSize = Long.parseLong(size, 16);
+		} catch (NumberFormatException ex) {
+			fail(HttpStatusCode.BAD_REQUEST, "Invalid chunk size: " + size);
+			return;
+		}
+		if (chunkSize < 0) {
+			fail(HttpStatusCode.BAD_REQUEST, "Invalid chunk size: " + size);
+			return;
+		}
+		if (chunkSize == 0) {
+			state = TRAILERS;
+			return;
+		}
+		if (!checkBodySize(body.size() + chunkSize)) return;
+		remainingBodyBytes = chunkSize;
+		state = BODY;
 	}
 
-	private void onHeaderDone() {
-		if (!checkHeaders()) return;
-		server.onHttpRequest(request);
+	private boolean checkBodySize(long size) {
+		if (size <= server.getMaxRequestBodySize()) return true;
+		fail(HttpStatusCode.REQUEST_ENTITY_TOO_LARGE, null);
+		return false;
 	}
 
-	private boolean checkHeaders() {
-		if (request.getHeaderContentLenght() != null) {
-			request.sendEmptyResponse(HttpStatusCode.NOT_IMPLEMENTED, "Content-Length");
-			return false;
-		}
-		if (request.getHeaderTransferEncoding() != null) {
-			request.sendEmptyResponse(HttpStatusCode.NOT_IMPLEMENTED, "Transfer-Encoding");
-			return false;
+	private void onRequestComplete() {
+		HttpRequest completedRequest = request;
+		completedRequest.setBody(body.toByteArray());
+		body.reset();
+		request = null;
+		chunked = false;
+		state = START_LINE;
+
+		try {
+			server.onHttpRequest(completedRequest);
+		} catch (Throwable ex) {
+			log.error("Processing request failed:", completedRequest, ex);
+			if (!completedRequest.isConnectionClosed()) {
+				if (completedRequest.isResponseHeadersSent()) {
+					completedRequest.closeConnection();
+				} else {
+					completedRequest.setResponseHeader("Connection", "close");
+					completedRequest.sendEmptyResponse(HttpStatusCode.INTERNAL_SERVER_ERROR);
+				}
+			}
+			state = CLOSED;
+			return;
 		}
-		return true;
+		if (completedRequest.isConnectionClosed()) state = CLOSED;
+	}
+
+	private void fail(HttpStatusCode code, String message) {
+		request.setResponseHeader("Connection", "close");
+		request.sendEmptyResponse(code, message);
+		state = CLOSED;
 	}
 
 	private void parseHeaderLine(String line) {
 		int idx = line.indexOf(":");
 		if (idx <= 0) {
-			request.sendEmptyResponse(HttpStatusCode.BAD_REQUEST, "Invalid header line: " + line);
+			fail(HttpStatusCode.BAD_REQUEST, "Invalid header line: " + line);
 			return;
 		}
 		String name = line.substring(0, idx);
@@ -128,30 +274,28 @@ public class HttpDataHandler implements DataHandler {
 	}
 
 	private void parseStartLine(String line) {
-		if (startLineDone) throw new IllegalStateException("Start line already parsed");
-		startLineDone = true;
+		int methodIdx = line.indexOf(' ');
+		String methodName = methodIdx > 0 ? line.substring(0, methodIdx) : line;
 		for (HttpMethod m : HttpMethod.values()) {
-			if (line.startsWith(m.name())) {
+			if (m.name().equals(methodName)) {
 				request.setMethod(m);
 				break;
 			}
 		}
 		if (request.getMethod() == null) {
-			int idx = line.indexOf(' ');
-			String methodName = idx > 0 ? line.substring(0, idx) : line;
-			request.sendEmptyResponse(HttpStatusCode.BAD_REQUEST, "Unknown method: " + methodName);
+			fail(HttpStatusCode.BAD_REQUEST, "Unknown method: " + methodName);
 			return;
 		}
 
-		int pathIdx = request.getMethod().name().length() + 1;
-		if (pathIdx >= line.length()) {
-			request.sendEmptyResponse(HttpStatusCode.BAD_REQUEST, "Invalid start line: " + line);
+		int pathIdx = methodIdx + 1;
+		if (methodIdx < 0 || pathIdx >= line.length()) {
+			fail(HttpStatusCode.BAD_REQUEST, "Invalid start line: " + line);
 			return;
 		}
 
 		int versionIdx = line.indexOf(' ', pathIdx);
 		if (versionIdx > 0 && versionIdx + 1 >= line.length()) {
-			request.sendEmptyResponse(HttpStatusCode.BAD_REQUEST, "Invalid start line: " + line);
+			fail(HttpStatusCode.BAD_REQUEST, "Invalid start line: " + line);
 			return;
 		}
 
@@ -160,11 +304,14 @@ public class HttpDataHandler implements DataHandler {
 
 		request.setUri(uri);
 		request.setVersion(version);
+		state = HEADERS;
 
 		log.debug(request);
 	}
 
 	@Override
-	public void onConnectionClosed(TcpConnection connection) {}
+	public void onConnectionClosed(TcpConnection connection) {
+		state = CLOSED;
+	}
 
 }
@@ -16,8 +16,11 @@ package ilarkesto.io.nio.httpserver;
 
 import ilarkesto.core.base.Str;
 import ilarkesto.core.logging.Log;
+import ilarkesto.io.IO;
 import ilarkesto.io.nio.tcpserver.TcpConnection;
 
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -25,6 +28,7 @@ public class HttpRequest<S> {
 
 	static String SERVER = "Ilarkesto/1.1";
 	static final String PROTOCOL_VERSION = "HTTP/1.1";
+	private static final String CRLF = "\r\n";
 
 	private static Log log = Log.get(HttpRequest.class);
 
@@ -33,10 +37,12 @@ public class HttpRequest<S> {
 	private String version;
 	private TcpConnection connection;
 	private Map<String, String> headers = new HashMap<String, String>();
+	private byte[] body;
 
 	private String responseStatusLine;
 	private Map<String, String> responseHeaders = new HashMap<String, String>();
 	private boolean responseHeadersSent;
+	private boolean connectionClosed;
 
 	private HttpSession<S> session;
 
@@ -75,6 +81,40 @@ public class HttpRequest<S> {
 		this.version = version;
 	}
 
+	void setBody(byte[] body) {
+		this.body = body;
+	}
+
+	/**
+	 * Request body, read by Content-Length or chunked transfer encoding. Empty if the request has no body.
+	 */
+	public byte[] getBody() {
+		return body;
+	}
+
+	public String getBodyAsString() {
+		if (body == null) return null;
+		try {
+			return new String(body, IO.UTF_8);
+		} catch (UnsupportedEncodingException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Persistent connection, as requested by the client and not refused by the response.
+	 */
+	public boolean isKeepAlive() {
+		if ("close".equalsIgnoreCase(responseHeaders.get(formatHeaderName("Connection")))) return false;
+		String connectionHeader = getHeader("Connection");
+		if (PROTOCOL_VERSION.equals(version)) return !"close".equalsIgnoreCase(connectionHeader);
+		return "keep-alive".equalsIgnoreCase(connectionHeader);
+	}
+
+	boolean isConnectionClosed() {
+		return connectionClosed;
+	}
+
 	void setHeader(String name, String value) {
 		headers.put(formatHeaderName(name), value);
 	}
@@ -87,7 +127,13 @@ public class HttpRequest<S> {
 		responseHeaders.put(formatHeaderName(name), value);
 	}
 
-	private void closeConnection() {
+	boolean isResponseHeadersSent() {
+		return responseHeadersSent;
+	}
+
+	void closeConnection() {
+		if (connectionClosed) return;
+		connectionClosed = true;
 		connection.close();
 	}
 
@@ -102,12 +148,46 @@ public class HttpRequest<S> {
 	}
 
 	public void sendEmptyResponse(HttpStatusCode code, String statusMessage) {
+		sendResponse(code, statusMessage, null, null);
+	}
+
+	public void sendResponse(HttpStatusCode code, String contentType, byte[] content) {
+		sendResponse(code, null, contentType, content);
+	}
+
+	public void sendResponse(HttpStatusCode code, String contentType, String content) {
+		try {
+			sendResponse(code, null, contentType == null ? null : contentType + "; charset=utf-8",
+				content == null ? null : content.getBytes(IO.UTF_8));
+		} catch (UnsupportedEncodingException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Sends headers and content with one gathering write. Closes the connection afterwards, unless it is kept
+	 * alive.
+	 */
+	private void sendResponse(HttpStatusCode code, String statusMessage, String contentType, byte[] content) {
 		setResponseStatus(code, statusMessage);
-		sendResponseHeaders();
-		closeConnection();
+		if (contentType != null) setResponseHeader("Content-Type", contentType);
+		setResponseHeader("Content-Length", String.valueOf(content == null ? 0 : content.length));
+		boolean keepAlive = isKeepAlive();
+		if (!keepAlive) setResponseHeader("Connection", "close");
+		ByteBuffer headers = createResponseHeaders();
+		if (content == null || content.length == 0 || method == HttpMethod.HEAD) {
+			connection.sendData(headers);
+		} else {
+			connection.sendData(headers, ByteBuffer.wrap(content));
+		}
+		if (!keepAlive) closeConnection();
 	}
 
 	public void sendResponseHeaders() {
+		connection.sendData(createResponseHeaders());
+	}
+
+	private ByteBuffer createResponseHeaders() {
 		if (responseHeadersSent)
 			throw new IllegalStateException("Response headers already sent: " + responseStatusLine + " -> "
 					+ toString());
@@ -115,14 +195,20 @@ public class HttpRequest<S> {
 			setResponseStatus(HttpStatusCode.INTERNAL_SERVER_ERROR, null);
 			log.error("sendHeaders() responseStatusLine==null");
 		}
-		sendLine(responseStatusLine);
 		completeResponseHeaders();
+		StringBuilder sb = new StringBuilder();
+		sb.append(responseStatusLine).append(CRLF);
 		for (Map.Entry<String, String> header : responseHeaders.entrySet()) {
-			sendLine(header.getKey() + ": " + header.getValue());
+			sb.append(header.getKey()).append(": ").append(header.getValue()).append(CRLF);
 		}
-		sendLine("");
+		sb.append(CRLF);
 		responseHeadersSent = true;
 		log.debug(responseStatusLine);
+		try {
+			return ByteBuffer.wrap(sb.toString().getBytes("ISO-8859-1"));
+		} catch (UnsupportedEncodingException ex) {
+			throw new RuntimeException(ex);
+		}
 	}
 
 	private void completeResponseHeaders() {
@@ -134,10 +220,6 @@ public class HttpRequest<S> {
 		if (!responseHeaders.containsKey(name)) responseHeaders.put(name, defaultValue);
 	}
 
-	private void sendLine(String line) {
-		connection.sendLineCrLf(line);
-	}
-
 	public HttpMethod getMethod() {
 		return method;
 	}
@@ -171,8 +253,18 @@ public class HttpRequest<S> {
 		return getHeader("Transfer-Encoding");
 	}
 
+	public Long getHeaderContentLength() {
+		String value = getHeader("Content-Length");
+		if (value == null) return null;
+		return Long.parseLong(value.trim());
+	}
+
+	/**
+	 * @deprecated use getHeaderContentLength()
+	 */
+	@Deprecated
 	public Integer getHeaderContentLenght() {
-		return getHeaderAsInteger("Content-Lenght");
+		return getHeaderAsInteger("Content-Length");
 	}
 
 	// --- response header fields ---
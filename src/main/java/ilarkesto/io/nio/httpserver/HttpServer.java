@@ -22,7 +22,9 @@ import ilarkesto.io.nio.tcpserver.TcpConnection;
 import ilarkesto.io.nio.tcpserver.TcpServer;
 
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class HttpServer<S> {
 
@@ -30,17 +32,44 @@ public class HttpServer<S> {
 	private String name;
 
 	private Set<HttpSession<S>> sessions = new HashSet<HttpSession<S>>();
+	private List<HttpRequestHandler> requestHandlers = new CopyOnWriteArrayList<HttpRequestHandler>();
+	private long maxRequestBodySize = 10 * 1024 * 1024;
 
 	public HttpServer(int port, String serverName) {
+		this(port, serverName, 1);
+	}
+
+	/**
+	 * @param workerCount number of threads calling the request handlers
+	 */
+	public HttpServer(int port, String serverName, int workerCount) {
 		this.name = serverName;
-		server = new TcpServer(port, new PerConnectionDataHandler(new LocalHandlerFactory()));
+		server = new TcpServer(port, new PerConnectionDataHandler(new LocalHandlerFactory()), workerCount);
+	}
+
+	/**
+	 * Adds a handler. Handlers are asked in the order they were added, until one returns <code>true</code>.
+	 */
+	public void addRequestHandler(HttpRequestHandler handler) {
+		requestHandlers.add(handler);
 	}
 
 	void onHttpRequest(HttpRequest request) {
 		updateSession(request);
+		for (HttpRequestHandler handler : requestHandlers) {
+			if (handler.onHttpRequest(request)) return;
+		}
 		request.sendEmptyResponse(HttpStatusCode.NOT_FOUND);
 	}
 
+	public void setMaxRequestBodySize(long maxRequestBodySize) {
+		this.maxRequestBodySize = maxRequestBodySize;
+	}
+
+	public long getMaxRequestBodySize() {
+		return maxRequestBodySize;
+	}
+
 	private void updateSession(HttpRequest request) {
 		HttpSession<S> session = getSession("todo");
 		if (session == null) {
@@ -62,6 +91,10 @@ public class HttpServer<S> {
 		server.start(taskManager);
 	}
 
+	public void stop() {
+		server.stop();
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -15,7 +15,8 @@
 package ilarkesto.io.nio.httpserver;
 
 public enum HttpStatusCode {
-	BAD_REQUEST(400, "Bad Request"), NOT_FOUND(404, "Not Found"), INTERNAL_SERVER_ERROR(500, "Internal Server Error"), NOT_IMPLEMENTED(
+	OK(200, "OK"), NO_CONTENT(204, "No Content"), NOT_MODIFIED(304, "Not Modified"), BAD_REQUEST(400, "Bad Request"), NOT_FOUND(404, "Not Found"), REQUEST_ENTITY_TOO_LARGE(
+			413, "Request Entity Too Large"), INTERNAL_SERVER_ERROR(500, "Internal Server Error"), NOT_IMPLEMENTED(
 			501, "Not Implemented");
 
 	private int code;
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io.nio.tcpserver;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct buffers with equal capacity. Direct buffers are expensive to allocate, but can be read into and
+ * written from without copying through the heap.
+ */
+public class ByteBufferPool {
+
+	private ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+	private AtomicInteger size = new AtomicInteger();
+	private int bufferCapacity;
+	private int maxSize;
+
+	public ByteBufferPool(int bufferCapacity, int maxSize) {
+		super();
+		this.bufferCapacity = bufferCapacity;
+		this.maxSize = maxSize;
+	}
+
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = buffers.poll();
+		if (buffer == null) return ByteBuffer.allocateDirect(bufferCapacity);
+		size.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer to the pool. Buffers which were not acquired from this pool are ignored.
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer == null || !buffer.isDirect() || buffer.capacity() != bufferCapacity) return;
+		if (size.incrementAndGet() > maxSize) {
+			size.decrementAndGet();
+			return;
+		}
+		buffers.offer(buffer);
+	}
+
+	public int getBufferCapacity() {
+		return bufferCapacity;
+	}
+
+	public int getSize() {
+		return size.get();
+	}
+
+}
@@ -39,10 +39,11 @@ public class PerConnectionDataHandler implements DataHandler {
 
 	@Override
 	public void onConnectionClosed(TcpConnection connection) {
+		DataHandler handler;
 		synchronized (handlers) {
-			handlers.remove(connection);
+			handler = handlers.remove(connection);
 		}
-		getHandler(connection).onConnectionClosed(connection);
+		if (handler != null) handler.onConnectionClosed(connection);
 	}
 
 	private DataHandler getHandler(TcpConnection connection) {
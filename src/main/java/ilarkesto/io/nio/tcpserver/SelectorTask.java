@@ -21,35 +21,39 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class SelectorTask extends ALoopTask {
 
 	private Log log = Log.get(getClass());
 
-	private WorkerTask worker;
+	private WorkerTask[] workers;
+	private ByteBufferPool bufferPool;
 	private int port;
+	private int nextWorker;
 
 	private InetAddress hostAddress;
 	private ServerSocketChannel serverChannel;
 	private Selector selector;
 
-	private ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+	private ByteBuffer[] writeBatch = new ByteBuffer[16];
 
-	private List changeRequests = new LinkedList();
-	private List<TcpConnection> connections = new LinkedList<TcpConnection>();
+	private ConcurrentLinkedQueue<ChangeRequest> changeRequests = new ConcurrentLinkedQueue<ChangeRequest>();
 
 	public SelectorTask(int port, WorkerTask worker) {
+		this(port, new WorkerTask[] { worker }, new ByteBufferPool(8192, 64));
+	}
+
+	public SelectorTask(int port, WorkerTask[] workers, ByteBufferPool bufferPool) {
 		this.port = port;
-		this.worker = worker;
+		this.workers = workers;
+		this.bufferPool = bufferPool;
 	}
 
 	@Override
@@ -64,19 +68,15 @@ public class SelectorTask extends ALoopTask {
 
 	@Override
 	protected void iteration() throws InterruptedException {
-		synchronized (this.changeRequests) {
-			Iterator changes = this.changeRequests.iterator();
-			while (changes.hasNext()) {
-				ChangeRequest change = (ChangeRequest) changes.next();
-				switch (change.type) {
-					case ChangeRequest.CHANGEOPS:
-						SelectionKey key = change.socket.keyFor(this.selector);
-						if (key.isValid()) {
-							key.interestOps(change.ops);
-						}
-				}
+		ChangeRequest change;
+		while ((change = changeRequests.poll()) != null) {
+			switch (change.type) {
+				case ChangeRequest.CHANGEOPS:
+					SelectionKey key = change.socket.keyFor(this.selector);
+					if (key != null && key.isValid()) {
+						key.interestOps(change.ops);
+					}
 			}
-			this.changeRequests.clear();
 		}
 
 		try {
@@ -122,9 +122,14 @@ public class SelectorTask extends ALoopTask {
 	}
 
 	void sendChangeRequestForWrite(SocketChannel socket) {
-		synchronized (changeRequests) {
-			changeRequests.add(new ChangeRequest(socket, ChangeRequest.CHANGEOPS, SelectionKey.OP_WRITE));
-		}
+		changeRequests.offer(new ChangeRequest(socket, ChangeRequest.CHANGEOPS, SelectionKey.OP_WRITE));
+		selector.wakeup();
+	}
+
+	@Override
+	public void abort() {
+		super.abort();
+		if (selector != null) selector.wakeup();
 	}
 
 	void wakeupSelector() {
@@ -133,21 +138,35 @@ public class SelectorTask extends ALoopTask {
 
 	private void write(SelectionKey key) throws IOException {
 		SocketChannel socketChannel = (SocketChannel) key.channel();
-		TcpConnection connection = getConnectionByChannel(socketChannel);
+		TcpConnection connection = (TcpConnection) key.attachment();
 		// Write until there's not more data ...
 		while (!connection.pendingData.isEmpty()) {
-			ByteBuffer data = connection.pendingData.peek();
-			if (data == TcpConnection.CLOSE_CONNECTION) {
+			int count = 0;
+			for (ByteBuffer data : connection.pendingData) {
+				if (data == TcpConnection.CLOSE_CONNECTION || count == writeBatch.length) break;
+				writeBatch[count++] = data;
+			}
+			if (count == 0) {
 				log.debug("Closing client connection:", connection);
 				closeConnectionInternal(connection);
 				return;
 			}
-			socketChannel.write(data);
-			if (data.remaining() > 0) {
+			socketChannel.write(writeBatch, 0, count);
+			boolean socketBufferFull = false;
+			for (int i = 0; i < count; i++) {
+				ByteBuffer data = writeBatch[i];
+				writeBatch[i] = null;
+				if (socketBufferFull || data.hasRemaining()) {
+					socketBufferFull = true;
+					continue;
+				}
+				connection.pendingData.poll();
+				bufferPool.release(data);
+			}
+			if (socketBufferFull) {
 				// ... or the socket's buffer fills up
 				break;
 			}
-			connection.pendingData.remove(data);
 		}
 		if (connection.pendingData.isEmpty()) {
 			// We wrote away all data, so we're no longer interested
@@ -159,70 +178,61 @@ public class SelectorTask extends ALoopTask {
 
 	private void read(SelectionKey key) throws IOException {
 		SocketChannel socketChannel = (SocketChannel) key.channel();
-		TcpConnection connection = getConnectionByChannel(socketChannel);
+		TcpConnection connection = (TcpConnection) key.attachment();
 
-		this.readBuffer.clear();
+		ByteBuffer buffer = bufferPool.acquire();
 
 		int numRead;
 		try {
-			numRead = socketChannel.read(this.readBuffer);
+			numRead = socketChannel.read(buffer);
 		} catch (IOException e) {
+			bufferPool.release(buffer);
 			log.debug("Client forcibly closed connection:", connection);
 			closeConnection(key);
 			return;
 		}
 
 		if (numRead == -1) {
+			bufferPool.release(buffer);
 			log.debug("Client closed connection:", connection);
 			closeConnection(key);
 			return;
 		}
 
-		worker.processData(connection, readBuffer.array(), numRead);
-	}
-
-	private TcpConnection getConnectionByKey(SelectionKey key) {
-		return getConnectionByChannel(key.channel());
-	}
-
-	private TcpConnection getConnectionByChannel(SelectableChannel channel) {
-		synchronized (connections) {
-			for (TcpConnection connection : connections) {
-				if (connection.socketChannel == channel) return connection;
-			}
+		if (numRead == 0) {
+			bufferPool.release(buffer);
+			return;
 		}
-		throw new IllegalStateException("No TcpConnection found for channel " + channel);
+
+		buffer.flip();
+		connection.worker.processData(connection, buffer);
 	}
 
 	private void closeConnection(SelectionKey key) {
 		key.cancel();
-		closeConnectionInternal(getConnectionByKey(key));
+		closeConnectionInternal((TcpConnection) key.attachment());
 	}
 
 	private void closeConnectionInternal(TcpConnection connection) {
-		synchronized (connections) {
-			connections.remove(connection);
-		}
 		try {
 			connection.socketChannel.close();
 		} catch (IOException ex) {
 			// nop
 		}
-		worker.processData(connection, null, -1);
+		connection.worker.processData(connection, (ByteBuffer) null);
 	}
 
 	private void accept(SelectionKey key) throws IOException {
 		ServerSocketChannel serverSocketChannel = (ServerSocketChannel) key.channel();
 		SocketChannel socketChannel = serverSocketChannel.accept();
-		TcpConnection tcpConnection = new TcpConnection(this, socketChannel);
-		synchronized (connections) {
-			connections.add(tcpConnection);
-		}
+		WorkerTask worker = workers[nextWorker];
+		nextWorker = (nextWorker + 1) % workers.length;
+		TcpConnection tcpConnection = new TcpConnection(this, worker, socketChannel);
 
 		log.debug("Client connected:", tcpConnection);
 
 		socketChannel.configureBlocking(false);
-		socketChannel.register(this.selector, SelectionKey.OP_READ);
+		socketChannel.register(this.selector, SelectionKey.OP_READ, tcpConnection);
 	}
 
 	private Selector initSelector() throws IOException {
@@ -14,21 +14,63 @@
  */
 package ilarkesto.io.nio.tcpserver;
 
+import java.nio.ByteBuffer;
+
 public class ServerDataEvent {
 
 	private TcpConnection connection;
+	private ByteBuffer buffer;
 	private byte[] data;
+	private boolean detached;
 
 	public ServerDataEvent(TcpConnection connection, byte[] data) {
 		this.connection = connection;
 		this.data = data;
+		if (data != null) this.buffer = ByteBuffer.wrap(data);
+	}
+
+	/**
+	 * @param buffer received data, ready for reading. Only valid during
+	 *            <code>DataHandler.onDataReceived()</code>, unless detached.
+	 */
+	ServerDataEvent(TcpConnection connection, ByteBuffer buffer) {
+		this.connection = connection;
+		this.buffer = buffer;
 	}
 
 	public TcpConnection getConnection() {
 		return connection;
 	}
 
+	/**
+	 * Received data as pooled buffer. The buffer is recycled after <code>DataHandler.onDataReceived()</code> returns.
+	 * Use <code>detachBuffer()</code> to keep it, or <code>getData()</code> for a copy.
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Takes over the ownership of the buffer, which is then not recycled by the worker. A detached buffer can be
+	 * passed to <code>TcpConnection.sendData(ByteBuffer)</code> without copying.
+	 */
+	public ByteBuffer detachBuffer() {
+		detached = true;
+		return buffer;
+	}
+
+	boolean isDetached() {
+		return detached;
+	}
+
+	/**
+	 * Copy of the received data.
+	 */
 	public byte[] getData() {
+		if (data == null && buffer != null) {
+			data = new byte[buffer.remaining()];
+			buffer.duplicate().get(data);
+		}
 		return data;
 	}
 
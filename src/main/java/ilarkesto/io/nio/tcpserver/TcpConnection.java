@@ -24,6 +24,7 @@ public class TcpConnection {
 	static final ByteBuffer CLOSE_CONNECTION = ByteBuffer.wrap(new byte[0]);
 
 	SelectorTask server;
+	WorkerTask worker;
 	SocketChannel socketChannel;
 	String remoteHost;
 	int remotePort;
@@ -32,8 +33,9 @@ public class TcpConnection {
 	ConcurrentLinkedQueue<ByteBuffer> pendingData = new ConcurrentLinkedQueue<ByteBuffer>();
 	boolean closed;
 
-	TcpConnection(SelectorTask server, SocketChannel socketChannel) {
+	TcpConnection(SelectorTask server, WorkerTask worker, SocketChannel socketChannel) {
 		this.server = server;
+		this.worker = worker;
 		this.socketChannel = socketChannel;
 		Socket socket = getSocket();
 		remoteHost = socket.getInetAddress().getHostAddress();
@@ -42,10 +44,20 @@ public class TcpConnection {
 	}
 
 	public void sendData(byte[] data) {
+		sendData(data == null ? CLOSE_CONNECTION : ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Queues the remaining bytes of the buffers for sending. Queued buffers are written with gathering writes. The
+	 * connection takes over the buffers; direct buffers are recycled into the server's buffer pool after they are
+	 * written.
+	 */
+	public void sendData(ByteBuffer... buffers) {
 		if (closed) throw new IllegalStateException("Connection already closed: " + toString());
+		for (ByteBuffer buffer : buffers) {
+			pendingData.add(buffer);
+		}
 		server.sendChangeRequestForWrite(socketChannel);
-		pendingData.add(data == null ? CLOSE_CONNECTION : ByteBuffer.wrap(data));
-		server.wakeupSelector();
 	}
 
 	public void sendString(String s) {
@@ -58,7 +70,7 @@ public class TcpConnection {
 	}
 
 	public void close() {
-		sendData(null);
+		sendData(CLOSE_CONNECTION);
 		closed = true;
 	}
 
@@ -20,21 +20,37 @@ import ilarkesto.concurrent.TaskManager;
 public class TcpServer {
 
 	private SelectorTask selectorTask;
-	private WorkerTask workerTask;
+	private WorkerTask[] workerTasks;
 
 	public TcpServer(int port, DataHandler dataHandler) {
-		workerTask = new WorkerTask(dataHandler);
-		selectorTask = new SelectorTask(port, workerTask);
+		this(port, dataHandler, 1);
+	}
+
+	/**
+	 * @param workerCount number of threads calling the data handler. Each connection is bound to one worker, so
+	 *            with more than one worker the data handler must be thread safe.
+	 */
+	public TcpServer(int port, DataHandler dataHandler, int workerCount) {
+		ByteBufferPool bufferPool = new ByteBufferPool(8192, 64 * workerCount);
+		workerTasks = new WorkerTask[workerCount];
+		for (int i = 0; i < workerCount; i++) {
+			workerTasks[i] = new WorkerTask(dataHandler, bufferPool);
+		}
+		selectorTask = new SelectorTask(port, workerTasks, bufferPool);
 	}
 
 	public void start(TaskManager taskManager) {
-		taskManager.start(workerTask);
+		for (WorkerTask workerTask : workerTasks) {
+			taskManager.start(workerTask);
+		}
 		taskManager.start(selectorTask);
 	}
 
 	public void stop() {
 		selectorTask.abort();
-		workerTask.abort();
+		for (WorkerTask workerTask : workerTasks) {
+			workerTask.abort();
+		}
 	}
 
 	public int getPort() {
@@ -16,18 +16,33 @@ package ilarkesto.io.nio.tcpserver;
 
 import ilarkesto.concurrent.ALoopTask;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Calls the DataHandler for received data. Each connection is bound to one worker, so data of a connection is
+ * handled in order.
+ */
 public class WorkerTask extends ALoopTask {
 
+	private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
 	private DataHandler handler;
+	private ByteBufferPool bufferPool;
 
-	private List<ServerDataEvent> queue = new LinkedList<ServerDataEvent>();
+	private ConcurrentLinkedQueue<ServerDataEvent> queue = new ConcurrentLinkedQueue<ServerDataEvent>();
+	private volatile Thread thread;
 
 	public WorkerTask(DataHandler handler) {
+		this(handler, null);
+	}
+
+	public WorkerTask(DataHandler handler, ByteBufferPool bufferPool) {
 		super();
 		this.handler = handler;
+		this.bufferPool = bufferPool;
 	}
 
 	public void processData(TcpConnection connection, byte[] data, int count) {
@@ -38,28 +53,56 @@ public class WorkerTask extends ALoopTask {
 			dataCopy = new byte[count];
 			System.arraycopy(data, 0, dataCopy, 0, count);
 		}
-		synchronized (queue) {
-			queue.add(new ServerDataEvent(connection, dataCopy));
-			queue.notify();
-		}
+		enqueue(new ServerDataEvent(connection, dataCopy));
+	}
+
+	/**
+	 * Hands over a received buffer, ready for reading. <code>null</code> signals a closed connection.
+	 */
+	void processData(TcpConnection connection, ByteBuffer buffer) {
+		enqueue(new ServerDataEvent(connection, buffer));
+	}
+
+	private void enqueue(ServerDataEvent event) {
+		queue.offer(event);
+		Thread t = thread;
+		if (t != null) LockSupport.unpark(t);
 	}
 
 	@Override
-	protected void iteration() throws InterruptedException {
-		ServerDataEvent dataEvent;
+	protected void beforeLoop() throws InterruptedException {
+		thread = Thread.currentThread();
+	}
 
-		synchronized (queue) {
-			while (queue.isEmpty()) {
-				queue.wait();
-			}
-			dataEvent = queue.remove(0);
+	@Override
+	protected void iteration() throws InterruptedException {
+		ServerDataEvent dataEvent = queue.poll();
+		if (dataEvent == null) {
+			LockSupport.parkNanos(this, MAX_PARK_NANOS);
+			if (Thread.interrupted()) throw new InterruptedException();
+			return;
 		}
 
-		if (dataEvent.getData() == null) {
+		ByteBuffer buffer = dataEvent.getBuffer();
+		if (buffer == null) {
 			handler.onConnectionClosed(dataEvent.getConnection());
-		} else {
+			return;
+		}
+		try {
 			handler.onDataReceived(dataEvent);
+		} finally {
+			if (bufferPool != null && !dataEvent.isDetached()) bufferPool.release(buffer);
 		}
 	}
 
+	@Override
+	protected void sleep() {}
+
+	@Override
+	public void abort() {
+		super.abort();
+		Thread t = thread;
+		if (t != null) LockSupport.unpark(t);
+	}
+
 }
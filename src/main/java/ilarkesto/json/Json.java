@@ -18,7 +18,7 @@ public class Json {
 
 		if (value instanceof String) {
 			out.print('"');
-			out.print(escapeString((String) value));
+			printEscapedString((String) value, out);
 			out.print('"');
 			return;
 		}
@@ -111,6 +111,47 @@ public class Json {
 		}
 	}
 
+	/**
+	 * Prints the same as <code>escapeString()</code> without creating intermediate strings.
+	 */
+	public static void printEscapedString(String s, PrintWriter out) {
+		if (s == null) return;
+		int len = s.length();
+		int start = 0;
+		for (int i = 0; i < len; i++) {
+			String escaped;
+			switch (s.charAt(i)) {
+				case '\\':
+					escaped = "\\\\";
+					break;
+				case '"':
+					escaped = "\\\"";
+					break;
+				case '\b':
+					escaped = "\\b";
+					break;
+				case '\f':
+					escaped = "\\f";
+					break;
+				case '\n':
+					escaped = "\\n";
+					break;
+				case '\r':
+					escaped = "\\r";
+					break;
+				case '\t':
+					escaped = "\\t";
+					break;
+				default:
+					continue;
+			}
+			if (i > start) out.write(s, start, i - start);
+			out.print(escaped);
+			start = i + 1;
+		}
+		if (len > start) out.write(s, start, len - start);
+	}
+
 	public static String escapeString(String s) {
 		if (s == null) return "";
 		s = s.replace("\\", "\\\\");
@@ -35,12 +35,17 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.StringWriter;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class JsonMapper {
 
@@ -113,7 +118,7 @@ public class JsonMapper {
 		out.print('{');
 		indent++;
 		boolean first = true;
-		for (Field field : Reflect.getSerializableFields(object)) {
+		for (FieldMapping field : getMapping(object.getClass()).getSerializableFields()) {
 			if (first) {
 				first = false;
 			} else {
@@ -121,17 +126,9 @@ public class JsonMapper {
 			}
 			nlindent(out, indent);
 			out.print('\"');
-			out.print(Json.escapeString(field.getName()));
+			out.print(field.getEscapedName());
 			out.print("\": ");
-			Object fieldValue;
-			if (!field.isAccessible()) field.setAccessible(true);
-			try {
-				fieldValue = field.get(object);
-			} catch (Exception ex) {
-				throw new RuntimeException("Reading field value from " + field.getClass() + "." + field.getName()
-						+ " failed.", ex);
-			}
-			serialize(fieldValue, out, indent);
+			serialize(field.get(object), out, indent);
 		}
 		indent--;
 		nlindent(out, indent);
@@ -180,7 +177,7 @@ public class JsonMapper {
 	public static abstract class TypeResolver {
 
 		public Class resolveType(Object object, String field) {
-			return Reflect.getDeclaredField(object.getClass(), field).getType();
+			return getMapping(object.getClass()).getField(field).getType();
 		}
 
 		public abstract Class resolveArrayType(Object object, String field);
@@ -213,17 +210,152 @@ public class JsonMapper {
 
 	}
 
+	private static final Map<Class<?>, ClassMapping> mappingsByClass = new ConcurrentHashMap<Class<?>, ClassMapping>();
+
+	static ClassMapping getMapping(Class<?> type) {
+		ClassMapping mapping = mappingsByClass.get(type);
+		if (mapping == null) {
+			mapping = new ClassMapping(type);
+			mappingsByClass.put(type, mapping);
+		}
+		return mapping;
+	}
+
+	/**
+	 * Fields and constructor of a class, resolved once instead of walking the class hierarchy for every value.
+	 */
+	static class ClassMapping {
+
+		private Class<?> type;
+		private Constructor<?> constructor;
+		private Exception constructorException;
+		private Map<String, FieldMapping> fieldsByName = new HashMap<String, FieldMapping>();
+		private List<FieldMapping> serializableFields = new ArrayList<FieldMapping>();
+
+		public ClassMapping(Class<?> type) {
+			super();
+			this.type = type;
+
+			// like Reflect.getDeclaredField(): fields of subclasses hide fields of superclasses
+			Class<?> c = type;
+			while (c != null && !c.equals(Object.class)) {
+				for (Field field : c.getDeclaredFields()) {
+					if (!fieldsByName.containsKey(field.getName()))
+						fieldsByName.put(field.getName(), new FieldMapping(field));
+				}
+				c = c.getSuperclass();
+			}
+
+			for (Field field : Reflect.getFields(type, false, true, false)) {
+				FieldMapping mapping = fieldsByName.get(field.getName());
+				if (mapping == null || !mapping.getField().equals(field)) mapping = new FieldMapping(field);
+				serializableFields.add(mapping);
+			}
+
+			try {
+				constructor = type.getConstructor();
+				constructor.setAccessible(true);
+			} catch (Exception ex) {
+				constructorException = ex;
+			}
+		}
+
+		public Object newInstance() {
+			if (constructor == null) throw new RuntimeException(constructorException);
+			try {
+				return constructor.newInstance();
+			} catch (Exception ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+		public FieldMapping getField(String name) {
+			return fieldsByName.get(name);
+		}
+
+		public FieldMapping getExistingField(String name) {
+			FieldMapping field = fieldsByName.get(name);
+			if (field == null) throw new RuntimeException("Field does not exist: " + type.getName() + "." + name);
+			return field;
+		}
+
+		public List<FieldMapping> getSerializableFields() {
+			return serializableFields;
+		}
+
+	}
+
+	static class FieldMapping {
+
+		private Field field;
+		private Class<?> type;
+		private String escapedName;
+		private boolean intType;
+		private boolean bigDecimalType;
+
+		public FieldMapping(Field field) {
+			super();
+			this.field = field;
+			this.type = field.getType();
+			this.escapedName = Json.escapeString(field.getName());
+			this.intType = type == int.class || type == Integer.class;
+			this.bigDecimalType = type.equals(BigDecimal.class);
+			field.setAccessible(true);
+		}
+
+		public Object get(Object object) {
+			try {
+				return field.get(object);
+			} catch (Exception ex) {
+				throw new RuntimeException("Reading field value from " + field.getDeclaringClass() + "."
+						+ field.getName() + " failed.", ex);
+			}
+		}
+
+		/**
+		 * Sets the value with the same conversions as <code>Reflect.setFieldValue()</code>.
+		 */
+		public void set(Object object, Object value) {
+			if (intType && value instanceof Long) {
+				value = ((Long) value).intValue();
+			} else if (bigDecimalType && value instanceof Number && !(value instanceof BigDecimal)) {
+				value = new BigDecimal(value.toString());
+			}
+			try {
+				field.set(object, value);
+			} catch (IllegalArgumentException ex) {
+				throw new RuntimeException(ex);
+			} catch (IllegalAccessException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+		public Field getField() {
+			return field;
+		}
+
+		public Class<?> getType() {
+			return type;
+		}
+
+		public String getEscapedName() {
+			return escapedName;
+		}
+
+	}
+
 	private static class ObjectMappingContentHandler<T> implements ContentHandler {
 
-		private Class<T> objectType;
+		private Class<? extends T> objectType;
+		private ClassMapping mapping;
 		private T object;
 		private String currentAttributeName;
-		private Collection currentArray;
-		private ObjectMappingContentHandler subHandler;
-		private ObjectMappingContentHandler parent;
+		private Collection<Object> currentArray;
+		private ObjectMappingContentHandler<?> subHandler;
+		private ObjectMappingContentHandler<?> parent;
 		private TypeResolver typeResolver;
 
-		public ObjectMappingContentHandler(Class<T> type, TypeResolver typeResolver) {
+		public ObjectMappingContentHandler(Class<? extends T> type, TypeResolver typeResolver) {
 			super();
 			this.objectType = type;
 			this.typeResolver = typeResolver;
@@ -241,17 +373,19 @@ public class JsonMapper {
 			}
 			if (object == null) {
 				// log.debug("Instantiating:", objectType);
-				object = Reflect.newInstance(objectType);
+				mapping = getMapping(objectType);
+				object = objectType.cast(mapping.newInstance());
 				return true;
 			}
-			Class resolvedType = currentArray == null ? Reflect.getDeclaredField(objectType, currentAttributeName)
-					.getType() : typeResolver.resolveArrayType(object, currentAttributeName);
+			Class<?> resolvedType = currentArray == null ? mapping.getExistingField(currentAttributeName).getType()
+					: typeResolver.resolveArrayType(object, currentAttributeName);
 			if (resolvedType == null)
 				throw new IllegalStateException("Type could not be resolved: " + objectType.getSimpleName() + "."
 						+ currentAttributeName);
-			subHandler = new ObjectMappingContentHandler(resolvedType, typeResolver);
-			subHandler.parent = this;
-			subHandler.onBeginObject();
+			ObjectMappingContentHandler<Object> handler = new ObjectMappingContentHandler<Object>(resolvedType, typeResolver);
+			handler.parent = this;
+			subHandler = handler;
+			handler.onBeginObject();
 			return true;
 		}
 
@@ -267,7 +401,7 @@ public class JsonMapper {
 				if (parent.currentArray != null) {
 					parent.currentArray.add(getObject());
 				} else {
-					Reflect.setFieldValue(parent.object, parent.currentAttributeName, getObject());
+					parent.mapping.getExistingField(parent.currentAttributeName).set(parent.object, getObject());
 				}
 				parent.subHandler = null;
 				return true;
@@ -305,18 +439,18 @@ public class JsonMapper {
 				return true;
 			}
 
-			Field field = Reflect.getDeclaredField(object.getClass(), currentAttributeName);
+			FieldMapping field = mapping.getField(currentAttributeName);
 			if (field == null)
 				throw new IllegalStateException("Missing field: " + object.getClass() + "." + currentAttributeName);
 			Class<?> fieldType = field.getType();
 			if (fieldType.isAssignableFrom(List.class)) {
-				currentArray = new ArrayList();
+				currentArray = new ArrayList<Object>();
 			} else if (fieldType.isAssignableFrom(Set.class)) {
-				currentArray = new HashSet();
+				currentArray = new HashSet<Object>();
 			} else {
 				throw new IllegalStateException("Unsupported collection type: " + fieldType.getName());
 			}
-			Reflect.setFieldValue(object, currentAttributeName, currentArray);
+			field.set(object, currentArray);
 			return true;
 		}
 
@@ -345,15 +479,12 @@ public class JsonMapper {
 				return true;
 			}
 
+			FieldMapping field = mapping.getExistingField(currentAttributeName);
 			if (value instanceof String) {
-				String s = (String) value;
-				Field field = Reflect.getDeclaredField(object.getClass(), currentAttributeName);
-				if (field != null) {
-					value = typeResolver.convertStringForField(field, (String) value);
-				}
+				value = typeResolver.convertStringForField(field.getField(), (String) value);
 			}
 
-			Reflect.setFieldValue(object, currentAttributeName, value);
+			field.set(object, value);
 			return true;
 		}
 
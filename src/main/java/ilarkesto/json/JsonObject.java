@@ -3,7 +3,7 @@ package ilarkesto.json;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
@@ -11,12 +11,14 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -78,6 +80,39 @@ public class JsonObject {
         return new JsonObject(json, 0);
     }
 
+    /**
+     * Builds the object while reading, without loading the whole input into a string. The reader is closed.
+     */
+    public static JsonObject parse(Reader in) {
+        BufferedReader reader = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+        try {
+            if (isEmpty(reader)) return new JsonObject();
+            Builder builder = new Builder();
+            new JsonSaxParser().parse(reader, builder);
+            return builder.root;
+        } catch (JsonSaxParser.ParseException ex) {
+            throw new ParseException(ex.getMessage());
+        } catch (IOException ex) {
+            throw new RuntimeException("Loading JSON failed", ex);
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException ex) {
+            }
+        }
+    }
+
+    private static boolean isEmpty(BufferedReader in) throws IOException {
+        while (true) {
+            in.mark(1);
+            int c = in.read();
+            if (c < 0) return true;
+            if (Json.isWhitespace((char) c)) continue;
+            in.reset();
+            return false;
+        }
+    }
+
     public File getFile() {
         return file;
     }
@@ -97,7 +132,7 @@ public class JsonObject {
         }
         JsonObject object;
         try {
-            object = parse(load(file));
+            object = parse(openReader(file));
         } catch (ParseException ex) {
             if (!createEmptyIfNoFile) throw ex;
             object = new JsonObject();
@@ -114,14 +149,14 @@ public class JsonObject {
             if (createemptyIfNoResource) return new JsonObject();
             return null;
         }
-        return parse(load(is));
+        return parse(new InputStreamReader(is));
     }
 
     public static JsonObject loadFromUrl(String url) {
         InputStream is = null;
         try {
             is = new URL(url).openStream();
-            return parse(load(is));
+            return parse(new InputStreamReader(is));
         } catch (Exception ex) {
             throw new RuntimeException(ex);
         } finally {
@@ -133,7 +168,7 @@ public class JsonObject {
     }
 
     public static JsonObject loadFromStream(InputStream is) {
-        return parse(load(is));
+        return parse(new InputStreamReader(is));
     }
 
     public void assignFile(File file) {
@@ -416,7 +451,7 @@ public class JsonObject {
             if (indentation >= 0) out.print('\n');
             Json.indent(out, indentation);
             out.print('"');
-            out.print(Json.escapeString(element.getKey()));
+            Json.printEscapedString(element.getKey(), out);
             out.print("\":");
             if (indentation >= 0) out.print(' ');
             Json.printValue(element.getValue(), out, indentation);
@@ -580,7 +615,7 @@ public class JsonObject {
         }
         PrintWriter out;
         try {
-            out = new PrintWriter(new FileWriter(file));
+            out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
         } catch (IOException ex) {
             throw new RuntimeException("Writing file failed: " + file.getAbsolutePath(), ex);
         }
@@ -594,33 +629,98 @@ public class JsonObject {
         out.flush();
     }
 
-    private static String load(File file) {
-        if (!file.exists()) return null;
+    private static Reader openReader(File file) {
         try {
-            return load(new FileInputStream(file));
+            return new FileReader(file);
         } catch (Exception ex) {
             throw new RuntimeException("Loading file failed: +" + file.getAbsolutePath(), ex);
         }
     }
 
-    private static String load(InputStream is) {
-        BufferedReader in = null;
-        try {
-            in = new BufferedReader(new InputStreamReader(is));
-            StringBuilder sb = new StringBuilder();
-            String line = null;
-            while ((line = in.readLine()) != null) {
-                sb.append(line).append('\n');
+    /**
+     * Builds a JsonObject from the events of a JsonSaxParser.
+     */
+    private static class Builder implements JsonSaxParser.ContentHandler {
+
+        private JsonObject root;
+        private LinkedList<Object> containers = new LinkedList<Object>();
+        private LinkedList<String> names = new LinkedList<String>();
+
+        @Override
+        public void onBegin() {}
+
+        @Override
+        public void onEnd() {}
+
+        @Override
+        public boolean onBeginObject() throws JsonSaxParser.ParseException {
+            JsonObject object = new JsonObject();
+            if (root == null) {
+                root = object;
+            } else {
+                object.parent = getCurrentObject();
+                addValue(object);
             }
-            return sb.toString();
-        } catch (Exception ex) {
-            throw new RuntimeException("Loading JSON failed", ex);
-        } finally {
-            if (in != null) try {
-                in.close();
-            } catch (Exception e) {
+            containers.addFirst(object);
+            return true;
+        }
+
+        @Override
+        public boolean onEndObject() {
+            containers.removeFirst();
+            return true;
+        }
+
+        @Override
+        public boolean onBeginAttribute(String key) {
+            names.addFirst(key);
+            return true;
+        }
+
+        @Override
+        public boolean onEndAttribute() {
+            names.removeFirst();
+            return true;
+        }
+
+        @Override
+        public boolean onBeginArray() throws JsonSaxParser.ParseException {
+            List list = new ArrayList();
+            addValue(list);
+            containers.addFirst(list);
+            return true;
+        }
+
+        @Override
+        public boolean onEndArray() {
+            containers.removeFirst();
+            return true;
+        }
+
+        @Override
+        public boolean onPrimitiveValue(Object value) throws JsonSaxParser.ParseException {
+            addValue(value);
+            return true;
+        }
+
+        private void addValue(Object value) throws JsonSaxParser.ParseException {
+            if (containers.isEmpty())
+                throw new JsonSaxParser.ParseException(JsonSaxParser.ParseException.ERROR_UNEXPECTED_TOKEN, value);
+            Object container = containers.getFirst();
+            if (container instanceof List) {
+                ((List) container).add(value);
+            } else {
+                ((JsonObject) container).elements.put(names.getFirst(), value);
+            }
+        }
+
+        private JsonObject getCurrentObject() {
+            for (Object container : containers) {
+                if (container instanceof JsonObject) return (JsonObject) container;
             }
+            return null;
         }
+
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.json;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Reads a JSON document with <code>JsonSaxParser</code> and passes it to an <code>ElementHandler</code> piece by
+ * piece: each attribute of the root object, and each element of an array which is the root or an attribute of the
+ * root. Only one such value is in memory at a time, so a body like
+ * <code>{"type":"import", "items":[{...}, {...}, ...]}</code> can be processed in constant memory.
+ */
+public class JsonStreamReader {
+
+	private Reader in;
+
+	public JsonStreamReader(Reader in) {
+		this.in = in instanceof BufferedReader ? in : new BufferedReader(in);
+	}
+
+	/**
+	 * Passes the raw parser events to the given handler.
+	 */
+	public void parse(JsonSaxParser.ContentHandler handler) {
+		try {
+			new JsonSaxParser().parse(in, handler);
+		} catch (JsonSaxParser.ParseException ex) {
+			throw new ParseException(ex.getMessage());
+		} catch (IOException ex) {
+			throw new RuntimeException("Reading JSON failed", ex);
+		}
+	}
+
+	public void read(ElementHandler handler) {
+		parse(new Splitter(handler));
+	}
+
+	/**
+	 * Reads the whole document into a <code>JsonObject</code>.
+	 */
+	public JsonObject readObject() {
+		return JsonObject.parse(in);
+	}
+
+	public static interface ElementHandler {
+
+		/**
+		 * An attribute of the root object, which is not an array. <code>value</code> is a primitive or a
+		 * <code>JsonObject</code>.
+		 */
+		void onAttribute(String name, Object value);
+
+		/**
+		 * An element of an array. <code>name</code> is the attribute of the root object containing the array, or
+		 * <code>null</code> if the root is the array.
+		 */
+		void onArrayElement(String name, Object element);
+
+	}
+
+	private static class Splitter implements JsonSaxParser.ContentHandler {
+
+		private ElementHandler handler;
+
+		private int depth;
+		private boolean rootIsArray;
+		private boolean inRootArray;
+		private String rootName;
+
+		// value which is currently built, innermost container first
+		private LinkedList<Object> containers = new LinkedList<Object>();
+		private LinkedList<String> names = new LinkedList<String>();
+
+		public Splitter(ElementHandler handler) {
+			this.handler = handler;
+		}
+
+		@Override
+		public void onBegin() {}
+
+		@Override
+		public void onEnd() {}
+
+		@Override
+		public boolean onBeginObject() {
+			if (depth++ == 0) return true;
+			containers.addFirst(new JsonObject());
+			return true;
+		}
+
+		@Override
+		public boolean onEndObject() {
+			if (--depth == 0) return true;
+			onValueComplete(containers.removeFirst());
+			return true;
+		}
+
+		@Override
+		public boolean onBeginArray() {
+			if (depth == 0) {
+				rootIsArray = true;
+				inRootArray = true;
+			} else if (depth == 1 && !rootIsArray) {
+				inRootArray = true;
+			} else {
+				containers.addFirst(new ArrayList<Object>());
+			}
+			depth++;
+			return true;
+		}
+
+		@Override
+		public boolean onEndArray() {
+			depth--;
+			if (inRootArray && containers.isEmpty()) {
+				inRootArray = false;
+				return true;
+			}
+			onValueComplete(containers.removeFirst());
+			return true;
+		}
+
+		@Override
+		public boolean onBeginAttribute(String key) {
+			if (depth == 1 && !rootIsArray) {
+				rootName = key;
+			} else {
+				names.addFirst(key);
+			}
+			return true;
+		}
+
+		@Override
+		public boolean onEndAttribute() {
+			if (depth == 1 && !rootIsArray) {
+				rootName = null;
+			} else {
+				names.removeFirst();
+			}
+			return true;
+		}
+
+		@Override
+		public boolean onPrimitiveValue(Object value) {
+			onValueComplete(value);
+			return true;
+		}
+
+		private void onValueComplete(Object value) {
+			if (containers.isEmpty()) {
+				if (inRootArray) {
+					handler.onArrayElement(rootName, value);
+				} else {
+					handler.onAttribute(rootName, value);
+				}
+				return;
+			}
+			Object container = containers.getFirst();
+			if (container instanceof List) {
+				// only lists created in onBeginArray() are pushed
+				@SuppressWarnings("unchecked")
+				List<Object> list = (List<Object>) container;
+				list.add(value);
+			} else {
+				((JsonObject) container).put(names.getFirst(), value);
+			}
+		}
+
+	}
+
+}
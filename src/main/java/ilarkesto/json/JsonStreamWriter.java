@@ -0,0 +1,195 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.json;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+/**
+ * Writes JSON incrementally, without building a <code>JsonObject</code> for the whole document. Values can be
+ * primitives, <code>JsonObject</code>s, <code>JsonWrapper</code>s or <code>Iterable</code>s, they are printed with
+ * <code>Json.printValue()</code>.
+ *
+ * <pre>
+ * out.beginObject().field(&quot;count&quot;, n).name(&quot;items&quot;).beginArray();
+ * for (Item item : items) out.value(item.toJson());
+ * out.endArray().endObject().flush();
+ * </pre>
+ *
+ * Write errors of the underlying writer are detected periodically and on <code>flush()</code>, so a producer stops
+ * soon after the client disconnected.
+ */
+public class JsonStreamWriter implements Flushable, Closeable {
+
+	private static final int ERROR_CHECK_INTERVAL = 1024;
+
+	private PrintWriter out;
+	private boolean formated;
+
+	// per open container: true if object, false if array
+	private boolean[] objects = new boolean[16];
+	// per open container: true if nothing written yet
+	private boolean[] empty = new boolean[16];
+	private int depth;
+	private boolean nameWritten;
+	private boolean finished;
+	private int valuesSinceErrorCheck;
+
+	public JsonStreamWriter(Writer out, boolean formated) {
+		this.out = out instanceof PrintWriter ? (PrintWriter) out : new PrintWriter(out);
+		this.formated = formated;
+	}
+
+	public JsonStreamWriter(Writer out) {
+		this(out, false);
+	}
+
+	public JsonStreamWriter beginObject() {
+		beforeValue();
+		out.print('{');
+		push(true);
+		return this;
+	}
+
+	public JsonStreamWriter endObject() {
+		if (depth == 0 || !objects[depth - 1] || nameWritten) throw new IllegalStateException("No object to end");
+		beforeEnd();
+		out.print('}');
+		pop();
+		return this;
+	}
+
+	public JsonStreamWriter beginArray() {
+		beforeValue();
+		out.print('[');
+		push(false);
+		return this;
+	}
+
+	public JsonStreamWriter endArray() {
+		if (depth == 0 || objects[depth - 1]) throw new IllegalStateException("No array to end");
+		beforeEnd();
+		out.print(']');
+		pop();
+		return this;
+	}
+
+	public JsonStreamWriter name(String name) {
+		if (depth == 0 || !objects[depth - 1] || nameWritten)
+			throw new IllegalStateException("Name not allowed here: " + name);
+		nextElement();
+		out.print('"');
+		Json.printEscapedString(name, out);
+		out.print("\":");
+		if (formated) out.print(' ');
+		nameWritten = true;
+		return this;
+	}
+
+	public JsonStreamWriter value(Object value) {
+		beforeValue();
+		Json.printValue(value, out, formated ? depth : -1);
+		afterValue();
+		return this;
+	}
+
+	public JsonStreamWriter field(String name, Object value) {
+		return name(name).value(value);
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	@Override
+	public void flush() {
+		out.flush();
+		checkError();
+	}
+
+	/**
+	 * Flushes, but does not close the underlying writer. The document has to be complete.
+	 */
+	@Override
+	public void close() {
+		if (depth > 0) throw new IllegalStateException("Incomplete JSON, " + depth + " containers not ended");
+		flush();
+	}
+
+	private void beforeValue() {
+		if (depth == 0) {
+			if (finished) throw new IllegalStateException("JSON already complete");
+			return;
+		}
+		if (objects[depth - 1]) {
+			if (!nameWritten) throw new IllegalStateException("Value in object without name");
+			nameWritten = false;
+			return;
+		}
+		nextElement();
+	}
+
+	private void nextElement() {
+		if (empty[depth - 1]) {
+			empty[depth - 1] = false;
+		} else {
+			out.print(',');
+		}
+		if (formated) {
+			out.print('\n');
+			Json.indent(out, depth);
+		}
+	}
+
+	private void beforeEnd() {
+		if (formated && !empty[depth - 1]) {
+			out.print('\n');
+			Json.indent(out, depth - 1);
+		}
+	}
+
+	private void afterValue() {
+		if (depth == 0) finished = true;
+		if (++valuesSinceErrorCheck < ERROR_CHECK_INTERVAL) return;
+		valuesSinceErrorCheck = 0;
+		checkError();
+	}
+
+	private void checkError() {
+		if (out.checkError()) throw new RuntimeException("Writing JSON failed");
+	}
+
+	private void push(boolean object) {
+		if (depth == objects.length) {
+			boolean[] newObjects = new boolean[depth * 2];
+			System.arraycopy(objects, 0, newObjects, 0, depth);
+			objects = newObjects;
+			boolean[] newEmpty = new boolean[depth * 2];
+			System.arraycopy(empty, 0, newEmpty, 0, depth);
+			empty = newEmpty;
+		}
+		objects[depth] = object;
+		empty[depth] = true;
+		depth++;
+	}
+
+	private void pop() {
+		depth--;
+		afterValue();
+	}
+
+}
@@ -14,14 +14,36 @@
  */
 package ilarkesto.json.jsondb;
 
+import ilarkesto.concurrent.DeamonThreadFactory;
+import ilarkesto.core.logging.Log;
+import ilarkesto.io.IO;
 import ilarkesto.json.JsonObject;
+import ilarkesto.json.JsonSaxParser;
+import ilarkesto.json.JsonSaxParser.ParseException;
+import ilarkesto.json.jsondb.DocumentQuery.Condition;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public abstract class AJsonDb {
 
+	private final Log log = Log.get(getClass());
+
+	private ExecutorService loaderExecutor;
+
 	public abstract JsonObject loadDocumentById(String id);
 
 	public abstract List<DocumentReference> listAllDocuments();
@@ -30,7 +52,86 @@ public abstract class AJsonDb {
 
 	public abstract void deleteDocument(JsonObject document);
 
+	/**
+	 * Field index for the given JSON Pointer or <code>null</code>, if this database has no such index.
+	 */
+	protected DocumentFieldIndex getFieldIndex(String pointer) {
+		return null;
+	}
+
+	/**
+	 * Reader on the raw JSON of the referenced document or <code>null</code>, if streaming is not supported.
+	 * Allows queries to reject documents without fully parsing them.
+	 */
+	protected Reader openDocumentReader(DocumentReference reference) {
+		return null;
+	}
+
+	public List<JsonObject> query(DocumentQuery query) {
+		Set<String> ids = findIdsByIndex(query);
+		List<DocumentReference> references;
+		if (ids == null) {
+			log.debug("Scanning documents:", query);
+			references = listAllDocuments();
+		} else {
+			references = new ArrayList<DocumentReference>(ids.size());
+			for (String id : ids) {
+				references.add(new DocumentReference(id));
+			}
+		}
+
+		List<DocumentReference> candidates = new ArrayList<DocumentReference>();
+		for (DocumentReference reference : references) {
+			if (ids == null && Boolean.FALSE.equals(matchStreaming(reference, query))) continue;
+			candidates.add(reference);
+		}
+
+		List<JsonObject> result = new ArrayList<JsonObject>();
+		for (JsonObject document : loadDocumentsByReferences(candidates)) {
+			if (document == null || !query.matches(document)) continue;
+			result.add(query.project(document));
+		}
+		return result;
+	}
+
+	private Set<String> findIdsByIndex(DocumentQuery query) {
+		Set<String> ids = null;
+		for (Condition condition : query.getConditions()) {
+			if (!condition.isIndexable()) continue;
+			DocumentFieldIndex index = getFieldIndex(condition.getPointer());
+			if (index == null) continue;
+			Set<String> indexedIds = index.getIds(condition.getValue());
+			if (ids == null) {
+				ids = indexedIds;
+			} else {
+				ids.retainAll(indexedIds);
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * @return <code>null</code> if the query can not be decided on primitive values
+	 */
+	private Boolean matchStreaming(DocumentReference reference, DocumentQuery query) {
+		if (query.getConditions().isEmpty()) return true;
+		Reader in = openDocumentReader(reference);
+		if (in == null) return null;
+		StreamingMatcher matcher = new StreamingMatcher(query.getConditions());
+		try {
+			new JsonSaxParser().parse(in, matcher);
+		} catch (IOException ex) {
+			throw new JsonDbException("Reading document failed: " + reference.getId(), ex);
+		} catch (ParseException ex) {
+			throw new JsonDbException("Parsing document failed: " + reference.getId(), ex);
+		} finally {
+			IO.close(in);
+		}
+		return matcher.getResult();
+	}
+
 	public List<JsonObject> loadDocumentsByFilter(DocumentFilter filter) {
+		if (filter instanceof DocumentQuery) return query((DocumentQuery) filter);
 		List<DocumentReference> references = listAllDocuments();
 		List<JsonObject> result = new ArrayList<JsonObject>();
 		for (DocumentReference reference : references) {
@@ -54,15 +155,92 @@ public abstract class AJsonDb {
 		return DocumentReference.getIds(listAllDocuments());
 	}
 
+	/**
+	 * Loads the documents in the order of the given ids. Missing documents are returned as <code>null</code>.
+	 */
 	public List<JsonObject> loadDocumentsByIds(Collection<String> ids) {
+		if (ids.isEmpty()) return new ArrayList<JsonObject>(0);
+		if (ids.size() == 1) {
+			List<JsonObject> documents = new ArrayList<JsonObject>(1);
+			documents.add(loadDocumentById(ids.iterator().next()));
+			return documents;
+		}
+		return loadDocumentsBatch(new ArrayList<String>(ids));
+	}
+
+	/**
+	 * Loads multiple documents at once. Returns a list in the order of the given ids, with <code>null</code> for
+	 * missing documents. Override to use a bulk fetch of the underlying store. The default implementation fans out
+	 * <code>loadDocumentById()</code> over a bounded executor.
+	 */
+	protected List<JsonObject> loadDocumentsBatch(List<String> ids) {
+		int threads = Math.min(getLoaderThreadCount(), ids.size());
+		if (threads <= 1) return loadDocumentsSequential(ids);
+
+		int chunkSize = (ids.size() + threads - 1) / threads;
+		List<Future<List<JsonObject>>> futures = new ArrayList<Future<List<JsonObject>>>(threads);
+		ExecutorService executor = getLoaderExecutor();
+		for (int i = 0; i < ids.size(); i += chunkSize) {
+			final List<String> chunk = ids.subList(i, Math.min(i + chunkSize, ids.size()));
+			futures.add(executor.submit(new Callable<List<JsonObject>>() {
+
+				@Override
+				public List<JsonObject> call() throws Exception {
+					return loadDocumentsSequential(chunk);
+				}
+			}));
+		}
+
+		List<JsonObject> documents = new ArrayList<JsonObject>(ids.size());
+		for (Future<List<JsonObject>> future : futures) {
+			try {
+				documents.addAll(future.get());
+			} catch (InterruptedException ex) {
+				throw new JsonDbException("Loading documents interrupted", ex);
+			} catch (ExecutionException ex) {
+				Throwable cause = ex.getCause();
+				if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+				throw new JsonDbException("Loading documents failed", cause);
+			}
+		}
+		return documents;
+	}
+
+	private List<JsonObject> loadDocumentsSequential(List<String> ids) {
 		List<JsonObject> documents = new ArrayList<JsonObject>(ids.size());
 		for (String id : ids) {
-			JsonObject document = loadDocumentById(id);
-			documents.add(document);
+			documents.add(loadDocumentById(id));
 		}
 		return documents;
 	}
 
+	/**
+	 * Maximum number of concurrent <code>loadDocumentById()</code> calls in <code>loadDocumentsBatch()</code>.
+	 */
+	protected int getLoaderThreadCount() {
+		return 4;
+	}
+
+	private synchronized ExecutorService getLoaderExecutor() {
+		if (loaderExecutor == null) {
+			int threads = getLoaderThreadCount();
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new DeamonThreadFactory());
+			executor.allowCoreThreadTimeOut(true);
+			loaderExecutor = executor;
+		}
+		return loaderExecutor;
+	}
+
+	/**
+	 * Saves multiple documents. Override to use a bulk write of the underlying store.
+	 */
+	public void saveDocuments(Collection<JsonObject> documents) {
+		for (JsonObject document : documents) {
+			saveDocument(document);
+		}
+	}
+
 	public JsonObject loadDocumentByReference(DocumentReference reference) {
 		return loadDocumentById(reference.getId());
 	}
@@ -71,4 +249,105 @@ public abstract class AJsonDb {
 		return loadDocumentsByIds(DocumentReference.getIds(references));
 	}
 
+	private static class StreamingMatcher implements JsonSaxParser.ContentHandler {
+
+		private List<Condition> unresolved;
+		private LinkedList<String> path = new LinkedList<String>();
+		private int arrayDepth;
+		private boolean undecided;
+		private boolean mismatch;
+
+		public StreamingMatcher(List<Condition> conditions) {
+			super();
+			this.unresolved = new ArrayList<Condition>(conditions);
+		}
+
+		public Boolean getResult() {
+			if (mismatch) return false;
+			if (undecided) return null;
+			for (Condition condition : unresolved) {
+				if (!condition.matches(null)) return false;
+			}
+			return true;
+		}
+
+		@Override
+		public void onBegin() {}
+
+		@Override
+		public void onEnd() {}
+
+		@Override
+		public boolean onBeginObject() {
+			return onBeginContainer();
+		}
+
+		@Override
+		public boolean onEndObject() {
+			return true;
+		}
+
+		@Override
+		public boolean onBeginAttribute(String key) {
+			if (arrayDepth == 0) path.add(DocumentQuery.escapePointerToken(key));
+			return true;
+		}
+
+		@Override
+		public boolean onEndAttribute() {
+			if (arrayDepth == 0) path.removeLast();
+			return true;
+		}
+
+		@Override
+		public boolean onBeginArray() {
+			boolean cont = onBeginContainer();
+			arrayDepth++;
+			return cont;
+		}
+
+		@Override
+		public boolean onEndArray() {
+			arrayDepth--;
+			return true;
+		}
+
+		@Override
+		public boolean onPrimitiveValue(Object value) {
+			if (arrayDepth > 0 || path.isEmpty()) return true;
+			String pointer = getPointer();
+			for (Iterator<Condition> iterator = unresolved.iterator(); iterator.hasNext();) {
+				Condition condition = iterator.next();
+				if (!condition.getPointer().equals(pointer)) continue;
+				if (!condition.matches(value)) {
+					mismatch = true;
+					return false;
+				}
+				iterator.remove();
+			}
+			return !unresolved.isEmpty();
+		}
+
+		private boolean onBeginContainer() {
+			if (arrayDepth > 0 || path.isEmpty()) return true;
+			String pointer = getPointer();
+			for (Condition condition : unresolved) {
+				if (condition.getPointer().equals(pointer)) {
+					undecided = true;
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private String getPointer() {
+			StringBuilder sb = new StringBuilder();
+			for (String token : path) {
+				sb.append('/').append(token);
+			}
+			return sb.toString();
+		}
+
+	}
+
 }
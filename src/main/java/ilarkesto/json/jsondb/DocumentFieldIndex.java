@@ -0,0 +1,130 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.json.jsondb;
+
+import ilarkesto.json.JsonObject;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Ids of documents by the value of a field. Only primitive values are indexed. Values are typed, the string
+ * <code>"1"</code> and the number <code>1</code> are different values.
+ */
+public class DocumentFieldIndex {
+
+	private static final int VERSION = 2;
+
+	private String pointer;
+	private Map<String, Set<String>> idsByValue = new HashMap<String, Set<String>>();
+	private Map<String, String> valuesById = new HashMap<String, String>();
+
+	public DocumentFieldIndex(String pointer) {
+		super();
+		DocumentQuery.parsePointer(pointer);
+		this.pointer = pointer;
+	}
+
+	public synchronized Set<String> getIds(Object value) {
+		Set<String> ids = idsByValue.get(toIndexValue(value));
+		if (ids == null) return new LinkedHashSet<String>(0);
+		return new LinkedHashSet<String>(ids);
+	}
+
+	public synchronized void update(String id, JsonObject document) {
+		remove(id);
+		String value = toIndexValue(DocumentQuery.resolve(document, pointer));
+		if (value == null) return;
+		Set<String> ids = idsByValue.get(value);
+		if (ids == null) {
+			ids = new LinkedHashSet<String>();
+			idsByValue.put(value, ids);
+		}
+		ids.add(id);
+		valuesById.put(id, value);
+	}
+
+	public synchronized void remove(String id) {
+		String value = valuesById.remove(id);
+		if (value == null) return;
+		Set<String> ids = idsByValue.get(value);
+		if (ids == null) return;
+		ids.remove(id);
+		if (ids.isEmpty()) idsByValue.remove(value);
+	}
+
+	public String getPointer() {
+		return pointer;
+	}
+
+	public synchronized JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		json.put("version", VERSION);
+		json.put("pointer", pointer);
+		JsonObject values = json.putNewObject("ids");
+		for (Map.Entry<String, Set<String>> entry : idsByValue.entrySet()) {
+			values.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+		}
+		return json;
+	}
+
+	public static DocumentFieldIndex fromJson(JsonObject json) {
+		Integer version = json.getInteger("version");
+		if (version == null || version.intValue() != VERSION)
+			throw new IllegalArgumentException("Unsupported index version: " + version);
+		DocumentFieldIndex index = new DocumentFieldIndex(json.getString("pointer"));
+		JsonObject values = json.getObject("ids");
+		for (String value : values.getProperties()) {
+			Collection<String> ids = values.getArrayOfStrings(value);
+			Set<String> idSet = new LinkedHashSet<String>(ids);
+			index.idsByValue.put(value, idSet);
+			for (String id : ids) {
+				index.valuesById.put(id, value);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Normalized string form of a primitive JSON value, prefixed with its type. <code>null</code> for objects,
+	 * arrays and null.
+	 */
+	public static String toIndexValue(Object value) {
+		if (value == null) return null;
+		if (value instanceof String) return "s:" + value;
+		if (value instanceof Boolean) return "b:" + value;
+		if (value instanceof Number) {
+			if (value instanceof BigDecimal || value instanceof Double || value instanceof Float) {
+				BigDecimal decimal = new BigDecimal(value.toString());
+				if (decimal.signum() == 0) return "n:0";
+				return "n:" + decimal.stripTrailingZeros().toPlainString();
+			}
+			return "n:" + value;
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return pointer;
+	}
+
+}
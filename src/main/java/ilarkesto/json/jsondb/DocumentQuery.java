@@ -0,0 +1,191 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.json.jsondb;
+
+import ilarkesto.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Query on documents of an <code>AJsonDb</code>. Fields are addressed by JSON Pointers (RFC 6901) like
+ * <code>/address/city</code>. Equality conditions can be answered by a field index, if the database has one.
+ * 
+ * <pre>
+ * db.query(new DocumentQuery().whereEquals(&quot;/type&quot;, &quot;invoice&quot;).select(&quot;/_id&quot;, &quot;/total&quot;));
+ * </pre>
+ */
+public class DocumentQuery implements DocumentFilter {
+
+	private List<Condition> conditions = new ArrayList<Condition>();
+	private List<String> projection;
+
+	public DocumentQuery whereEquals(String pointer, Object value) {
+		conditions.add(new Condition(pointer, new Equals(value)));
+		return this;
+	}
+
+	public DocumentQuery where(String pointer, FieldPredicate predicate) {
+		conditions.add(new Condition(pointer, predicate));
+		return this;
+	}
+
+	/**
+	 * Limits the returned documents to the given fields.
+	 */
+	public DocumentQuery select(String... pointers) {
+		if (projection == null) projection = new ArrayList<String>();
+		for (String pointer : pointers) {
+			parsePointer(pointer);
+			projection.add(pointer);
+		}
+		return this;
+	}
+
+	@Override
+	public boolean matches(JsonObject document) {
+		for (Condition condition : conditions) {
+			if (!condition.matches(resolve(document, condition.getPointer()))) return false;
+		}
+		return true;
+	}
+
+	public JsonObject project(JsonObject document) {
+		if (projection == null) return document;
+		JsonObject ret = new JsonObject();
+		for (String pointer : projection) {
+			List<String> tokens = parsePointer(pointer);
+			Object value = resolve(document, pointer);
+			if (value == null) continue;
+			JsonObject parent = ret;
+			for (int i = 0; i < tokens.size() - 1; i++) {
+				parent = parent.getObjectOrCreate(tokens.get(i));
+			}
+			parent.put(tokens.get(tokens.size() - 1), value);
+		}
+		return ret;
+	}
+
+	public List<Condition> getConditions() {
+		return Collections.unmodifiableList(conditions);
+	}
+
+	public static Object resolve(JsonObject document, String pointer) {
+		Object value = document;
+		for (String token : parsePointer(pointer)) {
+			if (!(value instanceof JsonObject)) return null;
+			value = ((JsonObject) value).get(token);
+		}
+		return value;
+	}
+
+	static List<String> parsePointer(String pointer) {
+		if (pointer == null || !pointer.startsWith("/"))
+			throw new IllegalArgumentException("Illegal JSON Pointer: " + pointer);
+		List<String> tokens = new ArrayList<String>();
+		int start = 1;
+		while (true) {
+			int end = pointer.indexOf('/', start);
+			String token = end < 0 ? pointer.substring(start) : pointer.substring(start, end);
+			tokens.add(token.replace("~1", "/").replace("~0", "~"));
+			if (end < 0) break;
+			start = end + 1;
+		}
+		return tokens;
+	}
+
+	static String escapePointerToken(String token) {
+		return token.replace("~", "~0").replace("/", "~1");
+	}
+
+	@Override
+	public String toString() {
+		return conditions + (projection == null ? "" : " -> " + projection);
+	}
+
+	public static class Condition {
+
+		private String pointer;
+		private FieldPredicate predicate;
+
+		public Condition(String pointer, FieldPredicate predicate) {
+			super();
+			parsePointer(pointer);
+			this.pointer = pointer;
+			this.predicate = predicate;
+		}
+
+		public boolean matches(Object value) {
+			return predicate.matches(value);
+		}
+
+		/**
+		 * Equality with a primitive value, which can be answered by a field index. Equality with
+		 * <code>null</code> also matches missing fields, which are not indexed.
+		 */
+		public boolean isIndexable() {
+			return predicate instanceof Equals && ((Equals) predicate).value != null;
+		}
+
+		/**
+		 * Expected value of an equality condition.
+		 */
+		public Object getValue() {
+			return ((Equals) predicate).value;
+		}
+
+		public String getPointer() {
+			return pointer;
+		}
+
+		@Override
+		public String toString() {
+			return pointer + " " + predicate;
+		}
+
+	}
+
+	/**
+	 * Equality of primitive values, with the same semantics as <code>DocumentFieldIndex</code>: types must match,
+	 * numbers are compared by value.
+	 */
+	private static class Equals implements FieldPredicate {
+
+		private Object value;
+		private String indexValue;
+
+		public Equals(Object value) {
+			super();
+			this.indexValue = DocumentFieldIndex.toIndexValue(value);
+			if (value != null && indexValue == null)
+				throw new IllegalArgumentException("Only primitive values can be compared: " + value);
+			this.value = value;
+		}
+
+		@Override
+		public boolean matches(Object value) {
+			if (this.value == null) return value == null;
+			return indexValue.equals(DocumentFieldIndex.toIndexValue(value));
+		}
+
+		@Override
+		public String toString() {
+			return "= " + value;
+		}
+
+	}
+
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.json.jsondb;
+
+import ilarkesto.core.base.Uuid;
+import ilarkesto.core.logging.Log;
+import ilarkesto.io.AFileStorage;
+import ilarkesto.io.IO;
+import ilarkesto.json.JsonObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Json database which stores each document as <code>[id].json</code> file. Field indexes are kept in memory and
+ * persisted in the <code>_index</code> subdirectory by <code>flushIndexes()</code> or <code>close()</code>. The first
+ * change after that deletes the persisted indexes, so after a crash they are rebuilt instead of being loaded stale.
+ */
+public class FileJsonDb extends AJsonDb {
+
+	private static final String SUFFIX = ".json";
+
+	private final Log log = Log.get(getClass());
+
+	private AFileStorage storage;
+	private AFileStorage indexStorage;
+	private Map<String, DocumentFieldIndex> indexesByPointer = new HashMap<String, DocumentFieldIndex>();
+	private Set<String> persistedIndexes = new HashSet<String>();
+
+	public FileJsonDb(AFileStorage storage) {
+		super();
+		this.storage = storage;
+		this.indexStorage = storage.getSubStorage("_index");
+	}
+
+	/**
+	 * Adds an index on the given field. A persisted index is loaded, if it matches the current documents, otherwise
+	 * it is built from all documents.
+	 */
+	public synchronized DocumentFieldIndex addFieldIndex(String pointer) {
+		DocumentFieldIndex index = indexesByPointer.get(pointer);
+		if (index != null) return index;
+
+		index = loadIndex(pointer);
+		if (index == null) {
+			log.info("Building field index:", pointer);
+			index = new DocumentFieldIndex(pointer);
+			for (DocumentReference reference : listAllDocuments()) {
+				JsonObject document = loadDocumentByReference(reference);
+				if (document != null) index.update(reference.getId(), document);
+			}
+		}
+		indexesByPointer.put(pointer, index);
+		return index;
+	}
+
+	private DocumentFieldIndex loadIndex(String pointer) {
+		File file = getIndexFile(pointer);
+		if (!file.exists()) return null;
+		JsonObject json;
+		DocumentFieldIndex index;
+		try {
+			json = JsonObject.loadFile(file);
+			index = DocumentFieldIndex.fromJson(json);
+		} catch (RuntimeException ex) {
+			log.warn("Loading field index failed:", pointer, ex);
+			return null;
+		}
+		DocumentsState state = new DocumentsState();
+		if (!state.matches(json.getLong("documentCount"), json.getLong("documentsModified"))) {
+			log.info("Field index outdated:", pointer);
+			return null;
+		}
+		persistedIndexes.add(pointer);
+		return index;
+	}
+
+	/**
+	 * Persists the indexes, which changed since they were loaded or persisted.
+	 */
+	public synchronized void flushIndexes() {
+		DocumentsState state = null;
+		for (DocumentFieldIndex index : indexesByPointer.values()) {
+			if (persistedIndexes.contains(index.getPointer())) continue;
+			if (state == null) state = new DocumentsState();
+			JsonObject json = index.toJson();
+			json.put("documentCount", state.count);
+			json.put("documentsModified", state.lastModified);
+			json.write(getIndexFile(index.getPointer()), false);
+			persistedIndexes.add(index.getPointer());
+		}
+	}
+
+	public void close() {
+		flushIndexes();
+	}
+
+	@Override
+	protected synchronized DocumentFieldIndex getFieldIndex(String pointer) {
+		return indexesByPointer.get(pointer);
+	}
+
+	@Override
+	protected Reader openDocumentReader(DocumentReference reference) {
+		File file = getDocumentFile(reference.getId());
+		try {
+			return new BufferedReader(new FileReader(file));
+		} catch (FileNotFoundException ex) {
+			return null;
+		}
+	}
+
+	@Override
+	public JsonObject loadDocumentById(String id) {
+		File file = getDocumentFile(id);
+		if (!file.exists()) return null;
+		return JsonObject.loadFile(file);
+	}
+
+	@Override
+	public List<DocumentReference> listAllDocuments() {
+		File[] files = storage.getDir().listFiles();
+		if (files == null) return new ArrayList<DocumentReference>(0);
+		List<DocumentReference> references = new ArrayList<DocumentReference>(files.length);
+		for (File file : files) {
+			String name = file.getName();
+			if (!file.isFile() || !name.endsWith(SUFFIX)) continue;
+			references.add(new DocumentReference(name.substring(0, name.length() - SUFFIX.length())));
+		}
+		return references;
+	}
+
+	@Override
+	public synchronized void saveDocument(JsonObject document) {
+		invalidatePersistedIndexes();
+		writeDocument(document);
+	}
+
+	private void writeDocument(JsonObject document) {
+		String id = document.getString("_id");
+		if (id == null) {
+			id = Uuid.create();
+			document.put("_id", id);
+		}
+		log.debug("Saving document:", id);
+		document.write(getDocumentFile(id), false);
+		for (DocumentFieldIndex index : indexesByPointer.values()) {
+			index.update(id, document);
+		}
+	}
+
+	@Override
+	public synchronized void saveDocuments(Collection<JsonObject> documents) {
+		invalidatePersistedIndexes();
+		for (JsonObject document : documents) {
+			writeDocument(document);
+		}
+	}
+
+	@Override
+	public synchronized void deleteDocument(JsonObject document) {
+		String id = document.getString("_id");
+		log.debug("Deleting document:", id);
+		invalidatePersistedIndexes();
+		IO.delete(getDocumentFile(id));
+		for (DocumentFieldIndex index : indexesByPointer.values()) {
+			index.remove(id);
+		}
+	}
+
+	/**
+	 * Deletes the persisted indexes before the documents change, so they can not be loaded stale after a crash.
+	 */
+	private void invalidatePersistedIndexes() {
+		if (persistedIndexes.isEmpty()) return;
+		for (String pointer : persistedIndexes) {
+			IO.delete(getIndexFile(pointer));
+		}
+		persistedIndexes.clear();
+	}
+
+	private File getDocumentFile(String id) {
+		if (id == null || id.length() == 0 || id.indexOf('/') >= 0 || id.indexOf('\\') >= 0 || id.startsWith("."))
+			throw new IllegalArgumentException("Illegal document id: " + id);
+		return storage.getFile(id + SUFFIX);
+	}
+
+	private File getIndexFile(String pointer) {
+		try {
+			return indexStorage.getFile(URLEncoder.encode(pointer, IO.UTF_8) + SUFFIX);
+		} catch (UnsupportedEncodingException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return storage.toString();
+	}
+
+	/**
+	 * Number and newest modification time of the document files, stored with persisted indexes to detect changes
+	 * which were made without this database.
+	 */
+	private class DocumentsState {
+
+		private long count;
+		private long lastModified;
+
+		public DocumentsState() {
+			File[] files = storage.getDir().listFiles();
+			if (files == null) return;
+			for (File file : files) {
+				if (!file.isFile() || !file.getName().endsWith(SUFFIX)) continue;
+				count++;
+				lastModified = Math.max(lastModified, file.lastModified());
+			}
+		}
+
+		public boolean matches(Long count, Long lastModified) {
+			return count != null && count.longValue() == this.count && lastModified != null
+					&& lastModified.longValue() == this.lastModified;
+		}
+
+	}
+
+}
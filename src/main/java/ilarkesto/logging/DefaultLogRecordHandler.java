@@ -17,77 +17,99 @@ package ilarkesto.logging;
 import ilarkesto.base.Str;
 import ilarkesto.base.Sys;
 import ilarkesto.core.logging.Log;
+import ilarkesto.core.logging.Log.Level;
 import ilarkesto.core.logging.LogRecord;
 import ilarkesto.core.logging.LogRecordHandler;
 import ilarkesto.io.IO;
 
 import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Queues records in a lock-free ring buffer. A writer thread takes them in batches and writes each batch to stderr
+ * with one call. Warnings and errors also go to the log file, which stays open between batches. When the buffer is
+ * full, the <code>OverflowPolicy</code> decides whether a record is dropped or the logging thread waits. Dropped
+ * records are counted and reported in the log.
+ */
 public class DefaultLogRecordHandler extends LogRecordHandler {
 
 	private static final Log LOG = Log.get(DefaultLogRecordHandler.class);
 	public static final DateFormat LOG_TIME_FORMAT = new SimpleDateFormat("EEE, dd. MMMM yyyy, HH:mm");
+	private static final int BUFFER_CAPACITY = 8192;
+	private static final int BATCH_SIZE = 1024;
+	private static final int MAX_LATEST_RECORDS = 256;
+	private static final long MAX_LOG_FILE_SIZE = 1048576;
 	public static final DefaultLogRecordHandler INSTANCE = new DefaultLogRecordHandler();
 
-	private BlockingQueue<LogRecord> queue = new LinkedBlockingQueue<LogRecord>();
-	private File logFile;
-	private Thread sysoutThread;
-	private boolean shutdown = false;
-	private LogRecordHandler errorHandler;
+	public static enum OverflowPolicy {
+		/**
+		 * Drop every record which does not fit into the buffer.
+		 */
+		DROP,
+		/**
+		 * Drop debug and info records, wait for space for warnings and errors.
+		 */
+		WAIT_FOR_WARNINGS,
+		/**
+		 * Wait for space for all records.
+		 */
+		WAIT
+	}
+
+	private final LogRecordRingBuffer buffer = new LogRecordRingBuffer(BUFFER_CAPACITY);
+	private volatile OverflowPolicy overflowPolicy = OverflowPolicy.WAIT_FOR_WARNINGS;
+	private volatile long maxOverflowWait = 1000;
+	private volatile File logFile;
+	private Thread writerThread;
+	private volatile boolean shutdown = false;
+	private volatile boolean writerSleeping;
+	private volatile LogRecordHandler errorHandler;
+	private volatile LogRecordHandler fileHandler;
+
+	private final AtomicLong droppedCount = new AtomicLong();
+	private volatile long writtenCount;
+
+	// accessed by the writer only, guarded by writeLock
+	private final Object writeLock = new Object();
+	private Writer fileWriter;
+	private File openFile;
+	private long reportedDroppedCount;
 
 	private LinkedList<LogRecord> latestRecords = new LinkedList<LogRecord>();
 
-	private LinkedList<LogRecord> errorRecords = new LinkedList<LogRecord>();
+	private LinkedHashSet<LogRecord> errorRecords = new LinkedHashSet<LogRecord>();
 
 	public static void activate() {}
 
 	private DefaultLogRecordHandler() {
 		System.err.println("Initializing logging system");
-		sysoutThread = new Thread(new Runnable() {
+		writerThread = new Thread(new Runnable() {
 
 			@Override
 			public void run() {
-				while (true) {
-					try {
-						synchronized (Log.class) {
-							if (shutdown && queue.isEmpty()) {
-								System.err.println("Shutting down logging system");
-								return;
-							}
-						}
-						LogRecord record = queue.poll(1, TimeUnit.SECONDS);
-						if (record != null) {
-							System.err.println(record.toString());
-							if (record.level.isWarnOrWorse() && errorHandler != null) {
-								try {
-									errorHandler.log(record);
-									errorHandler.flush();
-								} catch (Exception ex) {
-									ex.printStackTrace();
-								}
-							}
-						}
-					} catch (InterruptedException ignored) {
-						shutdown = true;
-					}
-				}
+				runWriter();
 			}
 		});
-		sysoutThread.setName(getClass().getSimpleName() + "-sysoutThread");
-		sysoutThread.setPriority(Thread.MIN_PRIORITY);
-		sysoutThread.setDaemon(true);
-		sysoutThread.start();
+		writerThread.setName(getClass().getSimpleName() + "-writerThread");
+		writerThread.setPriority(Thread.MIN_PRIORITY);
+		writerThread.setDaemon(true);
+		writerThread.start();
 
 		Log.setLogRecordHandler(this);
 	}
@@ -95,43 +117,163 @@ public class DefaultLogRecordHandler extends LogRecordHandler {
 	public static void stopLogging() {
 		INSTANCE.flush();
 		INSTANCE.shutdown = true;
-		if (INSTANCE.sysoutThread != null) INSTANCE.sysoutThread.interrupt();
-		INSTANCE.latestRecords.clear();
+		LockSupport.unpark(INSTANCE.writerThread);
+		try {
+			INSTANCE.writerThread.join(1000);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (INSTANCE.latestRecords) {
+			INSTANCE.latestRecords.clear();
+		}
 	}
 
 	@Override
 	public void log(LogRecord record) {
-		super.log(record);
+		record.context = Thread.currentThread().getName();
+
+		if (shutdown || !writerThread.isAlive()) {
+			// no writer anymore
+			synchronized (writeLock) {
+				write(Collections.singletonList(record));
+			}
+			return;
+		}
+
+		if (!buffer.offer(record) && !waitForSpace(record)) {
+			droppedCount.incrementAndGet();
+			return;
+		}
+		if (writerSleeping) LockSupport.unpark(writerThread);
+	}
+
+	private boolean waitForSpace(LogRecord record) {
+		if (Thread.currentThread() == writerThread) return false;
+		OverflowPolicy policy = overflowPolicy;
+		if (policy == OverflowPolicy.DROP) return false;
+		if (policy == OverflowPolicy.WAIT_FOR_WARNINGS && !record.level.isWarnOrWorse()) return false;
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxOverflowWait);
+		while (System.nanoTime() < deadline) {
+			LockSupport.unpark(writerThread);
+			LockSupport.parkNanos(100000);
+			if (buffer.offer(record)) return true;
+		}
+		return false;
+	}
+
+	private void runWriter() {
+		List<LogRecord> batch = new ArrayList<LogRecord>(BATCH_SIZE);
+		while (true) {
+			batch.clear();
+			if (buffer.drainTo(batch, BATCH_SIZE) > 0) {
+				synchronized (writeLock) {
+					write(batch);
+				}
+				writtenCount += batch.size();
+				continue;
+			}
+			if (shutdown) break;
+			if (!buffer.isEmpty()) {
+				// a producer claimed a slot but did not publish yet
+				Thread.yield();
+				continue;
+			}
+			writerSleeping = true;
+			if (buffer.isEmpty()) LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+			writerSleeping = false;
+		}
+		synchronized (writeLock) {
+			closeFileWriter();
+			if (fileHandler instanceof Closeable) {
+				try {
+					((Closeable) fileHandler).close();
+				} catch (IOException ex) {}
+			}
+		}
+		System.err.println("Shutting down logging system");
+	}
+
+	private void write(List<LogRecord> records) {
+		StringBuilder out = new StringBuilder(records.size() * 160);
+		StringBuilder warnings = null;
+
+		long dropped = droppedCount.get();
+		if (dropped > reportedDroppedCount) {
+			out.append(new Date()).append(" ").append(Level.WARN).append(" ").append(getClass().getSimpleName())
+					.append(" ").append(dropped - reportedDroppedCount)
+					.append(" log records dropped, buffer was full\n");
+			reportedDroppedCount = dropped;
+		}
+
+		LogRecordHandler errorHandler = this.errorHandler;
+		LogRecordHandler fileHandler = this.fileHandler;
+		boolean errorHandlerUsed = false;
+		for (LogRecord record : records) {
+			String text = record.toString();
+			out.append(text).append('\n');
+			remember(record);
+			if (fileHandler != null) fileHandler.log(record);
+			if (!record.level.isWarnOrWorse()) continue;
+
+			if (warnings == null) warnings = new StringBuilder();
+			warnings.append("--------------------------------------------------------------------------------\n");
+			warnings.append(LOG_TIME_FORMAT.format(new Date(record.time)));
+			warnings.append(" -> ");
+			warnings.append(text);
+			warnings.append('\n');
+
+			if (errorHandler != null) {
+				try {
+					errorHandler.log(record);
+					errorHandlerUsed = true;
+				} catch (Exception ex) {
+					ex.printStackTrace();
+				}
+			}
+		}
+
+		System.err.print(out);
+		System.err.flush();
 
+		if (warnings != null) appendToFile(warnings);
+		if (fileHandler != null) fileHandler.flush();
+
+		if (errorHandlerUsed) {
+			try {
+				errorHandler.flush();
+			} catch (Exception ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+
+	private void remember(LogRecord record) {
 		synchronized (latestRecords) {
 			latestRecords.add(record);
-			if (latestRecords.size() > 256) latestRecords.remove(0);
+			if (latestRecords.size() > MAX_LATEST_RECORDS) latestRecords.removeFirst();
 		}
 
 		if (record.level.isWarnOrWorse()) {
 			synchronized (errorRecords) {
-				if (!errorRecords.contains(record)) {
-					errorRecords.add(record);
-					if (errorRecords.size() > 256) errorRecords.remove(0);
+				if (errorRecords.add(record) && errorRecords.size() > MAX_LATEST_RECORDS) {
+					errorRecords.remove(errorRecords.iterator().next());
 				}
 			}
 		}
-
-		record.context = Thread.currentThread().getName();
-		try {
-			queue.put(record);
-		} catch (InterruptedException e) {
-			return;
-		}
-
-		if (record.level.isWarnOrWorse()) appendToFile(record.toString());
 	}
 
+	/**
+	 * Waits until all records logged before are written.
+	 */
 	@Override
 	public void flush() {
-		while (sysoutThread != null && sysoutThread.isAlive() && !queue.isEmpty()) {
+		long target = buffer.getOfferedCount();
+		long timeout = System.currentTimeMillis() + 10000;
+		while (writerThread.isAlive() && writtenCount < target && System.currentTimeMillis() < timeout) {
+			if (Thread.currentThread() == writerThread) return;
+			LockSupport.unpark(writerThread);
 			try {
-				Thread.sleep(100);
+				Thread.sleep(10);
 			} catch (InterruptedException ex) {
 				throw new RuntimeException(ex);
 			}
@@ -153,6 +295,30 @@ public class DefaultLogRecordHandler extends LogRecordHandler {
 		this.errorHandler = errorHandler;
 	}
 
+	/**
+	 * Receives all records in batches from the writer thread, followed by <code>flush()</code>. See
+	 * <code>RollingJsonLogRecordHandler</code>.
+	 */
+	public void setFileHandler(LogRecordHandler fileHandler) {
+		this.fileHandler = fileHandler;
+	}
+
+	public LogRecordHandler getFileHandler() {
+		return fileHandler;
+	}
+
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Maximum time in milliseconds a logging thread waits for space in the buffer, if the overflow policy allows
+	 * waiting.
+	 */
+	public void setMaxOverflowWait(long maxOverflowWait) {
+		this.maxOverflowWait = maxOverflowWait;
+	}
+
 	public static boolean setLogFileToHomeOrWorkdir(String name) {
 		if (setLogFileToWorkdir(name)) return true;
 		return setLogFileToHome(name);
@@ -170,7 +336,7 @@ public class DefaultLogRecordHandler extends LogRecordHandler {
 		return setLogFile(new File(Sys.getWorkDir() + "/webapps/" + name + ".log"));
 	}
 
-	private void appendToFile(String record) {
+	private void appendToFile(CharSequence text) {
 		if (logFile == null) {
 			File runtimedataDir = new File("runtimedata");
 			if (runtimedataDir.exists() && runtimedataDir.isDirectory()) {
@@ -179,20 +345,68 @@ public class DefaultLogRecordHandler extends LogRecordHandler {
 				setLogFile(new File("error.log"));
 			}
 		}
-		if (logFile == null) return;
-		synchronized (logFile) {
-			try {
-				BufferedWriter out = new BufferedWriter(new FileWriter(logFile, logFile.length() < 1048576));
-				out.write("--------------------------------------------------------------------------------\n");
-				out.write(LOG_TIME_FORMAT.format(new Date()));
-				out.write(" -> ");
-				out.write(record);
-				out.write('\n');
-				out.close();
-			} catch (Exception e) {
-				System.err.println("Failed to write to logFile: " + logFile.getAbsolutePath() + ": " + Str.format(e));
+		File file = logFile;
+		if (file == null) return;
+		try {
+			if (fileWriter != null && (!file.equals(openFile) || openFile.length() >= MAX_LOG_FILE_SIZE)) {
+				closeFileWriter();
+			}
+			if (fileWriter == null) {
+				// start over when the file got too large
+				boolean append = file.length() < MAX_LOG_FILE_SIZE;
+				fileWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append)));
+				openFile = file;
 			}
+			fileWriter.append(text);
+			fileWriter.flush();
+		} catch (Exception e) {
+			System.err.println("Failed to write to logFile: " + file.getAbsolutePath() + ": " + Str.format(e));
+			closeFileWriter();
+		}
+	}
+
+	private void closeFileWriter() {
+		if (fileWriter == null) return;
+		try {
+			fileWriter.close();
+		} catch (IOException ex) {}
+		fileWriter = null;
+		openFile = null;
+	}
+
+	/**
+	 * Number of records dropped because the buffer was full.
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * Number of records taken from the buffer and written.
+	 */
+	public long getWrittenCount() {
+		return writtenCount;
+	}
+
+	/**
+	 * Number of records waiting in the buffer.
+	 */
+	public int getQueueSize() {
+		return buffer.size();
+	}
+
+	@Override
+	public List<LogRecord> getLatestLogs() {
+		return getLatestRecords();
+	}
+
+	@Override
+	public String getLatestLogsAsString() {
+		StringBuilder sb = new StringBuilder();
+		for (LogRecord record : getLatestRecords()) {
+			sb.append(record.toString()).append("\n");
 		}
+		return sb.toString();
 	}
 
 	public static List<LogRecord> getLatestRecords() {
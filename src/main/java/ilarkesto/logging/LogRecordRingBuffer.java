@@ -0,0 +1,105 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.logging;
+
+import ilarkesto.core.logging.LogRecord;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free queue for log records with many producers and one consumer. Producers claim a slot with a CAS
+ * on the head sequence. The consumer empties slots in order and then advances the tail.
+ */
+public class LogRecordRingBuffer {
+
+	private final AtomicReferenceArray<LogRecord> slots;
+	private final int mask;
+	private final AtomicLong head = new AtomicLong();
+	private volatile long tail;
+
+	/**
+	 * @param capacity rounded up to the next power of two
+	 */
+	public LogRecordRingBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		slots = new AtomicReferenceArray<LogRecord>(size);
+		mask = size - 1;
+	}
+
+	/**
+	 * @return false if the buffer is full
+	 */
+	public boolean offer(LogRecord record) {
+		while (true) {
+			long seq = head.get();
+			if (seq - tail >= slots.length()) return false;
+			if (head.compareAndSet(seq, seq + 1)) {
+				slots.lazySet((int) seq & mask, record);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Moves up to <code>max</code> records into the given list. Must be called by the consumer thread only.
+	 *
+	 * @return number of records drained
+	 */
+	public int drainTo(List<LogRecord> records, int max) {
+		long seq = tail;
+		int count = 0;
+		while (count < max) {
+			int index = (int) seq & mask;
+			LogRecord record = slots.get(index);
+			// not yet published by its producer
+			if (record == null) break;
+			slots.lazySet(index, null);
+			records.add(record);
+			seq++;
+			count++;
+		}
+		tail = seq;
+		return count;
+	}
+
+	public boolean isEmpty() {
+		return head.get() == tail;
+	}
+
+	/**
+	 * Number of records which were offered successfully so far.
+	 */
+	public long getOfferedCount() {
+		return head.get();
+	}
+
+	/**
+	 * Number of records which were taken by the consumer so far.
+	 */
+	public long getConsumedCount() {
+		return tail;
+	}
+
+	public int size() {
+		return (int) (head.get() - tail);
+	}
+
+	public int getCapacity() {
+		return slots.length();
+	}
+
+}
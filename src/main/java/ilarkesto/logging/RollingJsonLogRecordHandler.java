@@ -0,0 +1,552 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.logging;
+
+import ilarkesto.concurrent.DeamonThreadFactory;
+import ilarkesto.core.logging.Log.Level;
+import ilarkesto.core.logging.LogRecord;
+import ilarkesto.core.logging.LogRecordHandler;
+import ilarkesto.io.IO;
+import ilarkesto.json.Json;
+import ilarkesto.json.JsonObject;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.io.RandomAccessFile;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes records of all levels, or from <code>minLevel</code> on, as newline-delimited JSON into
+ * <code>name.log</code> in the given directory. When the segment exceeds <code>maxSegmentSize</code> or
+ * <code>maxSegmentAge</code>, it is renamed with its start time and compressed with gzip on a background thread. Only
+ * the latest <code>maxSegments</code> rolled segments are kept.
+ * <p>
+ * Install it with <code>DefaultLogRecordHandler.setFileHandler()</code>, which passes records in batches from its
+ * writer thread. <code>tail()</code> and <code>search()</code> read the segments newest first.
+ */
+public class RollingJsonLogRecordHandler extends LogRecordHandler implements Closeable {
+
+	private static final String SUFFIX = ".log";
+	private static final String GZIP_SUFFIX = ".log.gz";
+	private static final int READ_BLOCK_SIZE = 64 * 1024;
+
+	private File dir;
+	private String name;
+	private long maxSegmentSize = 10 * 1024 * 1024;
+	private long maxSegmentAge = TimeUnit.DAYS.toMillis(1);
+	private int maxSegments = 30;
+	private Level minLevel;
+
+	private Writer out;
+	private final StringBuilder line = new StringBuilder(256);
+	private boolean closed;
+	private CountingOutputStream counter;
+	private long segmentStartTime;
+	private int rolloverCount;
+	private final SimpleDateFormat segmentTimeFormat = new SimpleDateFormat("yyyyMMdd-HHmmss");
+	private ExecutorService compressor;
+
+	public RollingJsonLogRecordHandler(File dir, String name) {
+		this.dir = dir;
+		this.name = name;
+		IO.createDirectory(dir);
+		// segments rolled but not compressed before the last shutdown
+		for (File segment : listRolledSegments()) {
+			if (segment.getName().endsWith(SUFFIX)) compressLater(segment);
+		}
+	}
+
+	@Override
+	public synchronized void log(LogRecord record) {
+		if (closed) return;
+		if (minLevel != null && record.level.ordinal() < minLevel.ordinal()) return;
+		try {
+			if (out != null && isRolloverDue(record.time)) rollover();
+			if (out == null) open(record.time);
+			write(record);
+		} catch (IOException ex) {
+			System.err.println("Writing to log file failed: " + getCurrentFile().getAbsolutePath() + ": " + ex);
+			closeWriter();
+		}
+	}
+
+	private void write(LogRecord record) throws IOException {
+		line.setLength(0);
+		line.append("{\"time\":").append(record.time);
+		line.append(",\"level\":\"").append(record.level.name());
+		line.append("\",\"logger\":\"").append(Json.escapeString(record.name));
+		line.append("\",\"message\":\"").append(Json.escapeString(record.getParametersAsString().trim()));
+		line.append('"');
+		if (record.context != null) line.append(",\"context\":\"").append(Json.escapeString(record.context)).append('"');
+		line.append("}\n");
+		out.append(line);
+	}
+
+	@Override
+	public synchronized void flush() {
+		if (out == null) return;
+		try {
+			out.flush();
+		} catch (IOException ex) {
+			System.err.println("Writing to log file failed: " + getCurrentFile().getAbsolutePath() + ": " + ex);
+			closeWriter();
+		}
+	}
+
+	private boolean isRolloverDue(long time) {
+		// the count lags behind by the content of the write buffer
+		if (counter.count >= maxSegmentSize) return true;
+		return time - segmentStartTime >= maxSegmentAge;
+	}
+
+	private void open(long time) throws IOException {
+		File file = getCurrentFile();
+		long length = file.length();
+		segmentStartTime = length > 0 ? readStartTime(file) : time;
+		counter = new CountingOutputStream(new FileOutputStream(file, true), length);
+		out = new BufferedWriter(new OutputStreamWriter(counter, IO.UTF_8), 64 * 1024);
+	}
+
+	/**
+	 * Time of the first record in an existing segment, the last modification time if it can not be read.
+	 */
+	private long readStartTime(File file) {
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), IO.UTF_8));
+			try {
+				Long time = JsonObject.parse(in.readLine()).getLong("time");
+				if (time != null) return time;
+			} finally {
+				in.close();
+			}
+		} catch (Exception ex) {
+			// incomplete first line after a crash
+		}
+		return file.lastModified();
+	}
+
+	/**
+	 * Closes the current segment and compresses it in the background.
+	 */
+	public synchronized void rollover() {
+		closeWriter();
+		File current = getCurrentFile();
+		if (!current.exists() || current.length() == 0) return;
+		String prefix = name + "-" + segmentTimeFormat.format(new Date(segmentStartTime)) + "-";
+		File rolled;
+		do {
+			rolled = new File(dir, prefix + (rolloverCount++) + SUFFIX);
+		} while (rolled.exists() || new File(rolled.getPath() + ".gz").exists());
+		if (!current.renameTo(rolled)) {
+			System.err.println("Renaming log file failed: " + current.getAbsolutePath() + " -> " + rolled.getName());
+			return;
+		}
+		compressLater(rolled);
+	}
+
+	private void closeWriter() {
+		if (out == null) return;
+		try {
+			out.close();
+		} catch (IOException ex) {
+			System.err.println("Closing log file failed: " + getCurrentFile().getAbsolutePath() + ": " + ex);
+		}
+		out = null;
+		counter = null;
+	}
+
+	private synchronized void compressLater(final File file) {
+		Runnable compression = new Runnable() {
+
+			@Override
+			public void run() {
+				compress(file);
+				deleteOldSegments();
+			}
+		};
+		if (compressor == null) compressor = Executors.newSingleThreadExecutor(new DeamonThreadFactory());
+		if (compressor.isShutdown()) {
+			// closed already
+			compression.run();
+			return;
+		}
+		compressor.execute(compression);
+	}
+
+	private void compress(File file) {
+		// deleted as too old while waiting
+		if (!file.exists()) return;
+		File gzFile = new File(file.getPath() + ".gz");
+		File tmpFile = new File(gzFile.getPath() + ".tmp");
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				OutputStream gz = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)),
+						READ_BLOCK_SIZE);
+				try {
+					IO.copyData(in, gz);
+				} finally {
+					gz.close();
+				}
+			} finally {
+				in.close();
+			}
+			if (!tmpFile.renameTo(gzFile)) throw new IOException("Renaming failed: " + tmpFile);
+			file.delete();
+		} catch (IOException ex) {
+			System.err.println("Compressing log file failed: " + file.getAbsolutePath() + ": " + ex);
+			tmpFile.delete();
+		}
+	}
+
+	private void deleteOldSegments() {
+		List<File> segments = listRolledSegments();
+		for (int i = maxSegments; i < segments.size(); i++) {
+			segments.get(i).delete();
+		}
+	}
+
+	/**
+	 * Rolled segments, newest first.
+	 */
+	private List<File> listRolledSegments() {
+		String prefix = name + "-";
+		List<File> ret = new ArrayList<File>();
+		File[] files = dir.listFiles();
+		if (files == null) return ret;
+		for (File file : files) {
+			String fileName = file.getName();
+			if (!fileName.startsWith(prefix)) continue;
+			if (fileName.endsWith(GZIP_SUFFIX)) {
+				ret.add(file);
+			} else if (fileName.endsWith(SUFFIX) && !new File(file.getPath() + ".gz").exists()) {
+				ret.add(file);
+			}
+		}
+		// names start with the segment time
+		Collections.sort(ret, new Comparator<File>() {
+
+			@Override
+			public int compare(File a, File b) {
+				return segmentOrder(b.getName()).compareTo(segmentOrder(a.getName()));
+			}
+		});
+		return ret;
+	}
+
+	private String segmentOrder(String fileName) {
+		// name-yyyyMMdd-HHmmss-n.log[.gz]
+		String s = fileName.substring(name.length() + 1, fileName.indexOf(SUFFIX));
+		int idx = s.lastIndexOf('-');
+		if (idx < 0) return s;
+		String n = s.substring(idx + 1);
+		while (n.length() < 10) {
+			n = "0" + n;
+		}
+		return s.substring(0, idx) + "-" + n;
+	}
+
+	public File getCurrentFile() {
+		return new File(dir, name + SUFFIX);
+	}
+
+	// --- reading ---
+
+	/**
+	 * The latest records, newest first.
+	 */
+	public List<LogRecord> tail(int maxRecords) {
+		return search(null, null, maxRecords);
+	}
+
+	/**
+	 * Records containing the text in message, logger or context, newest first.
+	 *
+	 * @param text optional, case sensitive
+	 * @param minLevel optional
+	 */
+	public List<LogRecord> search(String text, Level minLevel, int maxRecords) {
+		Matcher matcher = new Matcher(text, minLevel, maxRecords);
+
+		RandomAccessFile current = null;
+		long currentLength = 0;
+		synchronized (this) {
+			flush();
+			try {
+				current = new RandomAccessFile(getCurrentFile(), "r");
+				currentLength = current.length();
+			} catch (FileNotFoundException ex) {
+				// nothing written yet
+			} catch (IOException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+		try {
+			if (current != null) {
+				try {
+					readBackwards(current, currentLength, matcher);
+				} finally {
+					current.close();
+				}
+			}
+			for (File segment : listRolledSegments()) {
+				if (matcher.isFull()) break;
+				readSegment(segment, matcher);
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Reading log files failed: " + dir.getAbsolutePath(), ex);
+		}
+		return matcher.records;
+	}
+
+	private void readSegment(File segment, Matcher matcher) throws IOException {
+		if (segment.getName().endsWith(GZIP_SUFFIX)) {
+			readCompressed(segment, matcher);
+			return;
+		}
+		RandomAccessFile file;
+		try {
+			file = new RandomAccessFile(segment, "r");
+		} catch (FileNotFoundException ex) {
+			// compressed in the meantime
+			File gzFile = new File(segment.getPath() + ".gz");
+			if (gzFile.exists()) readCompressed(gzFile, matcher);
+			return;
+		}
+		try {
+			readBackwards(file, file.length(), matcher);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Reads lines from the end of the file in blocks, stops when the matcher is full.
+	 */
+	private static void readBackwards(RandomAccessFile file, long length, Matcher matcher) throws IOException {
+		long pos = length;
+		byte[] carry = new byte[0];
+		while (pos > 0 && !matcher.isFull()) {
+			int blockSize = (int) Math.min(READ_BLOCK_SIZE, pos);
+			pos -= blockSize;
+			byte[] data = new byte[blockSize + carry.length];
+			file.seek(pos);
+			file.readFully(data, 0, blockSize);
+			System.arraycopy(carry, 0, data, blockSize, carry.length);
+			int end = data.length;
+			for (int i = data.length - 1; i >= 0; i--) {
+				if (data[i] != '\n') continue;
+				if (end > i + 1 && !matcher.onLine(new String(data, i + 1, end - i - 1, IO.UTF_8))) return;
+				end = i;
+			}
+			carry = Arrays.copyOf(data, end);
+		}
+		if (carry.length > 0 && !matcher.isFull()) matcher.onLine(new String(carry, IO.UTF_8));
+	}
+
+	/**
+	 * Compressed segments can only be read forward, so the latest matches are kept in a bounded queue.
+	 */
+	private static void readCompressed(File segment, Matcher matcher) throws IOException {
+		int remaining = matcher.getRemaining();
+		ArrayDeque<LogRecord> latest = new ArrayDeque<LogRecord>(Math.min(remaining, 1024));
+		BufferedReader in = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(
+				segment), READ_BLOCK_SIZE), IO.UTF_8));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				LogRecord record = matcher.match(line);
+				if (record == null) continue;
+				if (latest.size() == remaining) latest.removeFirst();
+				latest.addLast(record);
+			}
+		} finally {
+			in.close();
+		}
+		Iterator<LogRecord> iterator = latest.descendingIterator();
+		while (iterator.hasNext()) {
+			matcher.records.add(iterator.next());
+		}
+	}
+
+	private static class Matcher {
+
+		private final String text;
+		private final String escapedText;
+		private final Level minLevel;
+		private final int maxRecords;
+		private final List<LogRecord> records = new ArrayList<LogRecord>();
+
+		public Matcher(String text, Level minLevel, int maxRecords) {
+			this.text = text;
+			this.escapedText = text == null ? null : Json.escapeString(text);
+			this.minLevel = minLevel;
+			this.maxRecords = maxRecords;
+		}
+
+		/**
+		 * @return false if no more records are needed
+		 */
+		public boolean onLine(String line) {
+			LogRecord record = match(line);
+			if (record != null) records.add(record);
+			return !isFull();
+		}
+
+		public LogRecord match(String line) {
+			// cheap check on the raw line before parsing
+			if (escapedText != null && !line.contains(escapedText)) return null;
+			if (line.length() == 0) return null;
+			JsonObject json;
+			try {
+				json = JsonObject.parse(line);
+			} catch (Exception ex) {
+				// incomplete line after a crash
+				return null;
+			}
+			Level level;
+			try {
+				level = Level.valueOf(json.getString("level"));
+			} catch (Exception ex) {
+				return null;
+			}
+			if (minLevel != null && level.ordinal() < minLevel.ordinal()) return null;
+			String logger = json.getString("logger");
+			String message = json.getString("message");
+			String context = json.getString("context");
+			if (text != null && !contains(message, text) && !contains(logger, text) && !contains(context, text))
+				return null;
+			Long time = json.getLong("time");
+			LogRecord record = new LogRecord(time == null ? 0 : time, logger, level, message);
+			record.context = context;
+			return record;
+		}
+
+		private static boolean contains(String s, String text) {
+			return s != null && s.contains(text);
+		}
+
+		public boolean isFull() {
+			return records.size() >= maxRecords;
+		}
+
+		public int getRemaining() {
+			return maxRecords - records.size();
+		}
+
+	}
+
+	@Override
+	public void close() {
+		ExecutorService compressor;
+		synchronized (this) {
+			// a synchronous log() after stopLogging() would reopen the file
+			closed = true;
+			closeWriter();
+			compressor = this.compressor;
+		}
+		if (compressor == null) return;
+		compressor.shutdown();
+		try {
+			compressor.awaitTermination(30, TimeUnit.SECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// --- configuration ---
+
+	public RollingJsonLogRecordHandler setMaxSegmentSize(long maxSegmentSize) {
+		this.maxSegmentSize = maxSegmentSize;
+		return this;
+	}
+
+	/**
+	 * Records below this level are not written. <code>null</code> for all levels.
+	 */
+	public RollingJsonLogRecordHandler setMinLevel(Level minLevel) {
+		this.minLevel = minLevel;
+		return this;
+	}
+
+	public RollingJsonLogRecordHandler setMaxSegmentAge(long maxSegmentAge) {
+		this.maxSegmentAge = maxSegmentAge;
+		return this;
+	}
+
+	/**
+	 * Number of rolled segments to keep, older ones are deleted.
+	 */
+	public RollingJsonLogRecordHandler setMaxSegments(int maxSegments) {
+		this.maxSegments = maxSegments;
+		return this;
+	}
+
+	public File getDir() {
+		return dir;
+	}
+
+	// --- ---
+
+	private static class CountingOutputStream extends FilterOutputStream {
+
+		private long count;
+
+		public CountingOutputStream(OutputStream out, long count) {
+			super(out);
+			this.count = count;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+	}
+
+}
@@ -40,6 +40,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
@@ -50,10 +52,12 @@ import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.CookieStore;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.params.CookiePolicy;
 import org.apache.http.client.params.HttpClientParams;
 import org.apache.http.client.protocol.ClientContext;
@@ -63,11 +67,15 @@ import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.params.CoreProtocolPNames;
 import org.apache.http.params.HttpParams;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
 
 public class ApacheHttpDownloader extends HttpDownloader {
 
@@ -75,9 +83,84 @@ public class ApacheHttpDownloader extends HttpDownloader {
 
 	private HttpClient client;
 	private HttpContext context;
+	private CookieStore cookieStore = new BasicCookieStore();
 
 	private String userAgent = UserAgentBuilder.random();
 
+	private int poolMaxTotal;
+	private int poolMaxPerRoute;
+	private PoolingClientConnectionManager connectionManager;
+	private final ReentrantLock singleClientLock = new ReentrantLock();
+	private final LatencyHistogram latencies = new LatencyHistogram();
+
+	/**
+	 * Switches to the thread safe mode: requests run concurrently on one client with pooled keep-alive
+	 * connections. Without a pool all requests are serialized and each one uses a fresh client. Call before the
+	 * first request.
+	 */
+	public ApacheHttpDownloader setConnectionPool(int maxTotal, int maxPerRoute) {
+		if (client != null) throw new IllegalStateException("Client already created");
+		this.poolMaxTotal = maxTotal;
+		this.poolMaxPerRoute = maxPerRoute;
+		return this;
+	}
+
+	public boolean isPooled() {
+		return poolMaxTotal > 0;
+	}
+
+	private void lock() {
+		if (!isPooled()) singleClientLock.lock();
+	}
+
+	private void unlock() {
+		if (!isPooled()) singleClientLock.unlock();
+	}
+
+	private HttpResponse execute(HttpClient client, HttpUriRequest request) throws IOException {
+		long start = System.currentTimeMillis();
+		try {
+			return client.execute(request, getContext());
+		} finally {
+			latencies.add(System.currentTimeMillis() - start);
+		}
+	}
+
+	/**
+	 * Time until the response headers of a request are received.
+	 */
+	public LatencyHistogram getLatencies() {
+		return latencies;
+	}
+
+	public int getLeasedConnections() {
+		PoolStats stats = getPoolStats();
+		return stats == null ? 0 : stats.getLeased();
+	}
+
+	public int getPendingConnections() {
+		PoolStats stats = getPoolStats();
+		return stats == null ? 0 : stats.getPending();
+	}
+
+	public int getAvailableConnections() {
+		PoolStats stats = getPoolStats();
+		return stats == null ? 0 : stats.getAvailable();
+	}
+
+	private PoolStats getPoolStats() {
+		PoolingClientConnectionManager manager = connectionManager;
+		return manager == null ? null : manager.getTotalStats();
+	}
+
+	/**
+	 * Closes pooled connections which were not used for the given time.
+	 */
+	public void closeIdleConnections(long idleMillis) {
+		PoolingClientConnectionManager manager = connectionManager;
+		if (manager != null) manager.closeIdleConnections(idleMillis, TimeUnit.MILLISECONDS);
+	}
+
 	public String upload(String url, File file, Map<String, String> parameters, Map<String, String> requestHeaders,
 			String charset) {
 		url = getFullUrl(url);
@@ -102,15 +185,20 @@ public class ApacheHttpDownloader extends HttpDownloader {
 		request.setEntity(multipart);
 
 		HttpResponse response;
+		lock();
 		try {
-			response = doPost(request);
-		} catch (HttpRedirectException ex) {
-			return downloadText(ex.getLocation(), charset);
-		}
-		try {
-			return getText(response);
-		} catch (IOException ex) {
-			throw new RuntimeException("HTTP POST failed.", ex);
+			try {
+				response = doPost(request);
+			} catch (HttpRedirectException ex) {
+				return downloadText(ex.getLocation(), charset);
+			}
+			try {
+				return getText(response);
+			} catch (IOException ex) {
+				throw new RuntimeException("HTTP POST failed.", ex);
+			}
+		} finally {
+			unlock();
 		}
 	}
 
@@ -118,19 +206,24 @@ public class ApacheHttpDownloader extends HttpDownloader {
 	public String post(String url, Map<String, String> parameters, Map<String, String> requestHeaders, String charset) {
 		url = getFullUrl(url);
 		HttpResponse response;
+		lock();
 		try {
-			response = doPost(url, parameters, requestHeaders, charset);
-		} catch (HttpRedirectException ex) {
-			return downloadText(ex.getLocation(), charset);
-		}
-		try {
-			return getText(response);
-		} catch (IOException ex) {
-			throw new RuntimeException("HTTP POST failed.", ex);
+			try {
+				response = doPost(url, parameters, requestHeaders, charset);
+			} catch (HttpRedirectException ex) {
+				return downloadText(ex.getLocation(), charset);
+			}
+			try {
+				return getText(response);
+			} catch (IOException ex) {
+				throw new RuntimeException("HTTP POST failed.", ex);
+			}
+		} finally {
+			unlock();
 		}
 	}
 
-	private synchronized HttpResponse doPost(String url, Map<String, String> parameters,
+	private HttpResponse doPost(String url, Map<String, String> parameters,
 			Map<String, String> requestHeaders, String charset) throws HttpRedirectException {
 		url = getFullUrl(url);
 		HttpPost request = new HttpPost(url);
@@ -156,7 +249,7 @@ public class ApacheHttpDownloader extends HttpDownloader {
 	private HttpResponse doPost(HttpPost request) {
 		HttpClient client = getClient();
 		try {
-			HttpResponse response = client.execute(request, getContext());
+			HttpResponse response = execute(client, request);
 			int statusCode = response.getStatusLine().getStatusCode();
 			if (isHttpStatusCodeRedirect(statusCode)) {
 				getText(response);
@@ -191,19 +284,24 @@ public class ApacheHttpDownloader extends HttpDownloader {
 	}
 
 	@Override
-	public synchronized void downloadUrlToFile(String url, File file, int followRedirects) {
+	public void downloadUrlToFile(String url, File file, int followRedirects) {
 		url = getFullUrl(url);
 		file.getParentFile().mkdirs();
 		BufferedOutputStream out = null;
-		HttpClient client = getClient();
+		HttpGet request = new HttpGet(url);
+		HttpClient client = null;
+		HttpResponse response = null;
+		lock();
 		try {
-			HttpResponse response = client.execute(new HttpGet(url), getContext());
+			client = getClient();
+			response = execute(client, request);
 			int statusCode = response.getStatusLine().getStatusCode();
 			if (isHttpStatusCodeRedirect(statusCode)) {
 				String location = getRedirectLocation(response);
 				location = getFullUrl(location, getBaseUrl(url));
 				if (followRedirects > 0) {
 					log.info("HTTP Redirect:", location);
+					EntityUtils.consume(response.getEntity());
 					IO.close(out);
 					close(client);
 					downloadUrlToFile(location, file, followRedirects - 1);
@@ -224,10 +322,13 @@ public class ApacheHttpDownloader extends HttpDownloader {
 			}
 			entity.writeTo(out);
 		} catch (Exception ex) {
+			request.abort();
 			throw new RuntimeException("Downloading failed: " + url, ex);
 		} finally {
 			IO.close(out);
+			release(response);
 			close(client);
+			unlock();
 		}
 	}
 
@@ -239,11 +340,15 @@ public class ApacheHttpDownloader extends HttpDownloader {
 	}
 
 	@Override
-	public synchronized String downloadText(String url, String charset, int followRedirects) {
+	public String downloadText(String url, String charset, int followRedirects) {
 		url = getFullUrl(url);
-		HttpClient client = getClient();
+		HttpGet request = new HttpGet(url);
+		HttpClient client = null;
+		HttpResponse response = null;
+		lock();
 		try {
-			HttpResponse response = client.execute(new HttpGet(url), getContext());
+			client = getClient();
+			response = execute(client, request);
 			int statusCode = response.getStatusLine().getStatusCode();
 			String text = getText(response, charset);
 			if (isHttpStatusCodeRedirect(statusCode)) {
@@ -264,9 +369,12 @@ public class ApacheHttpDownloader extends HttpDownloader {
 						+ url);
 			return text;
 		} catch (IOException ex) {
+			request.abort();
 			throw new RuntimeException("Downloading failed: " + url, ex);
 		} finally {
+			release(response);
 			close(client);
+			unlock();
 		}
 	}
 
@@ -286,11 +394,18 @@ public class ApacheHttpDownloader extends HttpDownloader {
 		return url;
 	}
 
+	/**
+	 * Context for the next request. In pooled mode each request gets its own context, sharing the cookies.
+	 */
 	public HttpContext getContext() {
-		if (context == null) {
-			context = new BasicHttpContext();
-			context.setAttribute(ClientContext.COOKIE_STORE, new BasicCookieStore());
-		}
+		if (isPooled()) return createContext();
+		if (context == null) context = createContext();
+		return context;
+	}
+
+	private HttpContext createContext() {
+		HttpContext context = new BasicHttpContext();
+		context.setAttribute(ClientContext.COOKIE_STORE, cookieStore);
 		return context;
 	}
 
@@ -300,7 +415,15 @@ public class ApacheHttpDownloader extends HttpDownloader {
 	}
 
 	protected HttpClient createClient() {
-		DefaultHttpClient client = new DefaultHttpClient();
+		DefaultHttpClient client;
+		if (isPooled()) {
+			connectionManager = new PoolingClientConnectionManager(SchemeRegistryFactory.createDefault());
+			connectionManager.setMaxTotal(poolMaxTotal);
+			connectionManager.setDefaultMaxPerRoute(poolMaxPerRoute);
+			client = new DefaultHttpClient(connectionManager);
+		} else {
+			client = new DefaultHttpClient();
+		}
 		initializeClient(client);
 		if (isSslServerCheckingDisabled()) return wrapClientForDisabledServerChecking(client);
 		return client;
@@ -342,10 +465,29 @@ public class ApacheHttpDownloader extends HttpDownloader {
 		}
 	}
 
+	/**
+	 * Returns the connection of a response to the pool. Responses of failed downloads are aborted before, so their
+	 * connections are closed instead of reading the rest of the body.
+	 */
+	private void release(HttpResponse response) {
+		if (response == null) return;
+		EntityUtils.consumeQuietly(response.getEntity());
+	}
+
 	protected synchronized void close(HttpClient client) {
+		if (isPooled()) return;
 		this.client = null;
 	}
 
+	/**
+	 * Closes all pooled connections.
+	 */
+	public synchronized void shutdown() {
+		if (client != null) client.getConnectionManager().shutdown();
+		client = null;
+		connectionManager = null;
+	}
+
 	// --- helper ---
 
 	public static String getText(HttpResponse resp) throws IOException {
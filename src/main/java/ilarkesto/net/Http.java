@@ -30,6 +30,8 @@ public class Http {
 	public static final String RESPONSE_HEADER_SET_COOKIE = "Set-Cookie";
 	public static final String RESPONSE_HEADER_CONTENT_TYPE = "Content-Type";
 	public static final String RESPONSE_HEADER_LOCATION = "Location";
+	public static final String RESPONSE_HEADER_CACHE_CONTROL = "Cache-Control";
+	public static final String RESPONSE_HEADER_LAST_MODIFIED = "Last-Modified";
 
 	public static final int RESPONSE_SC_CONTINUE = 100;
 	public static final int RESPONSE_SC_OK = 200;
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.net;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in fixed millisecond buckets. Thread safe and free of locks.
+ */
+public class LatencyHistogram {
+
+	private static final long[] BUCKET_LIMITS = { 1, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000,
+			Long.MAX_VALUE };
+
+	private AtomicLongArray counts = new AtomicLongArray(BUCKET_LIMITS.length);
+	private AtomicLong count = new AtomicLong();
+	private AtomicLong sum = new AtomicLong();
+	private AtomicLong max = new AtomicLong();
+
+	public void add(long millis) {
+		for (int i = 0; i < BUCKET_LIMITS.length; i++) {
+			if (millis <= BUCKET_LIMITS[i]) {
+				counts.incrementAndGet(i);
+				break;
+			}
+		}
+		count.incrementAndGet();
+		sum.addAndGet(millis);
+		long currentMax;
+		while ((currentMax = max.get()) < millis) {
+			if (max.compareAndSet(currentMax, millis)) break;
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getAverage() {
+		long c = count.get();
+		return c == 0 ? 0 : sum.get() / c;
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Upper bucket limit below which the given fraction of durations lies, eg. 0.99 for the 99th percentile.
+	 */
+	public long getPercentile(double fraction) {
+		long c = count.get();
+		if (c == 0) return 0;
+		long threshold = (long) Math.ceil(c * fraction);
+		long cumulated = 0;
+		for (int i = 0; i < BUCKET_LIMITS.length; i++) {
+			cumulated += counts.get(i);
+			if (cumulated >= threshold) return i == BUCKET_LIMITS.length - 1 ? getMax() : BUCKET_LIMITS[i];
+		}
+		return getMax();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("count=").append(getCount()).append(" avg=").append(getAverage()).append("ms p50<=")
+				.append(getPercentile(0.5)).append("ms p99<=").append(getPercentile(0.99)).append("ms max=")
+				.append(getMax()).append("ms");
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.net;
+
+/**
+ * Compact set of URLs, which stores only a 64 bit hash per URL in an open addressing table. About 16 bytes per URL
+ * instead of the string and entry objects of a <code>HashSet</code>. Hash collisions are possible, but unlikely
+ * enough for crawling.
+ */
+public class UrlHashSet {
+
+	private long[] table;
+	private int size;
+
+	public UrlHashSet() {
+		this(1024);
+	}
+
+	public UrlHashSet(int initialCapacity) {
+		int capacity = 16;
+		while (capacity < initialCapacity * 2) {
+			capacity <<= 1;
+		}
+		table = new long[capacity];
+	}
+
+	/**
+	 * @return <code>true</code> if the URL was not contained yet
+	 */
+	public synchronized boolean add(String url) {
+		if (size * 2 >= table.length) grow();
+		return insert(table, hash(url));
+	}
+
+	public synchronized boolean contains(String url) {
+		long hash = hash(url);
+		int mask = table.length - 1;
+		int i = (int) (hash ^ (hash >>> 32)) & mask;
+		while (table[i] != 0) {
+			if (table[i] == hash) return true;
+			i = (i + 1) & mask;
+		}
+		return false;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public synchronized void clear() {
+		table = new long[16];
+		size = 0;
+	}
+
+	private boolean insert(long[] table, long hash) {
+		int mask = table.length - 1;
+		int i = (int) (hash ^ (hash >>> 32)) & mask;
+		while (table[i] != 0) {
+			if (table[i] == hash) return false;
+			i = (i + 1) & mask;
+		}
+		table[i] = hash;
+		if (table == this.table) size++;
+		return true;
+	}
+
+	private void grow() {
+		long[] newTable = new long[table.length * 2];
+		for (long hash : table) {
+			if (hash != 0) insert(newTable, hash);
+		}
+		table = newTable;
+	}
+
+	/**
+	 * 64 bit FNV-1a hash, never 0.
+	 */
+	static long hash(String s) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < s.length(); i++) {
+			hash ^= s.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash == 0 ? 1 : hash;
+	}
+
+}
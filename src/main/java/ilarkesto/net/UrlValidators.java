@@ -0,0 +1,151 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.net;
+
+/**
+ * ETag and Last-Modified validators of URLs, keyed by the 64 bit hash of the URL like <code>UrlHashSet</code>. The
+ * number of URLs is bounded: when <code>maxSize</code> is reached, new URLs replace others, which are then
+ * transferred again on their next crawl.
+ */
+public class UrlValidators {
+
+	private int maxSize;
+	private long[] hashes;
+	private String[] etags;
+	private long[] lastModifieds;
+	private int size;
+
+	public UrlValidators(int maxSize) {
+		this.maxSize = maxSize;
+		clear();
+	}
+
+	public synchronized void put(String url, String etag, long lastModified) {
+		long hash = UrlHashSet.hash(url);
+		if (size * 2 >= hashes.length && hashes.length < getMaxCapacity()) grow();
+		int i = find(hashes, hash);
+		if (hashes[i] != hash) {
+			if (size >= maxSize) {
+				// full: replace a URL near the slot of the new one
+				int mask = hashes.length - 1;
+				int j = getHomeIndex(hashes, hash);
+				while (hashes[j] == 0) {
+					j = (j + 1) & mask;
+				}
+				remove(j);
+				i = find(hashes, hash);
+			}
+			hashes[i] = hash;
+			size++;
+		}
+		etags[i] = etag;
+		lastModifieds[i] = lastModified;
+	}
+
+	/**
+	 * @return <code>null</code> if unknown
+	 */
+	public synchronized String getEtag(String url) {
+		long hash = UrlHashSet.hash(url);
+		int i = find(hashes, hash);
+		return hashes[i] == hash ? etags[i] : null;
+	}
+
+	/**
+	 * @return 0 if unknown
+	 */
+	public synchronized long getLastModified(String url) {
+		long hash = UrlHashSet.hash(url);
+		int i = find(hashes, hash);
+		return hashes[i] == hash ? lastModifieds[i] : 0;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public synchronized void clear() {
+		hashes = new long[16];
+		etags = new String[16];
+		lastModifieds = new long[16];
+		size = 0;
+	}
+
+	/**
+	 * Empties a slot and moves following entries back, so their probe sequences stay unbroken.
+	 */
+	private void remove(int i) {
+		int mask = hashes.length - 1;
+		hashes[i] = 0;
+		etags[i] = null;
+		size--;
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (hashes[j] == 0) return;
+			int home = getHomeIndex(hashes, hashes[j]);
+			// entry at j may move to i, if its home is not in (i, j]
+			boolean inRange = i <= j ? (home > i && home <= j) : (home > i || home <= j);
+			if (inRange) continue;
+			hashes[i] = hashes[j];
+			etags[i] = etags[j];
+			lastModifieds[i] = lastModifieds[j];
+			hashes[j] = 0;
+			etags[j] = null;
+			i = j;
+		}
+	}
+
+	/**
+	 * @return index of the hash or of the empty slot where it belongs
+	 */
+	private static int find(long[] hashes, long hash) {
+		int mask = hashes.length - 1;
+		int i = getHomeIndex(hashes, hash);
+		while (hashes[i] != 0 && hashes[i] != hash) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private static int getHomeIndex(long[] hashes, long hash) {
+		return (int) (hash ^ (hash >>> 32)) & (hashes.length - 1);
+	}
+
+	private int getMaxCapacity() {
+		int capacity = 16;
+		while (capacity < maxSize * 2) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private void grow() {
+		long[] newHashes = new long[hashes.length * 2];
+		String[] newEtags = new String[newHashes.length];
+		long[] newLastModifieds = new long[newHashes.length];
+		for (int i = 0; i < hashes.length; i++) {
+			if (hashes[i] == 0) continue;
+			int j = find(newHashes, hashes[i]);
+			newHashes[j] = hashes[i];
+			newEtags[j] = etags[i];
+			newLastModifieds[j] = lastModifieds[i];
+		}
+		hashes = newHashes;
+		etags = newEtags;
+		lastModifieds = newLastModifieds;
+	}
+
+}
@@ -15,24 +15,54 @@
 package ilarkesto.net;
 
 import ilarkesto.base.Str;
+import ilarkesto.concurrent.DeamonThreadFactory;
 import ilarkesto.core.base.Utl;
 import ilarkesto.core.logging.Log;
 import ilarkesto.io.IO;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
-
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Crawls web sites with a pool of worker threads. URLs wait in per host queues, a host is handed to a worker when
+ * its next request is allowed. Requests to the same host are limited in concurrency and spaced by a delay. When the
+ * queues hold <code>maxFrontierSize</code> URLs, further URLs are spilled to a temporary file. Visited URLs are
+ * kept as hashes.
+ * <p>
+ * With a <code>RecrawlConsumer</code>, known ETag and Last-Modified validators are sent with re-crawls, so
+ * unchanged pages are not transferred again. Their links are taken from the HTML which the consumer stored before.
+ */
 public class WebCrawler {
 
 	private static Log log = Log.get(WebCrawler.class);
@@ -41,7 +71,23 @@ public class WebCrawler {
 	private Consumer consumer;
 	private String defaultEncoding = IO.UTF_8;
 
-	private Set<String> crawledUrls = new HashSet<String>();
+	private int threadCount = 4;
+	private int maxConnectionsPerHost = 2;
+	private long hostDelay = 250;
+	private int maxFrontierSize = 100000;
+	private int maxPageSize = 4 * 1024 * 1024;
+	private int timeout = 30000;
+
+	private UrlHashSet crawledUrls = new UrlHashSet();
+	private UrlValidators validators = new UrlValidators(1000000);
+
+	private Map<String, HostQueue> hostQueues;
+	// hosts with queued URLs and a free connection, by the time of their next allowed request
+	private DelayQueue<HostQueue> readyHosts;
+	private AtomicInteger queuedUrls;
+	private FrontierSpill spill;
+	private AtomicInteger pendingUrls;
+	private volatile Throwable failure;
 
 	public static void download(String url, String destinationDir) {
 		WebCrawler wc = new WebCrawler();
@@ -54,36 +100,296 @@ public class WebCrawler {
 		crawl(Utl.toList(url));
 	}
 
-	private void crawl(Collection<String> urls) {
-		Set<String> newUrls = new HashSet<String>();
+	/**
+	 * Crawls from the given URLs until no new URLs are found. Blocks until done. Consumer callbacks come from the
+	 * worker threads.
+	 */
+	public synchronized void crawl(Collection<String> urls) {
+		crawledUrls.clear();
+		hostQueues = new HashMap<String, HostQueue>();
+		readyHosts = new DelayQueue<HostQueue>();
+		queuedUrls = new AtomicInteger();
+		spill = new FrontierSpill();
+		pendingUrls = new AtomicInteger();
+		failure = null;
+
+		for (String url : urls) {
+			enqueue(url);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount, new DeamonThreadFactory());
+		try {
+			for (int i = 0; i < threadCount; i++) {
+				executor.execute(new Worker());
+			}
+			synchronized (pendingUrls) {
+				while (pendingUrls.get() > 0 && failure == null) {
+					pendingUrls.wait(1000);
+				}
+			}
+		} catch (InterruptedException ex) {
+			throw new RuntimeException("Crawling interrupted", ex);
+		} finally {
+			executor.shutdownNow();
+			spill.delete();
+		}
+
+		if (spill.spilledCount > 0) log.info("Frontier full,", spill.spilledCount, "URLs spilled to disk");
+		if (failure != null) {
+			if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+			throw new RuntimeException("Crawling failed", failure);
+		}
+	}
+
+	private void enqueue(String url) {
+		if (!crawledUrls.add(url)) return;
+		pendingUrls.incrementAndGet();
+		if (queuedUrls.get() >= maxFrontierSize) {
+			spill.add(url);
+			return;
+		}
+		schedule(url);
+	}
+
+	private void schedule(String url) {
+		queuedUrls.incrementAndGet();
+		getHostQueue(url).add(url);
+	}
+
+	/**
+	 * Moves spilled URLs back into the host queues, when they are less than half full.
+	 */
+	private boolean refill() {
+		int free = maxFrontierSize - queuedUrls.get();
+		if (free < maxFrontierSize / 2) return false;
+		List<String> urls = spill.take(Math.max(free, 1));
 		for (String url : urls) {
-			Set<String> parsedUrls = doCrawl(url);
-			if (!parsedUrls.isEmpty()) log.debug("  parsed", parsedUrls.size(), "URLs");
-			newUrls.addAll(parsedUrls);
-		}
-		List<String> nextUrls = new ArrayList<String>();
-		for (String url : newUrls) {
-			if (crawledUrls.contains(url)) continue;
-			if (filter != null && !filter.accept(url)) {
-				log.debug("  filtered out:", url);
-				continue;
+			schedule(url);
+		}
+		return !urls.isEmpty();
+	}
+
+	private void onUrlDone() {
+		if (pendingUrls.decrementAndGet() > 0) return;
+		synchronized (pendingUrls) {
+			pendingUrls.notifyAll();
+		}
+	}
+
+	private void onFailure(Throwable ex) {
+		if (failure == null) failure = ex;
+		synchronized (pendingUrls) {
+			pendingUrls.notifyAll();
+		}
+	}
+
+	private class Worker implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				while (failure == null) {
+					refill();
+					HostQueue host = readyHosts.poll(100, TimeUnit.MILLISECONDS);
+					if (host == null) {
+						if (pendingUrls.get() == 0) return;
+						continue;
+					}
+					String url = host.acquire();
+					if (url == null) continue;
+					queuedUrls.decrementAndGet();
+					try {
+						for (String newUrl : doCrawl(url)) {
+							if (filter != null && !filter.accept(newUrl)) continue;
+							enqueue(newUrl);
+						}
+					} catch (Throwable ex) {
+						// before the URL is done, so crawl() does not finish without the failure
+						onFailure(ex);
+						return;
+					} finally {
+						host.release();
+						onUrlDone();
+					}
+				}
+			} catch (InterruptedException ex) {
+				return;
+			} catch (Throwable ex) {
+				onFailure(ex);
+			}
+		}
+
+	}
+
+	private HostQueue getHostQueue(String url) {
+		String host;
+		try {
+			host = new URL(url).getHost();
+		} catch (MalformedURLException ex) {
+			host = "";
+		}
+		synchronized (hostQueues) {
+			HostQueue queue = hostQueues.get(host);
+			if (queue == null) {
+				queue = new HostQueue();
+				hostQueues.put(host, queue);
+			}
+			return queue;
+		}
+	}
+
+	/**
+	 * URLs of a host. The host is in <code>readyHosts</code> while it has URLs and a free connection. Its
+	 * <code>nextRequestTime</code> only changes while it is not.
+	 */
+	private class HostQueue implements Delayed {
+
+		private Queue<String> urls = new LinkedList<String>();
+		private int connections;
+		private long nextRequestTime;
+		private boolean ready;
+
+		synchronized void add(String url) {
+			urls.add(url);
+			updateReady();
+		}
+
+		/**
+		 * Takes the next URL after the host was taken from <code>readyHosts</code>.
+		 */
+		synchronized String acquire() {
+			ready = false;
+			String url = urls.poll();
+			if (url != null) {
+				connections++;
+				nextRequestTime = System.currentTimeMillis() + hostDelay;
+			}
+			updateReady();
+			return url;
+		}
+
+		synchronized void release() {
+			connections--;
+			updateReady();
+		}
+
+		private void updateReady() {
+			if (ready || urls.isEmpty() || connections >= maxConnectionsPerHost) return;
+			ready = true;
+			readyHosts.offer(this);
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(nextRequestTime - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			long other = ((HostQueue) o).nextRequestTime;
+			return nextRequestTime < other ? -1 : (nextRequestTime == other ? 0 : 1);
+		}
+
+	}
+
+	/**
+	 * URLs which did not fit into the host queues, one per line in a temporary file.
+	 */
+	private class FrontierSpill {
+
+		private File file;
+		private Writer out;
+		private int count;
+		private int spilledCount;
+
+		synchronized void add(String url) {
+			try {
+				if (out == null) {
+					if (file == null) {
+						file = File.createTempFile("webcrawler-frontier", ".txt");
+						file.deleteOnExit();
+					}
+					out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), IO.UTF_8));
+				}
+				out.write(url);
+				out.write('\n');
+			} catch (IOException ex) {
+				throw new RuntimeException("Writing frontier spill file failed: " + file, ex);
+			}
+			count++;
+			spilledCount++;
+		}
+
+		/**
+		 * Removes up to <code>max</code> URLs. The remaining ones are rewritten to the file.
+		 */
+		synchronized List<String> take(int max) {
+			if (count == 0) return Collections.emptyList();
+			List<String> ret = new ArrayList<String>(Math.min(max, count));
+			List<String> rest = new ArrayList<String>();
+			try {
+				out.close();
+				out = null;
+				BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), IO.UTF_8));
+				try {
+					String url;
+					while ((url = in.readLine()) != null) {
+						if (ret.size() < max) {
+							ret.add(url);
+						} else {
+							rest.add(url);
+						}
+					}
+				} finally {
+					IO.close(in);
+				}
+			} catch (IOException ex) {
+				throw new RuntimeException("Reading frontier spill file failed: " + file, ex);
+			}
+			IO.delete(file);
+			count = 0;
+			int spilled = spilledCount;
+			for (String url : rest) {
+				add(url);
 			}
-			nextUrls.add(url);
+			spilledCount = spilled;
+			return ret;
+		}
+
+		synchronized void delete() {
+			IO.close(out);
+			out = null;
+			if (file != null) IO.delete(file);
+			count = 0;
 		}
-		if (nextUrls.isEmpty()) return;
-		crawl(nextUrls);
+
 	}
 
 	private Set<String> doCrawl(String url) {
 		log.debug("Crawling:", url);
-		crawledUrls.add(url);
 		if (!isProbablyHtml(url)) {
 			if (consumer == null || consumer.skipNonHtml(url)) return Collections.emptySet();
 		}
+		RecrawlConsumer recrawlConsumer = consumer instanceof RecrawlConsumer ? (RecrawlConsumer) consumer : null;
 		URLConnection connection = IO.openUrlConnection(url, null, null);
+		connection.setConnectTimeout(timeout);
+		connection.setReadTimeout(timeout);
+		if (recrawlConsumer != null) {
+			String etag = validators.getEtag(url);
+			if (etag != null) connection.setRequestProperty("If-None-Match", etag);
+			long lastModified = validators.getLastModified(url);
+			if (lastModified > 0) connection.setIfModifiedSince(lastModified);
+		}
 		String type;
 		try {
 			connection.connect();
+			if (recrawlConsumer != null && connection instanceof HttpURLConnection
+					&& ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				log.debug("  not modified:", url);
+				String html = recrawlConsumer.onNotModified(url);
+				if (html == null) return Collections.emptySet();
+				return parseUrls(html, url);
+			}
 			if (consumer != null) consumer.onConnected(url, connection);
 			type = connection.getContentType();
 		} catch (Exception ex) {
@@ -98,13 +404,14 @@ public class WebCrawler {
 				throw new RuntimeException(ex);
 			}
 		}
+		if (recrawlConsumer != null) rememberValidators(url, connection);
 		if (Str.isBlank(type)) type = "application/unknown";
 		if (type.startsWith("text/html")) {
 			String encoding = connection.getContentEncoding();
 			if (Str.isBlank(encoding)) encoding = defaultEncoding;
 			byte[] data;
 			try {
-				data = IO.readToByteArray(connection.getInputStream());
+				data = readPage(connection.getInputStream());
 			} catch (FileNotFoundException ex) {
 				log.debug("  not found:", url);
 				if (consumer != null) consumer.onNotFound(url);
@@ -131,6 +438,32 @@ public class WebCrawler {
 		return Collections.emptySet();
 	}
 
+	private void rememberValidators(String url, URLConnection connection) {
+		String etag = connection.getHeaderField("ETag");
+		long lastModified = connection.getLastModified();
+		if (etag == null && lastModified <= 0 && validators.getEtag(url) == null
+				&& validators.getLastModified(url) == 0)
+			return;
+		validators.put(url, etag, lastModified);
+	}
+
+	/**
+	 * Reads up to <code>maxPageSize</code> bytes. Larger pages are truncated.
+	 */
+	private byte[] readPage(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while (out.size() < maxPageSize && (read = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, Math.min(read, maxPageSize - out.size()));
+			}
+			return out.toByteArray();
+		} finally {
+			IO.close(in);
+		}
+	}
+
 	static boolean isProbablyHtml(String url) {
 		String s;
 		try {
@@ -183,6 +516,13 @@ public class WebCrawler {
 
 	static String concatUrlWithRelative(String sourceUrl, String relativeUrl) {
 		if (relativeUrl.startsWith("http://") || relativeUrl.startsWith("https://")) return relativeUrl;
+		if (relativeUrl.startsWith("/")) {
+			try {
+				return new URL(new URL(sourceUrl), relativeUrl).toString();
+			} catch (MalformedURLException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
 		String baseUrl = getBaseUrl(sourceUrl);
 		return baseUrl + relativeUrl;
 	}
@@ -212,8 +552,45 @@ public class WebCrawler {
 		setConsumer(new DownloadConsumer(destinationDir, IO.UTF_8));
 	}
 
-	public Set<String> getCrawledUrls() {
-		return crawledUrls;
+	public void setThreadCount(int threadCount) {
+		this.threadCount = threadCount;
+	}
+
+	public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+	}
+
+	/**
+	 * Minimum time in milliseconds between two requests to the same host.
+	 */
+	public void setHostDelay(long hostDelay) {
+		this.hostDelay = hostDelay;
+	}
+
+	/**
+	 * Maximum number of URLs queued in memory. Further URLs are spilled to a temporary file.
+	 */
+	public void setMaxFrontierSize(int maxFrontierSize) {
+		this.maxFrontierSize = maxFrontierSize;
+	}
+
+	public void setMaxPageSize(int maxPageSize) {
+		this.maxPageSize = maxPageSize;
+	}
+
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Maximum number of URLs, for which validators are kept for re-crawls.
+	 */
+	public void setMaxValidators(int maxValidators) {
+		this.validators = new UrlValidators(maxValidators);
+	}
+
+	public int getCrawledUrlCount() {
+		return crawledUrls.size();
 	}
 
 	private class HtmlParser {
@@ -299,7 +676,21 @@ public class WebCrawler {
 
 	}
 
-	public static class DownloadConsumer implements Consumer {
+	/**
+	 * Consumer which keeps the crawled pages, so re-crawls can send validators and skip unchanged pages.
+	 */
+	public static interface RecrawlConsumer extends Consumer {
+
+		/**
+		 * Re-crawled URL which did not change since the last crawl.
+		 * 
+		 * @return the HTML stored from the last crawl, to follow its links, or <code>null</code>
+		 */
+		String onNotModified(String url);
+
+	}
+
+	public static class DownloadConsumer implements RecrawlConsumer {
 
 		private String destinationDir;
 		private boolean skipNonHtml;
@@ -347,6 +738,13 @@ public class WebCrawler {
 		@Override
 		public void onNotFound(String url) {}
 
+		@Override
+		public String onNotModified(String url) {
+			File file = getFile(url);
+			if (!file.exists()) return null;
+			return IO.readFile(file, encoding == null ? IO.UTF_8 : encoding);
+		}
+
 		@Override
 		public void onError(Exception ex, String url, URLConnection connection) throws Exception {
 			throw ex;
@@ -14,122 +14,427 @@
  */
 package ilarkesto.net.httpclient;
 
-import ilarkesto.core.base.Str;
-import ilarkesto.core.base.Utl;
 import ilarkesto.core.logging.Log;
 import ilarkesto.io.IO;
 import ilarkesto.json.JsonObject;
 import ilarkesto.net.Http;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Comparator;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 
+/**
+ * Two tier cache for GET responses. Small responses are kept in an in-memory LRU, all cacheable responses are
+ * stored on disk. An in-memory index of the disk entries in LRU order is persisted as an append-only journal, so
+ * eviction never lists the cache directory. Responses are fresh for their Cache-Control max-age and are
+ * revalidated with ETag and Last-Modified afterwards.
+ */
 public class HttpCache {
 
 	private static final Log log = Log.get(HttpCache.class);
 
+	private static final String JOURNAL = "journal.log";
+
 	private int maxFileSize = 1000000;
 	private int maxCacheSize = 23000000;
+	private int maxMemoryEntrySize = 64 * 1024;
+	private int maxMemorySize = 4000000;
 	private File cacheDir;
-	private long cacheSize = -1;
+
+	private LinkedHashMap<String, Entry> entries;
+	private long cacheSize;
+	private int journalLength;
+
+	private LinkedHashMap<String, byte[]> memory = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+	private long memorySize;
+
+	private long hits;
+	private long memoryHits;
+	private long revalidations;
+	private long misses;
+	private long evictions;
 
 	public HttpCache(File cacheDir) {
 		super();
 		this.cacheDir = cacheDir;
 	}
 
+	/**
+	 * Stores the response, if cacheable.
+	 * 
+	 * @return the cached file or <code>null</code>
+	 */
 	public File cache(HttpResponse resp) throws IOException {
 		String url = resp.request.url;
-		if (url.length() > 127) return null;
+		if (resp.getStatusCode() != Http.RESPONSE_SC_OK) return null;
 
+		String cacheControl = resp.getHeaderValue(Http.RESPONSE_HEADER_CACHE_CONTROL);
+		if (cacheControl != null && cacheControl.contains("no-store")) return null;
+		long maxAge = getMaxAge(cacheControl);
 		String etag = resp.getHeaderValue(Http.REQUEST_HEADER_ETAG);
-		if (etag == null) return null;
+		long lastModified = resp.getLastModified();
+		if (etag == null && lastModified <= 0 && maxAge <= 0) return null;
 
 		long contenLength = resp.getContentLength();
 		if (contenLength > maxFileSize) return null;
 
-		cleanup();
+		// download outside of the lock
+		File tmpFile = new File(cacheDir, IO.toHexString(IO.hash("SHA-1", url.getBytes(IO.UTF_8))) + ".tmp"
+				+ Thread.currentThread().getId());
+		IO.copyDataToFile(resp.getConnectionInputStream(), tmpFile);
+		long size = tmpFile.length();
+		if (size > maxFileSize) {
+			IO.delete(tmpFile);
+			return null;
+		}
+		byte[] data = size <= maxMemoryEntrySize ? IO.readFileToByteArray(tmpFile) : null;
 
-		return cache(url, etag, resp.getConnectionInputStream());
-	}
+		Entry entry = new Entry(url);
+		entry.etag = etag;
+		entry.lastModified = lastModified;
+		entry.expires = maxAge > 0 ? System.currentTimeMillis() + maxAge * 1000 : 0;
+		entry.contentType = resp.getHeaderValue(Http.RESPONSE_HEADER_CONTENT_TYPE);
+		entry.size = size;
 
-	private File cache(String url, String etag, InputStream is) {
-		log.info("Caching", url);
-		initCacheSize();
+		synchronized (this) {
+			log.info("Caching", url);
+			initEntries();
+			File file = entry.getFile();
+			IO.move(tmpFile, file, true);
+			Entry old = entries.put(url, entry);
+			if (old != null) cacheSize -= old.size;
+			cacheSize += size;
+			removeFromMemory(url);
+			if (data != null) putToMemory(url, data);
+			appendToJournal(entry.toJson());
+			cleanup();
+			return file;
+		}
+	}
 
-		File metaFile = new File(path(url) + ".json");
-		JsonObject jMeta = new JsonObject();
-		jMeta.put("ETag", etag);
+	/**
+	 * Fresh entry, which can be used without asking the server, or <code>null</code>. Counts a hit.
+	 */
+	synchronized Entry getFreshEntry(String url) {
+		Entry entry = getEntry(url);
+		if (entry == null || !entry.isFresh()) return null;
+		hits++;
+		return entry;
+	}
 
-		File cachedFile = new File(path(url));
-		if (cachedFile.exists()) cacheSize -= cachedFile.length();
-		IO.copyDataToFile(is, cachedFile);
-		cacheSize += cachedFile.length();
+	/**
+	 * Entry for revalidation, or <code>null</code> if the response has to be loaded. Counts a miss in this case.
+	 */
+	synchronized Entry getEntryForRevalidation(String url) {
+		Entry entry = getEntry(url);
+		if (entry == null) misses++;
+		return entry;
+	}
 
-		IO.writeFile(metaFile, jMeta.toFormatedString(), IO.UTF_8);
+	/**
+	 * Called when the server confirmed a cached entry with 304.
+	 */
+	synchronized File onNotModified(HttpResponse resp) {
+		Entry entry = getEntry(resp.request.url);
+		if (entry == null) return null;
+		revalidations++;
+		long maxAge = getMaxAge(resp.getHeaderValue(Http.RESPONSE_HEADER_CACHE_CONTROL));
+		if (maxAge > 0) {
+			entry.expires = System.currentTimeMillis() + maxAge * 1000;
+			appendToJournal(entry.toJson());
+		}
+		return entry.getFile();
+	}
 
-		return cachedFile;
+	synchronized InputStream openInputStream(String url) throws FileNotFoundException {
+		byte[] data = memory.get(url);
+		if (data != null) {
+			memoryHits++;
+			return new ByteArrayInputStream(data);
+		}
+		Entry entry = getEntry(url);
+		if (entry == null) return null;
+		return new BufferedInputStream(new FileInputStream(entry.getFile()));
 	}
 
-	public String getCachedFileEtag(String url) {
-		File metaFile = new File(path(url) + ".json");
-		if (!metaFile.exists()) return null;
-		return new JsonObject(IO.readFile(metaFile, IO.UTF_8)).getString("ETag");
+	public synchronized String getCachedFileEtag(String url) {
+		Entry entry = getEntry(url);
+		return entry == null ? null : entry.etag;
 	}
 
-	public File getCachedFile(String url) {
-		File file = new File(path(url));
-		if (file.exists()) {
-			log.debug("Cached file:", file.getAbsolutePath());
-		}
+	public synchronized File getCachedFile(String url) {
+		Entry entry = getEntry(url);
+		if (entry == null) return null;
+		File file = entry.getFile();
+		log.debug("Cached file:", file.getAbsolutePath());
 		return file;
 	}
 
-	private String path(String url) {
-		return cacheDir.getPath() + "/" + urlToFilename(url);
+	private Entry getEntry(String url) {
+		initEntries();
+		Entry entry = entries.get(url);
+		if (entry == null) return null;
+		if (!entry.getFile().exists()) {
+			remove(entry);
+			return null;
+		}
+		return entry;
 	}
 
-	private String urlToFilename(String url) {
-		return Str.toFileCompatibleString(url, "-") + ".dat";
+	private void remove(Entry entry) {
+		entries.remove(entry.url);
+		cacheSize -= entry.size;
+		removeFromMemory(entry.url);
+		IO.delete(entry.getFile());
+		JsonObject json = new JsonObject();
+		json.put("url", entry.url);
+		json.put("removed", true);
+		appendToJournal(json);
 	}
 
 	private void cleanup() {
-		initCacheSize();
-		if (cacheSize < maxCacheSize) return;
+		Iterator<Entry> iterator = new ArrayList<Entry>(entries.values()).iterator();
+		while (cacheSize > maxCacheSize && iterator.hasNext()) {
+			Entry entry = iterator.next();
+			log.debug("Evicting", entry.url);
+			remove(entry);
+			evictions++;
+		}
+		if (journalLength > entries.size() * 2 + 100) writeJournal();
+	}
+
+	private void putToMemory(String url, byte[] data) {
+		memory.put(url, data);
+		memorySize += data.length;
+		Iterator<byte[]> iterator = memory.values().iterator();
+		while (memorySize > maxMemorySize && iterator.hasNext()) {
+			memorySize -= iterator.next().length;
+			iterator.remove();
+		}
+	}
+
+	private void removeFromMemory(String url) {
+		byte[] data = memory.remove(url);
+		if (data != null) memorySize -= data.length;
+	}
+
+	private void initEntries() {
+		if (entries != null) return;
+		entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+		cacheDir.mkdirs();
+		File journal = new File(cacheDir, JOURNAL);
+		if (!journal.exists()) {
+			deleteLegacyFiles();
+			return;
+		}
+		try {
+			BufferedReader in = new BufferedReader(new FileReader(journal));
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					if (line.length() == 0) continue;
+					JsonObject json;
+					try {
+						json = JsonObject.parse(line);
+					} catch (Exception ex) {
+						log.warn("Ignoring broken journal line:", line);
+						continue;
+					}
+					String url = json.getString("url");
+					Entry old = json.isTrue("removed") ? entries.remove(url) : entries.put(url, new Entry(json));
+					if (old != null) cacheSize -= old.size;
+					if (!json.isTrue("removed")) cacheSize += json.getLong("size");
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Reading cache journal failed: " + journal, ex);
+		}
+		writeJournal();
+	}
 
-		for (File file : Utl.sort(IO.listFiles(cacheDir, cacheFilesFilter), chacheFilesComparator)) {
-			cacheSize -= file.length();
-			file.delete();
-			new File(file.getPath() + ".json").delete();
-			if (cacheSize < maxCacheSize) return;
+	private void writeJournal() {
+		File journal = new File(cacheDir, JOURNAL);
+		File tmp = new File(cacheDir, JOURNAL + ".tmp");
+		List<String> lines = new ArrayList<String>(entries.size());
+		for (Entry entry : entries.values()) {
+			lines.add(entry.toJson().toString());
 		}
+		try {
+			IO.writeFile(tmp.getPath(), lines);
+		} catch (IOException ex) {
+			throw new RuntimeException("Writing cache journal failed: " + tmp, ex);
+		}
+		IO.move(tmp, journal, true);
+		journalLength = lines.size();
 	}
 
-	private void initCacheSize() {
-		if (cacheSize > -1) return;
-		cacheSize = IO.getSize(cacheDir);
+	private void appendToJournal(JsonObject json) {
+		try {
+			IO.appendLine(new File(cacheDir, JOURNAL).getPath(), json.toString());
+		} catch (IOException ex) {
+			throw new RuntimeException("Writing cache journal failed", ex);
+		}
+		journalLength++;
 	}
 
-	private static final FileFilter cacheFilesFilter = new FileFilter() {
+	/**
+	 * Files of the former layout with one JSON file per URL.
+	 */
+	private void deleteLegacyFiles() {
+		for (File file : IO.listFiles(cacheDir, legacyFilesFilter)) {
+			IO.delete(file);
+		}
+	}
+
+	static long getMaxAge(String cacheControl) {
+		if (cacheControl == null) return 0;
+		if (cacheControl.contains("no-cache")) return 0;
+		for (String directive : cacheControl.split(",")) {
+			directive = directive.trim();
+			if (!directive.startsWith("max-age=")) continue;
+			try {
+				return Long.parseLong(directive.substring(8).trim());
+			} catch (NumberFormatException ex) {
+				return 0;
+			}
+		}
+		return 0;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMemoryHits() {
+		return memoryHits;
+	}
+
+	public synchronized long getRevalidations() {
+		return revalidations;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized long getSize() {
+		initEntries();
+		return cacheSize;
+	}
+
+	public HttpCache setMaxCacheSize(int maxCacheSize) {
+		this.maxCacheSize = maxCacheSize;
+		return this;
+	}
+
+	public HttpCache setMaxFileSize(int maxFileSize) {
+		this.maxFileSize = maxFileSize;
+		return this;
+	}
+
+	public HttpCache setMaxMemorySize(int maxMemorySize, int maxMemoryEntrySize) {
+		this.maxMemorySize = maxMemorySize;
+		this.maxMemoryEntrySize = maxMemoryEntrySize;
+		return this;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "HttpCache " + cacheDir + ": " + (entries == null ? 0 : entries.size()) + " entries, " + cacheSize
+				+ " bytes, " + hits + " hits (" + memoryHits + " from memory), " + revalidations + " revalidations, "
+				+ misses + " misses, " + evictions + " evictions";
+	}
+
+	private static final FileFilter legacyFilesFilter = new FileFilter() {
 
 		@Override
 		public boolean accept(File file) {
 			if (file.isDirectory()) return false;
-			if (!file.getName().endsWith(".dat")) return false;
-			return true;
+			return file.getName().endsWith(".dat") || file.getName().endsWith(".dat.json");
 		}
 	};
 
-	private static final Comparator<File> chacheFilesComparator = new Comparator<File>() {
+	class Entry {
 
-		@Override
-		public int compare(File a, File b) {
-			return Utl.compare(a.lastModified(), b.lastModified());
+		private String url;
+		private String etag;
+		private long lastModified;
+		private long expires;
+		private long size;
+		private String contentType;
+
+		Entry(String url) {
+			super();
+			this.url = url;
 		}
 
-	};
+		Entry(JsonObject json) {
+			this(json.getString("url"));
+			etag = json.getString("etag");
+			lastModified = getLong(json, "lastModified");
+			expires = getLong(json, "expires");
+			size = getLong(json, "size");
+			contentType = json.getString("contentType");
+		}
+
+		boolean isFresh() {
+			return expires > System.currentTimeMillis();
+		}
+
+		File getFile() {
+			try {
+				return new File(cacheDir, IO.toHexString(IO.hash("SHA-1", url.getBytes(IO.UTF_8))) + ".bin");
+			} catch (UnsupportedEncodingException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+		String getEtag() {
+			return etag;
+		}
+
+		long getLastModified() {
+			return lastModified;
+		}
+
+		String getContentType() {
+			return contentType;
+		}
+
+		JsonObject toJson() {
+			JsonObject json = new JsonObject();
+			json.put("url", url);
+			if (etag != null) json.put("etag", etag);
+			if (lastModified > 0) json.put("lastModified", lastModified);
+			if (expires > 0) json.put("expires", expires);
+			json.put("size", size);
+			if (contentType != null) json.put("contentType", contentType);
+			return json;
+		}
+
+		private long getLong(JsonObject json, String name) {
+			Long value = json.getLong(name);
+			return value == null ? 0 : value.longValue();
+		}
+
+	}
 
 }
@@ -69,6 +69,14 @@ public class HttpRequest {
 		log.debug(this);
 		if (operationObserver != null) operationObserver.onOperationInfoChanged(OperationObserver.DOWNLOADING, url);
 
+		if (session.cache != null && method == Method.GET) {
+			HttpCache.Entry cacheEntry = session.cache.getFreshEntry(url);
+			if (cacheEntry != null) {
+				log.debug("Fresh in cache:", url);
+				return new HttpResponse(this, cacheEntry).setCharset(charset);
+			}
+		}
+
 		URL javaUrl;
 		try {
 			javaUrl = new URL(url);
@@ -133,8 +141,11 @@ public class HttpRequest {
 		connection.setRequestProperty(Http.REQUEST_HEADER_ACCEPT_CHARSET, charset);
 
 		if (session.cache != null) {
-			String etag = session.cache.getCachedFileEtag(url);
-			if (etag != null) addHeader(Http.REQUEST_HEADER_IF_NONE_MATCH, etag);
+			HttpCache.Entry cacheEntry = session.cache.getEntryForRevalidation(url);
+			if (cacheEntry != null) {
+				if (cacheEntry.getEtag() != null) addHeader(Http.REQUEST_HEADER_IF_NONE_MATCH, cacheEntry.getEtag());
+				if (cacheEntry.getLastModified() > 0) connection.setIfModifiedSince(cacheEntry.getLastModified());
+			}
 		}
 
 		writeHeaders(connection);
@@ -27,6 +27,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map.Entry;
 
@@ -55,7 +56,7 @@ public class HttpResponse {
 
 		if (request.session.cache != null && request.method == Method.GET) {
 			if (isStatusCodeNotModified()) {
-				cacheFile = request.session.cache.getCachedFile(request.url);
+				cacheFile = request.session.cache.onNotModified(this);
 			} else {
 				cacheFile = request.session.cache.cache(this);
 			}
@@ -63,6 +64,24 @@ public class HttpResponse {
 		}
 	}
 
+	/**
+	 * Response served from a fresh cache entry, without a connection.
+	 */
+	HttpResponse(HttpRequest request, HttpCache.Entry cacheEntry) {
+		this.request = request;
+		this.statusCode = Http.RESPONSE_SC_OK;
+		this.cacheFile = cacheEntry.getFile();
+
+		headers = new ArrayList<HttpResponseHeader>();
+		if (cacheEntry.getContentType() != null)
+			headers.add(new HttpResponseHeader(Http.RESPONSE_HEADER_CONTENT_TYPE, Collections.singletonList(cacheEntry
+					.getContentType())));
+		if (cacheEntry.getEtag() != null)
+			headers.add(new HttpResponseHeader(Http.REQUEST_HEADER_ETAG, Collections.singletonList(cacheEntry
+					.getEtag())));
+		determineCharset();
+	}
+
 	public HttpResponse followRedirects(int maxFollowCount) {
 		if (maxFollowCount < 1) return this;
 		if (statusCode != Http.RESPONSE_SC_MOVED_PERMANENTLY && statusCode != Http.RESPONSE_SC_FOUND) return this;
@@ -95,7 +114,8 @@ public class HttpResponse {
 
 	private InputStream getInputStream() throws IOException {
 		if (cacheFile != null) {
-			cacheInputStream = new BufferedInputStream(new FileInputStream(cacheFile));
+			cacheInputStream = request.session.cache.openInputStream(request.url);
+			if (cacheInputStream == null) cacheInputStream = new BufferedInputStream(new FileInputStream(cacheFile));
 			return cacheInputStream;
 		}
 		return getConnectionInputStream();
@@ -195,6 +215,11 @@ public class HttpResponse {
 		return this;
 	}
 
+	public long getLastModified() {
+		if (connection == null) return 0;
+		return connection.getLastModified();
+	}
+
 	public long getContentLength() {
 		String hcl = getHeaderValue(Http.REQUEST_HEADER_CONTENT_LENGTH);
 		if (hcl == null) return -1;
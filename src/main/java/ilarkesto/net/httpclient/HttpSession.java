@@ -84,6 +84,14 @@ public class HttpSession {
 		this.cache = cache;
 	}
 
+	/**
+	 * Summary of cache size, hits, revalidations, misses and evictions, or <code>null</code> if no cache is used.
+	 */
+	public String getCacheStatistics() {
+		if (cache == null) return null;
+		return cache.toString();
+	}
+
 	public HttpSession setSslCheckDisabled(boolean sslCheckDisabled) {
 		this.sslCheckDisabled = sslCheckDisabled;
 		return this;
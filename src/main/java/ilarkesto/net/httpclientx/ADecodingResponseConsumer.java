@@ -0,0 +1,95 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.net.httpclientx;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Decodes the body into characters while it is received, so no byte copy of the whole body is kept. Multi-byte
+ * characters split between two reads are carried over.
+ */
+public abstract class ADecodingResponseConsumer<T> extends AResponseConsumer<T> {
+
+	private static final int MAX_PREALLOCATION = 16 * 1024 * 1024;
+
+	private String defaultCharset;
+	private CharsetDecoder decoder;
+	private CharBuffer chars;
+	private ByteBuffer carry = ByteBuffer.allocate(16);
+
+	protected abstract T onCharsComplete(CharBuffer chars) throws Exception;
+
+	public ADecodingResponseConsumer(String defaultCharset) {
+		this.defaultCharset = defaultCharset;
+	}
+
+	@Override
+	public void onResponseStart(AsyncHttpResponse response) throws Exception {
+		super.onResponseStart(response);
+		decoder = Charset.forName(response.getCharset(defaultCharset)).newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		long length = response.getContentLength();
+		chars = CharBuffer.allocate(length > 0 && length < MAX_PREALLOCATION ? (int) length : 1024);
+	}
+
+	@Override
+	public void onBodyData(ByteBuffer data) throws CharacterCodingException {
+		while (carry.position() > 0 && data.hasRemaining()) {
+			carry.put(data.get());
+			carry.flip();
+			decode(carry, false);
+			carry.compact();
+		}
+		decode(data, false);
+		if (data.hasRemaining()) carry.put(data);
+	}
+
+	@Override
+	public final T onResponseComplete() throws Exception {
+		carry.flip();
+		decode(carry, true);
+		while (decoder.flush(chars).isOverflow()) {
+			grow();
+		}
+		chars.flip();
+		return onCharsComplete(chars);
+	}
+
+	private void decode(ByteBuffer in, boolean endOfInput) throws CharacterCodingException {
+		while (true) {
+			CoderResult result = decoder.decode(in, chars, endOfInput);
+			if (result.isOverflow()) {
+				grow();
+				continue;
+			}
+			if (result.isError()) result.throwException();
+			return;
+		}
+	}
+
+	private void grow() {
+		CharBuffer newChars = CharBuffer.allocate(chars.capacity() * 2);
+		chars.flip();
+		newChars.put(chars);
+		chars = newChars;
+	}
+
+}
@@ -29,17 +29,7 @@ public abstract class AHttpPost extends AHttpRequest {
 
 	@Override
 	protected void writeRequest() {
-		requestContentEncoding = getRequestContentEncoding();
-
-		postData = new StringBuilder();
-		writeRequestParameters();
-
-		byte[] postDataBytes;
-		try {
-			postDataBytes = postData.toString().getBytes(requestContentEncoding);
-		} catch (UnsupportedEncodingException ex) {
-			throw new RuntimeException(ex);
-		}
+		byte[] postDataBytes = createPostData();
 
 		try {
 			connection.setRequestMethod("POST");
@@ -57,6 +47,25 @@ public abstract class AHttpPost extends AHttpRequest {
 		}
 	}
 
+	@Override
+	protected void writeRequest(AsyncHttpRequest request) {
+		request.setMethod("POST");
+		request.setBody(createPostData(), getRequestContentType());
+	}
+
+	private byte[] createPostData() {
+		requestContentEncoding = getRequestContentEncoding();
+
+		postData = new StringBuilder();
+		writeRequestParameters();
+
+		try {
+			return postData.toString().getBytes(requestContentEncoding);
+		} catch (UnsupportedEncodingException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
 	protected void writeRequestParameters(Map<String, String> parameters) {
 		if (parameters == null || parameters.isEmpty()) return;
 		for (Map.Entry<String, String> param : parameters.entrySet()) {
@@ -14,14 +14,19 @@
  */
 package ilarkesto.net.httpclientx;
 
+import ilarkesto.async.Callback;
 import ilarkesto.io.IO;
 import ilarkesto.net.Http;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Future;
 
 @Deprecated
 public abstract class AHttpRequest {
@@ -35,8 +40,21 @@ public abstract class AHttpRequest {
 	protected abstract void handleResponse();
 
 	private int responseCode;
+	private byte[] asyncResponseBody;
+
+	/**
+	 * Prepares the request for <code>executeAsync()</code>, the counterpart of <code>writeRequest()</code>.
+	 */
+	protected void writeRequest(AsyncHttpRequest request) {}
 
 	protected String readResponseText(String charset) {
+		if (asyncResponseBody != null) {
+			try {
+				return new String(asyncResponseBody, charset);
+			} catch (UnsupportedEncodingException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
 		InputStream is;
 		try {
 			is = connection.getInputStream();
@@ -73,6 +91,44 @@ public abstract class AHttpRequest {
 		return this;
 	}
 
+	/**
+	 * Executes the request on the given client without blocking. <code>handleResponse()</code> is called on a callback
+	 * thread of the client, where <code>readResponseText()</code> returns the received body.
+	 *
+	 * @param callback optional
+	 */
+	public final Future<AHttpRequest> executeAsync(AsyncHttpClient client, Callback<AHttpRequest> callback) {
+		AsyncHttpRequest request = new AsyncHttpRequest(createUri());
+		writeRequest(request);
+		return client.execute(request, new ResponseConsumer<AHttpRequest>() {
+
+			private ByteArrayOutputStream body;
+
+			@Override
+			public void onResponseStart(AsyncHttpResponse response) {
+				responseCode = response.getStatusCode();
+				long length = response.getContentLength();
+				body = new ByteArrayOutputStream(length > 0 && length < Integer.MAX_VALUE ? (int) length : 1024);
+			}
+
+			@Override
+			public void onBodyData(ByteBuffer data) {
+				body.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+				data.position(data.limit());
+			}
+
+			@Override
+			public AHttpRequest onResponseComplete() {
+				asyncResponseBody = body.toByteArray();
+				handleResponse(responseCode);
+				return AHttpRequest.this;
+			}
+
+			@Override
+			public void onResponseFailed(Throwable error) {}
+		}, callback);
+	}
+
 	protected void handleResponse(int responseCode) {
 		if (responseCode == Http.RESPONSE_SC_OK) {
 			handleResponse();
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.net.httpclientx;
+
+import ilarkesto.net.Http;
+
+public abstract class AResponseConsumer<T> implements ResponseConsumer<T> {
+
+	protected AsyncHttpResponse response;
+
+	@Override
+	public void onResponseStart(AsyncHttpResponse response) throws Exception {
+		this.response = response;
+		if (!isAcceptedStatusCode(response.getStatusCode()))
+			throw new HttpException("Unexpected HTTP response code: " + response.getStatusCode(), null);
+	}
+
+	protected boolean isAcceptedStatusCode(int statusCode) {
+		return statusCode == Http.RESPONSE_SC_OK;
+	}
+
+	@Override
+	public void onResponseFailed(Throwable error) {}
+
+	public AsyncHttpResponse getResponse() {
+		return response;
+	}
+
+}
@@ -0,0 +1,687 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.net.httpclientx;
+
+import ilarkesto.async.Callback;
+import ilarkesto.concurrent.DeamonThreadFactory;
+import ilarkesto.core.logging.Log;
+import ilarkesto.json.JsonObject;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-blocking HTTP/1.1 client. All connections are served by one selector thread and kept open for reuse, up to
+ * <code>maxConnectionsPerHost</code> per host. Further requests wait for a free connection. Response bodies are passed
+ * to a <code>ResponseConsumer</code> while they are received. Results are delivered through the returned
+ * <code>Future</code> and the optional <code>Callback</code>, which is called on one of the callback threads.
+ * <p>
+ * Only plain <code>http</code> is supported.
+ */
+public class AsyncHttpClient {
+
+	private static final Log log = Log.get(AsyncHttpClient.class);
+
+	private static final long SELECT_TIMEOUT = 200;
+
+	private int maxConnectionsPerHost = 8;
+	private long connectTimeout = 10000;
+	private long readTimeout = 30000;
+	private long idleTimeout = 30000;
+	private int callbackThreadCount = 2;
+	private int resolverThreadCount = 4;
+	private String userAgent = "ilarkesto";
+
+	private Selector selector;
+	private Thread selectorThread;
+	private ThreadPoolExecutor callbackExecutor;
+	private ThreadPoolExecutor resolverExecutor;
+	private volatile boolean shutdown;
+	private final Queue<Runnable> commands = new ConcurrentLinkedQueue<Runnable>();
+
+	// accessed by the selector thread only
+	private final Map<String, Host> hosts = new HashMap<String, Host>();
+	private final Set<Connection> activeConnections = new HashSet<Connection>();
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+	private long lastTimeoutCheck;
+
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong openedConnectionCount = new AtomicLong();
+	private final AtomicLong reusedConnectionCount = new AtomicLong();
+
+	public Future<String> getText(String url, Callback<String> callback) {
+		return execute(new AsyncHttpRequest(url), new TextResponseConsumer(), callback);
+	}
+
+	public Future<JsonObject> getJson(String url, Callback<JsonObject> callback) {
+		return execute(new AsyncHttpRequest(url), new JsonResponseConsumer(), callback);
+	}
+
+	public Future<File> download(String url, File file, Callback<File> callback) {
+		return execute(new AsyncHttpRequest(url), new FileResponseConsumer(file), callback);
+	}
+
+	/**
+	 * Queues the request and returns immediately.
+	 *
+	 * @param callback optional, called on a callback thread when the request is done
+	 */
+	public <T> Future<T> execute(AsyncHttpRequest request, ResponseConsumer<T> consumer, Callback<T> callback) {
+		final Exchange<T> exchange = new Exchange<T>(request, consumer, callback);
+		requestCount.incrementAndGet();
+		if (!ensureStarted()) {
+			exchange.fail(new HttpException("Client is shut down", null));
+			return exchange;
+		}
+		runOnSelectorThread(new Runnable() {
+
+			@Override
+			public void run() {
+				dispatch(exchange);
+			}
+		});
+		return exchange;
+	}
+
+	public void shutdown() {
+		Thread thread;
+		synchronized (this) {
+			if (shutdown) return;
+			shutdown = true;
+			thread = selectorThread;
+		}
+		if (thread == null) return;
+		selector.wakeup();
+		try {
+			thread.join(5000);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		callbackExecutor.shutdown();
+		resolverExecutor.shutdown();
+	}
+
+	private synchronized boolean ensureStarted() {
+		if (shutdown) return false;
+		if (selectorThread != null) return true;
+		try {
+			selector = Selector.open();
+		} catch (IOException ex) {
+			throw new RuntimeException("Opening selector failed", ex);
+		}
+		callbackExecutor = new ThreadPoolExecutor(callbackThreadCount, callbackThreadCount, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new DeamonThreadFactory());
+		callbackExecutor.allowCoreThreadTimeOut(true);
+		resolverExecutor = new ThreadPoolExecutor(resolverThreadCount, resolverThreadCount, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new DeamonThreadFactory());
+		resolverExecutor.allowCoreThreadTimeOut(true);
+		selectorThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				runSelector();
+			}
+		}, getClass().getSimpleName());
+		selectorThread.setDaemon(true);
+		selectorThread.start();
+		return true;
+	}
+
+	private void runOnSelectorThread(Runnable command) {
+		commands.add(command);
+		selector.wakeup();
+	}
+
+	private void runSelector() {
+		while (!shutdown) {
+			try {
+				selector.select(SELECT_TIMEOUT);
+				Runnable command;
+				while ((command = commands.poll()) != null) {
+					command.run();
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					onSelected(key);
+				}
+				checkTimeouts();
+			} catch (Throwable ex) {
+				log.error("Selector loop failed", ex);
+			}
+		}
+		closeAll();
+	}
+
+	private void onSelected(SelectionKey key) {
+		Connection connection = (Connection) key.attachment();
+		if (!key.isValid()) return;
+		try {
+			if (key.isConnectable()) {
+				if (!connection.channel.finishConnect()) return;
+				connection.connected = true;
+				connection.lastActivity = System.currentTimeMillis();
+				key.interestOps(SelectionKey.OP_WRITE);
+				return;
+			}
+			if (key.isWritable()) {
+				write(connection);
+				return;
+			}
+			if (key.isReadable()) read(connection);
+		} catch (Throwable ex) {
+			onConnectionError(connection, ex);
+		}
+	}
+
+	private void dispatch(Exchange<?> exchange) {
+		if (exchange.isDone()) return;
+		if (shutdown) {
+			exchange.fail(new HttpException("Client is shut down", null));
+			return;
+		}
+		Host host = getHost(exchange.request);
+		Connection connection = host.idle.pollFirst();
+		if (connection != null) {
+			reusedConnectionCount.incrementAndGet();
+			start(connection, exchange);
+			return;
+		}
+		if (host.connectionCount >= maxConnectionsPerHost) {
+			host.pending.add(exchange);
+			return;
+		}
+		openConnection(host, exchange);
+	}
+
+	private void openConnection(final Host host, final Exchange<?> exchange) {
+		host.connectionCount++;
+		openedConnectionCount.incrementAndGet();
+		// name resolution blocks, so it runs neither on the selector thread nor on the callback threads
+		resolverExecutor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				if (shutdown) {
+					// the selector thread is gone
+					exchange.fail(new HttpException("Client is shut down", null));
+					return;
+				}
+				final InetSocketAddress address = new InetSocketAddress(exchange.request.getHost(),
+						exchange.request.getPort());
+				runOnSelectorThread(new Runnable() {
+
+					@Override
+					public void run() {
+						connect(host, address, exchange);
+					}
+				});
+			}
+		});
+	}
+
+	private void connect(Host host, InetSocketAddress address, Exchange<?> exchange) {
+		Connection connection = new Connection(host);
+		try {
+			if (address.isUnresolved()) throw new IOException("Unknown host: " + address.getHostName());
+			connection.channel = SocketChannel.open();
+			connection.channel.configureBlocking(false);
+			connection.channel.socket().setTcpNoDelay(true);
+			connection.connected = connection.channel.connect(address);
+			connection.key = connection.channel.register(selector,
+				connection.connected ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT, connection);
+		} catch (Throwable ex) {
+			connection.exchange = exchange;
+			onConnectionError(connection, ex);
+			return;
+		}
+		start(connection, exchange);
+	}
+
+	private void start(Connection connection, Exchange<?> exchange) {
+		if (exchange.isDone()) {
+			release(connection, connection.connected);
+			return;
+		}
+		connection.exchange = exchange;
+		connection.parser.reset("HEAD".equals(exchange.request.getMethod()));
+		connection.requestBuffer = exchange.getRequestBuffer(userAgent);
+		connection.lastActivity = System.currentTimeMillis();
+		activeConnections.add(connection);
+		if (connection.connected) connection.key.interestOps(SelectionKey.OP_WRITE);
+	}
+
+	private void write(Connection connection) throws IOException {
+		if (connection.exchange == null || connection.exchange.isDone()) {
+			close(connection);
+			return;
+		}
+		connection.channel.write(connection.requestBuffer);
+		connection.lastActivity = System.currentTimeMillis();
+		if (!connection.requestBuffer.hasRemaining()) connection.key.interestOps(SelectionKey.OP_READ);
+	}
+
+	private void read(Connection connection) throws Exception {
+		Exchange<?> exchange = connection.exchange;
+		readBuffer.clear();
+		int count = connection.channel.read(readBuffer);
+		if (exchange == null || exchange.isDone()) {
+			// server closed an idle connection or sent unexpected data
+			close(connection);
+			return;
+		}
+		connection.lastActivity = System.currentTimeMillis();
+		if (count < 0) {
+			if (connection.parser.onEndOfStream()) {
+				complete(connection);
+			} else {
+				onConnectionError(connection, new EOFException("Connection closed by server"));
+			}
+			return;
+		}
+		readBuffer.flip();
+		if (connection.parser.parse(readBuffer)) complete(connection);
+	}
+
+	private void complete(Connection connection) {
+		Exchange<?> exchange = connection.exchange;
+		release(connection, connection.parser.isKeepAlive());
+		exchange.complete();
+	}
+
+	/**
+	 * Detaches the finished exchange and hands the connection to the next waiting request or puts it into the idle
+	 * pool.
+	 */
+	private void release(Connection connection, boolean reusable) {
+		activeConnections.remove(connection);
+		connection.exchange = null;
+		connection.requestBuffer = null;
+		if (!reusable || shutdown) {
+			close(connection);
+			return;
+		}
+		connection.reused = true;
+		connection.lastActivity = System.currentTimeMillis();
+		Exchange<?> next = connection.host.pending.poll();
+		if (next != null) {
+			reusedConnectionCount.incrementAndGet();
+			start(connection, next);
+			return;
+		}
+		connection.key.interestOps(SelectionKey.OP_READ);
+		connection.host.idle.addFirst(connection);
+	}
+
+	private void onConnectionError(Connection connection, Throwable error) {
+		Exchange<?> exchange = connection.exchange;
+		boolean retry = exchange != null && connection.reused && !connection.parser.isStarted() && !exchange.retried
+				&& exchange.request.isIdempotent();
+		close(connection);
+		if (exchange == null) return;
+		if (retry) {
+			// the server closed the kept alive connection before we used it
+			log.debug("Retrying on new connection:", exchange.request, error);
+			exchange.retried = true;
+			dispatch(exchange);
+			return;
+		}
+		exchange.fail(error);
+	}
+
+	private void close(Connection connection) {
+		if (connection.closed) return;
+		connection.closed = true;
+		activeConnections.remove(connection);
+		connection.host.idle.remove(connection);
+		connection.host.connectionCount--;
+		connection.exchange = null;
+		if (connection.key != null) connection.key.cancel();
+		if (connection.channel != null) {
+			try {
+				connection.channel.close();
+			} catch (IOException ex) {}
+		}
+		if (!shutdown) {
+			Exchange<?> next = connection.host.pending.poll();
+			if (next != null) dispatch(next);
+		}
+	}
+
+	private void checkTimeouts() {
+		long now = System.currentTimeMillis();
+		if (now - lastTimeoutCheck < SELECT_TIMEOUT) return;
+		lastTimeoutCheck = now;
+
+		for (Connection connection : new ArrayList<Connection>(activeConnections)) {
+			if (connection.exchange != null && connection.exchange.isDone()) {
+				// cancelled
+				close(connection);
+				continue;
+			}
+			long timeout = connection.connected ? readTimeout : connectTimeout;
+			if (now - connection.lastActivity > timeout) {
+				onConnectionError(connection, new SocketTimeoutException((connection.connected ? "Read" : "Connect")
+						+ " timed out after " + timeout + " ms: " + connection.host.key));
+			}
+		}
+
+		for (Host host : hosts.values()) {
+			for (Connection connection : new ArrayList<Connection>(host.idle)) {
+				if (now - connection.lastActivity > idleTimeout) close(connection);
+			}
+		}
+	}
+
+	private void closeAll() {
+		Runnable command;
+		while ((command = commands.poll()) != null) {
+			command.run();
+		}
+		HttpException error = new HttpException("Client is shut down", null);
+		for (Host host : hosts.values()) {
+			for (Exchange<?> exchange : host.pending) {
+				exchange.fail(error);
+			}
+			host.pending.clear();
+		}
+		for (Connection connection : new ArrayList<Connection>(activeConnections)) {
+			Exchange<?> exchange = connection.exchange;
+			close(connection);
+			if (exchange != null) exchange.fail(error);
+		}
+		for (Host host : hosts.values()) {
+			for (Connection connection : new ArrayList<Connection>(host.idle)) {
+				close(connection);
+			}
+		}
+		try {
+			selector.close();
+		} catch (IOException ex) {}
+	}
+
+	private Host getHost(AsyncHttpRequest request) {
+		String key = request.getHostKey();
+		Host host = hosts.get(key);
+		if (host == null) {
+			host = new Host(key);
+			hosts.put(key, host);
+		}
+		return host;
+	}
+
+	// --- configuration ---
+
+	public AsyncHttpClient setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+		return this;
+	}
+
+	public AsyncHttpClient setConnectTimeout(long connectTimeout) {
+		this.connectTimeout = connectTimeout;
+		return this;
+	}
+
+	/**
+	 * Maximum time without receiving data while a request is active.
+	 */
+	public AsyncHttpClient setReadTimeout(long readTimeout) {
+		this.readTimeout = readTimeout;
+		return this;
+	}
+
+	/**
+	 * Time after which unused connections are closed.
+	 */
+	public AsyncHttpClient setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+		return this;
+	}
+
+	/**
+	 * Threads which call <code>ResponseConsumer.onResponseComplete()</code> and the callbacks. Must be set before the
+	 * first request.
+	 */
+	public AsyncHttpClient setCallbackThreadCount(int callbackThreadCount) {
+		this.callbackThreadCount = callbackThreadCount;
+		return this;
+	}
+
+	public AsyncHttpClient setUserAgent(String userAgent) {
+		this.userAgent = userAgent;
+		return this;
+	}
+
+	// --- statistics ---
+
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+
+	public long getOpenedConnectionCount() {
+		return openedConnectionCount.get();
+	}
+
+	public long getReusedConnectionCount() {
+		return reusedConnectionCount.get();
+	}
+
+	// --- ---
+
+	private static class Host {
+
+		private final String key;
+		private final LinkedList<Connection> idle = new LinkedList<Connection>();
+		private final LinkedList<Exchange<?>> pending = new LinkedList<Exchange<?>>();
+		private int connectionCount;
+
+		public Host(String key) {
+			this.key = key;
+		}
+
+	}
+
+	private static class Connection implements AsyncHttpResponseParser.Listener {
+
+		private final Host host;
+		private final AsyncHttpResponseParser parser = new AsyncHttpResponseParser(this);
+		private SocketChannel channel;
+		private SelectionKey key;
+		private boolean connected;
+		private boolean reused;
+		private boolean closed;
+		private long lastActivity = System.currentTimeMillis();
+		private Exchange<?> exchange;
+		private ByteBuffer requestBuffer;
+
+		public Connection(Host host) {
+			this.host = host;
+		}
+
+		@Override
+		public void onResponseHead(AsyncHttpResponse response) throws Exception {
+			exchange.consumer.onResponseStart(response);
+		}
+
+		@Override
+		public void onResponseBody(ByteBuffer data) throws Exception {
+			exchange.consumer.onBodyData(data);
+		}
+
+	}
+
+	/**
+	 * A queued or running request, which is also its <code>Future</code>.
+	 */
+	private class Exchange<T> implements Future<T> {
+
+		private final AsyncHttpRequest request;
+		private final ResponseConsumer<T> consumer;
+		private final Callback<T> callback;
+		private final AtomicBoolean finished = new AtomicBoolean();
+		private final CountDownLatch latch = new CountDownLatch(1);
+		private ByteBuffer requestBuffer;
+		private boolean retried;
+		private volatile boolean cancelled;
+		private T result;
+		private Throwable error;
+
+		public Exchange(AsyncHttpRequest request, ResponseConsumer<T> consumer, Callback<T> callback) {
+			this.request = request;
+			this.consumer = consumer;
+			this.callback = callback;
+		}
+
+		private ByteBuffer getRequestBuffer(String userAgent) {
+			if (requestBuffer == null) requestBuffer = request.createRequestBuffer(userAgent);
+			return requestBuffer.duplicate();
+		}
+
+		private void complete() {
+			callbackExecutor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					if (finished.get()) return;
+					T result;
+					try {
+						result = consumer.onResponseComplete();
+					} catch (Throwable ex) {
+						fail(ex);
+						return;
+					}
+					finish(result, null);
+				}
+			});
+		}
+
+		private void fail(final Throwable ex) {
+			if (finished.get()) return;
+			final Throwable error = ex instanceof HttpException ? ex : new HttpException("HTTP request failed: "
+					+ request, ex);
+			Runnable notifier = new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						consumer.onResponseFailed(error);
+					} catch (Throwable ex) {
+						log.warn("Response consumer failed:", request, ex);
+					}
+					finish(null, error);
+				}
+			};
+			if (callbackExecutor.isShutdown()) {
+				notifier.run();
+			} else {
+				callbackExecutor.execute(notifier);
+			}
+		}
+
+		private void finish(T result, Throwable error) {
+			if (!finished.compareAndSet(false, true)) return;
+			this.result = result;
+			this.error = error;
+			latch.countDown();
+			if (callback == null) {
+				if (error != null) log.info("Request failed:", request, error);
+				return;
+			}
+			try {
+				if (error == null) {
+					callback.onSuccess(result);
+				} else {
+					callback.onError(error);
+				}
+			} catch (Throwable ex) {
+				log.error("Callback failed:", request, ex);
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if (finished.get()) return false;
+			cancelled = true;
+			CancellationException ex = new CancellationException("Request cancelled: " + request);
+			try {
+				consumer.onResponseFailed(ex);
+			} catch (Throwable t) {
+				log.warn("Response consumer failed:", request, t);
+			}
+			finish(null, ex);
+			if (!shutdown) selector.wakeup();
+			return true;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		@Override
+		public boolean isDone() {
+			return finished.get();
+		}
+
+		@Override
+		public T get() throws InterruptedException, ExecutionException {
+			latch.await();
+			return getResult();
+		}
+
+		@Override
+		public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			if (!latch.await(timeout, unit)) throw new TimeoutException("Request not done after " + timeout + " "
+					+ unit + ": " + request);
+			return getResult();
+		}
+
+		private T getResult() throws ExecutionException {
+			if (cancelled) throw new CancellationException("Request cancelled: " + request);
+			if (error != null) throw new ExecutionException(error);
+			return result;
+		}
+
+	}
+
+}
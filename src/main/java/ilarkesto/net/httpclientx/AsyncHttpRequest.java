@@ -0,0 +1,143 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.net.httpclientx;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A request for <code>AsyncHttpClient</code>. Only plain <code>http</code> URLs are supported.
+ */
+public class AsyncHttpRequest {
+
+	private static final String CHARSET_HEADERS = "ISO-8859-1";
+
+	private String url;
+	private String method = "GET";
+	private String host;
+	private int port;
+	private String path;
+	private Map<String, String> headers = new LinkedHashMap<String, String>();
+	private byte[] body;
+
+	public AsyncHttpRequest(String url) {
+		this.url = url;
+		URI uri;
+		try {
+			uri = new URI(url);
+		} catch (URISyntaxException ex) {
+			throw new IllegalArgumentException("Malformed URL: " + url, ex);
+		}
+		if (!"http".equalsIgnoreCase(uri.getScheme()))
+			throw new IllegalArgumentException("Unsupported URL, only http is supported: " + url);
+		host = uri.getHost();
+		if (host == null) throw new IllegalArgumentException("Missing host in URL: " + url);
+		port = uri.getPort() < 0 ? 80 : uri.getPort();
+		path = uri.getRawPath();
+		if (path == null || path.length() == 0) path = "/";
+		if (uri.getRawQuery() != null) path += "?" + uri.getRawQuery();
+	}
+
+	public AsyncHttpRequest setMethod(String method) {
+		this.method = method.toUpperCase();
+		return this;
+	}
+
+	public AsyncHttpRequest setHeader(String name, String value) {
+		headers.put(name, value);
+		return this;
+	}
+
+	public AsyncHttpRequest setBody(byte[] body, String contentType) {
+		this.body = body;
+		if (contentType != null) setHeader("Content-Type", contentType);
+		return this;
+	}
+
+	public AsyncHttpRequest setBody(String text, String charset, String contentType) {
+		try {
+			return setBody(text.getBytes(charset), contentType + "; charset=" + charset);
+		} catch (UnsupportedEncodingException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Requests which may be sent again when a reused connection turns out to be closed by the server.
+	 */
+	public boolean isIdempotent() {
+		return "GET".equals(method) || "HEAD".equals(method) || "PUT".equals(method) || "DELETE".equals(method)
+				|| "OPTIONS".equals(method);
+	}
+
+	ByteBuffer createRequestBuffer(String userAgent) {
+		StringBuilder sb = new StringBuilder(128);
+		sb.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+		sb.append("Host: ").append(host);
+		if (port != 80) sb.append(':').append(port);
+		sb.append("\r\n");
+		if (userAgent != null && !headers.containsKey("User-Agent"))
+			sb.append("User-Agent: ").append(userAgent).append("\r\n");
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			sb.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+		}
+		if (body != null || "POST".equals(method) || "PUT".equals(method)) {
+			sb.append("Content-Length: ").append(body == null ? 0 : body.length).append("\r\n");
+		}
+		sb.append("\r\n");
+
+		byte[] head;
+		try {
+			head = sb.toString().getBytes(CHARSET_HEADERS);
+		} catch (UnsupportedEncodingException ex) {
+			throw new RuntimeException(ex);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(head.length + (body == null ? 0 : body.length));
+		buffer.put(head);
+		if (body != null) buffer.put(body);
+		buffer.flip();
+		return buffer;
+	}
+
+	String getHostKey() {
+		return host + ":" + port;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	@Override
+	public String toString() {
+		return method + " " + url;
+	}
+
+}
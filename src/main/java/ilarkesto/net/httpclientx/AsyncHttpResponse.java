@@ -0,0 +1,96 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.net.httpclientx;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Status line and headers of a response received by <code>AsyncHttpClient</code>. Header names are lower case.
+ */
+public class AsyncHttpResponse {
+
+	private String httpVersion;
+	private int statusCode;
+	private String reasonPhrase;
+	private Map<String, String> headers = new HashMap<String, String>();
+
+	AsyncHttpResponse(String httpVersion, int statusCode, String reasonPhrase) {
+		this.httpVersion = httpVersion;
+		this.statusCode = statusCode;
+		this.reasonPhrase = reasonPhrase;
+	}
+
+	void addHeader(String name, String value) {
+		String existing = headers.get(name);
+		headers.put(name, existing == null ? value : existing + ", " + value);
+	}
+
+	public String getHeader(String name) {
+		return headers.get(name.toLowerCase());
+	}
+
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	public long getContentLength() {
+		String value = getHeader("Content-Length");
+		if (value == null) return -1;
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException ex) {
+			return -1;
+		}
+	}
+
+	public String getContentType() {
+		return getHeader("Content-Type");
+	}
+
+	/**
+	 * The charset from the <code>Content-Type</code> header or the given default.
+	 */
+	public String getCharset(String defaultCharset) {
+		String contentType = getContentType();
+		if (contentType == null) return defaultCharset;
+		int idx = contentType.toLowerCase().indexOf("charset=");
+		if (idx < 0) return defaultCharset;
+		String charset = contentType.substring(idx + 8).trim();
+		int end = charset.indexOf(';');
+		if (end >= 0) charset = charset.substring(0, end).trim();
+		if (charset.startsWith("\"") && charset.endsWith("\"") && charset.length() > 1)
+			charset = charset.substring(1, charset.length() - 1);
+		return charset.length() == 0 ? defaultCharset : charset;
+	}
+
+	public String getHttpVersion() {
+		return httpVersion;
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	public String getReasonPhrase() {
+		return reasonPhrase;
+	}
+
+	@Override
+	public String toString() {
+		return httpVersion + " " + statusCode + " " + reasonPhrase;
+	}
+
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.net.httpclientx;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental parser for HTTP/1.1 responses, fed with the bytes as they arrive. Supports bodies delimited by
+ * <code>Content-Length</code>, chunked transfer encoding or the end of the connection.
+ */
+class AsyncHttpResponseParser {
+
+	private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+	interface Listener {
+
+		void onResponseHead(AsyncHttpResponse response) throws Exception;
+
+		void onResponseBody(ByteBuffer data) throws Exception;
+
+	}
+
+	private enum State {
+		STATUS_LINE, HEADERS, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, BODY_UNTIL_CLOSE, DONE
+	}
+
+	private Listener listener;
+	private State state;
+	private boolean headRequest;
+	private boolean started;
+	private boolean keepAlive;
+	private AsyncHttpResponse response;
+	private String lastHeaderName;
+	private long remaining;
+
+	private byte[] line = new byte[256];
+	private int lineLength;
+
+	AsyncHttpResponseParser(Listener listener) {
+		this.listener = listener;
+	}
+
+	void reset(boolean headRequest) {
+		this.headRequest = headRequest;
+		state = State.STATUS_LINE;
+		started = false;
+		keepAlive = false;
+		response = null;
+		lastHeaderName = null;
+		remaining = 0;
+		lineLength = 0;
+	}
+
+	/**
+	 * @return true if the response is complete
+	 */
+	boolean parse(ByteBuffer in) throws Exception {
+		if (in.hasRemaining()) started = true;
+		while (in.hasRemaining() && state != State.DONE) {
+			switch (state) {
+				case BODY:
+				case CHUNK_DATA:
+					int count = (int) Math.min(remaining, in.remaining());
+					ByteBuffer data = in.slice();
+					data.limit(count);
+					in.position(in.position() + count);
+					remaining -= count;
+					listener.onResponseBody(data);
+					if (remaining == 0) state = state == State.BODY ? State.DONE : State.CHUNK_END;
+					break;
+				case BODY_UNTIL_CLOSE:
+					listener.onResponseBody(in.slice());
+					in.position(in.limit());
+					break;
+				default:
+					String text = readLine(in);
+					if (text == null) return false;
+					onLine(text);
+			}
+		}
+		return state == State.DONE;
+	}
+
+	/**
+	 * @return true if the end of the connection completes the response
+	 */
+	boolean onEndOfStream() {
+		if (state != State.BODY_UNTIL_CLOSE) return false;
+		state = State.DONE;
+		return true;
+	}
+
+	private String readLine(ByteBuffer in) throws UnsupportedEncodingException {
+		while (in.hasRemaining()) {
+			byte b = in.get();
+			if (b == '\n') {
+				int length = lineLength;
+				if (length > 0 && line[length - 1] == '\r') length--;
+				lineLength = 0;
+				return new String(line, 0, length, "ISO-8859-1");
+			}
+			if (lineLength == line.length) {
+				if (lineLength >= MAX_LINE_LENGTH) throw new HttpException("Response line too long", null);
+				byte[] newLine = new byte[line.length * 2];
+				System.arraycopy(line, 0, newLine, 0, lineLength);
+				line = newLine;
+			}
+			line[lineLength++] = b;
+		}
+		return null;
+	}
+
+	private void onLine(String text) throws Exception {
+		switch (state) {
+			case STATUS_LINE:
+				if (text.length() == 0) return;
+				onStatusLine(text);
+				return;
+			case HEADERS:
+				if (text.length() == 0) {
+					onHeadersComplete();
+				} else if ((text.charAt(0) == ' ' || text.charAt(0) == '\t') && lastHeaderName != null) {
+					response.addHeader(lastHeaderName, text.trim());
+				} else {
+					int idx = text.indexOf(':');
+					if (idx <= 0) throw new HttpException("Malformed response header: " + text, null);
+					lastHeaderName = text.substring(0, idx).trim().toLowerCase();
+					response.addHeader(lastHeaderName, text.substring(idx + 1).trim());
+				}
+				return;
+			case CHUNK_SIZE:
+				int idx = text.indexOf(';');
+				String size = (idx < 0 ? text : text.substring(0, idx)).trim();
+				try {
+					remaining = Long.parseLong(size, 16);
+				} catch (NumberFormatException ex) {
+					throw new HttpException("Malformed chunk size: " + text, null);
+				}
+				state = remaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+				return;
+			case CHUNK_END:
+				if (text.length() != 0) throw new HttpException("Missing line break after chunk", null);
+				state = State.CHUNK_SIZE;
+				return;
+			case TRAILERS:
+				if (text.length() == 0) state = State.DONE;
+				return;
+			default:
+				throw new IllegalStateException(state.name());
+		}
+	}
+
+	private void onStatusLine(String text) {
+		int idx1 = text.indexOf(' ');
+		if (idx1 < 0 || !text.startsWith("HTTP/")) throw new HttpException("Malformed status line: " + text, null);
+		int idx2 = text.indexOf(' ', idx1 + 1);
+		String code = idx2 < 0 ? text.substring(idx1 + 1) : text.substring(idx1 + 1, idx2);
+		int statusCode;
+		try {
+			statusCode = Integer.parseInt(code.trim());
+		} catch (NumberFormatException ex) {
+			throw new HttpException("Malformed status line: " + text, null);
+		}
+		response = new AsyncHttpResponse(text.substring(0, idx1), statusCode, idx2 < 0 ? "" : text.substring(idx2 + 1));
+		lastHeaderName = null;
+		state = State.HEADERS;
+	}
+
+	private void onHeadersComplete() throws Exception {
+		int statusCode = response.getStatusCode();
+		if (statusCode >= 100 && statusCode < 200) {
+			// interim response, the final one follows
+			state = State.STATUS_LINE;
+			return;
+		}
+
+		String connection = response.getHeader("Connection");
+		if ("HTTP/1.0".equals(response.getHttpVersion())) {
+			keepAlive = connection != null && connection.toLowerCase().contains("keep-alive");
+		} else {
+			keepAlive = connection == null || !connection.toLowerCase().contains("close");
+		}
+
+		listener.onResponseHead(response);
+
+		String transferEncoding = response.getHeader("Transfer-Encoding");
+		long contentLength = response.getContentLength();
+		if (headRequest || statusCode == 204 || statusCode == 304) {
+			state = State.DONE;
+		} else if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+			state = State.CHUNK_SIZE;
+		} else if (contentLength >= 0) {
+			remaining = contentLength;
+			state = remaining == 0 ? State.DONE : State.BODY;
+		} else {
+			keepAlive = false;
+			state = State.BODY_UNTIL_CLOSE;
+		}
+	}
+
+	boolean isStarted() {
+		return started;
+	}
+
+	boolean isKeepAlive() {
+		return keepAlive;
+	}
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.net.httpclientx;
+
+import ilarkesto.io.IO;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes the body into a temporary file next to the target while it is received. The target file is replaced only
+ * when the body is complete.
+ */
+public class FileResponseConsumer extends AResponseConsumer<File> {
+
+	private File file;
+	private File tmpFile;
+	private FileChannel channel;
+
+	public FileResponseConsumer(File file) {
+		this.file = file;
+	}
+
+	@Override
+	public void onResponseStart(AsyncHttpResponse response) throws Exception {
+		super.onResponseStart(response);
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (dir != null) IO.createDirectory(dir);
+		tmpFile = new File(file.getPath() + ".~download");
+		channel = new FileOutputStream(tmpFile).getChannel();
+	}
+
+	@Override
+	public void onBodyData(ByteBuffer data) throws IOException {
+		while (data.hasRemaining()) {
+			channel.write(data);
+		}
+	}
+
+	@Override
+	public File onResponseComplete() throws IOException {
+		channel.close();
+		IO.move(tmpFile, file, true);
+		return file;
+	}
+
+	@Override
+	public void onResponseFailed(Throwable error) {
+		if (channel == null) return;
+		try {
+			channel.close();
+		} catch (IOException ex) {}
+		tmpFile.delete();
+	}
+
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.net.httpclientx;
+
+import ilarkesto.io.IO;
+import ilarkesto.json.JsonObject;
+
+import java.io.CharArrayReader;
+import java.nio.CharBuffer;
+
+/**
+ * Decodes the body while it is received and builds the <code>JsonObject</code> from the decoded characters, without
+ * creating a string of the whole body.
+ */
+public class JsonResponseConsumer extends ADecodingResponseConsumer<JsonObject> {
+
+	public JsonResponseConsumer() {
+		super(IO.UTF_8);
+	}
+
+	@Override
+	protected JsonObject onCharsComplete(CharBuffer chars) {
+		return JsonObject.parse(new CharArrayReader(chars.array(), chars.arrayOffset(), chars.limit()));
+	}
+
+}
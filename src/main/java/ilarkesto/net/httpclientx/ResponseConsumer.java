@@ -0,0 +1,48 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.net.httpclientx;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives a response of <code>AsyncHttpClient</code> while it is read from the connection. The methods are called
+ * one after another, never concurrently.
+ */
+public interface ResponseConsumer<T> {
+
+	/**
+	 * Called when status line and headers are received. Throw an exception to abort the request.
+	 */
+	void onResponseStart(AsyncHttpResponse response) throws Exception;
+
+	/**
+	 * Called on the selector thread for each piece of the body. The buffer is only valid during the call.
+	 */
+	void onBodyData(ByteBuffer data) throws Exception;
+
+	/**
+	 * Called on a callback thread after the body is received completely.
+	 *
+	 * @return the result passed to the callback and the future
+	 */
+	T onResponseComplete() throws Exception;
+
+	/**
+	 * Called instead of <code>onResponseComplete()</code> when the request failed or was cancelled. Release resources
+	 * here.
+	 */
+	void onResponseFailed(Throwable error);
+
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.net.httpclientx;
+
+import ilarkesto.io.IO;
+
+import java.nio.CharBuffer;
+
+public class TextResponseConsumer extends ADecodingResponseConsumer<String> {
+
+	public TextResponseConsumer() {
+		this(IO.UTF_8);
+	}
+
+	public TextResponseConsumer(String defaultCharset) {
+		super(defaultCharset);
+	}
+
+	@Override
+	protected String onCharsComplete(CharBuffer chars) {
+		return chars.toString();
+	}
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.persistence;
+
+import ilarkesto.core.persistance.EntitiesCache;
+import ilarkesto.core.persistance.Entity;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server side entities cache backed by lock-striped concurrent maps. Queries iterate the maps directly instead of
+ * copying them, since the iterators of <code>ConcurrentHashMap</code> tolerate concurrent modification. Query
+ * statistics are counted without locking.
+ */
+public class ConcurrentEntitiesCache<E extends Entity> extends EntitiesCache<E> {
+
+	private AtomicLong indexHits = new AtomicLong();
+	private ConcurrentMap<String, AtomicInteger> scansByQuery = new ConcurrentHashMap<String, AtomicInteger>();
+
+	@Override
+	protected <K, V> Map<K, V> createMap() {
+		return new ConcurrentHashMap<K, V>();
+	}
+
+	@Override
+	protected <T> Collection<T> snapshot(Collection<T> collection) {
+		return collection;
+	}
+
+	@Override
+	protected void countIndexHit() {
+		indexHits.incrementAndGet();
+	}
+
+	@Override
+	protected void countScan(String key) {
+		AtomicInteger count = scansByQuery.get(key);
+		if (count == null) {
+			count = new AtomicInteger();
+			AtomicInteger existing = scansByQuery.putIfAbsent(key, count);
+			if (existing != null) count = existing;
+		}
+		count.incrementAndGet();
+	}
+
+	@Override
+	public long getIndexHits() {
+		return indexHits.get();
+	}
+
+	@Override
+	public long getIndexMisses() {
+		long sum = 0;
+		for (AtomicInteger count : scansByQuery.values()) {
+			sum += count.get();
+		}
+		return sum;
+	}
+
+	@Override
+	public Map<String, Integer> getScansByQuery() {
+		Map<String, Integer> ret = new HashMap<String, Integer>();
+		for (Map.Entry<String, AtomicInteger> entry : scansByQuery.entrySet()) {
+			ret.put(entry.getKey(), entry.getValue().get());
+		}
+		return ret;
+	}
+
+}
@@ -14,21 +14,26 @@
  */
 package ilarkesto.persistence.file;
 
+import ilarkesto.concurrent.DeamonThreadFactory;
 import ilarkesto.core.base.MultilineBuilder;
 import ilarkesto.core.base.RuntimeTracker;
 import ilarkesto.core.base.Str;
 import ilarkesto.core.base.Utl;
 import ilarkesto.core.persistance.ACachingEntitiesBackend;
 import ilarkesto.core.persistance.AEntity;
+import ilarkesto.core.persistance.EntitiesCache;
 import ilarkesto.core.persistance.Entity;
 import ilarkesto.core.persistance.EntityDoesNotExistException;
 import ilarkesto.core.persistance.Transient;
 import ilarkesto.core.time.DateAndTime;
+import ilarkesto.io.AFileChangeWatchTask;
 import ilarkesto.io.AFileStorage;
+import ilarkesto.io.FileChangeFeed.FileChange;
 import ilarkesto.io.IO;
 import ilarkesto.json.JsonMapper;
 import ilarkesto.json.JsonMapper.TypeResolver;
 import ilarkesto.json.JsonObject;
+import ilarkesto.persistence.ConcurrentEntitiesCache;
 
 import java.io.File;
 import java.io.IOException;
@@ -36,8 +41,17 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public abstract class AJsonFilesEntitiesBackend extends ACachingEntitiesBackend {
 
@@ -52,6 +66,12 @@ public abstract class AJsonFilesEntitiesBackend extends ACachingEntitiesBackend
 
 	private DateAndTime loadTime;
 	private DateAndTime lastSaveTime;
+	private DateAndTime lastReloadTime;
+
+	private TypeResolver typeResolver;
+	private volatile boolean fileChangesWatched;
+	// state of the entity files as written or last loaded by this backend, while file changes are watched
+	private Map<String, String> knownFileStates = new ConcurrentHashMap<String, String>();
 
 	public AJsonFilesEntitiesBackend(AFileStorage storage, AFileStorage logStorage) {
 		this.storage = storage;
@@ -71,30 +91,28 @@ public abstract class AJsonFilesEntitiesBackend extends ACachingEntitiesBackend
 			softwareVersion);
 		RuntimeTracker rt = new RuntimeTracker();
 		upgrader.upgradeEntitiesDir(storage.getFile(null), dataVersion);
-		TypeResolver typeResolver = createTypeResolver();
-		for (Class<? extends AEntity> type : getEntityTypes()) {
-			log.info("   ", type.getSimpleName());
-			RuntimeTracker rt2 = new RuntimeTracker();
-			int count = 0;
-			File dir = storage.getFile(type.getSimpleName());
-			File[] files = dir.listFiles();
-			if (files != null) {
-				for (File file : files) {
-					if (!file.isFile()) continue;
-					if (!file.getName().endsWith(".json")) continue;
-					upgrader.upgradeEntity(file, type, dataVersion);
-					if (!file.exists()) continue;
-					AEntity entity;
-					try {
-						entity = JsonMapper.deserialize(file, type, typeResolver);
-					} catch (Exception ex) {
-						throw new RuntimeException("Loading entity failed: " + file, ex);
-					}
-					cache.add(entity);
-					count++;
+		typeResolver = createTypeResolver();
+		int threadCount = getLoaderThreadCount();
+		ExecutorService executor = threadCount > 1 ? Executors.newFixedThreadPool(threadCount,
+			new DeamonThreadFactory()) : null;
+		try {
+			for (Class<? extends AEntity> type : getEntityTypes()) {
+				log.info("   ", type.getSimpleName());
+				RuntimeTracker rt2 = new RuntimeTracker();
+				File dir = storage.getFile(type.getSimpleName());
+				List<File> files = listEntityFiles(dir);
+				List<AEntity> entities;
+				if (executor == null || files.size() < 2) {
+					entities = loadEntities(files, type, upgrader, dataVersion, typeResolver);
+				} else {
+					entities = loadEntitiesParallel(executor, threadCount, files, type, upgrader, dataVersion,
+						typeResolver);
 				}
+				cache.addAll(entities);
+				log.info("      ->", entities.size(), rt2.getRuntime() > 1000 ? rt2.getRuntimeFormated() : "");
 			}
-			log.info("      ->", count, rt2.getRuntime() > 1000 ? rt2.getRuntimeFormated() : "");
+		} finally {
+			if (executor != null) executor.shutdownNow();
 		}
 
 		saveVersion(softwareVersion);
@@ -103,6 +121,102 @@ public abstract class AJsonFilesEntitiesBackend extends ACachingEntitiesBackend
 		log.info(cache.size(), "entities loaded in", rt.getRuntimeFormated());
 	}
 
+	/**
+	 * Number of threads used to read and deserialize entity files on startup. <code>1</code> loads sequentially
+	 * in the calling thread. Override to return <code>Runtime.getRuntime().availableProcessors()</code> for
+	 * large data dirs.
+	 */
+	protected int getLoaderThreadCount() {
+		return 1;
+	}
+
+	private List<File> listEntityFiles(File dir) {
+		List<File> ret = new ArrayList<File>();
+		File[] files = dir.listFiles();
+		if (files == null) return ret;
+		for (File file : files) {
+			if (!file.getName().endsWith(".json")) continue;
+			if (!file.isFile()) continue;
+			ret.add(file);
+		}
+		return ret;
+	}
+
+	private List<AEntity> loadEntitiesParallel(ExecutorService executor, int threadCount, List<File> files,
+			final Class<? extends AEntity> type, final AEntityJsonFileUpgrades upgrader, final int dataVersion,
+			final TypeResolver typeResolver) {
+		int chunkSize = Math.max(1, files.size() / (threadCount * 4));
+		List<Future<List<AEntity>>> futures = new ArrayList<Future<List<AEntity>>>();
+		for (int i = 0; i < files.size(); i += chunkSize) {
+			final List<File> chunk = files.subList(i, Math.min(i + chunkSize, files.size()));
+			futures.add(executor.submit(new Callable<List<AEntity>>() {
+
+				@Override
+				public List<AEntity> call() throws Exception {
+					return loadEntities(chunk, type, upgrader, dataVersion, typeResolver);
+				}
+			}));
+		}
+
+		List<AEntity> ret = new ArrayList<AEntity>(files.size());
+		for (Future<List<AEntity>> future : futures) {
+			try {
+				ret.addAll(future.get());
+			} catch (InterruptedException ex) {
+				throw new RuntimeException("Loading entities interrupted: " + type.getSimpleName(), ex);
+			} catch (ExecutionException ex) {
+				Throwable cause = ex.getCause();
+				if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+				throw new RuntimeException("Loading entities failed: " + type.getSimpleName(), cause);
+			}
+		}
+		return ret;
+	}
+
+	private List<AEntity> loadEntities(List<File> files, Class<? extends AEntity> type,
+			AEntityJsonFileUpgrades upgrader, int dataVersion, TypeResolver typeResolver) {
+		List<AEntity> ret = new ArrayList<AEntity>(files.size());
+		for (File file : files) {
+			AEntity entity = loadEntity(file, type, upgrader, dataVersion, typeResolver);
+			if (entity != null) ret.add(entity);
+		}
+		return ret;
+	}
+
+	/**
+	 * Upgrades and deserializes an entity file. <code>null</code> if the upgrade deleted the file.
+	 */
+	private AEntity loadEntity(File file, Class<? extends AEntity> type, AEntityJsonFileUpgrades upgrader,
+			int dataVersion, TypeResolver typeResolver) {
+		// upgraders keep state while upgrading a file
+		synchronized (upgrader) {
+			upgrader.upgradeEntity(file, type, dataVersion);
+		}
+		if (!file.exists()) return null;
+		try {
+			return JsonMapper.deserialize(file, type, typeResolver);
+		} catch (Exception ex) {
+			throw new RuntimeException("Loading entity failed: " + file, ex);
+		}
+	}
+
+	/**
+	 * Loads an entity file changed by another process, which might still be writing it. A file which can not be
+	 * loaded yet is skipped, the next change event or check brings it again.
+	 */
+	private void reloadEntity(File file, Class<? extends AEntity> type, AEntityJsonFileUpgrades upgrader,
+			int dataVersion, List<AEntity> modified) {
+		AEntity entity;
+		try {
+			entity = loadEntity(file, type, upgrader, dataVersion, typeResolver);
+		} catch (Exception ex) {
+			log.warn("Reloading entity file failed:", file, ex);
+			return;
+		}
+		if (entity != null) modified.add(entity);
+		knownFileStates.put(file.getPath(), getFileState(file));
+	}
+
 	private void saveVersion(int version) {
 		IO.writeFile(getVersionFile(), String.valueOf(version), IO.UTF_8);
 	}
@@ -119,6 +233,11 @@ public abstract class AJsonFilesEntitiesBackend extends ACachingEntitiesBackend
 		return storage.getFile("version.txt");
 	}
 
+	@Override
+	protected EntitiesCache<AEntity> createCache() {
+		return new ConcurrentEntitiesCache<AEntity>();
+	}
+
 	@Override
 	protected void onUpdate(Collection<AEntity> modified, Collection<String> deleted,
 			Map<String, Map<String, String>> modifiedPropertiesByEntityIds, Runnable callback, String transactionText) {
@@ -141,6 +260,7 @@ public abstract class AJsonFilesEntitiesBackend extends ACachingEntitiesBackend
 				} catch (IOException ex) {
 					throw new RuntimeException("Writing entity to file failed: " + file + " -> " + entity, ex);
 				}
+				if (fileChangesWatched) knownFileStates.put(file.getPath(), getFileState(file));
 				saveCount++;
 			}
 		}
@@ -157,30 +277,155 @@ public abstract class AJsonFilesEntitiesBackend extends ACachingEntitiesBackend
 				files.add(file);
 				log.debug("Deleting entity", entity.getClass().getSimpleName(), file);
 				IO.delete(file);
+				if (fileChangesWatched) knownFileStates.put(file.getPath(), getFileState(file));
 				deleteCount++;
 			}
 		}
 
-		writeLog(modifiedPropertiesByEntityIds, deleted, transactionText);
+		File logFile = writeLog(modifiedPropertiesByEntityIds, deleted, transactionText);
+		if (logFile != null) files.add(logFile);
 
 		log.info("Entity changes saved:", rt.getRuntimeFormated(), "(" + saveCount, "saved,", deleteCount, "deleted)");
 
 		lastSaveTime = DateAndTime.now();
+		onEntityFilesChanged(files);
 		onEntityChangesSaved(modified, deleted, created);
 
 		if (callback != null) callback.run();
 	}
 
-	private void writeLog(Map<String, Map<String, String>> modifiedPropertiesByEntityIds, Collection<String> deleted,
+	/**
+	 * Creates a task, which watches the entity files and reloads files changed by other processes or external edits
+	 * into the cache. Start it with the application's <code>TaskManager</code>. Changes made through this backend
+	 * are recognized and not reloaded.
+	 */
+	public AFileChangeWatchTask createFileChangeWatchTask() {
+		fileChangesWatched = true;
+		for (Class<? extends AEntity> type : getEntityTypes()) {
+			for (File file : listEntityFiles(storage.getFile(type.getSimpleName()))) {
+				knownFileStates.put(file.getPath(), getFileState(file));
+			}
+		}
+		return new AFileChangeWatchTask(storage.getDir()) {
+
+			@Override
+			protected void onFirstChange() {}
+
+			@Override
+			protected void onChange() {
+				reloadAllFiles();
+			}
+
+			@Override
+			protected void onChanges(List<FileChange> changes) {
+				reloadChangedFiles(changes);
+			}
+		};
+	}
+
+	/**
+	 * Reloads the changed entity files into the cache. Other files are ignored.
+	 */
+	public synchronized void reloadChangedFiles(Collection<FileChange> changes) {
+		Map<String, Class<? extends AEntity>> typesByName = getEntityTypesByName();
+		AEntityJsonFileUpgrades upgrader = null;
+		int dataVersion = 0;
+		List<AEntity> modified = new ArrayList<AEntity>();
+		List<String> deleted = new ArrayList<String>();
+		for (FileChange change : changes) {
+			if (change.isOverflow()) {
+				reloadAllFiles();
+				return;
+			}
+			File file = change.getFile();
+			String name = file.getName();
+			File dir = file.getAbsoluteFile().getParentFile();
+			if (!name.endsWith(".json") || dir == null) continue;
+			String id = Str.removeSuffix(name, ".json");
+			if (id.contains(".")) continue;
+			Class<? extends AEntity> type = typesByName.get(dir.getName());
+			if (type == null || !storage.getDir().getAbsoluteFile().equals(dir.getParentFile())) continue;
+
+			String state = getFileState(file);
+			if (state.equals(knownFileStates.get(file.getPath()))) continue;
+
+			if (!file.exists()) {
+				if (cache.containsWithId(id)) deleted.add(id);
+				continue;
+			}
+			if (upgrader == null) {
+				upgrader = createUpgrader();
+				dataVersion = loadVersion();
+			}
+			reloadEntity(file, type, upgrader, dataVersion, modified);
+		}
+		applyReloadedEntities(modified, deleted);
+	}
+
+	/**
+	 * Reloads all entity files, which changed since they were written or loaded, and removes entities without files
+	 * from the cache. Transient entities are kept, they have no files.
+	 */
+	public synchronized void reloadAllFiles() {
+		RuntimeTracker rt = new RuntimeTracker();
+		AEntityJsonFileUpgrades upgrader = createUpgrader();
+		int dataVersion = loadVersion();
+		List<AEntity> modified = new ArrayList<AEntity>();
+		Set<String> ids = new HashSet<String>();
+		for (Class<? extends AEntity> type : getEntityTypes()) {
+			for (File file : listEntityFiles(storage.getFile(type.getSimpleName()))) {
+				ids.add(Str.removeSuffix(file.getName(), ".json"));
+				if (getFileState(file).equals(knownFileStates.get(file.getPath()))) continue;
+				reloadEntity(file, type, upgrader, dataVersion, modified);
+			}
+		}
+		List<String> deleted = new ArrayList<String>();
+		for (AEntity entity : cache.getAllAsList()) {
+			if (entity instanceof Transient) continue;
+			if (!ids.contains(entity.getId())) deleted.add(entity.getId());
+		}
+		applyReloadedEntities(modified, deleted);
+		log.info("All entity files checked in", rt.getRuntimeFormated());
+	}
+
+	private void applyReloadedEntities(List<AEntity> modified, List<String> deleted) {
+		if (modified.isEmpty() && deleted.isEmpty()) return;
+		cache.addAll(modified);
+		cache.removeAll(deleted);
+		lastReloadTime = DateAndTime.now();
+		log.info("Entity files reloaded:", modified.size(), "modified,", deleted.size(), "deleted");
+		onEntitiesReloaded(modified, deleted);
+	}
+
+	/**
+	 * Called after entities were reloaded from files changed outside of this backend.
+	 */
+	protected void onEntitiesReloaded(Collection<AEntity> modified, Collection<String> deleted) {}
+
+	private Map<String, Class<? extends AEntity>> getEntityTypesByName() {
+		Map<String, Class<? extends AEntity>> ret = new HashMap<String, Class<? extends AEntity>>();
+		for (Class<? extends AEntity> type : getEntityTypes()) {
+			ret.put(type.getSimpleName(), type);
+		}
+		return ret;
+	}
+
+	private static String getFileState(File file) {
+		if (!file.exists()) return "deleted";
+		return file.lastModified() + ":" + file.length();
+	}
+
+	private File writeLog(Map<String, Map<String, String>> modifiedPropertiesByEntityIds, Collection<String> deleted,
 			String transactionText) {
 		File file = getLogFile();
-		if (file == null) return;
+		if (file == null) return null;
 		JsonObject json = new JsonObject();
 		json.put("time", DateAndTime.now().toString());
 		json.put("txMessage", transactionText);
 		json.put("deleted", deleted);
 		json.put("modified", modifiedPropertiesByEntityIds);
 		json.write(file, true);
+		return file;
 	}
 
 	@Override
@@ -200,12 +445,18 @@ public abstract class AJsonFilesEntitiesBackend extends ACachingEntitiesBackend
 		} else {
 			IO.writeFile(file, value, IO.UTF_8);
 		}
+		onEntityFilesChanged(Collections.singletonList(file));
 	}
 
 	private File getOutsourcedPropertyFile(Entity entity, String propertyName) {
 		return storage.getFile(entity.getClass().getSimpleName() + "/" + entity.getId() + "." + propertyName + ".txt");
 	}
 
+	/**
+	 * Called after entity files, outsourced property files or transaction log files were written or deleted.
+	 */
+	protected void onEntityFilesChanged(Collection<File> files) {}
+
 	protected void onEntityChangesSaved(Collection<AEntity> modified, Collection<String> deleted,
 			Collection<AEntity> created) {}
 
@@ -280,6 +531,8 @@ public abstract class AJsonFilesEntitiesBackend extends ACachingEntitiesBackend
 		sb.append("\nTimes:\n");
 		sb.append("* loadTime: ").append(loadTime).append("\n");
 		sb.append("* lastSaveTime: ").append(lastSaveTime).append("\n");
+		sb.append("* lastReloadTime: ").append(lastReloadTime).append("\n");
+		sb.append(createQueryStatsInfo());
 
 		return sb.toString();
 	}
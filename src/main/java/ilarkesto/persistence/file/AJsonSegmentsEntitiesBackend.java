@@ -0,0 +1,489 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.persistence.file;
+
+import ilarkesto.concurrent.DeamonThreadFactory;
+import ilarkesto.core.base.RuntimeTracker;
+import ilarkesto.core.persistance.ACachingEntitiesBackend;
+import ilarkesto.core.persistance.AEntity;
+import ilarkesto.core.persistance.EntitiesCache;
+import ilarkesto.core.persistance.Entity;
+import ilarkesto.core.persistance.Transient;
+import ilarkesto.core.time.DateAndTime;
+import ilarkesto.io.AFileStorage;
+import ilarkesto.io.IO;
+import ilarkesto.json.JsonMapper;
+import ilarkesto.json.JsonMapper.TypeResolver;
+import ilarkesto.json.JsonObject;
+import ilarkesto.persistence.ConcurrentEntitiesCache;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entities backend which appends every transaction as one record to a segment file. Full segments are compacted
+ * into a snapshot of all entities by a background thread. On startup the snapshot is loaded and the remaining segments are replayed.
+ *
+ * A record consists of a header line with the transaction metadata followed by one line per modified entity:
+ *
+ * <pre>
+ * {"time":"...","txMessage":"...","deleted":["id1"],"modified":1}
+ * EntityType {"id": "id2", ...}
+ * </pre>
+ *
+ * A record whose entity lines are incomplete (crash while writing) is ignored.
+ */
+public abstract class AJsonSegmentsEntitiesBackend extends ACachingEntitiesBackend {
+
+	private static final String SNAPSHOT_FILENAME = "snapshot.log";
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	protected AFileStorage storage;
+
+	protected abstract List<Class<? extends AEntity>> getEntityTypes();
+
+	protected abstract TypeResolver createTypeResolver();
+
+	private Map<String, Class<? extends AEntity>> typesByName;
+	private TypeResolver typeResolver;
+
+	private volatile int snapshotSegment;
+	private int currentSegment;
+	private int currentSegmentRecords;
+	private FileOutputStream segmentOut;
+	private Writer segmentWriter;
+
+	private final Object snapshotLock = new Object();
+	private ExecutorService compactor;
+	private volatile boolean compacting;
+
+	private DateAndTime loadTime;
+	private DateAndTime lastSaveTime;
+	private volatile DateAndTime lastCompactionTime;
+
+	public AJsonSegmentsEntitiesBackend(AFileStorage storage) {
+		this.storage = storage;
+		load();
+	}
+
+	/**
+	 * Number of records after which a new segment file is started.
+	 */
+	protected int getMaxRecordsPerSegment() {
+		return 1000;
+	}
+
+	/**
+	 * Number of full segments after which all entities are compacted into a new snapshot.
+	 */
+	protected int getSegmentsPerSnapshot() {
+		return 10;
+	}
+
+	/**
+	 * If true, every record is forced to the storage device before the transaction completes.
+	 */
+	protected boolean isSyncOnCommit() {
+		return false;
+	}
+
+	private void load() {
+		typesByName = new HashMap<String, Class<? extends AEntity>>();
+		for (Class<? extends AEntity> type : getEntityTypes()) {
+			typesByName.put(type.getSimpleName(), type);
+		}
+		typeResolver = createTypeResolver();
+
+		log.info("Loading entities from", storage);
+		RuntimeTracker rt = new RuntimeTracker();
+
+		snapshotSegment = loadSnapshot();
+		currentSegment = snapshotSegment;
+		int records = 0;
+		for (Integer segment : listSegments()) {
+			if (segment <= snapshotSegment) continue;
+			records += replaySegment(segment);
+			currentSegment = segment;
+		}
+
+		loadTime = DateAndTime.now();
+		log.info(cache.size(), "entities loaded in", rt.getRuntimeFormated(), "(" + records,
+			"records replayed after snapshot of segment", snapshotSegment + ")");
+
+		openSegment(currentSegment + 1);
+	}
+
+	private int loadSnapshot() {
+		File file = storage.getFile(SNAPSHOT_FILENAME);
+		if (!file.exists()) return 0;
+		BufferedReader in = openReader(file);
+		try {
+			JsonObject header = new JsonObject(in.readLine());
+			int count = header.getInteger("entities");
+			for (int i = 0; i < count; i++) {
+				String line = in.readLine();
+				if (line == null)
+					throw new IllegalStateException("Snapshot truncated after " + i + " entities: " + file);
+				cache.add(parseEntity(line, file));
+			}
+			return header.getInteger("segment");
+		} catch (IOException ex) {
+			throw new RuntimeException("Loading snapshot failed: " + file, ex);
+		} finally {
+			IO.close(in);
+		}
+	}
+
+	private int replaySegment(int segment) {
+		File file = getSegmentFile(segment);
+		BufferedReader in = openReader(file);
+		int records = 0;
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				JsonObject header;
+				try {
+					header = new JsonObject(line);
+				} catch (Exception ex) {
+					log.warn("Ignoring incomplete record in", file, "after", records, "records");
+					break;
+				}
+				int count = header.getInteger("modified");
+				List<AEntity> modified = new ArrayList<AEntity>(count);
+				boolean complete = true;
+				for (int i = 0; i < count; i++) {
+					line = in.readLine();
+					if (line == null) {
+						complete = false;
+						break;
+					}
+					try {
+						modified.add(parseEntity(line, file));
+					} catch (RuntimeException ex) {
+						// a partially written last line is an incomplete record, anything else is corruption
+						if (in.readLine() != null) throw ex;
+						complete = false;
+						break;
+					}
+				}
+				if (!complete) {
+					log.warn("Ignoring incomplete record in", file, "after", records, "records");
+					break;
+				}
+				cache.addAll(modified);
+				cache.removeAll(header.getArrayOfStrings("deleted"));
+				records++;
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Replaying segment failed: " + file, ex);
+		} finally {
+			IO.close(in);
+		}
+		return records;
+	}
+
+	private AEntity parseEntity(String line, File file) {
+		int idx = line.indexOf(' ');
+		if (idx < 0) throw new IllegalStateException("Illegal entity line in " + file + ": " + line);
+		String typeName = line.substring(0, idx);
+		Class<? extends AEntity> type = typesByName.get(typeName);
+		if (type == null) throw new IllegalStateException("Unknown entity type in " + file + ": " + typeName);
+		try {
+			return JsonMapper.deserialize(line.substring(idx + 1), type, typeResolver);
+		} catch (Exception ex) {
+			throw new RuntimeException("Loading entity failed: " + file + " -> " + line, ex);
+		}
+	}
+
+	@Override
+	protected EntitiesCache<AEntity> createCache() {
+		return new ConcurrentEntitiesCache<AEntity>();
+	}
+
+	@Override
+	protected void onUpdate(Collection<AEntity> modified, Collection<String> deleted,
+			Map<String, Map<String, String>> modifiedPropertiesByEntityIds, Runnable callback, String transactionText) {
+		if ((modified == null || modified.isEmpty()) && (deleted == null || deleted.isEmpty())) return;
+		RuntimeTracker rt = new RuntimeTracker();
+
+		// the cache contains all written records at this point, so rolling before writing is safe
+		if (currentSegmentRecords >= getMaxRecordsPerSegment()) rollSegment();
+
+		List<AEntity> saved = new ArrayList<AEntity>();
+		if (modified != null) {
+			for (AEntity entity : modified) {
+				if (entity instanceof Transient) continue;
+				log.debug("Saving entity:", entity.getClass().getSimpleName(), entity.getId());
+				saved.add(entity);
+			}
+		}
+
+		JsonObject header = new JsonObject();
+		header.put("time", DateAndTime.now().toString());
+		header.put("txMessage", transactionText);
+		header.put("deleted", deleted == null ? Collections.emptyList() : deleted);
+		header.put("modified", saved.size());
+
+		StringBuilder record = new StringBuilder();
+		record.append(header.toString()).append('\n');
+		for (AEntity entity : saved) {
+			appendEntity(record, entity);
+		}
+
+		try {
+			segmentWriter.write(record.toString());
+			segmentWriter.flush();
+			if (isSyncOnCommit()) segmentOut.getFD().sync();
+		} catch (IOException ex) {
+			throw new RuntimeException("Writing record to segment " + currentSegment + " failed", ex);
+		}
+		currentSegmentRecords++;
+
+		log.info("Entity changes saved:", rt.getRuntimeFormated(), "(" + saved.size(), "saved,",
+			deleted == null ? 0 : deleted.size(), "deleted)");
+
+		lastSaveTime = DateAndTime.now();
+		onEntityChangesSaved(modified, deleted);
+
+		if (callback != null) callback.run();
+	}
+
+	private void appendEntity(StringBuilder sb, AEntity entity) {
+		// JSON strings are escaped, so remaining line breaks are formatting only
+		String json = JsonMapper.serialize(entity).replace('\n', ' ');
+		sb.append(entity.getClass().getSimpleName()).append(' ').append(json).append('\n');
+	}
+
+	protected void onEntityChangesSaved(Collection<AEntity> modified, Collection<String> deleted) {}
+
+	private void rollSegment() {
+		closeSegment();
+		int fullSegment = currentSegment;
+		openSegment(fullSegment + 1);
+		if (!compacting && fullSegment - snapshotSegment >= getSegmentsPerSnapshot()) compactInBackground(fullSegment);
+	}
+
+	private void compactInBackground(final int segment) {
+		compacting = true;
+		if (compactor == null) compactor = Executors.newSingleThreadExecutor(new DeamonThreadFactory());
+		compactor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					writeSnapshot(segment);
+				} catch (Throwable ex) {
+					log.error("Compacting segments up to", segment, "failed:", ex);
+				} finally {
+					compacting = false;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Writes all entities into a new snapshot and deletes the segments contained in it.
+	 */
+	public synchronized void compact() {
+		closeSegment();
+		int fullSegment = currentSegment;
+		openSegment(fullSegment + 1);
+		writeSnapshot(fullSegment);
+	}
+
+	/**
+	 * Entities modified by segments after the given one may already be contained in their newer state. Replaying
+	 * those segments on top of the snapshot yields the same result, since records contain whole entities.
+	 */
+	private void writeSnapshot(int segment) {
+		synchronized (snapshotLock) {
+			if (segment <= snapshotSegment) return;
+			writeSnapshotFile(segment);
+		}
+	}
+
+	private void writeSnapshotFile(int segment) {
+		RuntimeTracker rt = new RuntimeTracker();
+		File file = storage.getFile(SNAPSHOT_FILENAME);
+		File tmpFile = storage.getFile(SNAPSHOT_FILENAME + ".tmp");
+		List<AEntity> entities = new ArrayList<AEntity>();
+		for (AEntity entity : cache.getAllAsList()) {
+			if (entity instanceof Transient) continue;
+			entities.add(entity);
+		}
+
+		JsonObject header = new JsonObject();
+		header.put("time", DateAndTime.now().toString());
+		header.put("segment", segment);
+		header.put("entities", entities.size());
+
+		tmpFile.getParentFile().mkdirs();
+		FileOutputStream fileOut;
+		Writer out;
+		try {
+			fileOut = new FileOutputStream(tmpFile);
+			out = new BufferedWriter(new OutputStreamWriter(fileOut, IO.UTF_8), 64 * 1024);
+		} catch (IOException ex) {
+			throw new RuntimeException("Opening file failed: " + tmpFile, ex);
+		}
+		try {
+			out.write(header.toString());
+			out.write('\n');
+			StringBuilder sb = new StringBuilder();
+			for (AEntity entity : entities) {
+				sb.setLength(0);
+				appendEntity(sb, entity);
+				out.write(sb.toString());
+			}
+			out.flush();
+			// the snapshot replaces the segments deleted below, so it has to be on the device first
+			fileOut.getFD().sync();
+		} catch (IOException ex) {
+			IO.close(out);
+			IO.delete(tmpFile);
+			throw new RuntimeException("Writing snapshot failed: " + tmpFile, ex);
+		}
+		IO.close(out);
+		IO.move(tmpFile, file, true);
+
+		for (Integer existing : listSegments()) {
+			if (existing <= segment) IO.delete(getSegmentFile(existing));
+		}
+		snapshotSegment = segment;
+		lastCompactionTime = DateAndTime.now();
+		log.info("Snapshot written:", entities.size(), "entities up to segment", segment, "in",
+			rt.getRuntimeFormated());
+	}
+
+	private void openSegment(int segment) {
+		currentSegment = segment;
+		currentSegmentRecords = 0;
+		File file = getSegmentFile(segment);
+		file.getParentFile().mkdirs();
+		try {
+			segmentOut = new FileOutputStream(file, true);
+			segmentWriter = new BufferedWriter(new OutputStreamWriter(segmentOut, IO.UTF_8));
+		} catch (IOException ex) {
+			throw new RuntimeException("Opening segment failed: " + file, ex);
+		}
+	}
+
+	private void closeSegment() {
+		if (segmentWriter == null) return;
+		IO.close(segmentWriter);
+		segmentWriter = null;
+		segmentOut = null;
+	}
+
+	private List<Integer> listSegments() {
+		List<Integer> ret = new ArrayList<Integer>();
+		File[] files = storage.getDir().listFiles();
+		if (files == null) return ret;
+		for (File file : files) {
+			String name = file.getName();
+			if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) continue;
+			ret.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+		}
+		Collections.sort(ret);
+		return ret;
+	}
+
+	private File getSegmentFile(int segment) {
+		return storage.getFile(SEGMENT_PREFIX + segment + SEGMENT_SUFFIX);
+	}
+
+	private BufferedReader openReader(File file) {
+		try {
+			return new BufferedReader(new InputStreamReader(new FileInputStream(file), IO.UTF_8), 64 * 1024);
+		} catch (IOException ex) {
+			throw new RuntimeException("Opening file failed: " + file, ex);
+		}
+	}
+
+	public synchronized void close() {
+		closeSegment();
+		if (compactor == null) return;
+		compactor.shutdown();
+		try {
+			if (!compactor.awaitTermination(1, TimeUnit.MINUTES))
+				log.warn("Background compaction still running after close");
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		compactor = null;
+	}
+
+	@Override
+	public String loadOutsourcedString(Entity entity, String propertyName) {
+		File file = getOutsourcedPropertyFile(entity, propertyName);
+		if (!file.exists()) return null;
+		return IO.readFile(file, IO.UTF_8);
+	}
+
+	@Override
+	public void saveOutsourcedString(Entity entity, String propertyName, String value) {
+		File file = getOutsourcedPropertyFile(entity, propertyName);
+		if (value == null) {
+			IO.delete(file);
+		} else {
+			IO.writeFile(file, value, IO.UTF_8);
+		}
+	}
+
+	private File getOutsourcedPropertyFile(Entity entity, String propertyName) {
+		return storage.getFile(entity.getClass().getSimpleName() + "/" + entity.getId() + "." + propertyName + ".txt");
+	}
+
+	@Override
+	public String createInfo() {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append("\nEntity counts:\n");
+		for (Map.Entry<Class, Integer> entry : cache.countEntities().entrySet()) {
+			sb.append("* ").append(entry.getKey().getSimpleName()).append(": ").append(entry.getValue()).append("\n");
+		}
+
+		sb.append("\nSegments:\n");
+		sb.append("* snapshot: ").append(snapshotSegment).append("\n");
+		sb.append("* current: ").append(currentSegment).append(" (").append(currentSegmentRecords)
+				.append(" records)\n");
+
+		sb.append("\nTimes:\n");
+		sb.append("* loadTime: ").append(loadTime).append("\n");
+		sb.append("* lastSaveTime: ").append(lastSaveTime).append("\n");
+		sb.append("* lastCompactionTime: ").append(lastCompactionTime).append("\n");
+		sb.append(createQueryStatsInfo());
+
+		return sb.toString();
+	}
+
+}
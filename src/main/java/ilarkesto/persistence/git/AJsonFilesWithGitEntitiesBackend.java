@@ -16,7 +16,6 @@ package ilarkesto.persistence.git;
 
 import ilarkesto.base.Env;
 import ilarkesto.core.base.Bytes;
-import ilarkesto.core.base.Utl;
 import ilarkesto.core.persistance.AEntity;
 import ilarkesto.core.time.DateAndTime;
 import ilarkesto.di.Context;
@@ -26,57 +25,65 @@ import ilarkesto.integration.git.GitProject;
 import ilarkesto.persistence.file.AJsonFilesEntitiesBackend;
 import ilarkesto.webapp.AWebApplication;
 
+import java.io.Closeable;
 import java.io.File;
 import java.util.Collection;
 
-public abstract class AJsonFilesWithGitEntitiesBackend extends AJsonFilesEntitiesBackend {
+public abstract class AJsonFilesWithGitEntitiesBackend extends AJsonFilesEntitiesBackend implements Closeable {
 
 	private GitProject git;
+	private GitCommitter committer;
 
 	public AJsonFilesWithGitEntitiesBackend() {
 		super(AApplication.get().getFileStorage().getSubStorage("entities"), AApplication.get().getFileStorage()
 				.getSubStorage("transactions").getSubStorage(DateAndTime.now().formatLog()));
 
 		git = new GitProject(new Git(), new File(AApplication.get().getApplicationDataDir()));
+		committer = new GitCommitter(git).setMaxDelay(getGitCommitDelay()).setMaxBatchSize(getGitCommitBatchSize());
+	}
+
+	/**
+	 * Maximum time in milliseconds a transaction waits in the queue before it is committed to git.
+	 */
+	protected long getGitCommitDelay() {
+		return 2000;
+	}
+
+	/**
+	 * Number of queued transactions which triggers a commit before the delay is over.
+	 */
+	protected int getGitCommitBatchSize() {
+		return 100;
+	}
+
+	/**
+	 * Commits all queued transactions now.
+	 */
+	public void flushGitCommits() {
+		committer.flush();
+	}
+
+	/**
+	 * Commits all queued transactions and stops the committer thread. Called on application shutdown.
+	 */
+	@Override
+	public void close() {
+		committer.close();
+	}
+
+	public GitCommitter getGitCommitter() {
+		return committer;
+	}
+
+	@Override
+	protected void onEntityFilesChanged(Collection<File> files) {
+		if (!git.isInitialized()) return;
+		committer.add(files, Context.get().toString());
 	}
 
 	@Override
 	protected void onEntityChangesSaved(Collection<AEntity> modified, Collection<String> deleted,
 			Collection<AEntity> created) {
-		if (git.isInitialized()) {
-			try {
-				git.addAll();
-			} catch (Exception ex) {
-				String message = Utl.getRootCauseMessage(ex);
-				if (message != null && message.contains(".git/index.lock")) {
-					git.deleteIndexLock();
-					try {
-						git.addAll();
-					} catch (Exception ex2) {
-						log.error("git add failed:", ex);
-					}
-				} else {
-					log.error("git add failed:", ex);
-				}
-			}
-
-			try {
-				git.commit(Context.get().toString());
-			} catch (Exception ex) {
-				String message = Utl.getRootCauseMessage(ex);
-				if (message != null && message.contains(".git/index.lock")) {
-					git.deleteIndexLock();
-					try {
-						git.commit(Context.get().toString());
-					} catch (Exception ex2) {
-						log.error("git commit failed:", ex);
-					}
-				} else {
-					log.error("git commit failed:", ex);
-				}
-			}
-		}
-
 		AWebApplication webApplication = AWebApplication.get();
 		webApplication.deleteFromClients(deleted);
 		webApplication.sendToAllIfTracking((Collection) modified);
@@ -92,7 +99,10 @@ public abstract class AJsonFilesWithGitEntitiesBackend extends AJsonFilesEntitie
 
 		sb.append(super.createInfo());
 
-		if (git.isInitialized()) sb.append("\nGit status: ").append(git.status()).append("\n");
+		if (git.isInitialized()) {
+			sb.append("\n").append(committer).append("\n");
+			sb.append("\nGit status: ").append(git.status()).append("\n");
+		}
 
 		return sb.toString();
 	}
@@ -0,0 +1,396 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.persistence.git;
+
+import ilarkesto.core.base.Utl;
+import ilarkesto.core.logging.Log;
+import ilarkesto.integration.git.GitProject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Commits changed files to git in a background thread. Changes of several transactions are collected and committed
+ * together, when the oldest waiting change is older than <code>maxDelay</code> or when <code>maxBatchSize</code>
+ * transactions are waiting. Only the given files are added, so the data dir is not rescanned. The first commit after
+ * start adds all files, to pick up changes which were not committed before the last shutdown. A failed commit keeps
+ * its changes queued and is retried with an increasing delay.
+ */
+public class GitCommitter {
+
+	private static final Log log = Log.get(GitCommitter.class);
+
+	private static final int MAX_PATHS_PER_COMMAND = 200;
+	private static final int MAX_MESSAGES_PER_COMMIT = 20;
+
+	private GitProject git;
+	private long maxDelay = 2000;
+	private int maxBatchSize = 100;
+	private long minRetryDelay = 1000;
+	private long maxRetryDelay = 60000;
+
+	private final Object lock = new Object();
+	private Set<File> pendingFiles = new LinkedHashSet<File>();
+	private List<String> pendingMessages = new ArrayList<String>();
+	private long oldestPendingTime;
+	private long retryDelay;
+	private long nextRetryTime;
+	private boolean addAllPending = true;
+	private boolean flushRequested;
+	private boolean committing;
+	private boolean closed;
+	private Thread thread;
+
+	private volatile long commitCount;
+	private volatile long committedTransactionCount;
+	private volatile long failedCommitCount;
+	private volatile long lastCommitLag;
+	private volatile long lastCommitDuration;
+
+	public GitCommitter(GitProject git) {
+		this.git = git;
+	}
+
+	/**
+	 * Queues the files of a transaction for the next commit. After <code>close()</code> the files are committed
+	 * immediately in the calling thread.
+	 */
+	public void add(Collection<File> files, String message) {
+		synchronized (lock) {
+			if (closed) {
+				try {
+					commit(new LinkedHashSet<File>(files), Collections.singletonList(message), false);
+				} catch (Exception ex) {
+					log.error("git commit failed:", ex);
+				}
+				return;
+			}
+			if (pendingMessages.isEmpty()) oldestPendingTime = System.currentTimeMillis();
+			pendingFiles.addAll(files);
+			pendingMessages.add(message);
+			if (thread == null) {
+				thread = new Thread(new Runnable() {
+
+					@Override
+					public void run() {
+						runCommitter();
+					}
+				}, getClass().getSimpleName());
+				thread.setDaemon(true);
+				thread.start();
+			}
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Commits all queued changes now and waits until they are committed or the commit failed.
+	 */
+	public void flush() {
+		synchronized (lock) {
+			long failed = failedCommitCount;
+			flushRequested = true;
+			lock.notifyAll();
+			while ((!pendingMessages.isEmpty() || committing) && failedCommitCount == failed && thread != null
+					&& thread.isAlive()) {
+				try {
+					lock.wait(1000);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Commits all queued changes and stops the background thread.
+	 */
+	public void close() {
+		flush();
+		Thread t;
+		synchronized (lock) {
+			closed = true;
+			lock.notifyAll();
+			t = thread;
+		}
+		if (t == null) return;
+		try {
+			t.join(10000);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void runCommitter() {
+		while (true) {
+			Set<File> files;
+			List<String> messages;
+			long oldest;
+			boolean addAll;
+			synchronized (lock) {
+				try {
+					while (!isCommitDue()) {
+						if (closed && pendingMessages.isEmpty()) return;
+						if (pendingMessages.isEmpty()) {
+							lock.wait();
+						} else {
+							long dueTime = nextRetryTime > 0 ? nextRetryTime : oldestPendingTime + maxDelay;
+							lock.wait(Math.max(dueTime - System.currentTimeMillis(), 1));
+						}
+					}
+				} catch (InterruptedException ex) {
+					return;
+				}
+				files = pendingFiles;
+				messages = pendingMessages;
+				oldest = oldestPendingTime;
+				addAll = addAllPending;
+				pendingFiles = new LinkedHashSet<File>();
+				pendingMessages = new ArrayList<String>();
+				addAllPending = false;
+				committing = true;
+			}
+
+			long start = System.currentTimeMillis();
+			boolean failed = false;
+			try {
+				commit(files, messages, addAll);
+				commitCount++;
+				committedTransactionCount += messages.size();
+			} catch (Throwable ex) {
+				failed = true;
+				log.error("git commit failed:", ex);
+			} finally {
+				long now = System.currentTimeMillis();
+				lastCommitDuration = now - start;
+				if (!failed) lastCommitLag = now - oldest;
+				synchronized (lock) {
+					committing = false;
+					if (failed) {
+						requeue(files, messages, oldest, addAll);
+						failedCommitCount++;
+						flushRequested = false;
+					} else {
+						retryDelay = 0;
+						nextRetryTime = 0;
+						if (pendingMessages.isEmpty()) flushRequested = false;
+					}
+					lock.notifyAll();
+					if (failed && closed) {
+						log.warn("Giving up on", pendingMessages.size(),
+							"uncommitted transactions, they are added with the first commit after restart");
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Puts the changes of a failed commit back in front of the queue and delays the next attempt.
+	 */
+	private void requeue(Set<File> files, List<String> messages, long oldest, boolean addAll) {
+		files.addAll(pendingFiles);
+		pendingFiles = files;
+		messages.addAll(pendingMessages);
+		pendingMessages = messages;
+		oldestPendingTime = oldest;
+		addAllPending |= addAll;
+		retryDelay = retryDelay == 0 ? minRetryDelay : Math.min(retryDelay * 2, maxRetryDelay);
+		nextRetryTime = System.currentTimeMillis() + retryDelay;
+		log.info("Retrying git commit in", retryDelay, "ms");
+	}
+
+	private boolean isCommitDue() {
+		if (pendingMessages.isEmpty()) return false;
+		if (flushRequested) return true;
+		if (nextRetryTime > 0) return System.currentTimeMillis() >= nextRetryTime;
+		if (closed) return true;
+		if (pendingMessages.size() >= maxBatchSize) return true;
+		return System.currentTimeMillis() - oldestPendingTime >= maxDelay;
+	}
+
+	private void commit(Set<File> files, List<String> messages, boolean addAll) {
+		if (addAll) {
+			retryOnIndexLock(new Runnable() {
+
+				@Override
+				public void run() {
+					git.addAll();
+				}
+			});
+		} else {
+			List<File> existing = new ArrayList<File>();
+			List<File> deleted = new ArrayList<File>();
+			for (File file : files) {
+				if (file.exists()) {
+					existing.add(file);
+				} else {
+					deleted.add(file);
+				}
+			}
+			for (final List<File> part : split(existing)) {
+				retryOnIndexLock(new Runnable() {
+
+					@Override
+					public void run() {
+						git.add(part);
+					}
+				});
+			}
+			for (final List<File> part : split(deleted)) {
+				retryOnIndexLock(new Runnable() {
+
+					@Override
+					public void run() {
+						git.removeFromIndex(part);
+					}
+				});
+			}
+		}
+
+		final String message = createMessage(messages);
+		retryOnIndexLock(new Runnable() {
+
+			@Override
+			public void run() {
+				git.commit(message);
+			}
+		});
+		log.debug("Committed", messages.size(), "transactions with", files.size(), "files");
+	}
+
+	/**
+	 * Other git processes on the data dir may leave a stale lock behind.
+	 */
+	private void retryOnIndexLock(Runnable gitCommand) {
+		try {
+			gitCommand.run();
+		} catch (RuntimeException ex) {
+			String message = Utl.getRootCauseMessage(ex);
+			if (message == null || !message.contains(".git/index.lock")) throw ex;
+			git.deleteIndexLock();
+			gitCommand.run();
+		}
+	}
+
+	private static String createMessage(List<String> messages) {
+		if (messages.size() == 1) return messages.get(0);
+		StringBuilder sb = new StringBuilder();
+		sb.append(messages.size()).append(" transactions\n");
+		for (int i = 0; i < messages.size() && i < MAX_MESSAGES_PER_COMMIT; i++) {
+			sb.append("\n").append(messages.get(i));
+		}
+		if (messages.size() > MAX_MESSAGES_PER_COMMIT) sb.append("\n...");
+		return sb.toString();
+	}
+
+	private static List<List<File>> split(List<File> files) {
+		List<List<File>> ret = new ArrayList<List<File>>();
+		for (int i = 0; i < files.size(); i += MAX_PATHS_PER_COMMAND) {
+			ret.add(files.subList(i, Math.min(files.size(), i + MAX_PATHS_PER_COMMAND)));
+		}
+		return ret;
+	}
+
+	// --- configuration ---
+
+	public GitCommitter setMaxDelay(long maxDelay) {
+		this.maxDelay = maxDelay;
+		return this;
+	}
+
+	public GitCommitter setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+		return this;
+	}
+
+	/**
+	 * Delay before retrying a failed commit. Doubled with each further failure, up to <code>maxRetryDelay</code>.
+	 */
+	public GitCommitter setRetryDelay(long minRetryDelay, long maxRetryDelay) {
+		this.minRetryDelay = minRetryDelay;
+		this.maxRetryDelay = maxRetryDelay;
+		return this;
+	}
+
+	/**
+	 * Disables adding all files with the first commit.
+	 */
+	public GitCommitter setAddAllOnFirstCommit(boolean addAllOnFirstCommit) {
+		synchronized (lock) {
+			this.addAllPending = addAllOnFirstCommit;
+		}
+		return this;
+	}
+
+	// --- statistics ---
+
+	/**
+	 * Number of transactions waiting to be committed.
+	 */
+	public int getQueueDepth() {
+		synchronized (lock) {
+			return pendingMessages.size();
+		}
+	}
+
+	/**
+	 * Age of the oldest transaction waiting to be committed in milliseconds.
+	 */
+	public long getPendingLag() {
+		synchronized (lock) {
+			if (pendingMessages.isEmpty()) return 0;
+			return System.currentTimeMillis() - oldestPendingTime;
+		}
+	}
+
+	/**
+	 * Time from the oldest transaction of the last commit until the commit was done in milliseconds.
+	 */
+	public long getLastCommitLag() {
+		return lastCommitLag;
+	}
+
+	public long getLastCommitDuration() {
+		return lastCommitDuration;
+	}
+
+	public long getCommitCount() {
+		return commitCount;
+	}
+
+	public long getCommittedTransactionCount() {
+		return committedTransactionCount;
+	}
+
+	public long getFailedCommitCount() {
+		return failedCommitCount;
+	}
+
+	@Override
+	public String toString() {
+		return "GitCommitter: " + getQueueDepth() + " queued (lag " + getPendingLag() + " ms), " + commitCount
+				+ " commits for " + committedTransactionCount + " transactions, " + failedCommitCount
+				+ " failed, last commit " + lastCommitDuration + " ms (lag " + lastCommitLag + " ms)";
+	}
+
+}
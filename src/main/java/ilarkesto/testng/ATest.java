@@ -14,11 +14,14 @@
  */
 package ilarkesto.testng;
 
+import ilarkesto.concurrent.TaskManager;
 import ilarkesto.core.base.OperationObserver;
 import ilarkesto.core.logging.Log;
 import ilarkesto.core.time.Date;
+import ilarkesto.di.Context;
 import ilarkesto.io.AFileStorage;
 import ilarkesto.io.SimpleFileStorage;
+import ilarkesto.io.nio.httpserver.HttpRequestHandler;
 import ilarkesto.net.ApacheHttpDownloader;
 import ilarkesto.net.HttpDownloader;
 
@@ -60,6 +63,37 @@ public class ATest extends Assert {
 		return new SimpleFileStorage(getTestOutputFile(name));
 	}
 
+	// --- tasks and servers ---
+
+	/**
+	 * Task manager for tests. Creates the root context, which tasks require, if there is none yet.
+	 */
+	protected TaskManager createTaskManager() {
+		try {
+			Context.getRootContext();
+		} catch (RuntimeException ex) {
+			Context.createRootContext(getClass().getSimpleName());
+		}
+		return new TaskManager();
+	}
+
+	/**
+	 * HTTP server on a free local port. Configure it through <code>getServer()</code>, then call
+	 * <code>start(createTaskManager())</code>.
+	 */
+	protected TestHttpServer createHttpServer(int workerCount) {
+		return new TestHttpServer(getClass().getSimpleName(), workerCount);
+	}
+
+	/**
+	 * Starts an HTTP server with the given handler on a free local port and waits until it accepts connections.
+	 */
+	protected TestHttpServer startHttpServer(int workerCount, HttpRequestHandler handler) {
+		TestHttpServer server = createHttpServer(workerCount);
+		server.getServer().addRequestHandler(handler);
+		return server.start(createTaskManager());
+	}
+
 	// --- asserts ---
 
 	public static void assertInstanceOf(Object object, Class type) {
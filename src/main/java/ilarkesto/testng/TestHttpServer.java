@@ -0,0 +1,108 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.testng;
+
+import ilarkesto.concurrent.TaskManager;
+import ilarkesto.io.nio.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Local <code>HttpServer</code> for tests, on a free port. Created by <code>ATest.createHttpServer()</code>,
+ * configure it through <code>getServer()</code> before <code>start()</code>.
+ */
+public class TestHttpServer {
+
+	private static final long START_TIMEOUT = 10000;
+
+	private final int port;
+	private final HttpServer<Object> server;
+	private TaskManager taskManager;
+
+	TestHttpServer(String name, int workerCount) {
+		this.port = findFreePort();
+		this.server = new HttpServer<Object>(port, name, workerCount);
+	}
+
+	/**
+	 * Starts the server and waits until it accepts connections.
+	 */
+	public TestHttpServer start(TaskManager taskManager) {
+		this.taskManager = taskManager;
+		server.start(taskManager);
+		long deadline = System.currentTimeMillis() + START_TIMEOUT;
+		while (!isAccepting()) {
+			if (System.currentTimeMillis() > deadline)
+				throw new IllegalStateException("HTTP server not started on port " + port);
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+		return this;
+	}
+
+	public void stop() {
+		server.stop();
+		taskManager.shutdown(1000);
+	}
+
+	private boolean isAccepting() {
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress("localhost", port), 100);
+			return true;
+		} catch (IOException ex) {
+			return false;
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException ex) {}
+		}
+	}
+
+	private static int findFreePort() {
+		try {
+			ServerSocket socket = new ServerSocket(0);
+			try {
+				return socket.getLocalPort();
+			} finally {
+				socket.close();
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Finding free port failed", ex);
+		}
+	}
+
+	public HttpServer<Object> getServer() {
+		return server;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * <code>http://localhost:port</code>, without trailing slash.
+	 */
+	public String getUrl() {
+		return "http://localhost:" + port;
+	}
+
+}
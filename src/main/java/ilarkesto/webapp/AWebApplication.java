@@ -16,10 +16,13 @@ package ilarkesto.webapp;
 
 import ilarkesto.base.Str;
 import ilarkesto.base.Sys;
+import ilarkesto.core.logging.Log.Level;
+import ilarkesto.core.logging.LogRecordHandler;
 import ilarkesto.core.persistance.TransferableEntity;
 import ilarkesto.di.app.AApplication;
 import ilarkesto.gwt.server.AGwtConversation;
 import ilarkesto.logging.DefaultLogRecordHandler;
+import ilarkesto.logging.RollingJsonLogRecordHandler;
 import ilarkesto.webapp.jsonapi.JsonApiFactory;
 import ilarkesto.webapp.jsonapi.ReflectionJsonApiFactory;
 
@@ -60,6 +63,8 @@ public abstract class AWebApplication extends AApplication {
 	@Override
 	protected void onStart() {
 		DefaultLogRecordHandler.setLogFile(new File(getApplicationDataDir() + "/error.log"));
+		LogRecordHandler logFileHandler = createLogFileHandler();
+		if (logFileHandler != null) DefaultLogRecordHandler.INSTANCE.setFileHandler(logFileHandler);
 		log.info("Initializing web application");
 		onStartWebApplication();
 	}
@@ -72,6 +77,14 @@ public abstract class AWebApplication extends AApplication {
 
 	// --- ---
 
+	/**
+	 * Handler which writes records from info level on to files. Return <code>null</code> to disable.
+	 */
+	protected LogRecordHandler createLogFileHandler() {
+		return new RollingJsonLogRecordHandler(new File(getApplicationDataDir() + "/logs"), "application")
+				.setMinLevel(Level.INFO);
+	}
+
 	protected GwtSuperDevMode createGwtSuperDevMode() {
 		return null;
 	}
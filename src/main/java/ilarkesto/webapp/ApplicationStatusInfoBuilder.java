@@ -18,11 +18,14 @@ import ilarkesto.base.Proc;
 import ilarkesto.base.Sys;
 import ilarkesto.base.Utl;
 import ilarkesto.core.base.Bytes;
+import ilarkesto.core.logging.Log.Level;
 import ilarkesto.core.logging.LogRecord;
+import ilarkesto.core.logging.LogRecordHandler;
 import ilarkesto.core.time.DateAndTime;
 import ilarkesto.core.time.TimePeriod;
 import ilarkesto.gwt.server.AGwtConversation;
 import ilarkesto.logging.DefaultLogRecordHandler;
+import ilarkesto.logging.RollingJsonLogRecordHandler;
 import ilarkesto.ui.web.HtmlBuilder;
 
 import java.text.DecimalFormat;
@@ -39,6 +42,7 @@ public class ApplicationStatusInfoBuilder {
 		sessions(html);
 		conversations(html);
 		errors(html);
+		recentLogs(html);
 		runtime(html);
 		processes(html);
 		threads(html);
@@ -55,6 +59,35 @@ public class ApplicationStatusInfoBuilder {
 		logsTable(html, logs);
 	}
 
+	private void recentLogs(HtmlBuilder html) {
+		RollingJsonLogRecordHandler logFiles = getLogFiles();
+		if (logFiles == null) return;
+		sectionHeader(html, "Recent Log");
+		logsTable(html, logFiles.tail(getRecentLogsCount()));
+	}
+
+	/**
+	 * Builds a table with the latest records from the log files, which contain the text.
+	 *
+	 * @param text optional
+	 * @param minLevel optional
+	 */
+	public void logSearch(HtmlBuilder html, String text, Level minLevel, int maxRecords) {
+		RollingJsonLogRecordHandler logFiles = getLogFiles();
+		if (logFiles == null) return;
+		sectionHeader(html, "Log Search: " + (text == null ? "" : text) + (minLevel == null ? "" : " " + minLevel));
+		logsTable(html, logFiles.search(text, minLevel, maxRecords));
+	}
+
+	protected int getRecentLogsCount() {
+		return 100;
+	}
+
+	protected RollingJsonLogRecordHandler getLogFiles() {
+		LogRecordHandler fileHandler = DefaultLogRecordHandler.INSTANCE.getFileHandler();
+		return fileHandler instanceof RollingJsonLogRecordHandler ? (RollingJsonLogRecordHandler) fileHandler : null;
+	}
+
 	private void runtime(HtmlBuilder html) {
 		sectionHeader(html, "Runtime");
 		startTABLE(html);
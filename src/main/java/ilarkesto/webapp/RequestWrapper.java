@@ -24,6 +24,7 @@ import ilarkesto.json.JsonObject;
 import ilarkesto.ui.html.Html;
 import ilarkesto.ui.web.HtmlBuilder;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -309,6 +310,14 @@ public class RequestWrapper<S extends AWebSession> {
 		}
 	}
 
+	public BufferedReader getReader() {
+		try {
+			return request.getReader();
+		} catch (IOException ex) {
+			throw new RuntimeException("Reading request failed", ex);
+		}
+	}
+
 	public HttpSession getHttpSession() {
 		return request.getSession();
 	}
@@ -15,6 +15,8 @@
 package ilarkesto.webapp.jsonapi;
 
 import ilarkesto.json.JsonObject;
+import ilarkesto.json.JsonStreamReader;
+import ilarkesto.json.JsonStreamWriter;
 import ilarkesto.webapp.RequestWrapper;
 
 public abstract class AJsonApi {
@@ -39,6 +41,23 @@ public abstract class AJsonApi {
 
 	protected void onBinaryGet(String path) {}
 
+	/**
+	 * Writes the response. Override to emit large responses incrementally instead of building a
+	 * <code>JsonObject</code> in <code>onGet(JsonObject, String)</code>.
+	 */
+	protected void onGet(JsonStreamWriter out, String path) {
+		out.value(doGet());
+	}
+
+	/**
+	 * Reads the request body. Override to consume large bodies piece by piece with
+	 * <code>in.read(ElementHandler)</code> instead of receiving a <code>JsonObject</code> in
+	 * <code>onPost(JsonObject, String)</code>.
+	 */
+	protected void onPost(JsonStreamReader in, String path) {
+		doPost(in.readObject());
+	}
+
 	public final JsonObject doGet() {
 		JsonObject json = new JsonObject();
 		onGet(json, path);
@@ -49,6 +68,14 @@ public abstract class AJsonApi {
 		onPost(update, path);
 	}
 
+	public final void doGet(JsonStreamWriter out) {
+		onGet(out, path);
+	}
+
+	public final void doPost(JsonStreamReader in) {
+		onPost(in, path);
+	}
+
 	public final boolean doBinaryGet() {
 		onBinaryGet(path);
 		return request.isResponseServed();
@@ -14,15 +14,20 @@
  */
 package ilarkesto.webapp.jsonapi;
 
+import ilarkesto.base.Sys;
 import ilarkesto.core.base.Str;
 import ilarkesto.core.logging.Log;
-import ilarkesto.json.JsonObject;
+import ilarkesto.json.JsonStreamReader;
+import ilarkesto.json.JsonStreamWriter;
 import ilarkesto.webapp.AServlet;
 import ilarkesto.webapp.AWebApplication;
 import ilarkesto.webapp.AWebSession;
 import ilarkesto.webapp.RequestWrapper;
 
+import java.io.BufferedReader;
+import java.io.FilterReader;
 import java.io.IOException;
+import java.io.Reader;
 
 public class JsonApiServlet extends AServlet<AWebApplication, AWebSession> {
 
@@ -51,15 +56,41 @@ public class JsonApiServlet extends AServlet<AWebApplication, AWebSession> {
 		writeGet(req, api);
 	}
 
-	private void update(RequestWrapper req, AJsonApi api) {
-		JsonObject json = req.readContentToJson();
-		log.info(json.toFormatedString());
-		api.doPost(json);
+	private void update(RequestWrapper req, AJsonApi api) throws IOException {
+		BufferedReader in = req.getReader();
+		if (in == null || isEmpty(in)) throw new RuntimeException("Illegal request. Missing JSON content.");
+
+		int maxLoggedLength = isRequestBodyLogged() ? getMaxLoggedBodyLength() : 0;
+		LoggingReader body = new LoggingReader(in, maxLoggedLength);
+		try {
+			api.doPost(new JsonStreamReader(body));
+		} finally {
+			if (maxLoggedLength > 0) log.info(body.getLogText());
+		}
 	}
 
 	private void writeGet(RequestWrapper req, AJsonApi api) throws IOException {
-		JsonObject result = api.doGet();
-		req.write(result);
+		JsonStreamWriter out = new JsonStreamWriter(req.getWriter(), Sys.isDevelopmentMode());
+		api.doGet(out);
+		out.close();
+	}
+
+	/**
+	 * Whether POST bodies are logged (truncated to <code>getMaxLoggedBodyLength()</code>).
+	 */
+	protected boolean isRequestBodyLogged() {
+		return true;
+	}
+
+	protected int getMaxLoggedBodyLength() {
+		return 1000;
+	}
+
+	private static boolean isEmpty(BufferedReader in) throws IOException {
+		in.mark(1);
+		if (in.read() < 0) return true;
+		in.reset();
+		return false;
 	}
 
 	private AJsonApi createApi(RequestWrapper req) {
@@ -74,8 +105,56 @@ public class JsonApiServlet extends AServlet<AWebApplication, AWebSession> {
 			path = path.substring(0, idx);
 		}
 		AJsonApi api = webApplication.getRestApiFactory().createApi(req, path);
+		if (api == null) return null;
 		api.init(req, subpath);
 		return api;
 	}
 
+	/**
+	 * Keeps the beginning of the read content for logging.
+	 */
+	private static class LoggingReader extends FilterReader {
+
+		private StringBuilder text;
+		private int maxLength;
+		private long length;
+
+		public LoggingReader(Reader in, int maxLength) {
+			super(in);
+			this.maxLength = maxLength;
+			if (maxLength > 0) text = new StringBuilder(Math.min(maxLength, 1024));
+		}
+
+		@Override
+		public int read() throws IOException {
+			int c = super.read();
+			if (c >= 0) append((char) c);
+			return c;
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			int count = super.read(cbuf, off, len);
+			if (count > 0) append(cbuf, off, count);
+			return count;
+		}
+
+		private void append(char c) {
+			if (text != null && text.length() < maxLength) text.append(c);
+			length++;
+		}
+
+		private void append(char[] cbuf, int off, int count) {
+			if (text != null && text.length() < maxLength)
+				text.append(cbuf, off, Math.min(count, maxLength - text.length()));
+			length += count;
+		}
+
+		public String getLogText() {
+			if (length <= maxLength) return text.toString();
+			return text + " ... (" + length + " chars)";
+		}
+
+	}
+
 }
@@ -1,48 +1,110 @@
 /*
  * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
- * 
+ *
  * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
  * General Public License as published by the Free Software Foundation, either version 3 of the License, or
  * (at your option) any later version.
- * 
+ *
  * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
  * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
  * License for more details.
- * 
+ *
  * You should have received a copy of the GNU Affero General Public License along with this program. If not,
  * see <http://www.gnu.org/licenses/>.
  */
 package ilarkesto.webapp.jsonapi;
 
-import ilarkesto.base.Reflect;
 import ilarkesto.base.Str;
+import ilarkesto.core.logging.Log;
+import ilarkesto.di.AutowirePlan;
 import ilarkesto.webapp.AWebApplication;
 import ilarkesto.webapp.AWebSession;
 import ilarkesto.webapp.RequestWrapper;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLDecoder;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 
+/**
+ * Maps the path <code>foo</code> to the class <code>FooApi</code> (and the empty path to <code>RootApi</code>) in
+ * one of the registered packages.
+ * <p>
+ * Each package is scanned for <code>*Api</code> classes when it is added, so the routes are known before the first
+ * request. Paths which are not found by the scan (classes from exotic class loaders) are resolved with
+ * <code>Class.forName()</code> on first use and added to the route table. The route table is an immutable map
+ * which is replaced on change, so a request only does a map lookup, a constructor call and the autowireing with a
+ * precomputed <code>AutowirePlan</code>.
+ */
 public class ReflectionJsonApiFactory implements JsonApiFactory {
 
-	private List<String> packages = new ArrayList<String>();
+	private static final Log log = Log.get(ReflectionJsonApiFactory.class);
+
+	private List<String> packages = new CopyOnWriteArrayList<String>();
+	private volatile Map<String, Route> routes = Collections.emptyMap();
+	private Set<String> unknownPaths = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
 	public ReflectionJsonApiFactory(AWebApplication webApplication) {
 		addPackage(webApplication.getClass().getPackage());
 	}
 
+	public ReflectionJsonApiFactory(String... packageNames) {
+		for (String packageName : packageNames) {
+			addPackage(packageName);
+		}
+	}
+
 	public void addPackage(Package pkg) {
 		addPackage(pkg.getName());
 	}
 
 	public void addPackage(String packageName) {
 		packages.add(packageName);
+		unknownPaths.clear();
+		for (Class<? extends AJsonApi> type : scanPackage(packageName)) {
+			String path = getPath(type);
+			if (routes.containsKey(path)) continue;
+			try {
+				addApi(path, type);
+			} catch (Exception ex) {
+				log.warn("Ignoring API:", type.getName(), ex);
+			}
+		}
+	}
+
+	public void addApi(Class<? extends AJsonApi> type) {
+		addApi(getPath(type), type);
+	}
+
+	public synchronized void addApi(String path, Class<? extends AJsonApi> type) {
+		Map<String, Route> newRoutes = new HashMap<String, Route>(routes);
+		newRoutes.put(path, new Route(path, type));
+		routes = Collections.unmodifiableMap(newRoutes);
+		unknownPaths.remove(path);
 	}
 
 	@Override
 	public AJsonApi createApi(RequestWrapper req, String path) {
-		AJsonApi api = createApiInstance(path);
-		if (api == null) return null;
+		Route route = getRoute(path);
+		if (route == null) return null;
+
+		AJsonApi api = route.newInstance();
 
 		AWebSession session = req.getSession();
 		session.getContext().autowire(api);
@@ -50,19 +112,180 @@ public class ReflectionJsonApiFactory implements JsonApiFactory {
 		return api;
 	}
 
-	private AJsonApi createApiInstance(String path) {
+	public Route getRoute(String path) {
+		Route route = routes.get(path);
+		if (route != null) return route;
+
+		if (unknownPaths.contains(path)) return null;
+		Class<? extends AJsonApi> type = findApiClass(path);
+		if (type == null) {
+			if (unknownPaths.size() < getMaxUnknownPaths()) unknownPaths.add(path);
+			return null;
+		}
+
+		synchronized (this) {
+			route = routes.get(path);
+			if (route != null) return route;
+			addApi(path, type);
+			return routes.get(path);
+		}
+	}
+
+	public Map<String, Route> getRoutes() {
+		return routes;
+	}
+
+	/**
+	 * Maximum number of paths without API, which are remembered to avoid repeated class lookups. Bounded, since
+	 * paths come from requests.
+	 */
+	protected int getMaxUnknownPaths() {
+		return 1000;
+	}
+
+	private Class<? extends AJsonApi> findApiClass(String path) {
 		String classSimpleName = path.isEmpty() ? "RootApi" : Str.uppercaseFirstLetter(path) + "Api";
 		for (String pkg : packages) {
 			String className = pkg + "." + classSimpleName;
-			Class<? extends AJsonApi> type;
+			Class<?> type;
 			try {
-				type = (Class<? extends AJsonApi>) Class.forName(className);
-				return Reflect.newInstance(type);
+				type = Class.forName(className);
 			} catch (ClassNotFoundException ex) {
 				continue;
 			}
+			if (AJsonApi.class.isAssignableFrom(type)) return type.asSubclass(AJsonApi.class);
 		}
 		return null;
 	}
 
+	public static String getPath(Class<? extends AJsonApi> type) {
+		String name = Str.removeSuffix(type.getSimpleName(), "Api");
+		if (name.equals("Root")) return "";
+		return Str.lowercaseFirstLetter(name);
+	}
+
+	// --- scanning ---
+
+	private static List<Class<? extends AJsonApi>> scanPackage(String packageName) {
+		List<String> classNames = new ArrayList<String>();
+		String packagePath = packageName.replace('.', '/');
+		ClassLoader classLoader = getClassLoader();
+		try {
+			Enumeration<URL> urls = classLoader.getResources(packagePath);
+			while (urls.hasMoreElements()) {
+				URL url = urls.nextElement();
+				if ("file".equals(url.getProtocol())) {
+					scanDirectory(new File(URLDecoder.decode(url.getPath(), "UTF-8")), packageName, classNames);
+				} else if ("jar".equals(url.getProtocol())) {
+					scanJar(url, packagePath, classNames);
+				} else {
+					log.info("Scanning not supported:", url, "-> APIs are resolved on first request");
+				}
+			}
+		} catch (IOException ex) {
+			log.warn("Scanning package failed:", packageName, ex);
+		}
+
+		List<Class<? extends AJsonApi>> ret = new ArrayList<Class<? extends AJsonApi>>();
+		for (String className : classNames) {
+			Class<?> type;
+			try {
+				type = Class.forName(className, false, classLoader);
+			} catch (Throwable ex) {
+				log.debug("Loading class failed:", className, ex);
+				continue;
+			}
+			if (!AJsonApi.class.isAssignableFrom(type)) continue;
+			if (Modifier.isAbstract(type.getModifiers())) continue;
+			ret.add(type.asSubclass(AJsonApi.class));
+		}
+		return ret;
+	}
+
+	private static void scanDirectory(File dir, String packageName, List<String> classNames) {
+		File[] files = dir.listFiles();
+		if (files == null) return;
+		for (File file : files) {
+			String name = file.getName();
+			if (isApiClassFile(name)) classNames.add(packageName + "." + Str.removeSuffix(name, ".class"));
+		}
+	}
+
+	private static void scanJar(URL url, String packagePath, List<String> classNames) throws IOException {
+		URLConnection connection = url.openConnection();
+		if (!(connection instanceof JarURLConnection)) return;
+		JarURLConnection jarConnection = (JarURLConnection) connection;
+		jarConnection.setUseCaches(false);
+		JarFile jar = jarConnection.getJarFile();
+		try {
+			String prefix = packagePath + "/";
+			Enumeration<JarEntry> entries = jar.entries();
+			while (entries.hasMoreElements()) {
+				String entryName = entries.nextElement().getName();
+				if (!entryName.startsWith(prefix)) continue;
+				String name = entryName.substring(prefix.length());
+				if (name.indexOf('/') >= 0) continue;
+				if (isApiClassFile(name))
+					classNames.add(Str.removeSuffix(entryName, ".class").replace('/', '.'));
+			}
+		} finally {
+			jar.close();
+		}
+	}
+
+	private static boolean isApiClassFile(String name) {
+		return name.endsWith("Api.class") && name.indexOf('$') < 0;
+	}
+
+	private static ClassLoader getClassLoader() {
+		ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+		if (classLoader == null) classLoader = ReflectionJsonApiFactory.class.getClassLoader();
+		return classLoader;
+	}
+
+	// --- ---
+
+	public static final class Route {
+
+		private final String path;
+		private final Class<? extends AJsonApi> type;
+		private final Constructor<? extends AJsonApi> constructor;
+
+		public Route(String path, Class<? extends AJsonApi> type) {
+			this.path = path;
+			this.type = type;
+			try {
+				constructor = type.getDeclaredConstructor();
+			} catch (NoSuchMethodException ex) {
+				throw new RuntimeException("API without default constructor: " + type.getName(), ex);
+			}
+			constructor.setAccessible(true);
+			AutowirePlan.get(type);
+		}
+
+		public AJsonApi newInstance() {
+			try {
+				return constructor.newInstance();
+			} catch (InvocationTargetException ex) {
+				throw new RuntimeException("Instantiating " + type.getName() + " failed.", ex.getCause());
+			} catch (Exception ex) {
+				throw new RuntimeException("Instantiating " + type.getName() + " failed.", ex);
+			}
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public Class<? extends AJsonApi> getType() {
+			return type;
+		}
+
+		@Override
+		public String toString() {
+			return path + " -> " + type.getName();
+		}
+
+	}
+
 }
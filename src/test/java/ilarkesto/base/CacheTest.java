@@ -0,0 +1,182 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.base;
+
+import ilarkesto.testng.ATest;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+public class CacheTest extends ATest {
+
+	@Test
+	public void singleFlight() throws InterruptedException {
+		final AtomicInteger createCount = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		final Cache<String, String> cache = new Cache<String, String>(new Cache.Factory<String, String>() {
+
+			@Override
+			public String create(String key) {
+				createCount.incrementAndGet();
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException ex) {
+					throw new RuntimeException(ex);
+				}
+				return key.toUpperCase();
+			}
+		});
+
+		Thread[] threads = new Thread[8];
+		final String[] results = new String[threads.length];
+		for (int i = 0; i < threads.length; i++) {
+			final int index = i;
+			threads[i] = new Thread() {
+
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException ex) {
+						return;
+					}
+					results[index] = cache.get("a");
+				}
+			};
+			threads[i].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(createCount.get(), 1);
+		for (String result : results) {
+			assertEquals(result, "A");
+		}
+		assertEquals(cache.getMissCount(), 1);
+		assertEquals(cache.getHitCount(), threads.length - 1);
+	}
+
+	@Test
+	public void maxSize() {
+		Cache<Integer, String> cache = new Cache<Integer, String>(new ToStringFactory()).setMaxSize(10);
+		for (int i = 0; i < 10; i++) {
+			cache.get(i);
+		}
+		cache.get(0);
+		cache.get(10);
+		assertTrue(cache.size() <= 10);
+		assertTrue(cache.getEvictionCount() > 0);
+		assertEquals(cache.getIfPresent(0), "0");
+		assertNull(cache.getIfPresent(1));
+	}
+
+	@Test
+	public void maxWeight() {
+		Cache<Integer, String> cache = new Cache<Integer, String>(new ToStringFactory()).setMaxWeight(20,
+			new Cache.Weigher<Integer, String>() {
+
+				@Override
+				public long weigh(Integer key, String value) {
+					return value.length();
+				}
+			});
+		for (int i = 100; i < 120; i++) {
+			cache.get(i);
+		}
+		assertTrue(cache.getWeight() <= 20);
+		assertNotNull(cache.getIfPresent(119));
+	}
+
+	@Test
+	public void expireAfterWrite() throws InterruptedException {
+		ToStringFactory factory = new ToStringFactory();
+		Cache<Integer, String> cache = new Cache<Integer, String>(factory).setExpireAfterWrite(50);
+		cache.get(1);
+		cache.get(1);
+		assertEquals(factory.count, 1);
+		Thread.sleep(100);
+		cache.get(1);
+		assertEquals(factory.count, 2);
+		assertEquals(cache.getExpirationCount(), 1);
+	}
+
+	@Test
+	public void failure() {
+		Cache<Integer, String> cache = new Cache<Integer, String>(new Cache.Factory<Integer, String>() {
+
+			@Override
+			public String create(Integer key) {
+				throw new IllegalStateException("fail " + key);
+			}
+		});
+		try {
+			cache.get(1);
+			fail("Exception expected");
+		} catch (IllegalStateException ex) {
+			// expected
+		}
+		assertEquals(cache.size(), 0);
+		assertEquals(cache.getLoadFailureCount(), 1);
+	}
+
+	@Test
+	public void recursiveLoad() {
+		final Cache<Integer, String> cache = new Cache<Integer, String>();
+		cache.setFactory(new Cache.Factory<Integer, String>() {
+
+			@Override
+			public String create(Integer key) {
+				return key == 0 ? "0" : cache.get(key - 1) + cache.get(key);
+			}
+		});
+		try {
+			cache.get(2);
+			fail("Exception expected");
+		} catch (IllegalStateException ex) {
+			// expected
+		}
+		assertEquals(cache.getIfPresent(0), "0");
+		assertNull(cache.getIfPresent(2));
+	}
+
+	@Test
+	public void clear() {
+		Cache<Integer, String> cache = new Cache<Integer, String>(new ToStringFactory());
+		cache.get(1);
+		cache.get(2);
+		cache.clear();
+		assertEquals(cache.size(), 0);
+		assertEquals(cache.getWeight(), 0);
+		cache.get(3);
+		assertEquals(cache.getWeight(), 1);
+	}
+
+	private static class ToStringFactory implements Cache.Factory<Integer, String> {
+
+		private int count;
+
+		@Override
+		public String create(Integer key) {
+			count++;
+			return key.toString();
+		}
+
+	}
+
+}
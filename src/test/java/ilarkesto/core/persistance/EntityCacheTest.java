@@ -15,14 +15,29 @@
 package ilarkesto.core.persistance;
 
 import ilarkesto.base.Utl;
+import ilarkesto.core.base.Factory;
+import ilarkesto.persistence.ConcurrentEntitiesCache;
+import ilarkesto.persistence.ThreadlocalTransactionManager;
 import ilarkesto.testng.ATest;
 
 import java.util.Set;
 
+import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
 public class EntityCacheTest extends ATest {
 
+	@BeforeClass
+	public void init() {
+		Persistence.initialize(new Factory<EntitiesBackend>() {
+
+			@Override
+			public EntitiesBackend newInstance() {
+				return new InMemoryEntitiesBackend();
+			}
+		}, new ThreadlocalTransactionManager());
+	}
+
 	@Test
 	public void basic() {
 		EntitiesCache cache = new EntitiesCache();
@@ -97,6 +112,70 @@ public class EntityCacheTest extends ATest {
 		assertSize(cars, 3);
 	}
 
+	@Test
+	public void index() {
+		index(new EntitiesCache());
+		index(new ConcurrentEntitiesCache());
+	}
+
+	private void index(EntitiesCache cache) {
+		Car c1 = new Car().setName("c1");
+		cache.add(c1);
+		cache.add(new Car().setName("c2"));
+		cache.addIndex(Car.NAME);
+		cache.add(new Mercedes().setName("c1"));
+
+		assertSize(cache.findAllAsSet(Car.NAME.query("c1")), 2);
+		assertSize(cache.findAllAsSet(Car.NAME.query("c3")), 0);
+
+		c1.setName("c3");
+		cache.add(c1);
+		assertSize(cache.findAllAsSet(Car.NAME.query("c1")), 1);
+		assertSame(cache.findFirst(Car.NAME.query("c3")), c1);
+
+		cache.remove(c1.getId());
+		assertNull(cache.findFirst(Car.NAME.query("c3")));
+
+		assertEquals(cache.getIndexHits(), 5);
+		assertEquals(cache.getIndexMisses(), 0);
+	}
+
+	@Test
+	public void indexWhileAdding() throws InterruptedException {
+		final EntitiesCache cache = new ConcurrentEntitiesCache();
+		Thread adder = new Thread() {
+
+			@Override
+			public void run() {
+				for (int i = 0; i < 10000; i++) {
+					cache.add(new Car().setName("x"));
+				}
+			}
+		};
+		adder.start();
+		cache.addIndex(Car.NAME);
+		adder.join();
+
+		assertSize(cache.findAllAsSet(Car.NAME.query("x")), 10000);
+	}
+
+	@Test
+	public void scanStatistics() {
+		scanStatistics(new EntitiesCache());
+		scanStatistics(new ConcurrentEntitiesCache());
+	}
+
+	private void scanStatistics(EntitiesCache cache) {
+		cache.add(new Car().setName("c1"));
+		// scans are counted per index, not per value
+		for (int i = 0; i < 100; i++) {
+			cache.findFirst(Car.NAME.query("c" + i));
+		}
+		assertEquals(cache.getIndexMisses(), 100);
+		assertEquals(cache.getScansByQuery().size(), 1);
+		assertEquals(cache.getScansByQuery().get("index " + Car.NAME), Integer.valueOf(100));
+	}
+
 	@Test
 	public void isInstanceOf() {
 		EntitiesCache cache = new EntitiesCache();
@@ -110,6 +189,14 @@ public class EntityCacheTest extends ATest {
 
 	public static class Car extends AEntity {
 
+		public static final AEntityIndex<Car> NAME = new AEntityIndex<Car>(Car.class, "name") {
+
+			@Override
+			public Object getValue(Car car) {
+				return car.name;
+			}
+		};
+
 		private String name;
 
 		public Car setName(String name) {
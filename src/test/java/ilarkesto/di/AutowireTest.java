@@ -35,6 +35,59 @@ public class AutowireTest extends ATest {
 		assertEquals(Flower.d, "x");
 	}
 
+	@Test
+	public void autowire() {
+		BeanContainer beans = new BeanContainer();
+		beans.put("name", "tulip");
+		beans.put("color", "red");
+		beans.put("hostile", "x");
+		beans.put("count", "3");
+
+		for (int i = 0; i < 2; i++) {
+			Tulip tulip = Autowire.autowire(new Tulip(), beans, null);
+			assertEquals(tulip.name, "tulip");
+			assertEquals(tulip.color, "red");
+			assertEquals(tulip.count, 3);
+			assertNull(tulip.hostile);
+			assertSame(tulip.beanProvider, beans);
+		}
+
+		assertSame(AutowirePlan.get(Tulip.class), AutowirePlan.get(Tulip.class));
+		assertEquals(AutowirePlan.get(Tulip.class).getFields().size(), 2);
+	}
+
+	public static class Tulip extends Plant {
+
+		@In
+		private String name;
+
+		private String hostile;
+
+		private int count;
+
+		private BeanProvider beanProvider;
+
+		@AutowireHostile
+		public void setHostile(String hostile) {
+			this.hostile = hostile;
+		}
+
+		public void setCount(int count) {
+			this.count = count;
+		}
+
+		public void setBeanProvider(BeanProvider beanProvider) {
+			this.beanProvider = beanProvider;
+		}
+	}
+
+	public static class Plant {
+
+		@In
+		String color;
+
+	}
+
 	public static class Rose extends Flower {
 
 		@In
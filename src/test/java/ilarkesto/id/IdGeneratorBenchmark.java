@@ -0,0 +1,123 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.id;
+
+import ilarkesto.core.base.Uuid;
+import ilarkesto.core.logging.Log;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Compares the ID generators with the former implementations (<code>Math.random()</code> per character,
+ * <code>synchronized</code> counter) on several threads. Not a test, run manually:
+ * <code>IdGeneratorBenchmark [threads] [idsPerThread]</code>
+ */
+public class IdGeneratorBenchmark {
+
+	private static final Log log = Log.get(IdGeneratorBenchmark.class);
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int count = args.length > 1 ? Integer.parseInt(args[1]) : 500000;
+
+		IdGenerator legacyUuid = new IdGenerator() {
+
+			@Override
+			public String generateId() {
+				return createLegacyUuid();
+			}
+		};
+		IdGenerator uuid = new IdGenerator() {
+
+			@Override
+			public String generateId() {
+				return Uuid.create();
+			}
+		};
+		IdGenerator synchronizedCounter = new SynchronizedCountingIdGenerator("x");
+
+		for (int round = 0; round < 2; round++) {
+			// first round is warmup
+			run("legacy Uuid", legacyUuid, threads, count);
+			Uuid.randomSource = new Uuid.MathRandomSource();
+			run("Uuid/Math.random", uuid, threads, count);
+			ThreadLocalRandomSource.install();
+			run("Uuid/ThreadLocalRandomSource", uuid, threads, count);
+			run("synchronized counter", synchronizedCounter, threads, count);
+			run("CountingIdGenerator", new CountingIdGenerator("x"), threads, count);
+			run("TimeOrderedIdGenerator", new TimeOrderedIdGenerator(), threads, count);
+		}
+	}
+
+	private static void run(String name, final IdGenerator generator, int threads, final int count)
+			throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch finished = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			new Thread() {
+
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException ex) {
+						return;
+					}
+					for (int i = 0; i < count; i++) {
+						generator.generateId();
+					}
+					finished.countDown();
+				}
+			}.start();
+		}
+		long time = System.nanoTime();
+		start.countDown();
+		finished.await();
+		time = System.nanoTime() - time;
+		long ids = (long) threads * count;
+		log.info(name + ":", (time / ids), "ns/id |", (ids * 1000000000L / time), "ids/s");
+	}
+
+	private static String createLegacyUuid() {
+		char[] chars = "0123456789ABCDEF".toCharArray();
+		char[] uuid = new char[36];
+		uuid[8] = uuid[13] = uuid[18] = uuid[23] = '-';
+		uuid[14] = '4';
+		for (int i = 0; i < 36; i++) {
+			if (uuid[i] == 0) {
+				int r = (int) (Math.random() * 16);
+				uuid[i] = chars[(i == 19) ? (r & 0x3) | 0x8 : r & 0xf];
+			}
+		}
+		return new String(uuid);
+	}
+
+	private static class SynchronizedCountingIdGenerator implements IdGenerator {
+
+		private String prefix;
+		private int count;
+
+		public SynchronizedCountingIdGenerator(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public synchronized String generateId() {
+			return prefix + (++count);
+		}
+
+	}
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.id;
+
+import ilarkesto.core.base.Uuid;
+import ilarkesto.testng.ATest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+public class TimeOrderedIdGeneratorTest extends ATest {
+
+	@Test
+	public void sortable() {
+		TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator("e", 4);
+		List<String> ids = new ArrayList<String>();
+		for (int i = 0; i < 100000; i++) {
+			ids.add(generator.generateId());
+		}
+		List<String> sorted = new ArrayList<String>(ids);
+		Collections.sort(sorted);
+		assertEquals(sorted, ids);
+		assertEquals(new HashSet<String>(ids).size(), ids.size());
+		assertTrue(ids.get(0).startsWith("e"));
+		assertEquals(ids.get(0).length(), 1 + 11 + 4);
+
+		long time = TimeOrderedIdGenerator.getTime(ids.get(0), 1);
+		assertTrue(Math.abs(System.currentTimeMillis() - time) < 60000);
+	}
+
+	@Test
+	public void uuidWithThreadLocalRandom() {
+		Uuid.RandomSource original = Uuid.randomSource;
+		ThreadLocalRandomSource.install();
+		try {
+			Set<String> ids = new HashSet<String>();
+			for (int i = 0; i < 10000; i++) {
+				String id = Uuid.create();
+				assertEquals(id.length(), 36);
+				assertEquals(id.charAt(14), '4');
+				assertTrue("89AB".indexOf(id.charAt(19)) >= 0, id);
+				ids.add(id);
+			}
+			assertEquals(ids.size(), 10000);
+			assertEquals(Uuid.create(12, 10).length(), 12);
+			assertTrue(Uuid.create(12, 10).matches("[0-9]+"));
+		} finally {
+			Uuid.randomSource = original;
+		}
+	}
+
+}
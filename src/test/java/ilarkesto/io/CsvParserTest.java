@@ -0,0 +1,127 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io;
+
+import ilarkesto.testng.ATest;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.annotations.Test;
+
+public class CsvParserTest extends ATest {
+
+	@Test
+	public void quoted() {
+		CsvParser parser = new CsvParser(new StringReader(
+				"\"a\",,\"b \"\"c\"\"\",\"multi\nline\"\r\n\r\n\"x\\ty\",\"\",plain\n"), true);
+		assertEquals(parser.nextRecord(), Arrays.asList("a", null, "b \"c\"", "multi\nline"));
+		assertEquals(parser.nextRecord(), Arrays.asList("x\ty", "", "plain"));
+		assertNull(parser.nextRecord());
+	}
+
+	@Test
+	public void unquoted() {
+		CsvParser parser = new CsvParser(new StringReader("header\n1;2;;3\n4;5;6;7"), false).setSeparator(';');
+		assertEquals(parser.skipLine(), "header");
+		assertEquals(parser.nextRecord(), Arrays.asList("1", "2", "", "3"));
+		CsvRecord record = parser.nextRecordView();
+		assertEquals(record.size(), 4);
+		assertEquals(record.getInt(0), 4);
+		assertEquals(record.getLong(3), 7);
+		assertEquals(record.get(1).toString(), "5");
+		assertNull(parser.nextRecordView());
+	}
+
+	@Test
+	public void mapper() {
+		CsvParser parser = new CsvParser(new StringReader("name,age,score,active,level\nAnna,31,1.5,true,HIGH\nBob,,2,0,\n"),
+				false);
+		CsvMapper<Person> mapper = new CsvMapper<Person>(Person.class).mapHeaders(parser.nextRecordView());
+		List<Person> persons = mapper.readAll(parser);
+		assertEquals(persons.size(), 2);
+		assertEquals(persons.get(0).name, "Anna");
+		assertEquals(persons.get(0).age, 31);
+		assertEquals(persons.get(0).score, 1.5);
+		assertTrue(persons.get(0).active);
+		assertEquals(persons.get(0).level, Level.HIGH);
+		assertEquals(persons.get(1).age, 0);
+		assertFalse(persons.get(1).active);
+		assertNull(persons.get(1).level);
+	}
+
+	@Test
+	public void parallel() {
+		File file = getTestOutputFile("parallel.csv");
+		StringBuilder sb = new StringBuilder("\"id\",\"text\"\n");
+		long expectedSum = 0;
+		for (int i = 0; i < 10000; i++) {
+			sb.append('"').append(i).append("\",\"line\nbreak ").append(i).append("\"\r\n");
+			expectedSum += i;
+		}
+		IO.writeFile(file, sb.toString(), IO.UTF_8);
+
+		final AtomicInteger count = new AtomicInteger();
+		final AtomicLong sum = new AtomicLong();
+		ParallelCsvParser parser = new ParallelCsvParser(file, IO.UTF_8, true).setThreadCount(4).setSkipLines(1);
+		parser.parse(new ParallelCsvParser.RecordHandler() {
+
+			@Override
+			public void onRecord(CsvRecord record) {
+				count.incrementAndGet();
+				sum.addAndGet(record.getLong(0));
+				assertEquals(record.getString(1), "line\nbreak " + record.getLong(0));
+			}
+		});
+		assertEquals(count.get(), 10000);
+		assertEquals(sum.get(), expectedSum);
+	}
+
+	@Test
+	public void writer() {
+		StringWriter out = new StringWriter();
+		CsvWriter writer = new CsvWriter(out).setAutoFlush(false);
+		writer.writeRecord(Arrays.asList("a", "b \"c\""));
+		writer.writeField(null);
+		writer.writeField(1);
+		writer.closeRecord();
+		writer.close();
+		assertEquals(out.toString(), "\"a\",\"b \"\"c\"\"\"\r\n,\"1\"\r\n");
+
+		CsvParser parser = new CsvParser(new StringReader(out.toString()), true);
+		assertEquals(parser.nextRecord(), Arrays.asList("a", "b \"c\""));
+		assertEquals(parser.nextRecord(), Arrays.asList(null, "1"));
+	}
+
+	public static class Person {
+
+		private String name;
+		private int age;
+		private double score;
+		private boolean active;
+		private Level level;
+
+	}
+
+	public static enum Level {
+		LOW, HIGH
+	}
+
+}
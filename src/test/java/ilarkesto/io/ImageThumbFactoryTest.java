@@ -0,0 +1,168 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io;
+
+import ilarkesto.io.ImageThumbFactory.AwtQuadratizeAndLimitSizeThumbCreator;
+import ilarkesto.io.ImageThumbFactory.ThumbCreator;
+import ilarkesto.testng.ATest;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+public class ImageThumbFactoryTest extends ATest {
+
+	@Test
+	public void coalescing() throws InterruptedException {
+		File dir = getTestOutputFile("coalescing");
+		IO.delete(dir);
+		File imageFile = createImage(new File(dir, "image.png"), 800, 600);
+
+		final AtomicInteger createCount = new AtomicInteger();
+		final ThumbCreator creator = new AwtQuadratizeAndLimitSizeThumbCreator();
+		final ImageThumbFactory factory = new ImageThumbFactory(new File(dir, "thumbs"), new ThumbCreator() {
+
+			@Override
+			public void createThumb(File imageFile, File thumbFile, int size) {
+				createCount.incrementAndGet();
+				creator.createThumb(imageFile, thumbFile, size);
+			}
+		}).setWorkerCount(2).setPregenerationSizes(50, 100);
+
+		final File image = imageFile;
+		final File[] thumbs = new File[8];
+		final CountDownLatch finished = new CountDownLatch(thumbs.length);
+		for (int i = 0; i < thumbs.length; i++) {
+			final int index = i;
+			new Thread() {
+
+				@Override
+				public void run() {
+					thumbs[index] = factory.getThumb(image, "test", 100);
+					finished.countDown();
+				}
+			}.start();
+		}
+		finished.await();
+
+		File thumb100 = new File(dir, "thumbs/test/100/image.png");
+		for (File thumb : thumbs) {
+			assertEquals(thumb, thumb100);
+		}
+		assertEquals(Awt.loadImage(thumb100).getWidth(), 100);
+
+		File thumb50 = factory.getThumb(image, "test", 50);
+		assertEquals(Awt.loadImage(thumb50).getWidth(), 50);
+		assertEquals(createCount.get(), 2);
+
+		factory.getThumb(image, "test", 100);
+		assertEquals(createCount.get(), 2);
+		factory.shutdown();
+	}
+
+	@Test
+	public void requestedBeforePregeneration() throws Exception {
+		File dir = getTestOutputFile("requestedBeforePregeneration");
+		IO.delete(dir);
+		File imageA = createImage(new File(dir, "a.png"), 10, 10);
+		File imageB = createImage(new File(dir, "b.png"), 10, 10);
+
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final List<String> created = Collections.synchronizedList(new ArrayList<String>());
+		ImageThumbFactory factory = new ImageThumbFactory(new File(dir, "thumbs"), new ThumbCreator() {
+
+			@Override
+			public void createThumb(File imageFile, File thumbFile, int size) {
+				try {
+					blocked.await();
+				} catch (InterruptedException ex) {
+					throw new RuntimeException(ex);
+				}
+				created.add(imageFile.getName() + size);
+				IO.writeFile(thumbFile, "thumb", IO.UTF_8);
+			}
+		}).setWorkerCount(1).setPregenerationSizes(10, 20, 30);
+
+		Future<File> a = factory.getThumbAsync(imageA, "test", "a", 100);
+		Future<File> b = factory.getThumbAsync(imageB, "test", "b", 100);
+		Future<File> a30 = factory.getThumbAsync(imageA, "test", "a", 30);
+		blocked.countDown();
+		a.get();
+		b.get();
+		a30.get();
+		assertEquals(created.subList(0, 3), Arrays.asList("a.png100", "b.png100", "a.png30"));
+		factory.shutdown();
+	}
+
+	@Test
+	public void shutdownCancelsWaiting() throws Exception {
+		File dir = getTestOutputFile("shutdownCancelsWaiting");
+		IO.delete(dir);
+		File imageA = createImage(new File(dir, "a.png"), 10, 10);
+		File imageB = createImage(new File(dir, "b.png"), 10, 10);
+
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch blocked = new CountDownLatch(1);
+		ImageThumbFactory factory = new ImageThumbFactory(new File(dir, "thumbs"), new ThumbCreator() {
+
+			@Override
+			public void createThumb(File imageFile, File thumbFile, int size) {
+				started.countDown();
+				try {
+					blocked.await();
+				} catch (InterruptedException ex) {
+					throw new RuntimeException(ex);
+				}
+				IO.writeFile(thumbFile, "thumb", IO.UTF_8);
+			}
+		}).setWorkerCount(1);
+
+		factory.getThumbAsync(imageA, "test", "a", 100);
+		Future<File> b = factory.getThumbAsync(imageB, "test", "b", 100);
+		started.await();
+		factory.shutdown();
+		assertTrue(b.isCancelled());
+
+		blocked.countDown();
+		assertEquals(factory.getThumb(imageB, "test", "b", 100), new File(dir, "thumbs/test/100/b.png"));
+		factory.shutdown();
+	}
+
+	@Test
+	public void subsampled() {
+		File file = createImage(getTestOutputFile("subsampled.png"), 1000, 400);
+		BufferedImage image = Awt.loadImageSubsampled(file, 100);
+		assertEquals(image.getWidth(), 250);
+		assertEquals(image.getHeight(), 100);
+	}
+
+	private File createImage(File file, int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int x = 0; x < width; x++) {
+			image.setRGB(x, x * height / width, 0xff0000);
+		}
+		Awt.writeImage(image, "PNG", file);
+		return file;
+	}
+
+}
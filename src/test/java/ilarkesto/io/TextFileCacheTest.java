@@ -0,0 +1,93 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io;
+
+import ilarkesto.concurrent.TaskManager;
+import ilarkesto.core.base.OperationObserver;
+import ilarkesto.testng.ATest;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+public class TextFileCacheTest extends ATest {
+
+	@Test
+	public void singleFlight() throws InterruptedException {
+		IO.delete(getTestOutputFile("singleFlight"));
+		final AtomicInteger loadCount = new AtomicInteger();
+		final TextFileCache cache = new TextFileCache(getTestFileStorage("singleFlight"), new TextFileCache.Loader() {
+
+			@Override
+			public String load(String key, OperationObserver operationObserver) {
+				loadCount.incrementAndGet();
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException ex) {
+					throw new RuntimeException(ex);
+				}
+				return "text " + key;
+			}
+		});
+
+		final CountDownLatch finished = new CountDownLatch(4);
+		final String[] results = new String[4];
+		for (int i = 0; i < 4; i++) {
+			final int index = i;
+			new Thread() {
+
+				@Override
+				public void run() {
+					results[index] = cache.load("a", OperationObserver.DUMMY);
+					finished.countDown();
+				}
+			}.start();
+		}
+		finished.await();
+
+		assertEquals(loadCount.get(), 1);
+		for (String result : results) {
+			assertEquals(result, "text a");
+		}
+		assertEquals(cache.loadFromCache("a", OperationObserver.DUMMY), "text a");
+		cache.delete("a");
+		assertNull(cache.loadFromCache("a", OperationObserver.DUMMY));
+	}
+
+	@Test
+	public void staleWhileRevalidate() throws InterruptedException {
+		TaskManager taskManager = createTaskManager();
+		IO.delete(getTestOutputFile("staleWhileRevalidate"));
+		final AtomicInteger version = new AtomicInteger();
+		TextFileCache cache = new TextFileCache(getTestFileStorage("staleWhileRevalidate"), new TextFileCache.Loader() {
+
+			@Override
+			public String load(String key, OperationObserver operationObserver) {
+				return key + version.incrementAndGet();
+			}
+		}).setStaleWhileRevalidate(taskManager, 0);
+
+		assertEquals(cache.load("a", OperationObserver.DUMMY), "a1");
+		Thread.sleep(10);
+		assertEquals(cache.load("a", OperationObserver.DUMMY), "a1");
+		for (int i = 0; i < 50 && version.get() < 2; i++) {
+			Thread.sleep(20);
+		}
+		taskManager.shutdown(1000);
+		assertEquals(cache.loadFromCache("a", OperationObserver.DUMMY), "a2");
+	}
+
+}
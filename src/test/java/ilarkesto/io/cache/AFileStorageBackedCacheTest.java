@@ -15,6 +15,7 @@
 package ilarkesto.io.cache;
 
 import ilarkesto.base.Utl;
+import ilarkesto.concurrent.TaskManager;
 import ilarkesto.core.base.OperationObserver;
 import ilarkesto.io.AFileStorage;
 import ilarkesto.io.IO;
@@ -44,10 +45,36 @@ public class AFileStorageBackedCacheTest extends ATest {
 		assertEquals(cache.getValue(), "b");
 	}
 
+	@Test
+	public void revalidating() throws InterruptedException {
+		TaskManager taskManager = createTaskManager();
+		IO.delete(getTestOutputFile("revalidating"));
+		remoteValue = "a";
+		Cache cache = new Cache("revalidating");
+		cache.update(observer);
+
+		remoteValue = "b";
+		assertEquals(cache.getValueRevalidating(taskManager, 60000), "a");
+		Thread.sleep(100);
+		assertEquals(cache.getValue(), "a");
+
+		Thread.sleep(10);
+		assertEquals(cache.getValueRevalidating(taskManager, 0), "a");
+		for (int i = 0; i < 50 && !"b".equals(cache.getValue()); i++) {
+			Thread.sleep(20);
+		}
+		taskManager.shutdown(1000);
+		assertEquals(cache.getValue(), "b");
+	}
+
 	class Cache extends AFileStorageBackedCache<String> {
 
 		public Cache() {
-			super(getTestFileStorage("cache"));
+			this("cache");
+		}
+
+		public Cache(String name) {
+			super(getTestFileStorage(name));
 		}
 
 		@Override
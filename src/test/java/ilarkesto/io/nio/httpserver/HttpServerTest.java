@@ -0,0 +1,107 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io.nio.httpserver;
+
+import ilarkesto.io.IO;
+import ilarkesto.testng.ATest;
+import ilarkesto.testng.TestHttpServer;
+
+import java.io.OutputStream;
+import java.net.Socket;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class HttpServerTest extends ATest {
+
+	private TestHttpServer server;
+
+	@BeforeClass
+	public void startServer() {
+		server = createHttpServer(1);
+		server.getServer().setMaxRequestBodySize(100);
+		server.getServer().addRequestHandler(new HttpRequestHandler() {
+
+			@Override
+			public boolean onHttpRequest(HttpRequest request) {
+				if (request.getUri().startsWith("/fail")) throw new RuntimeException("handler failed");
+				if (!request.getUri().startsWith("/echo")) return false;
+				request.sendResponse(HttpStatusCode.OK, "text/plain",
+					"[" + request.getMethod() + " " + request.getUri() + " " + request.getBodyAsString() + "]");
+				return true;
+			}
+		});
+		server.start(createTaskManager());
+	}
+
+	@AfterClass
+	public void stopServer() {
+		server.stop();
+	}
+
+	@Test
+	public void pipelining() throws Exception {
+		String response = request("GET /echo/a HTTP/1.1\r\nHost: x\r\n\r\n"
+				+ "POST /echo/b HTTP/1.1\r\nContent-Length: 5\r\n\r\nhello"
+				+ "POST /echo/c HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n3\r\nabc\r\n2;ext=1\r\nde\r\n0\r\n\r\n"
+				+ "GET /missing HTTP/1.1\r\n\r\n" + "GET /echo/d HTTP/1.1\r\nConnection: close\r\n\r\n");
+
+		int a = response.indexOf("[GET /echo/a ]");
+		int b = response.indexOf("[POST /echo/b hello]");
+		int c = response.indexOf("[POST /echo/c abcde]");
+		int missing = response.indexOf("404 Not Found");
+		int d = response.indexOf("[GET /echo/d ]");
+		assertTrue(a > 0);
+		assertTrue(b > a);
+		assertTrue(c > b);
+		assertTrue(missing > c);
+		assertTrue(d > missing);
+		assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"));
+	}
+
+	@Test
+	public void http10() throws Exception {
+		String response = request("GET /echo/x HTTP/1.0\r\n\r\n");
+		assertTrue(response.contains("connection: close"));
+		assertTrue(response.endsWith("[GET /echo/x ]"));
+	}
+
+	@Test
+	public void bodyTooLarge() throws Exception {
+		String response = request("POST /echo HTTP/1.1\r\nContent-Length: 1000\r\n\r\n");
+		assertTrue(response.startsWith("HTTP/1.1 413 "));
+	}
+
+	@Test
+	public void handlerFails() throws Exception {
+		String response = request("GET /fail HTTP/1.1\r\n\r\nGET /echo/after HTTP/1.1\r\n\r\n");
+		assertTrue(response.startsWith("HTTP/1.1 500 "));
+		assertTrue(response.contains("connection: close"));
+		assertFalse(response.contains("[GET /echo/after ]"));
+	}
+
+	private String request(String request) throws Exception {
+		Socket socket = new Socket("localhost", server.getPort());
+		socket.setSoTimeout(5000);
+		OutputStream out = socket.getOutputStream();
+		out.write(request.getBytes("ISO-8859-1"));
+		out.flush();
+		String response = IO.readToString(socket.getInputStream(), "ISO-8859-1");
+		socket.close();
+		return response;
+	}
+
+}
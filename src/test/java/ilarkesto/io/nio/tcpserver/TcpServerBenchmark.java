@@ -0,0 +1,117 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io.nio.tcpserver;
+
+import ilarkesto.concurrent.TaskManager;
+import ilarkesto.core.logging.Log;
+import ilarkesto.di.Context;
+
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Echo throughput of <code>TcpServer</code> with <code>EchoDataHandler</code> for a growing number of workers. Not
+ * a test, run manually: <code>TcpServerBenchmark [clients] [seconds] [handlerMicros]</code>. With
+ * <code>handlerMicros</code> each received chunk costs that much handler time, like a real protocol would.
+ */
+public class TcpServerBenchmark {
+
+	private static final Log log = Log.get(TcpServerBenchmark.class);
+
+	private static final int MESSAGE_SIZE = 4096;
+
+	public static void main(String[] args) throws Exception {
+		int clients = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		int handlerMicros = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+		Context.createRootContext(TcpServerBenchmark.class.getSimpleName());
+		TaskManager taskManager = new TaskManager();
+		int port = 19100;
+		int maxWorkers = Math.max(4, Runtime.getRuntime().availableProcessors());
+		run(taskManager, port++, 1, clients, 1, handlerMicros); // warmup
+		for (int workers = 1; workers <= maxWorkers; workers *= 2) {
+			run(taskManager, port++, workers, clients, seconds, handlerMicros);
+		}
+		taskManager.shutdown(1000);
+	}
+
+	private static void run(TaskManager taskManager, int port, int workers, int clientCount, int seconds,
+			int handlerMicros) throws Exception {
+		TcpServer server = new TcpServer(port, new BusyEchoDataHandler(handlerMicros), workers);
+		server.start(taskManager);
+		Thread.sleep(200);
+
+		final AtomicLong bytes = new AtomicLong();
+		final long endTime = System.currentTimeMillis() + seconds * 1000;
+		List<Thread> threads = new ArrayList<Thread>(clientCount);
+		for (int i = 0; i < clientCount; i++) {
+			final Socket socket = new Socket("localhost", port);
+			socket.setTcpNoDelay(true);
+			Thread thread = new Thread() {
+
+				@Override
+				public void run() {
+					try {
+						byte[] message = new byte[MESSAGE_SIZE];
+						OutputStream out = socket.getOutputStream();
+						DataInputStream in = new DataInputStream(socket.getInputStream());
+						while (System.currentTimeMillis() < endTime) {
+							out.write(message);
+							out.flush();
+							in.readFully(message);
+							bytes.addAndGet(MESSAGE_SIZE);
+						}
+						socket.close();
+					} catch (Exception ex) {
+						throw new RuntimeException(ex);
+					}
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		server.stop();
+
+		log.info(workers, "workers |", clientCount, "clients |", handlerMicros, "us/chunk |",
+			(bytes.get() / seconds / 1024 / 1024), "MB/s");
+	}
+
+	private static class BusyEchoDataHandler extends EchoDataHandler {
+
+		private long handlerNanos;
+
+		public BusyEchoDataHandler(int handlerMicros) {
+			super();
+			this.handlerNanos = handlerMicros * 1000L;
+		}
+
+		@Override
+		public void onDataReceived(ServerDataEvent event) {
+			long end = System.nanoTime() + handlerNanos;
+			while (System.nanoTime() < end) {}
+			super.onDataReceived(event);
+		}
+
+	}
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.json;
+
+import ilarkesto.core.logging.Log;
+import ilarkesto.core.persistance.AEntity;
+import ilarkesto.core.time.Date;
+import ilarkesto.core.time.DateAndTime;
+import ilarkesto.json.JsonMapper.TypeResolver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Serializes and deserializes an entity-like object with <code>JsonMapper</code>. Not a test, run manually:
+ * <code>JsonMapperBenchmark [iterations]</code>
+ */
+public class JsonMapperBenchmark {
+
+	private static final Log log = Log.get(JsonMapperBenchmark.class);
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+		Task task = new Task();
+		task.setId("2B1C2D9E-0E0A-4C1F-8B1A-3C5D6E7F8A9B");
+		task.label = "Implement the thing with a rather long label";
+		task.description = "Some description\nwith \"quotes\" and line breaks";
+		task.projectId = "8F0E1D2C-3B4A-5968-7A6B-5C4D3E2F1A0B";
+		task.ownerId = "1A2B3C4D-5E6F-7081-92A3-B4C5D6E7F809";
+		task.number = 4711;
+		task.burnedWork = 12;
+		task.remainingWork = 3;
+		task.closed = false;
+		task.dueDate = new Date(2015, 6, 1);
+		task.created = new DateAndTime(2015, 5, 1, 12, 0, 0);
+		task.tagIds = new ArrayList<String>(Arrays.asList("a", "b", "c"));
+
+		String json = JsonMapper.serialize(task);
+
+		// warmup
+		run(task, json, iterations / 4);
+		run(task, json, iterations);
+	}
+
+	private static void run(Task task, String json, int iterations) throws Exception {
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			JsonMapper.serialize(task);
+		}
+		long serializeTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			JsonMapper.deserialize(json, Task.class, TYPE_RESOLVER);
+		}
+		long deserializeTime = System.nanoTime() - start;
+
+		log.info(iterations, "iterations | serialize:", (serializeTime / iterations), "ns/op | deserialize:",
+			(deserializeTime / iterations), "ns/op");
+	}
+
+	public static class Task extends AEntity {
+
+		private String label;
+		private String description;
+		private String projectId;
+		private String ownerId;
+		private int number;
+		private int burnedWork;
+		private int remainingWork;
+		private boolean closed;
+		private Date dueDate;
+		private DateAndTime created;
+		private List<String> tagIds;
+
+		@Override
+		protected String asString() {
+			return label;
+		}
+	}
+
+	private static final TypeResolver TYPE_RESOLVER = new TypeResolver() {
+
+		@Override
+		public Class resolveArrayType(Object object, String field) {
+			return String.class;
+		}
+	};
+
+}
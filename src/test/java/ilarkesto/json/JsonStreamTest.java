@@ -0,0 +1,107 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.json;
+
+import ilarkesto.testng.ATest;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+public class JsonStreamTest extends ATest {
+
+	@Test
+	public void write() {
+		StringWriter sw = new StringWriter();
+		JsonStreamWriter out = new JsonStreamWriter(sw);
+		out.beginObject().field("name", "a\"b").name("items").beginArray();
+		out.value(1).value(object("x", true)).beginArray().endArray();
+		out.endArray().field("none", null).name("empty").beginObject().endObject().endObject().close();
+		assertEquals(sw.toString(), "{\"name\":\"a\\\"b\",\"items\":[1,{\"x\":true},[]],\"none\":null,\"empty\":{}}");
+	}
+
+	@Test
+	public void writeFormated() {
+		JsonObject json = new JsonObject();
+		json.put("name", "a");
+		json.put("child", object("items", Arrays.asList(object("b", 1))));
+
+		StringWriter sw = new StringWriter();
+		new JsonStreamWriter(sw, true).value(json).close();
+		assertEquals(sw.toString(), json.toFormatedString());
+
+		sw = new StringWriter();
+		JsonStreamWriter out = new JsonStreamWriter(sw, true);
+		out.beginObject().field("name", "a").name("child").value(json.getObject("child")).endObject().close();
+		assertEquals(sw.toString(), json.toFormatedString());
+	}
+
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void valueWithoutName() {
+		new JsonStreamWriter(new StringWriter()).beginObject().value("x");
+	}
+
+	@Test
+	public void read() {
+		String s = "{\"type\":\"import\",\"meta\":{\"a\":[1,2]},\"items\":[{\"id\":1,\"tags\":[\"x\"]},{\"id\":2},3,[4]],\"n\":null}";
+		final List<String> events = new ArrayList<String>();
+		new JsonStreamReader(new StringReader(s)).read(new JsonStreamReader.ElementHandler() {
+
+			@Override
+			public void onAttribute(String name, Object value) {
+				events.add(name + "=" + value);
+			}
+
+			@Override
+			public void onArrayElement(String name, Object element) {
+				events.add(name + "[]" + element);
+			}
+		});
+		assertEquals(events, Arrays.asList("type=import", "meta={\"a\":[1,2]}", "items[]{\"id\":1,\"tags\":[\"x\"]}",
+			"items[]{\"id\":2}", "items[]3", "items[][4]", "n=null"));
+	}
+
+	@Test
+	public void readRootArray() {
+		final List<Object> elements = new ArrayList<Object>();
+		new JsonStreamReader(new StringReader("[{\"a\":{\"b\":1}},\"x\"]")).read(new JsonStreamReader.ElementHandler() {
+
+			@Override
+			public void onAttribute(String name, Object value) {
+				fail("Unexpected attribute " + name);
+			}
+
+			@Override
+			public void onArrayElement(String name, Object element) {
+				assertNull(name);
+				elements.add(element);
+			}
+		});
+		assertEquals(elements.size(), 2);
+		assertEquals(((JsonObject) elements.get(0)).getObject("a").getInteger("b"), Integer.valueOf(1));
+		assertEquals(elements.get(1), "x");
+	}
+
+	private static JsonObject object(String name, Object value) {
+		JsonObject json = new JsonObject();
+		json.put(name, value);
+		return json;
+	}
+
+}
@@ -4,6 +4,7 @@ import ilarkesto.core.base.Utl;
 import ilarkesto.testng.ATest;
 
 import java.io.PrintWriter;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.math.BigDecimal;
 import java.util.List;
@@ -142,6 +143,26 @@ public class JsonTest extends ATest {
 		assertEquals(JsonObject.parse("{\"a\":\"v\",}").toString(), "{\"a\":\"v\"}");
 	}
 
+	@Test
+	public void parseReader() {
+		String json = "{\"a\":\"new\\nline \\\"q\\\"\",\"b\":5,\"c\":2.5,\"d\":[1,[],{\"e\":null}],\"f\":{\"g\":true}}";
+		JsonObject jo = JsonObject.parse(new StringReader(json));
+		assertEquals(jo, JsonObject.parse(json));
+		assertEquals(jo.toString(), json);
+		assertSame(jo.getObject("f").getParent(), jo);
+		assertEquals(JsonObject.parse(new StringReader(" \n ")).toString(), "{}");
+	}
+
+	@Test
+	public void printEscapedString() {
+		String s = "a\\b\"c\bd\fe\nf\rg\th";
+		StringWriter sw = new StringWriter();
+		PrintWriter out = new PrintWriter(sw);
+		Json.printEscapedString(s, out);
+		out.flush();
+		assertEquals(sw.toString(), Json.escapeString(s));
+	}
+
 	@Test
 	public void getParent() {
 		JsonObject witek = new JsonObject();
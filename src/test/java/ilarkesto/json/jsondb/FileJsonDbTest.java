@@ -0,0 +1,184 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.json.jsondb;
+
+import ilarkesto.io.AFileStorage;
+import ilarkesto.io.IO;
+import ilarkesto.json.JsonObject;
+import ilarkesto.testng.ATest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+public class FileJsonDbTest extends ATest {
+
+	@Test
+	public void query() {
+		FileJsonDb db = createDb("query");
+		db.saveDocument(city("Berlin", "DE", 3500000));
+		db.saveDocument(city("Hamburg", "DE", 1800000));
+		db.saveDocument(city("Paris", "FR", 2100000));
+
+		List<JsonObject> result = db.query(new DocumentQuery().whereEquals("/address/country", "DE").select(
+			"/name", "/address/country"));
+		assertEquals(result.size(), 2);
+		JsonObject first = result.get(0);
+		assertNull(first.get("population"));
+		assertEquals(first.getObject("address").getString("country"), "DE");
+
+		result = db.query(new DocumentQuery().where("/population", new FieldPredicate() {
+
+			@Override
+			public boolean matches(Object value) {
+				return value != null && ((Number) value).longValue() > 2000000;
+			}
+		}));
+		assertEquals(result.size(), 2);
+
+		assertEquals(db.query(new DocumentQuery().whereEquals("/missing", null)).size(), 3);
+		assertEquals(db.query(new DocumentQuery().whereEquals("/address", "DE")).size(), 0);
+	}
+
+	@Test
+	public void projectMissingField() {
+		JsonObject document = city("Berlin", "DE", 3500000);
+		JsonObject projected = new DocumentQuery().select("/name", "/mayor", "/address/zip").project(document);
+		assertEquals(projected.getString("name"), "Berlin");
+		assertFalse(projected.contains("mayor"));
+		assertFalse(projected.contains("address"));
+	}
+
+	@Test
+	public void index() {
+		FileJsonDb db = createDb("index");
+		db.saveDocument(city("Berlin", "DE", 3500000));
+		JsonObject paris = city("Paris", "FR", 2100000);
+		db.saveDocument(paris);
+
+		db.addFieldIndex("/address/country");
+		db.saveDocument(city("Hamburg", "DE", 1800000));
+		assertEquals(db.query(new DocumentQuery().whereEquals("/address/country", "DE")).size(), 2);
+
+		db.deleteDocument(paris);
+		assertEquals(db.query(new DocumentQuery().whereEquals("/address/country", "FR")).size(), 0);
+		db.close();
+
+		db = new FileJsonDb(getTestFileStorage("index"));
+		DocumentFieldIndex index = db.addFieldIndex("/address/country");
+		assertEquals(index.getIds("DE").size(), 2);
+		assertEquals(db.query(new DocumentQuery().whereEquals("/population", 1800000)).size(), 1);
+	}
+
+	@Test
+	public void indexNotPersistedOnSave() {
+		FileJsonDb db = createDb("indexNotPersistedOnSave");
+		db.addFieldIndex("/address/country");
+		db.saveDocument(city("Berlin", "DE", 3500000));
+		File indexFile = getTestOutputFile("indexNotPersistedOnSave/_index/%2Faddress%2Fcountry.json");
+		assertFalse(indexFile.exists());
+		db.flushIndexes();
+		assertTrue(indexFile.exists());
+
+		// first change deletes the persisted index, like after a crash it is rebuilt
+		db.saveDocument(city("Hamburg", "DE", 1800000));
+		assertFalse(indexFile.exists());
+		db = new FileJsonDb(getTestFileStorage("indexNotPersistedOnSave"));
+		assertEquals(db.addFieldIndex("/address/country").getIds("DE").size(), 2);
+		db.close();
+
+		// documents changed without the index
+		new FileJsonDb(getTestFileStorage("indexNotPersistedOnSave")).saveDocument(city("Munich", "DE", 1500000));
+		db = new FileJsonDb(getTestFileStorage("indexNotPersistedOnSave"));
+		assertEquals(db.addFieldIndex("/address/country").getIds("DE").size(), 3);
+	}
+
+	@Test
+	public void typedEquality() {
+		FileJsonDb scanDb = createDb("typedEquality");
+		JsonObject document = new JsonObject();
+		document.put("_id", "d1");
+		document.put("code", "1");
+		document.put("number", 1);
+		document.put("flag", true);
+		document.putNewObject("object").put("a", 1);
+		scanDb.saveDocument(document);
+		FileJsonDb indexDb = new FileJsonDb(getTestFileStorage("typedEquality"));
+		indexDb.addFieldIndex("/code");
+		indexDb.addFieldIndex("/number");
+		indexDb.addFieldIndex("/flag");
+		indexDb.addFieldIndex("/object");
+		indexDb.addFieldIndex("/missing");
+
+		for (FileJsonDb db : new FileJsonDb[] { scanDb, indexDb }) {
+			assertEquals(db.query(new DocumentQuery().whereEquals("/code", "1")).size(), 1);
+			assertEquals(db.query(new DocumentQuery().whereEquals("/code", 1)).size(), 0);
+			assertEquals(db.query(new DocumentQuery().whereEquals("/number", 1.0)).size(), 1);
+			assertEquals(db.query(new DocumentQuery().whereEquals("/number", "1")).size(), 0);
+			assertEquals(db.query(new DocumentQuery().whereEquals("/flag", true)).size(), 1);
+			assertEquals(db.query(new DocumentQuery().whereEquals("/flag", "true")).size(), 0);
+			assertEquals(db.query(new DocumentQuery().whereEquals("/object", null)).size(), 0);
+			assertEquals(db.query(new DocumentQuery().whereEquals("/missing", null)).size(), 1);
+		}
+	}
+
+	@Test
+	public void loadDocumentsByIds() {
+		FileJsonDb db = createDb("loadDocumentsByIds");
+		db.addFieldIndex("/address/country");
+		List<JsonObject> cities = new ArrayList<JsonObject>();
+		List<String> ids = new ArrayList<String>();
+		for (int i = 0; i < 20; i++) {
+			JsonObject city = city("city" + i, "DE", i);
+			city.put("_id", "c" + i);
+			cities.add(city);
+			ids.add("c" + i);
+		}
+		db.saveDocuments(cities);
+		ids.add(5, "missing");
+
+		List<JsonObject> documents = db.loadDocumentsByIds(ids);
+		assertEquals(documents.size(), 21);
+		assertNull(documents.get(5));
+		assertEquals(documents.get(6).getString("name"), "city5");
+		assertEquals(documents.get(20).getString("name"), "city19");
+		assertEquals(db.query(new DocumentQuery().whereEquals("/address/country", "DE")).size(), 20);
+	}
+
+	@Test
+	public void pointer() {
+		JsonObject document = new JsonObject();
+		document.putNewObject("a/b").put("c~d", 1);
+		assertEquals(DocumentQuery.resolve(document, "/a~1b/c~0d"), 1);
+		assertTrue(new DocumentQuery().whereEquals("/a~1b/c~0d", 1L).matches(document));
+	}
+
+	private FileJsonDb createDb(String name) {
+		IO.delete(getTestOutputFile(name));
+		AFileStorage storage = getTestFileStorage(name);
+		return new FileJsonDb(storage);
+	}
+
+	private static JsonObject city(String name, String country, long population) {
+		JsonObject city = new JsonObject();
+		city.put("name", name);
+		city.put("population", population);
+		city.putNewObject("address").put("country", country);
+		return city;
+	}
+
+}
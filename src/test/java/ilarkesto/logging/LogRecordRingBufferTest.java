@@ -0,0 +1,101 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.logging;
+
+import ilarkesto.core.logging.Log.Level;
+import ilarkesto.core.logging.LogRecord;
+import ilarkesto.testng.ATest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+public class LogRecordRingBufferTest extends ATest {
+
+	@Test
+	public void overflow() {
+		LogRecordRingBuffer buffer = new LogRecordRingBuffer(3);
+		assertEquals(buffer.getCapacity(), 4);
+		for (int i = 0; i < 4; i++) {
+			assertTrue(buffer.offer(record("p", i)));
+		}
+		assertFalse(buffer.offer(record("p", 4)));
+
+		List<LogRecord> records = new ArrayList<LogRecord>();
+		assertEquals(buffer.drainTo(records, 3), 3);
+		assertTrue(buffer.offer(record("p", 5)));
+		assertEquals(buffer.drainTo(records, 10), 2);
+		assertTrue(buffer.isEmpty());
+		assertEquals(records.get(3).parameters[1], 3);
+		assertEquals(records.get(4).parameters[1], 5);
+	}
+
+	@Test
+	public void concurrentProducers() throws InterruptedException {
+		final LogRecordRingBuffer buffer = new LogRecordRingBuffer(256);
+		final int producerCount = 4;
+		final int recordsPerProducer = 50000;
+		final AtomicInteger dropped = new AtomicInteger();
+		List<Thread> producers = new ArrayList<Thread>();
+		for (int p = 0; p < producerCount; p++) {
+			final String name = "p" + p;
+			Thread thread = new Thread() {
+
+				@Override
+				public void run() {
+					for (int i = 0; i < recordsPerProducer; i++) {
+						if (!buffer.offer(record(name, i))) dropped.incrementAndGet();
+					}
+				}
+			};
+			producers.add(thread);
+			thread.start();
+		}
+
+		int[] lastByProducer = new int[producerCount];
+		for (int p = 0; p < producerCount; p++) {
+			lastByProducer[p] = -1;
+		}
+		int consumed = 0;
+		List<LogRecord> batch = new ArrayList<LogRecord>();
+		while (true) {
+			boolean producing = false;
+			for (Thread thread : producers) {
+				if (thread.isAlive()) producing = true;
+			}
+			batch.clear();
+			buffer.drainTo(batch, 64);
+			for (LogRecord record : batch) {
+				int p = Integer.parseInt(record.name.substring(1));
+				int i = (Integer) record.parameters[1];
+				// order per producer is kept
+				assertTrue(i > lastByProducer[p]);
+				lastByProducer[p] = i;
+			}
+			consumed += batch.size();
+			if (!producing && batch.isEmpty() && buffer.isEmpty()) break;
+		}
+
+		assertEquals(consumed + dropped.get(), producerCount * recordsPerProducer);
+		assertEquals(buffer.getConsumedCount(), consumed);
+	}
+
+	private static LogRecord record(String name, int i) {
+		return new LogRecord(System.currentTimeMillis(), name, Level.INFO, "record", i);
+	}
+
+}
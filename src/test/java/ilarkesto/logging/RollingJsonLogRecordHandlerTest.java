@@ -0,0 +1,113 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.logging;
+
+import ilarkesto.core.logging.Log.Level;
+import ilarkesto.core.logging.LogRecord;
+import ilarkesto.io.IO;
+import ilarkesto.testng.ATest;
+
+import java.io.File;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+public class RollingJsonLogRecordHandlerTest extends ATest {
+
+	@Test
+	public void rolloverAndSearch() {
+		File dir = getTestOutputFile("rolloverAndSearch");
+		IO.delete(dir);
+		RollingJsonLogRecordHandler handler = new RollingJsonLogRecordHandler(dir, "app").setMaxSegmentSize(2000)
+				.setMaxSegments(100);
+		for (int i = 0; i < 500; i++) {
+			LogRecord record = new LogRecord(1000 + i, "test", i % 50 == 0 ? Level.ERROR : Level.INFO, "record", i,
+					"with \"quotes\"\nand lines");
+			record.context = "thread-" + (i % 3);
+			handler.log(record);
+			if (i % 10 == 0) handler.flush();
+		}
+		handler.close();
+
+		int compressed = 0;
+		for (File file : dir.listFiles()) {
+			if (file.getName().endsWith(".log.gz")) compressed++;
+		}
+		assertTrue(compressed > 5);
+		assertTrue(handler.getCurrentFile().exists());
+
+		List<LogRecord> tail = handler.tail(300);
+		assertEquals(tail.size(), 300);
+		for (int i = 0; i < tail.size(); i++) {
+			assertEquals(tail.get(i).time, 1000 + 499 - i);
+		}
+		assertEquals(tail.get(0).getParametersAsString(), " record 499 with \"quotes\"\nand lines");
+		assertEquals(tail.get(0).context, "thread-1");
+
+		List<LogRecord> errors = handler.search(null, Level.ERROR, 100);
+		assertEquals(errors.size(), 10);
+		assertEquals(errors.get(0).time, 1000 + 450);
+		assertEquals(errors.get(9).time, 1000);
+
+		List<LogRecord> found = handler.search("record 123 ", null, 10);
+		assertEquals(found.size(), 1);
+		assertEquals(found.get(0).time, 1123);
+		assertEquals(handler.search("\"quotes\"", null, 5).size(), 5);
+	}
+
+	@Test
+	public void maxSegments() {
+		File dir = getTestOutputFile("maxSegments");
+		IO.delete(dir);
+		RollingJsonLogRecordHandler handler = new RollingJsonLogRecordHandler(dir, "app").setMaxSegmentAge(10)
+				.setMaxSegments(3);
+		for (int i = 0; i < 20; i++) {
+			handler.log(new LogRecord(i * 100, "test", Level.INFO, "record", i));
+		}
+		handler.close();
+
+		// current segment and three rolled ones
+		assertEquals(dir.listFiles().length, 4);
+		List<LogRecord> tail = handler.tail(100);
+		assertEquals(tail.size(), 4);
+		assertEquals(tail.get(3).time, 1600);
+	}
+
+	@Test
+	public void reopen() {
+		File dir = getTestOutputFile("reopen");
+		IO.delete(dir);
+		RollingJsonLogRecordHandler handler = new RollingJsonLogRecordHandler(dir, "app").setMaxSegmentAge(100);
+		handler.log(new LogRecord(1000, "test", Level.INFO, "first"));
+		handler.close();
+		long length = handler.getCurrentFile().length();
+		handler.log(new LogRecord(1010, "test", Level.INFO, "after close"));
+		assertEquals(handler.getCurrentFile().length(), length);
+
+		// the segment started with the first record, not with the last modification
+		handler = new RollingJsonLogRecordHandler(dir, "app").setMaxSegmentAge(100).setMinLevel(Level.INFO);
+		handler.log(new LogRecord(1050, "test", Level.INFO, "second"));
+		handler.log(new LogRecord(1060, "test", Level.DEBUG, "debug"));
+		handler.log(new LogRecord(1150, "test", Level.INFO, "third"));
+		handler.close();
+
+		assertEquals(dir.listFiles().length, 2);
+		List<LogRecord> tail = handler.tail(10);
+		assertEquals(tail.size(), 3);
+		assertEquals(tail.get(0).time, 1150);
+		assertEquals(tail.get(1).time, 1050);
+	}
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.net;
+
+import ilarkesto.concurrent.TaskManager;
+import ilarkesto.core.logging.Log;
+import ilarkesto.di.Context;
+import ilarkesto.io.IO;
+import ilarkesto.io.nio.httpserver.HttpRequest;
+import ilarkesto.io.nio.httpserver.HttpRequestHandler;
+import ilarkesto.io.nio.httpserver.HttpServer;
+import ilarkesto.io.nio.httpserver.HttpStatusCode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of <code>ApacheHttpDownloader</code> against a local <code>HttpServer</code> which answers after a
+ * simulated latency. Compares the single client mode with the pooled mode for a growing number of threads. Not a
+ * test, run manually: <code>ApacheHttpDownloaderBenchmark [seconds] [latencyMillis]</code>
+ */
+public class ApacheHttpDownloaderBenchmark {
+
+	private static final Log log = Log.get(ApacheHttpDownloaderBenchmark.class);
+
+	private static final int PORT = 19300;
+
+	public static void main(String[] args) throws Exception {
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		final int latencyMillis = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		Context.createRootContext(ApacheHttpDownloaderBenchmark.class.getSimpleName());
+		TaskManager taskManager = new TaskManager();
+		HttpServer server = new HttpServer(PORT, "benchmark", 32);
+		server.addRequestHandler(new HttpRequestHandler() {
+
+			@Override
+			public boolean onHttpRequest(HttpRequest request) {
+				try {
+					Thread.sleep(latencyMillis);
+				} catch (InterruptedException ex) {
+					return false;
+				}
+				request.sendResponse(HttpStatusCode.OK, "text/plain", "hello");
+				return true;
+			}
+		});
+		server.start(taskManager);
+		Thread.sleep(200);
+
+		for (int threads = 1; threads <= 16; threads *= 2) {
+			run(new ApacheHttpDownloader(), threads, seconds);
+			ApacheHttpDownloader pooled = new ApacheHttpDownloader().setConnectionPool(32, 32);
+			run(pooled, threads, seconds);
+			pooled.shutdown();
+		}
+
+		server.stop();
+		taskManager.shutdown(1000);
+	}
+
+	private static void run(final ApacheHttpDownloader downloader, int threadCount, int seconds)
+			throws InterruptedException {
+		final AtomicLong requests = new AtomicLong();
+		final long endTime = System.currentTimeMillis() + seconds * 1000;
+		List<Thread> threads = new ArrayList<Thread>(threadCount);
+		for (int i = 0; i < threadCount; i++) {
+			Thread thread = new Thread() {
+
+				@Override
+				public void run() {
+					while (System.currentTimeMillis() < endTime) {
+						downloader.downloadText("http://localhost:" + PORT + "/", IO.UTF_8);
+						requests.incrementAndGet();
+					}
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		log.info(downloader.isPooled() ? "pooled" : "single", "|", threadCount, "threads |",
+			(requests.get() / seconds), "requests/s |", downloader.getLatencies());
+	}
+
+}
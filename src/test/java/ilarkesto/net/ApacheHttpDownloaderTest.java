@@ -0,0 +1,67 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.net;
+
+import ilarkesto.io.IO;
+import ilarkesto.io.nio.httpserver.HttpRequest;
+import ilarkesto.io.nio.httpserver.HttpRequestHandler;
+import ilarkesto.io.nio.httpserver.HttpStatusCode;
+import ilarkesto.testng.ATest;
+import ilarkesto.testng.TestHttpServer;
+
+import java.io.File;
+
+import org.testng.annotations.Test;
+
+public class ApacheHttpDownloaderTest extends ATest {
+
+	@Test(timeOut = 30000)
+	public void pooledFailedDownloadReleasesConnection() throws Exception {
+		TestHttpServer server = startHttpServer(2, new HttpRequestHandler() {
+
+			@Override
+			public boolean onHttpRequest(HttpRequest request) {
+				request.sendResponse(HttpStatusCode.OK, "text/plain", "content");
+				return true;
+			}
+		});
+
+		ApacheHttpDownloader downloader = new ApacheHttpDownloader().setConnectionPool(1, 1);
+		try {
+			File dir = getTestOutputFile("pooledFailedDownload");
+			IO.delete(dir);
+			File blocker = new File(dir, "blocker");
+			IO.writeFile(blocker, "file, not a directory", IO.UTF_8);
+			for (int i = 0; i < 3; i++) {
+				try {
+					downloader.downloadUrlToFile(server.getUrl() + "/a", new File(blocker, "a.txt"));
+					fail("Exception expected");
+				} catch (RuntimeException ex) {
+					// writing failed
+				}
+			}
+			assertEquals(downloader.getLeasedConnections(), 0);
+
+			File file = new File(dir, "b.txt");
+			downloader.downloadUrlToFile(server.getUrl() + "/b", file);
+			assertEquals(IO.readFile(file, IO.UTF_8), "content");
+			assertEquals(downloader.getLeasedConnections(), 0);
+		} finally {
+			downloader.shutdown();
+			server.stop();
+		}
+	}
+
+}
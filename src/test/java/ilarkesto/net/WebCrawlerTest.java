@@ -14,9 +14,16 @@
  */
 package ilarkesto.net;
 
+import ilarkesto.io.IO;
+import ilarkesto.io.nio.httpserver.HttpRequest;
+import ilarkesto.io.nio.httpserver.HttpRequestHandler;
+import ilarkesto.io.nio.httpserver.HttpStatusCode;
 import ilarkesto.testng.ATest;
+import ilarkesto.testng.TestHttpServer;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.testng.annotations.Test;
 
@@ -47,6 +54,14 @@ public class WebCrawlerTest extends ATest {
 			"http://koczewski.de/index.html");
 	}
 
+	@Test
+	public void concatUrlWithRelative() {
+		assertEquals(WebCrawler.concatUrlWithRelative("http://koczewski.de/a/b.html", "c.html"),
+			"http://koczewski.de/a/c.html");
+		assertEquals(WebCrawler.concatUrlWithRelative("http://koczewski.de/a/b.html", "/c.html"),
+			"http://koczewski.de/c.html");
+	}
+
 	@Test
 	public void getBaseUrl() {
 		assertEquals("http://koczewski.de/", WebCrawler.getBaseUrl("http://koczewski.de"));
@@ -65,6 +80,117 @@ public class WebCrawlerTest extends ATest {
 		assertFalse(WebCrawler.isProbablyHtml("http://koczewski.de/image.png"));
 	}
 
+	@Test(timeOut = 60000)
+	public void crawlConcurrent() throws Exception {
+		final AtomicInteger active = new AtomicInteger();
+		final AtomicInteger maxActive = new AtomicInteger();
+		final AtomicInteger transferred = new AtomicInteger();
+		final AtomicInteger changedPage = new AtomicInteger(-1);
+		TestHttpServer server = startHttpServer(8, new HttpRequestHandler() {
+
+			@Override
+			public boolean onHttpRequest(HttpRequest request) {
+				int current = active.incrementAndGet();
+				if (current > maxActive.get()) maxActive.set(current);
+				try {
+					Thread.sleep(5);
+				} catch (InterruptedException ex) {}
+				active.decrementAndGet();
+				int page = Integer.parseInt(request.getUri().substring(request.getUri().lastIndexOf("/p") + 2));
+				String etag = page == changedPage.get() ? "v2" : "v1";
+				if (etag.equals(request.getHeader("If-None-Match"))) {
+					request.sendEmptyResponse(HttpStatusCode.NOT_MODIFIED);
+					return true;
+				}
+				transferred.incrementAndGet();
+				request.setResponseHeader("ETag", etag);
+				request.sendResponse(HttpStatusCode.OK, "text/html", "<a href=\"/p" + (page * 2 + 1)
+						+ "\">a</a><a href='/p" + (page * 2 + 2) + "'>b</a><a href=\"/p0\">start</a>");
+				return true;
+			}
+		});
+
+		final AtomicInteger notModified = new AtomicInteger();
+		WebCrawler wc = new WebCrawler();
+		wc.setHostDelay(0);
+		wc.setMaxConnectionsPerHost(2);
+		WebCrawler.Filter filter = new WebCrawler.Filter() {
+
+			@Override
+			public boolean accept(String url) {
+				return Integer.parseInt(url.substring(url.lastIndexOf("/p") + 2)) < 100;
+			}
+		};
+		wc.setFilter(filter);
+		IO.delete(OUTPUT_DIR + "/webcrawler-local");
+		wc.setConsumer(new WebCrawler.DownloadConsumer(OUTPUT_DIR + "/webcrawler-local", IO.UTF_8) {
+
+			@Override
+			public String onNotModified(String url) {
+				notModified.incrementAndGet();
+				return super.onNotModified(url);
+			}
+		});
+		try {
+			wc.crawl(server.getUrl() + "/p0");
+			assertEquals(wc.getCrawledUrlCount(), 100);
+			assertEquals(transferred.get(), 100);
+			assertTrue(maxActive.get() <= 2);
+
+			// unchanged pages are not transferred, their links are taken from the stored pages
+			changedPage.set(37);
+			wc.crawl(server.getUrl() + "/p0");
+			assertEquals(wc.getCrawledUrlCount(), 100);
+			assertEquals(notModified.get(), 99);
+			assertEquals(transferred.get(), 101);
+
+			// URLs which do not fit into the frontier are spilled, not dropped
+			WebCrawler small = new WebCrawler();
+			small.setHostDelay(0);
+			small.setMaxConnectionsPerHost(1);
+			small.setMaxFrontierSize(2);
+			small.setFilter(filter);
+			small.crawl(Arrays.asList(server.getUrl() + "/p0", server.getUrl() + "/p1"));
+			assertEquals(small.getCrawledUrlCount(), 100);
+			assertEquals(transferred.get(), 201);
+		} finally {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void urlHashSet() {
+		UrlHashSet set = new UrlHashSet(4);
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(set.add("http://koczewski.de/" + i));
+		}
+		assertFalse(set.add("http://koczewski.de/500"));
+		assertTrue(set.contains("http://koczewski.de/999"));
+		assertFalse(set.contains("http://koczewski.de/1000"));
+		assertEquals(set.size(), 1000);
+	}
+
+	@Test
+	public void urlValidators() {
+		UrlValidators validators = new UrlValidators(100);
+		for (int i = 0; i < 100; i++) {
+			validators.put("http://koczewski.de/" + i, "e" + i, i);
+		}
+		assertEquals(validators.getEtag("http://koczewski.de/50"), "e50");
+		assertEquals(validators.getLastModified("http://koczewski.de/99"), 99);
+		assertNull(validators.getEtag("http://koczewski.de/100"));
+
+		validators.put("http://koczewski.de/50", "x", 0);
+		assertEquals(validators.getEtag("http://koczewski.de/50"), "x");
+
+		// bounded, new URLs replace others
+		for (int i = 100; i < 1000; i++) {
+			validators.put("http://koczewski.de/" + i, "e" + i, i);
+		}
+		assertEquals(validators.size(), 100);
+		assertEquals(validators.getEtag("http://koczewski.de/999"), "e999");
+	}
+
 	@Test
 	public void crawl() {
 		WebCrawler wc = new WebCrawler();
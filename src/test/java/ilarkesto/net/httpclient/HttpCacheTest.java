@@ -0,0 +1,129 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.net.httpclient;
+
+import ilarkesto.io.IO;
+import ilarkesto.io.nio.httpserver.HttpRequest;
+import ilarkesto.io.nio.httpserver.HttpRequestHandler;
+import ilarkesto.io.nio.httpserver.HttpStatusCode;
+import ilarkesto.testng.ATest;
+import ilarkesto.testng.TestHttpServer;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class HttpCacheTest extends ATest {
+
+	private TestHttpServer server;
+	private String url;
+	private AtomicInteger requestCount = new AtomicInteger();
+
+	@BeforeClass
+	public void startServer() {
+		server = startHttpServer(1, new HttpRequestHandler() {
+
+			@Override
+			public boolean onHttpRequest(HttpRequest request) {
+				requestCount.incrementAndGet();
+				String uri = request.getUri();
+				if ("v1".equals(request.getHeader("if-none-match"))) {
+					request.sendEmptyResponse(HttpStatusCode.NOT_MODIFIED);
+					return true;
+				}
+				request.setResponseHeader("ETag", "v1");
+				if (uri.startsWith("/fresh")) request.setResponseHeader("Cache-Control", "max-age=3600");
+				if (uri.startsWith("/nostore")) request.setResponseHeader("Cache-Control", "no-store");
+				request.sendResponse(HttpStatusCode.OK, "text/plain", "content " + uri);
+				return true;
+			}
+		});
+		url = server.getUrl();
+	}
+
+	@AfterClass
+	public void stopServer() {
+		server.stop();
+	}
+
+	@Test
+	public void fresh() {
+		HttpSession session = createSession("fresh");
+		int before = requestCount.get();
+		assertEquals(session.downloadText(url + "/fresh"), "content /fresh");
+		assertEquals(session.downloadText(url + "/fresh"), "content /fresh");
+		assertEquals(requestCount.get(), before + 1);
+		assertEquals(session.getCache().getHits(), 1);
+		assertEquals(session.getCache().getMisses(), 1);
+	}
+
+	@Test
+	public void revalidate() {
+		HttpSession session = createSession("revalidate");
+		int before = requestCount.get();
+		assertEquals(session.downloadText(url + "/etag"), "content /etag");
+		assertEquals(session.downloadText(url + "/etag"), "content /etag");
+		assertEquals(requestCount.get(), before + 2);
+		assertEquals(session.getCache().getRevalidations(), 1);
+		assertEquals(session.getCache().getHits(), 0);
+	}
+
+	@Test
+	public void noStore() {
+		HttpSession session = createSession("noStore");
+		assertEquals(session.downloadText(url + "/nostore"), "content /nostore");
+		assertEquals(session.getCache().getSize(), 0);
+	}
+
+	@Test
+	public void journal() {
+		File dir = getTestOutputFile("journal");
+		IO.delete(dir);
+		HttpSession session = new HttpSession();
+		session.setCache(new HttpCache(dir));
+		session.downloadText(url + "/fresh/journal");
+
+		session.setCache(new HttpCache(dir));
+		int before = requestCount.get();
+		assertEquals(session.downloadText(url + "/fresh/journal"), "content /fresh/journal");
+		assertEquals(requestCount.get(), before);
+		assertEquals(session.getCache().getHits(), 1);
+	}
+
+	@Test
+	public void eviction() {
+		HttpSession session = createSession("eviction");
+		session.getCache().setMaxCacheSize(50);
+		for (int i = 0; i < 5; i++) {
+			session.downloadText(url + "/evict/" + i);
+		}
+		assertTrue(session.getCache().getEvictions() > 0);
+		assertTrue(session.getCache().getSize() <= 50);
+		assertNotNull(session.getCache().getCachedFile(url + "/evict/4"));
+		assertNull(session.getCache().getCachedFile(url + "/evict/0"));
+	}
+
+	private HttpSession createSession(String name) {
+		File dir = getTestOutputFile(name);
+		IO.delete(dir);
+		HttpSession session = new HttpSession();
+		session.setCache(new HttpCache(dir));
+		return session;
+	}
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.net.httpclientx;
+
+import ilarkesto.concurrent.TaskManager;
+import ilarkesto.core.logging.Log;
+import ilarkesto.di.Context;
+import ilarkesto.io.IO;
+import ilarkesto.io.nio.httpserver.HttpRequest;
+import ilarkesto.io.nio.httpserver.HttpRequestHandler;
+import ilarkesto.io.nio.httpserver.HttpServer;
+import ilarkesto.io.nio.httpserver.HttpStatusCode;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fan-out of many requests against a local <code>HttpServer</code> which answers after a simulated latency. Compares
+ * blocking <code>HttpURLConnection</code> requests with a fixed number of threads against <code>getText()</code> on
+ * one <code>AsyncHttpClient</code>. Not a test, run manually:
+ * <code>AsyncHttpClientBenchmark [requests] [latencyMillis]</code>
+ */
+public class AsyncHttpClientBenchmark {
+
+	private static final Log log = Log.get(AsyncHttpClientBenchmark.class);
+
+	private static final int PORT = 19590;
+	private static final String SERVER_URL = "http://localhost:" + PORT + "/";
+
+	public static void main(String[] args) throws Exception {
+		int requests = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		final int latencyMillis = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+		Context.createRootContext(AsyncHttpClientBenchmark.class.getSimpleName());
+		TaskManager taskManager = new TaskManager();
+		HttpServer server = new HttpServer(PORT, "benchmark", 64);
+		server.addRequestHandler(new HttpRequestHandler() {
+
+			@Override
+			public boolean onHttpRequest(HttpRequest request) {
+				try {
+					Thread.sleep(latencyMillis);
+				} catch (InterruptedException ex) {
+					return false;
+				}
+				request.sendResponse(HttpStatusCode.OK, "application/json", "{\"hello\":\"world\"}");
+				return true;
+			}
+		});
+		server.start(taskManager);
+		Thread.sleep(200);
+
+		for (int threads = 4; threads <= 16; threads *= 2) {
+			runBlocking(requests, threads);
+		}
+		for (int connections = 4; connections <= 64; connections *= 4) {
+			runAsync(requests, connections);
+		}
+
+		server.stop();
+		taskManager.shutdown(1000);
+	}
+
+	private static void runBlocking(final int requests, int threadCount) throws InterruptedException {
+		final AtomicInteger next = new AtomicInteger();
+		long start = System.currentTimeMillis();
+		List<Thread> threads = new ArrayList<Thread>(threadCount);
+		for (int i = 0; i < threadCount; i++) {
+			Thread thread = new Thread() {
+
+				@Override
+				public void run() {
+					while (next.getAndIncrement() < requests) {
+						get();
+					}
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		report("blocking | " + threadCount + " threads", requests, start);
+	}
+
+	private static void runAsync(int requests, int connections) throws Exception {
+		AsyncHttpClient client = new AsyncHttpClient().setMaxConnectionsPerHost(connections);
+		long start = System.currentTimeMillis();
+		List<Future<String>> futures = new ArrayList<Future<String>>(requests);
+		for (int i = 0; i < requests; i++) {
+			futures.add(client.getText(SERVER_URL, null));
+		}
+		for (Future<String> future : futures) {
+			future.get();
+		}
+		report("async | " + connections + " connections | " + client.getOpenedConnectionCount() + " opened", requests,
+			start);
+		client.shutdown();
+	}
+
+	private static void report(String mode, int requests, long start) {
+		long time = System.currentTimeMillis() - start;
+		log.info(mode, "|", requests, "requests in", time, "ms |", (requests * 1000L / Math.max(1, time)),
+			"requests/s");
+	}
+
+	private static String get() {
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection) new URL(SERVER_URL).openConnection();
+			return IO.readToString(connection.getInputStream(), IO.UTF_8);
+		} catch (IOException ex) {
+			throw new HttpException("HTTP request failed: " + SERVER_URL, ex);
+		} finally {
+			if (connection != null) connection.disconnect();
+		}
+	}
+
+}
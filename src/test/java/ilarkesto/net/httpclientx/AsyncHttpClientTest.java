@@ -0,0 +1,194 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.net.httpclientx;
+
+import ilarkesto.async.Callback;
+import ilarkesto.io.IO;
+import ilarkesto.io.nio.httpserver.HttpRequest;
+import ilarkesto.io.nio.httpserver.HttpRequestHandler;
+import ilarkesto.io.nio.httpserver.HttpStatusCode;
+import ilarkesto.json.JsonObject;
+import ilarkesto.testng.ATest;
+import ilarkesto.testng.TestHttpServer;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class AsyncHttpClientTest extends ATest {
+
+	private TestHttpServer server;
+	private String url;
+	private byte[] largeBody;
+
+	@BeforeClass
+	public void startServer() {
+		largeBody = new byte[1024 * 1024];
+		for (int i = 0; i < largeBody.length; i++) {
+			largeBody[i] = (byte) i;
+		}
+		server = startHttpServer(1, new HttpRequestHandler() {
+
+			@Override
+			public boolean onHttpRequest(HttpRequest request) {
+				String uri = request.getUri();
+				if (uri.startsWith("/text")) {
+					request.sendResponse(HttpStatusCode.OK, "text/plain; charset=UTF-8", "hello ä " + uri);
+				} else if (uri.startsWith("/json")) {
+					request.sendResponse(HttpStatusCode.OK, "application/json", "{\"name\":\"ä\",\"items\":[1,2,3]}");
+				} else if (uri.startsWith("/large")) {
+					request.sendResponse(HttpStatusCode.OK, "application/octet-stream", largeBody);
+				} else if (uri.startsWith("/echo")) {
+					request.sendResponse(HttpStatusCode.OK, "text/plain",
+						request.getMethod() + " " + request.getBodyAsString());
+				} else {
+					return false;
+				}
+				return true;
+			}
+		});
+		url = server.getUrl();
+	}
+
+	@AfterClass
+	public void stopServer() {
+		server.stop();
+	}
+
+	@Test
+	public void connectionReuse() throws Exception {
+		AsyncHttpClient client = new AsyncHttpClient().setMaxConnectionsPerHost(4);
+		List<Future<String>> futures = new ArrayList<Future<String>>();
+		for (int i = 0; i < 50; i++) {
+			futures.add(client.getText(url + "/text/" + i, null));
+		}
+		for (int i = 0; i < futures.size(); i++) {
+			assertEquals(futures.get(i).get(10, TimeUnit.SECONDS), "hello ä /text/" + i);
+		}
+		assertTrue(client.getOpenedConnectionCount() <= 4);
+		assertTrue(client.getReusedConnectionCount() >= 46);
+		client.shutdown();
+	}
+
+	@Test
+	public void json() throws Exception {
+		AsyncHttpClient client = new AsyncHttpClient();
+		final AtomicReference<JsonObject> result = new AtomicReference<JsonObject>();
+		final CountDownLatch latch = new CountDownLatch(1);
+		client.getJson(url + "/json", new Callback<JsonObject>() {
+
+			@Override
+			public void onSuccess(JsonObject json) {
+				result.set(json);
+				latch.countDown();
+			}
+
+			@Override
+			public void onError(Throwable error) {
+				latch.countDown();
+			}
+		});
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertEquals(result.get().getString("name"), "ä");
+		assertEquals(result.get().getArrayOfIntegers("items").size(), 3);
+		client.shutdown();
+	}
+
+	@Test
+	public void download() throws Exception {
+		AsyncHttpClient client = new AsyncHttpClient();
+		File file = getTestOutputFile("large.bin");
+		IO.delete(file);
+		assertEquals(client.download(url + "/large", file, null).get(10, TimeUnit.SECONDS), file);
+		assertEquals(IO.readFileToByteArray(file), largeBody);
+		client.shutdown();
+	}
+
+	@Test
+	public void notFound() throws Exception {
+		AsyncHttpClient client = new AsyncHttpClient();
+		final CountDownLatch errors = new CountDownLatch(1);
+		Future<String> future = client.getText(url + "/missing", new Callback<String>() {
+
+			@Override
+			public void onSuccess(String result) {}
+
+			@Override
+			public void onError(Throwable error) {
+				errors.countDown();
+			}
+		});
+		try {
+			future.get(10, TimeUnit.SECONDS);
+			fail("Exception expected");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof HttpException);
+		}
+		assertTrue(errors.await(10, TimeUnit.SECONDS));
+		client.shutdown();
+	}
+
+	@Test
+	public void post() throws Exception {
+		AsyncHttpClient client = new AsyncHttpClient();
+		AsyncHttpRequest request = new AsyncHttpRequest(url + "/echo").setMethod("POST").setBody("a=1+2", IO.UTF_8,
+			"application/x-www-form-urlencoded");
+		assertEquals(client.execute(request, new TextResponseConsumer(), null).get(10, TimeUnit.SECONDS),
+			"POST a=1+2");
+		assertEquals(client.getText(url + "/echo", null).get(10, TimeUnit.SECONDS), "GET ");
+		client.shutdown();
+	}
+
+	@Test
+	public void parserChunkedBytewise() throws Exception {
+		final TextResponseConsumer consumer = new TextResponseConsumer();
+		AsyncHttpResponseParser parser = new AsyncHttpResponseParser(new AsyncHttpResponseParser.Listener() {
+
+			@Override
+			public void onResponseHead(AsyncHttpResponse response) throws Exception {
+				consumer.onResponseStart(response);
+			}
+
+			@Override
+			public void onResponseBody(ByteBuffer data) throws Exception {
+				consumer.onBodyData(data);
+			}
+		});
+		parser.reset(false);
+		byte[] response = ("HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n"
+				+ "Content-Type: text/plain; charset=UTF-8\r\n\r\n2\r\na\u00c3\r\n2;x=y\r\n\u00a4b\r\n0\r\nX-Trailer: 1\r\n\r\n")
+				.getBytes("ISO-8859-1");
+		// the UTF-8 bytes of the umlaut are split between the chunks
+		boolean complete = false;
+		for (int i = 0; i < response.length; i++) {
+			assertFalse(complete);
+			complete = parser.parse(ByteBuffer.wrap(response, i, 1));
+		}
+		assertTrue(complete);
+		assertTrue(parser.isKeepAlive());
+		assertEquals(consumer.onResponseComplete(), "aäb");
+	}
+
+}
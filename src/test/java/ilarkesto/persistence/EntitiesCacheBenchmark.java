@@ -0,0 +1,160 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.persistence;
+
+import ilarkesto.core.base.Factory;
+import ilarkesto.core.logging.Log;
+import ilarkesto.core.persistance.AEntity;
+import ilarkesto.core.persistance.AEntityQuery;
+import ilarkesto.core.persistance.EntitiesBackend;
+import ilarkesto.core.persistance.EntitiesCache;
+import ilarkesto.core.persistance.InMemoryEntitiesBackend;
+import ilarkesto.core.persistance.Persistence;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mixed read/write workload on <code>EntitiesCache</code> and <code>ConcurrentEntitiesCache</code>. Not a test,
+ * run manually: <code>EntitiesCacheBenchmark [threads] [entities] [seconds]</code>
+ */
+public class EntitiesCacheBenchmark {
+
+	private static final Log log = Log.get(EntitiesCacheBenchmark.class);
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		int entities = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+		Persistence.initialize(new Factory<EntitiesBackend>() {
+
+			@Override
+			public EntitiesBackend newInstance() {
+				return new InMemoryEntitiesBackend();
+			}
+		}, new ThreadlocalTransactionManager());
+
+		// warmup
+		run(new EntitiesCache<AEntity>(), threads, entities, 2);
+		run(new ConcurrentEntitiesCache<AEntity>(), threads, entities, 2);
+
+		run(new EntitiesCache<AEntity>(), threads, entities, seconds);
+		run(new ConcurrentEntitiesCache<AEntity>(), threads, entities, seconds);
+	}
+
+	private static void run(final EntitiesCache<AEntity> cache, int threadCount, int entityCount, int seconds)
+			throws InterruptedException {
+		final List<Item> items = new ArrayList<Item>(entityCount);
+		for (int i = 0; i < entityCount; i++) {
+			Item item = new Item(i % 100);
+			items.add(item);
+			cache.add(item);
+		}
+
+		final AtomicLong reads = new AtomicLong();
+		final AtomicLong writes = new AtomicLong();
+		final long endTime = System.currentTimeMillis() + seconds * 1000;
+		long gcCountBefore = getGcCount();
+		long gcTimeBefore = getGcTime();
+
+		List<Thread> threads = new ArrayList<Thread>(threadCount);
+		for (int t = 0; t < threadCount; t++) {
+			Thread thread = new Thread() {
+
+				@Override
+				public void run() {
+					Random random = new Random();
+					while (System.currentTimeMillis() < endTime) {
+						if (random.nextInt(10) == 0) {
+							Item item = items.get(random.nextInt(items.size()));
+							item.group = random.nextInt(100);
+							cache.add(item);
+							writes.incrementAndGet();
+						} else {
+							cache.findFirst(new GroupQuery(random.nextInt(100)));
+							reads.incrementAndGet();
+						}
+					}
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		log.info(cache.getClass().getSimpleName(), "|", threadCount, "threads |", entityCount, "entities |",
+			(reads.get() / seconds), "reads/s |", (writes.get() / seconds), "writes/s |", "GC:",
+			(getGcCount() - gcCountBefore), "collections,", (getGcTime() - gcTimeBefore), "ms");
+	}
+
+	private static long getGcCount() {
+		long sum = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			sum += gc.getCollectionCount();
+		}
+		return sum;
+	}
+
+	private static long getGcTime() {
+		long sum = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			sum += gc.getCollectionTime();
+		}
+		return sum;
+	}
+
+	static class GroupQuery extends AEntityQuery<Item> {
+
+		private int group;
+
+		public GroupQuery(int group) {
+			super();
+			this.group = group;
+		}
+
+		@Override
+		public boolean test(Item item) {
+			return item.group == group;
+		}
+
+		@Override
+		public Class<Item> getType() {
+			return Item.class;
+		}
+	}
+
+	public static class Item extends AEntity {
+
+		private volatile int group;
+
+		public Item(int group) {
+			super();
+			this.group = group;
+		}
+
+		@Override
+		protected String asString() {
+			return String.valueOf(group);
+		}
+	}
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.persistence.file;
+
+import ilarkesto.core.base.Factory;
+import ilarkesto.core.persistance.AEntity;
+import ilarkesto.core.persistance.EntitiesBackend;
+import ilarkesto.core.persistance.InMemoryEntitiesBackend;
+import ilarkesto.core.persistance.Persistence;
+import ilarkesto.core.persistance.Transient;
+import ilarkesto.io.AFileStorage;
+import ilarkesto.io.FileChangeFeed;
+import ilarkesto.io.FileChangeFeed.FileChange;
+import ilarkesto.io.IO;
+import ilarkesto.json.JsonMapper;
+import ilarkesto.json.JsonMapper.TypeResolver;
+import ilarkesto.persistence.ThreadlocalTransactionManager;
+import ilarkesto.testng.ATest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class AJsonFilesEntitiesBackendTest extends ATest {
+
+	@BeforeClass
+	public void init() {
+		Persistence.initialize(new Factory<EntitiesBackend>() {
+
+			@Override
+			public EntitiesBackend newInstance() {
+				return new InMemoryEntitiesBackend();
+			}
+		}, new ThreadlocalTransactionManager());
+	}
+
+	@Test
+	public void reloadChangedFiles() throws Exception {
+		IO.delete(getTestOutputFile("reloadChangedFiles"));
+		AFileStorage storage = getTestFileStorage("reloadChangedFiles");
+
+		Backend backend = new Backend(storage);
+		Car a = new Car().setName("a");
+		Car b = new Car().setName("b");
+		backend.update(Arrays.<AEntity> asList(a, b), null, null, null, "test");
+		FileChangeFeed feed = new FileChangeFeed(storage.getDir());
+		backend.createFileChangeWatchTask();
+
+		// own change, ignored
+		a.setName("a2");
+		backend.update(Arrays.<AEntity> asList(a), null, null, null, "test");
+		// external changes
+		Car external = new Car().setName("external");
+		JsonMapper.serialize(external, storage.getFile("Car/" + external.getId() + ".json"));
+		IO.delete(storage.getFile("Car/" + b.getId() + ".json"));
+
+		List<FileChange> changes = new ArrayList<FileChange>();
+		for (int i = 0; i < 50 && changes.size() < 3; i++) {
+			changes.addAll(feed.take(100, 100));
+		}
+		feed.close();
+		backend.reloadChangedFiles(changes);
+
+		assertEquals(backend.reloadedCount, 1);
+		assertTrue(backend.containsWithId(external.getId()));
+		assertFalse(backend.containsWithId(b.getId()));
+		assertSame(backend.getById(a.getId()), a);
+	}
+
+	@Test
+	public void reloadAllFiles() throws Exception {
+		IO.delete(getTestOutputFile("reloadAllFiles"));
+		AFileStorage storage = getTestFileStorage("reloadAllFiles");
+
+		Backend backend = new Backend(storage);
+		Car a = new Car().setName("a");
+		Car unchanged = new Car().setName("unchanged");
+		TransientCar transientCar = new TransientCar();
+		backend.update(Arrays.<AEntity> asList(a, unchanged, transientCar), null, null, null, "test");
+		backend.createFileChangeWatchTask();
+
+		IO.delete(storage.getFile("Car/" + a.getId() + ".json"));
+		Car external = new Car().setName("external");
+		JsonMapper.serialize(external, storage.getFile("Car/" + external.getId() + ".json"));
+
+		backend.reloadAllFiles();
+		assertFalse(backend.containsWithId(a.getId()));
+		assertEquals(((Car) backend.getById(external.getId())).name, "external");
+		assertSame(backend.getById(unchanged.getId()), unchanged);
+		assertSame(backend.getById(transientCar.getId()), transientCar);
+		assertEquals(backend.reloadedCount, 1);
+
+		// still written by another process
+		Car halfWritten = new Car().setName("halfWritten");
+		File file = storage.getFile("Car/" + halfWritten.getId() + ".json");
+		IO.writeFile(file, "{\"id\": \"" + halfWritten.getId() + "\",", IO.UTF_8);
+		backend.reloadAllFiles();
+		assertFalse(backend.containsWithId(halfWritten.getId()));
+
+		JsonMapper.serialize(halfWritten, file);
+		backend.reloadAllFiles();
+		assertEquals(((Car) backend.getById(halfWritten.getId())).name, "halfWritten");
+	}
+
+	private static class Backend extends AJsonFilesEntitiesBackend {
+
+		private int reloadedCount;
+
+		public Backend(AFileStorage storage) {
+			super(storage, null);
+		}
+
+		@Override
+		protected AEntityJsonFileUpgrades createUpgrader() {
+			return new AEntityJsonFileUpgrades() {
+
+				@Override
+				protected void initialize() {}
+
+			};
+		}
+
+		@Override
+		protected List<Class<? extends AEntity>> getEntityTypes() {
+			List<Class<? extends AEntity>> ret = new ArrayList<Class<? extends AEntity>>();
+			ret.add(Car.class);
+			return ret;
+		}
+
+		@Override
+		protected TypeResolver createTypeResolver() {
+			return TypeResolver.NONE;
+		}
+
+		@Override
+		protected void onEntitiesReloaded(Collection<AEntity> modified, Collection<String> deleted) {
+			reloadedCount += modified.size();
+		}
+
+	}
+
+	public static class TransientCar extends AEntity implements Transient {}
+
+	public static class Car extends AEntity {
+
+		private String name;
+
+		public Car setName(String name) {
+			this.name = name;
+			return this;
+		}
+
+		@Override
+		protected String asString() {
+			return name;
+		}
+	}
+
+}
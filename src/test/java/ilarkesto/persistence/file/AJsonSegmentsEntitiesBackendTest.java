@@ -0,0 +1,208 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.persistence.file;
+
+import ilarkesto.core.base.Factory;
+import ilarkesto.core.persistance.AEntity;
+import ilarkesto.core.persistance.EntitiesBackend;
+import ilarkesto.core.persistance.InMemoryEntitiesBackend;
+import ilarkesto.core.persistance.Persistence;
+import ilarkesto.core.persistance.Transient;
+import ilarkesto.io.AFileStorage;
+import ilarkesto.io.IO;
+import ilarkesto.json.JsonMapper.TypeResolver;
+import ilarkesto.persistence.ThreadlocalTransactionManager;
+import ilarkesto.testng.ATest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class AJsonSegmentsEntitiesBackendTest extends ATest {
+
+	@BeforeClass
+	public void init() {
+		Persistence.initialize(new Factory<EntitiesBackend>() {
+
+			@Override
+			public EntitiesBackend newInstance() {
+				return new InMemoryEntitiesBackend();
+			}
+		}, new ThreadlocalTransactionManager());
+	}
+
+	@Test
+	public void replay() {
+		IO.delete(getTestOutputFile("replay"));
+		AFileStorage storage = getTestFileStorage("replay");
+
+		Backend backend = new Backend(storage, 2);
+		Car a = new Car().setName("a");
+		Car b = new Car().setName("b");
+		save(backend, a, b);
+		save(backend, new Car().setName("c"));
+		backend.update(null, Collections.singleton(b.getId()), null, null, "delete b");
+		a.setName("a2");
+		save(backend, a);
+		backend.close();
+
+		backend = new Backend(storage, 2);
+		assertEquals(backend.getAllAsList().size(), 2);
+		assertEquals(((Car) backend.getById(a.getId())).name, "a2");
+		assertFalse(backend.containsWithId(b.getId()));
+		backend.close();
+	}
+
+	@Test
+	public void compact() {
+		IO.delete(getTestOutputFile("compact"));
+		AFileStorage storage = getTestFileStorage("compact");
+
+		Backend backend = new Backend(storage, 1);
+		for (int i = 0; i < 10; i++) {
+			save(backend, new Car().setName("car" + i));
+		}
+		backend.compact();
+		save(backend, new Car().setName("afterSnapshot"));
+		backend.close();
+
+		assertTrue(storage.getFile("snapshot.log").exists());
+
+		backend = new Backend(storage, 1);
+		assertEquals(backend.getAllAsList().size(), 11);
+		backend.close();
+	}
+
+	@Test
+	public void compactOnRoll() {
+		IO.delete(getTestOutputFile("compactOnRoll"));
+		AFileStorage storage = getTestFileStorage("compactOnRoll");
+
+		Backend backend = new Backend(storage, 1);
+		for (int i = 0; i < 4; i++) {
+			save(backend, new Car().setName("car" + i));
+		}
+		// closing waits for the background compaction started by rolling segment 3
+		backend.close();
+
+		assertTrue(storage.getFile("snapshot.log").exists());
+		assertFalse(storage.getFile("segment-1.log").exists());
+		assertFalse(storage.getFile("segment-2.log").exists());
+		assertTrue(storage.getFile("segment-4.log").exists());
+
+		backend = new Backend(storage, 1);
+		assertEquals(backend.getAllAsList().size(), 4);
+		backend.close();
+	}
+
+	@Test
+	public void transientNotInSnapshot() {
+		IO.delete(getTestOutputFile("transientNotInSnapshot"));
+		AFileStorage storage = getTestFileStorage("transientNotInSnapshot");
+
+		Backend backend = new Backend(storage, 1);
+		Car a = new Car().setName("a");
+		TransientCar transientCar = new TransientCar();
+		save(backend, a, transientCar);
+		assertTrue(backend.containsWithId(transientCar.getId()));
+		backend.compact();
+		backend.close();
+
+		backend = new Backend(storage, 1);
+		assertEquals(backend.getAllAsList().size(), 1);
+		assertEquals(((Car) backend.getById(a.getId())).name, "a");
+		assertFalse(backend.containsWithId(transientCar.getId()));
+		backend.close();
+	}
+
+	@Test
+	public void incompleteRecord() throws Exception {
+		IO.delete(getTestOutputFile("incompleteRecord"));
+		AFileStorage storage = getTestFileStorage("incompleteRecord");
+
+		Backend backend = new Backend(storage, 100);
+		save(backend, new Car().setName("a"));
+		backend.close();
+
+		IO.appendLine(storage.getFile("segment-1.log").getPath(), "{\"modified\":2}\nCar {\"id\": \"x\"}");
+
+		backend = new Backend(storage, 100);
+		assertEquals(backend.getAllAsList().size(), 1);
+		backend.close();
+	}
+
+	private void save(Backend backend, AEntity... entities) {
+		backend.update(Arrays.asList(entities), null, null, null, "test");
+	}
+
+	private static class Backend extends AJsonSegmentsEntitiesBackend {
+
+		private int maxRecordsPerSegment;
+
+		public Backend(AFileStorage storage, int maxRecordsPerSegment) {
+			super(storage);
+			this.maxRecordsPerSegment = maxRecordsPerSegment;
+		}
+
+		@Override
+		protected int getMaxRecordsPerSegment() {
+			return maxRecordsPerSegment;
+		}
+
+		@Override
+		protected int getSegmentsPerSnapshot() {
+			return 2;
+		}
+
+		@Override
+		protected List<Class<? extends AEntity>> getEntityTypes() {
+			List<Class<? extends AEntity>> ret = new ArrayList<Class<? extends AEntity>>();
+			ret.add(Car.class);
+			return ret;
+		}
+
+		@Override
+		protected TypeResolver createTypeResolver() {
+			return TypeResolver.NONE;
+		}
+
+		@Override
+		protected void onEntityChangesSaved(Collection<AEntity> modified, Collection<String> deleted) {}
+
+	}
+
+	public static class TransientCar extends AEntity implements Transient {}
+
+	public static class Car extends AEntity {
+
+		private String name;
+
+		public Car setName(String name) {
+			this.name = name;
+			return this;
+		}
+
+		@Override
+		protected String asString() {
+			return name;
+		}
+	}
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.persistence.git;
+
+import ilarkesto.integration.git.Git;
+import ilarkesto.integration.git.GitProject;
+import ilarkesto.io.IO;
+import ilarkesto.testng.ATest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+public class GitCommitterTest extends ATest {
+
+	@Test
+	public void batching() {
+		File dir = createRepository("batching");
+		GitProject git = new GitProject(new Git(), dir);
+		GitCommitter committer = new GitCommitter(git).setMaxDelay(60000).setMaxBatchSize(1000)
+				.setAddAllOnFirstCommit(false);
+
+		File a = write(dir, "a.json");
+		File b = write(dir, "b.json");
+		write(dir, "untracked.json");
+		committer.add(Arrays.asList(a), "tx 1");
+		committer.add(Arrays.asList(a, b), "tx 2");
+		assertEquals(committer.getQueueDepth(), 2);
+		committer.flush();
+		assertEquals(committer.getQueueDepth(), 0);
+		assertEquals(committer.getCommitCount(), 1);
+		assertEquals(committer.getCommittedTransactionCount(), 2);
+		assertEquals(git(dir, "ls-files").trim(), "a.json\nb.json");
+		assertTrue(git(dir, "log").contains("2 transactions"));
+
+		IO.delete(a);
+		committer.add(Arrays.asList(a), "tx 3");
+		committer.close();
+		assertEquals(git(dir, "ls-files").trim(), "b.json");
+		assertEquals(committer.getCommitCount(), 2);
+
+		// after close, commits happen immediately
+		File c = write(dir, "c.json");
+		committer.add(Collections.singletonList(c), "tx 4");
+		assertEquals(git(dir, "ls-files").trim(), "b.json\nc.json");
+	}
+
+	@Test
+	public void delay() throws InterruptedException {
+		File dir = createRepository("delay");
+		GitProject git = new GitProject(new Git(), dir);
+		GitCommitter committer = new GitCommitter(git).setMaxDelay(100);
+
+		write(dir, "leftover.json");
+		committer.add(Arrays.asList(write(dir, "a.json")), "tx 1");
+		long timeout = System.currentTimeMillis() + 10000;
+		while (committer.getCommitCount() == 0 && System.currentTimeMillis() < timeout) {
+			Thread.sleep(20);
+		}
+		assertEquals(committer.getCommitCount(), 1);
+		// first commit adds all files
+		assertEquals(git(dir, "ls-files").trim(), "a.json\nleftover.json");
+		assertTrue(committer.getLastCommitLag() >= 100);
+		committer.close();
+	}
+
+	@Test
+	public void retryFailedCommit() throws InterruptedException {
+		File dir = createRepository("retry");
+		final AtomicInteger failures = new AtomicInteger(2);
+		GitProject git = new GitProject(new Git(), dir) {
+
+			@Override
+			public void commit(String comment) {
+				if (failures.getAndDecrement() > 0) throw new RuntimeException("commit failed");
+				super.commit(comment);
+			}
+		};
+		GitCommitter committer = new GitCommitter(git).setMaxDelay(60000).setRetryDelay(50, 1000)
+				.setAddAllOnFirstCommit(false);
+
+		committer.add(Arrays.asList(write(dir, "a.json")), "tx 1");
+		committer.flush();
+		assertEquals(committer.getFailedCommitCount(), 1);
+		assertEquals(committer.getQueueDepth(), 1);
+
+		committer.add(Arrays.asList(write(dir, "b.json")), "tx 2");
+		long timeout = System.currentTimeMillis() + 10000;
+		while (committer.getCommitCount() == 0 && System.currentTimeMillis() < timeout) {
+			Thread.sleep(20);
+		}
+		assertEquals(committer.getFailedCommitCount(), 2);
+		assertEquals(committer.getCommitCount(), 1);
+		assertEquals(committer.getCommittedTransactionCount(), 2);
+		assertEquals(committer.getQueueDepth(), 0);
+		assertEquals(git(dir, "ls-files").trim(), "a.json\nb.json");
+		committer.close();
+	}
+
+	private File createRepository(String name) {
+		File dir = getTestOutputFile(name);
+		IO.delete(dir);
+		IO.createDirectory(dir);
+		git(dir, "init");
+		git(dir, "config", "user.email", "test@localhost");
+		git(dir, "config", "user.name", "test");
+		return dir;
+	}
+
+	private static File write(File dir, String name) {
+		File file = new File(dir, name);
+		IO.writeFile(file, "{}", IO.UTF_8);
+		return file;
+	}
+
+	private static String git(File dir, String... parameters) {
+		List<String> command = new ArrayList<String>();
+		command.add("git");
+		command.addAll(Arrays.asList(parameters));
+		try {
+			Process process = new ProcessBuilder(command).directory(dir).redirectErrorStream(true).start();
+			String output = IO.readToString(process.getInputStream(), IO.UTF_8);
+			process.waitFor();
+			return output;
+		} catch (Exception ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.webapp.jsonapi;
+
+import ilarkesto.base.Beans;
+import ilarkesto.base.Reflect;
+import ilarkesto.base.Str;
+import ilarkesto.core.logging.Log;
+import ilarkesto.core.scope.In;
+import ilarkesto.di.BeanContainer;
+import ilarkesto.di.BeanProvider;
+import ilarkesto.json.JsonObject;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Set;
+
+/**
+ * Cost of resolving an API path to an autowired <code>AJsonApi</code> instance: the former per-request
+ * <code>Class.forName()</code> and reflection based autowireing vs. the route table of
+ * <code>ReflectionJsonApiFactory</code>. Not a test, run manually: <code>JsonApiDispatchBenchmark [iterations]</code>
+ */
+public class JsonApiDispatchBenchmark {
+
+	private static final Log log = Log.get(JsonApiDispatchBenchmark.class);
+
+	private static final String[] PACKAGES = { "ilarkesto.webapp", JsonApiDispatchBenchmark.class.getPackage()
+			.getName() };
+
+	private static Object sink;
+
+	public static void main(String[] args) {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		BeanContainer beans = new BeanContainer();
+		for (int i = 0; i < 20; i++) {
+			beans.put("bean" + i, "value" + i);
+		}
+		beans.put("orderService", new Object());
+		beans.put("userService", new Object());
+		beans.put("maxResults", "100");
+
+		ReflectionJsonApiFactory factory = new ReflectionJsonApiFactory(PACKAGES);
+		log.info("Routes:", factory.getRoutes().values());
+
+		for (int round = 0; round < 3; round++) {
+			boolean warmup = round < 2;
+			run("legacy", "orders", beans, iterations / 10, warmup, null);
+			run("legacy", "unknown", beans, iterations / 10, warmup, null);
+			run("routes", "orders", beans, iterations, warmup, factory);
+			run("routes", "unknown", beans, iterations, warmup, factory);
+		}
+	}
+
+	private static void run(String name, String path, BeanProvider beans, int iterations, boolean warmup,
+			ReflectionJsonApiFactory factory) {
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			sink = factory == null ? legacyCreateApi(path, beans) : createApi(factory, path, beans);
+		}
+		long nanos = System.nanoTime() - start;
+		if (warmup) return;
+		log.info(name, path + ":", (nanos / iterations), "ns/request");
+	}
+
+	private static AJsonApi createApi(ReflectionJsonApiFactory factory, String path, BeanProvider beans) {
+		ReflectionJsonApiFactory.Route route = factory.getRoute(path);
+		if (route == null) return null;
+		return beans.autowire(route.newInstance());
+	}
+
+	// --- former implementation ---
+
+	private static AJsonApi legacyCreateApi(String path, BeanProvider beans) {
+		String classSimpleName = path.isEmpty() ? "RootApi" : Str.uppercaseFirstLetter(path) + "Api";
+		for (String pkg : PACKAGES) {
+			String className = pkg + "." + classSimpleName;
+			Class<? extends AJsonApi> type;
+			try {
+				type = Class.forName(className).asSubclass(AJsonApi.class);
+				return legacyAutowire(Reflect.newInstance(type), beans);
+			} catch (ClassNotFoundException ex) {
+				continue;
+			}
+		}
+		return null;
+	}
+
+	private static <T> T legacyAutowire(T bean, final BeanProvider beanProvider) {
+		final Set<String> availableBeanNames = beanProvider.beanNames();
+		for (Method setter : Reflect.getSetters(bean.getClass())) {
+			String propertyName = Reflect.getPropertyNameFromSetter(setter);
+			if (availableBeanNames.contains(propertyName)) {
+				Reflect.invoke(bean, setter, beanProvider.getBean(propertyName));
+			}
+		}
+		Beans.processAnnotations(bean, new Beans.FieldAnnotationHandler() {
+
+			@Override
+			public void handle(Annotation annotation, Field field, Object object) {
+				if (!(annotation instanceof In)) return;
+				String name = field.getName();
+				if (!availableBeanNames.contains(name)) return;
+				field.setAccessible(true);
+				try {
+					field.set(object, beanProvider.getBean(name));
+				} catch (IllegalAccessException ex) {
+					throw new RuntimeException(ex);
+				}
+			}
+		});
+		return bean;
+	}
+
+}
+
+class OrdersApi extends AJsonApi {
+
+	@In
+	private Object orderService;
+
+	@In
+	private Object userService;
+
+	private String maxResults;
+
+	public OrdersApi() {}
+
+	public void setMaxResults(String maxResults) {
+		this.maxResults = maxResults;
+	}
+
+	@Override
+	protected void onGet(JsonObject json, String path) {
+		json.put("maxResults", maxResults);
+		json.put("services", orderService != null && userService != null);
+	}
+
+}